@@ -0,0 +1,626 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.mpatric.mp3agic.Mp3File;
+
+/**
+ * Benchmark Suite Class
+ * Measures the hot paths of the player on synthetic mp3 files it creates itself, so it
+ * runs offline: reading a song, loading playlists of 10, 1k and 10k entries, seeking
+ * to different positions of a file, decoding without an audio device, the garbage the audio
+ * threads make while a song plays, making waveforms and editing a play queue of a million songs.
+ * Every benchmark is warmed up first, the results are printed and written as json in
+ * the layout JMH uses so runs of different versions can be compared.
+ *
+ * Run with:
+ *   javac -cp "lib/*" -d out src/*.java bench/*.java
+ *   java -cp "out:lib/*" BenchmarkSuite [filter] [-o results.json]
+ * @author abhinavk
+ */
+public class BenchmarkSuite {
+    private static final File FIXTURES = new File("bench/fixtures");
+    private static final int WARMUP_ITERATIONS = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 10);
+
+    // 99.9% confidence like JMH reports, normal approximation
+    private static final double CONFIDENCE_Z = 3.29;
+
+    private final List<Result> results = new ArrayList<>();
+    private final String filter;
+
+    interface Task {
+        /**
+         * Method that runs one iteration
+         * @return the number of operations the iteration did
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Result of one benchmark
+     */
+    static class Result {
+        final String benchmark;
+        final String mode;
+        final Map<String, String> params;
+        final double score;
+        final double scoreError;
+        final String unit;
+        final double[] rawData;
+
+        Result(String benchmark, String mode, Map<String, String> params, double[] rawData, String unit) {
+            this.benchmark = benchmark;
+            this.mode = mode;
+            this.params = params;
+            this.rawData = rawData;
+            this.unit = unit;
+
+            double sum = 0;
+            for(double value : rawData) {
+                sum += value;
+            }
+            score = sum / rawData.length;
+            double squares = 0;
+            for(double value : rawData) {
+                squares += (value - score) * (value - score);
+            }
+            double deviation = rawData.length > 1 ? Math.sqrt(squares / (rawData.length - 1)) : 0;
+            scoreError = CONFIDENCE_Z * deviation / Math.sqrt(rawData.length);
+        }
+    }
+
+    private BenchmarkSuite(String filter) {
+        this.filter = filter;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = "";
+        File output = new File("bench/results/results-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-o") && i + 1 < args.length) {
+                output = new File(args[++i]);
+            }else {
+                filter = args[i];
+            }
+        }
+
+        // keep the benchmark away from the user's library cache, start cold every run
+        File cacheDirectory = new File(FIXTURES, "cache");
+        new File(cacheDirectory, "library.cache").delete();
+        System.setProperty("musicplayer.cache.dir", cacheDirectory.getPath());
+
+        BenchmarkSuite suite = new BenchmarkSuite(filter);
+        suite.songBenchmarks();
+        suite.libraryBenchmarks();
+        suite.playlistBenchmarks();
+        suite.seekBenchmarks();
+        suite.decodeBenchmarks();
+        suite.replayBenchmarks();
+        suite.pipelineBenchmarks();
+        suite.crossfadeBenchmarks();
+        suite.queueBenchmarks();
+        suite.waveformBenchmarks();
+        suite.loudnessBenchmarks();
+        suite.writeJson(output);
+        System.out.println("results written to " + output.getPath());
+    }
+
+    /**
+     * Reading the metadata of a song, with and without the library cache
+     */
+    private void songBenchmarks() throws Exception {
+        File[] library = Mp3Fixtures.createLibrary(new File(FIXTURES, "library"), 200, 2_000);
+        if(benchmarkSelected("song.readMetadata"))
+            checkMetadata();
+
+        measure("song.readMetadata", "avgt", Map.of(), TimeUnit.MICROSECONDS, () -> {
+            for(File file : library) {
+                Mp3Metadata.read(file.getPath());
+            }
+            return library.length;
+        });
+        measure("song.construct", "avgt", Map.of(), TimeUnit.MICROSECONDS, () -> {
+            for(File file : library) {
+                new Song(file.getPath());
+            }
+            return library.length;
+        });
+    }
+
+    /**
+     * Method that compares the metadata reader with mp3agic, which the player used before, on cbr and vbr
+     * files with and without a header, one of them only changes its bitrate after the first frames.
+     * The average bitrate of a file with a header comes from its byte count, so its length can be a millisecond off
+     */
+    private void checkMetadata() throws Exception {
+        File directory = new File(FIXTURES, "metadata");
+        File[] files = {
+            Mp3Fixtures.create(directory, "cbr-info.mp3", 3_000, false, true),
+            Mp3Fixtures.create(directory, "cbr-plain.mp3", 3_001, false, false),
+            Mp3Fixtures.create(directory, "vbr-xing.mp3", 3_002, true, true),
+            Mp3Fixtures.create(directory, "vbr-plain.mp3", 3_003, true, false),
+            Mp3Fixtures.create(directory, "vbr-plain-late.mp3", 3_004, true, false, 100)
+        };
+        for(File file : files) {
+            Mp3File expected = new Mp3File(file.getPath());
+            Mp3Metadata metadata = Mp3Metadata.read(file.getPath());
+            if(metadata.getFrameCount() != expected.getFrameCount() || Math.abs(metadata.getLengthInMilliseconds() - expected.getLengthInMilliseconds()) > 1
+                    || metadata.getBitrate() != expected.getBitrate() || metadata.isVbr() != expected.isVbr()) {
+                System.err.printf("Metadata of %s differs from mp3agic: %d frames, %d ms, %d kbps instead of %d frames, %d ms, %d kbps%n",
+                        file.getName(), metadata.getFrameCount(), metadata.getLengthInMilliseconds(), metadata.getBitrate(),
+                        expected.getFrameCount(), expected.getLengthInMilliseconds(), expected.getBitrate());
+            }
+        }
+    }
+
+    /**
+     * Scanning a music folder where every file is already in the library cache
+     */
+    private void libraryBenchmarks() throws Exception {
+        File[] library = Mp3Fixtures.createLibrary(new File(FIXTURES, "library"), 200, 2_000);
+
+        measure("library.scan", "thrpt", Map.of(), TimeUnit.SECONDS, () -> {
+            CountDownLatch finished = new CountDownLatch(1);
+            new LibraryScanner(List.of(new File(FIXTURES, "library")), new LibraryScanner.Listener() {
+                @Override
+                public void songFound(Song song) {
+                }
+
+                @Override
+                public void songFailed(String songPath, Exception e) {
+                    System.err.println("Skipping " + songPath + ": " + e.getMessage());
+                }
+
+                @Override
+                public void progressUpdated(LibraryScanner.Progress progress) {
+                }
+
+                @Override
+                public void scanFinished(LibraryScanner.Progress progress) {
+                    finished.countDown();
+                }
+            }).start();
+            finished.await();
+            return library.length;
+        });
+    }
+
+    /**
+     * Loading playlists the way MusicPlayer.loadPlaylist does, without the gui
+     */
+    private void playlistBenchmarks() throws Exception {
+        File[] library = Mp3Fixtures.createLibrary(new File(FIXTURES, "library"), 200, 2_000);
+        for(String format : new String[] {"txt", "m3u", "mpl"}) {
+            for(int entries : new int[] {10, 1_000, 10_000}) {
+                File playlist = Mp3Fixtures.createPlaylist(FIXTURES, library, entries, format);
+                Map<String, String> params = new LinkedHashMap<>();
+                params.put("format", format);
+                params.put("entries", String.valueOf(entries));
+                long[] firstSongNanos = new long[1];
+
+                measure("playlist.load", "avgt", params, TimeUnit.MILLISECONDS, () -> {
+                    loadPlaylist(playlist);
+                    return 1;
+                });
+
+                // playback starts with the first song, this is the wait the user sees
+                measure("playlist.firstSong", "avgt", params, TimeUnit.MILLISECONDS, () -> {
+                    firstSongNanos[0] = loadPlaylist(playlist);
+                    return 1;
+                }, () -> firstSongNanos[0]);
+            }
+        }
+    }
+
+    /**
+     * Method that loads a playlist and waits for it
+     * @return how long it took until the first song was ready in nanoseconds
+     */
+    private static long loadPlaylist(File playlist) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(1);
+        long start = System.nanoTime();
+        long[] firstSong = new long[1];
+        new PlaylistLoader(playlist, new PlaylistLoader.Listener() {
+            @Override
+            public void songLoaded(Song song) {
+                if(firstSong[0] == 0)
+                    firstSong[0] = System.nanoTime() - start;
+            }
+
+            @Override
+            public void songFailed(String songPath, Exception e) {
+                System.err.println("Skipping " + songPath + ": " + e.getMessage());
+            }
+
+            @Override
+            public void progressUpdated(int processed, int total) {
+            }
+
+            @Override
+            public void loadingFinished(int loaded, int failed) {
+                finished.countDown();
+            }
+        }).start();
+        finished.await();
+        return firstSong[0];
+    }
+
+    /**
+     * Time until the first frame after a seek is decoded, at different positions of a long file
+     */
+    private void seekBenchmarks() throws Exception {
+        // one hour long mix at 128 kbps
+        File file = Mp3Fixtures.create(FIXTURES, "seek-60min.mp3", 137_800, false, true);
+        Song song = new Song(file.getPath(), Mp3Metadata.read(file.getPath()));
+        song.getFrameIndex();
+
+        for(int percent : new int[] {0, 25, 50, 75, 99}) {
+            int frame = (int) ((long) song.getFrameCount() * percent / 100);
+            measure("seek.firstFrame", "avgt", Map.of("position", percent + "%"), TimeUnit.MICROSECONDS, () -> {
+                for(int i = 0; i < 20; i++) {
+                    try (TrackDecoder decoder = new TrackDecoder(song, frame)) {
+                        decoder.readFrame();
+                    }
+                }
+                return 20;
+            });
+        }
+    }
+
+    /**
+     * Raw decode speed without an audio device
+     */
+    private void decodeBenchmarks() throws Exception {
+        for(boolean vbr : new boolean[] {false, true}) {
+            // ten minutes of audio
+            File file = Mp3Fixtures.create(FIXTURES, "decode-10min-" + (vbr ? "vbr" : "cbr") + ".mp3", 22_970, vbr, true);
+            Song song = new Song(file.getPath(), Mp3Metadata.read(file.getPath()));
+
+            measure("decode.frames", "thrpt", Map.of("encoding", vbr ? "vbr" : "cbr"), TimeUnit.SECONDS, () -> {
+                long frames = 0;
+                try (TrackDecoder decoder = new TrackDecoder(song, 0)) {
+                    while(decoder.readFrame()) {
+                        frames++;
+                    }
+                }
+                return frames;
+            });
+        }
+    }
+
+    /**
+     * Replaying a song that is in the pcm cache
+     */
+    private void replayBenchmarks() throws Exception {
+        // one minute of audio, small enough to stay in the default cache budget
+        File file = Mp3Fixtures.create(FIXTURES, "replay-1min.mp3", 2_300, false, true);
+        Song song = new Song(file.getPath(), Mp3Metadata.read(file.getPath()));
+
+        measure("decode.replay", "thrpt", Map.of(), TimeUnit.SECONDS, () -> {
+            long frames = 0;
+            try (TrackDecoder decoder = new TrackDecoder(song, 0)) {
+                while(decoder.readFrame()) {
+                    frames++;
+                }
+            }
+            return frames;
+        });
+    }
+
+    /**
+     * Bytes the decoder and output threads allocate per frame while a cached song plays to a null device,
+     * counted from the 100th frame so opening the song isn't
+     */
+    private void pipelineBenchmarks() throws Exception {
+        File file = Mp3Fixtures.create(FIXTURES, "replay-1min.mp3", 2_300, false, true);
+        Song song = new Song(file.getPath(), Mp3Metadata.read(file.getPath()));
+        PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+        if(!metrics.isEnabled() || !benchmarkSelected("playback.alloc"))
+            return;
+
+        PlaybackClock clock = new PlaybackClock(Runnable::run);
+        CountDownLatch[] finished = new CountDownLatch[1];
+        PlaybackEngine engine = new PlaybackEngine(clock, () -> new ClockedAudioDevice(clock, new NullAudioDevice()), new PlaybackEngine.Listener() {
+            @Override
+            public void stateChanged(PlaybackEngine.State state, boolean atEnd) {
+                if(atEnd)
+                    finished[0].countDown();
+            }
+
+            @Override
+            public void songChanged(Song song, int playlistIndex) {
+            }
+
+            @Override
+            public void songsInserted(List<Song> songs, int playlistIndex) {
+            }
+        });
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] audioThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("playback-engine") || thread.getName().equals("audio-output"))
+                .mapToLong(Thread::getId).toArray();
+
+        measureAllocation("playback.alloc", Map.of(), () -> {
+            finished[0] = new CountDownLatch(1);
+            long firstFrame = metrics.getDecodedFrames() + 100;
+            engine.load(List.of(song), 0);
+            while(metrics.getDecodedFrames() < firstFrame && finished[0].getCount() > 0) {
+                Thread.sleep(1);
+            }
+            long bytes = allocatedBytes(threads, audioThreads);
+            long frames = metrics.getDecodedFrames();
+            finished[0].await();
+            return (double) (allocatedBytes(threads, audioThreads) - bytes) / Math.max(1, metrics.getDecodedFrames() - frames);
+        });
+        engine.stop();
+    }
+
+    /**
+     * Frames per second through a crossfade: the playing song is decoded, the next one is decoded and mixed in,
+     * to compare with decode.frames
+     */
+    private void crossfadeBenchmarks() throws Exception {
+        File playing = Mp3Fixtures.create(FIXTURES, "decode-10min-cbr.mp3", 22_970, false, true);
+        File next = Mp3Fixtures.create(FIXTURES, "decode-10min-vbr.mp3", 22_970, true, true);
+        Song playingSong = new Song(playing.getPath(), Mp3Metadata.read(playing.getPath()));
+        Song nextSong = new Song(next.getPath(), Mp3Metadata.read(next.getPath()));
+        CrossfadeMixer mixer = new CrossfadeMixer();
+        GainStage nextGain = new GainStage();
+
+        measure("crossfade.overlap", "thrpt", Map.of(), TimeUnit.SECONDS, () -> {
+            long frames = 0;
+            try (TrackDecoder playingDecoder = new TrackDecoder(playingSong, 0); TrackDecoder nextDecoder = new TrackDecoder(nextSong, 0)) {
+                while(playingDecoder.readFrame()) {
+                    if(frames++ == 0)
+                        mixer.start((long) playingSong.getFrameCount() * playingSong.getMetadata().getSamplesPerFrame(), playingDecoder.getChannels());
+                    mixer.mix(playingDecoder.getSamples(), playingDecoder.getSampleCount(), nextDecoder, nextGain);
+                }
+            }
+            return frames;
+        });
+    }
+
+    /**
+     * Edits, shuffled draws, saving and restoring of a play queue of a million entries
+     */
+    private void queueBenchmarks() throws Exception {
+        File songFile = Mp3Fixtures.createLibrary(new File(FIXTURES, "library"), 200, 2_000)[0];
+        Song song = new Song(songFile.getPath(), Mp3Metadata.read(songFile.getPath()));
+        int size = 1_000_000;
+        PlayQueue queue = new PlayQueue();
+        queue.addAll(Collections.nCopies(size, song));
+        queue.jump(0);
+        Map<String, String> params = Map.of("size", String.valueOf(size));
+        Random random = new Random(42);
+        int operations = 10_000;
+
+        // a play next, a move, a remove and a jump each round, the size stays the same
+        measure("queue.edit", "avgt", params, TimeUnit.NANOSECONDS, () -> {
+            for(int i = 0; i < operations; i += 4) {
+                queue.playNext(List.of(song));
+                queue.move(new int[] {random.nextInt(queue.size())}, random.nextInt(queue.size() + 1));
+                queue.remove(new int[] {random.nextInt(queue.size())});
+                queue.jump(random.nextInt(queue.size()));
+            }
+            return operations;
+        });
+
+        measure("queue.shuffle", "thrpt", params, TimeUnit.SECONDS, () -> {
+            queue.setShuffle(true, random.nextLong());
+            for(int i = 0; i < operations; i++) {
+                queue.advance(false);
+            }
+            return operations;
+        });
+
+        File queueFile = new File(FIXTURES, "cache/queue-bench.mpq");
+        measure("queue.save", "avgt", params, TimeUnit.MILLISECONDS, () -> {
+            queue.snapshot().write(queueFile);
+            return 1;
+        });
+        measure("queue.restore", "avgt", params, TimeUnit.MILLISECONDS, () -> {
+            PlayQueue.read(queueFile);
+            return 1;
+        });
+        queueFile.delete();
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads, long[] ids) {
+        long bytes = 0;
+        for(long allocated : threads.getThreadAllocatedBytes(ids)) {
+            bytes += allocated;
+        }
+        return bytes;
+    }
+
+    /**
+     * Waveform generation speed on one thread and on every core
+     */
+    private void waveformBenchmarks() throws Exception {
+        File file = Mp3Fixtures.create(FIXTURES, "decode-10min-cbr.mp3", 22_970, false, true);
+        Song song = new Song(file.getPath(), Mp3Metadata.read(file.getPath()));
+        song.getFrameIndex();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for(int threads : cores > 1 ? new int[] {1, cores} : new int[] {1}) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads, PlaylistLoader.daemonThreadFactory("bench-waveform"));
+            try {
+                measure("waveform.generate", "thrpt", Map.of("threads", String.valueOf(threads)), TimeUnit.SECONDS, () -> {
+                    Waveform.generate(song, pool, null).whenDone().get();
+                    return song.getFrameCount();
+                });
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Loudness metering and the replay gain stage, per 1152 sample stereo frame of a 1 kHz tone
+     */
+    private void loudnessBenchmarks() throws Exception {
+        short[] frame = new short[1152 * 2];
+        for(int i = 0; i < 1152; i++) {
+            frame[2 * i] = frame[2 * i + 1] = (short) (20_000 * Math.sin(2 * Math.PI * 1000 * i / 44100.0));
+        }
+        short[] samples = new short[frame.length];
+        int frames = 10_000;
+
+        measure("loudness.meter", "thrpt", Map.of(), TimeUnit.SECONDS, () -> {
+            LoudnessAnalyzer.Meter meter = new LoudnessAnalyzer.Meter(44100, 2);
+            for(int i = 0; i < frames; i++) {
+                meter.add(frame, frame.length);
+            }
+            meter.getLoudness();
+            return frames;
+        });
+
+        // a boost that makes the limiter work on every frame
+        GainStage gainStage = new GainStage();
+        gainStage.setGain(2);
+        measure("gain.process", "avgt", Map.of(), TimeUnit.NANOSECONDS, () -> {
+            for(int i = 0; i < frames; i++) {
+                System.arraycopy(frame, 0, samples, 0, frame.length);
+                gainStage.process(samples, samples.length, 2, 44100);
+            }
+            return frames;
+        });
+    }
+
+    private void measure(String benchmark, String mode, Map<String, String> params, TimeUnit unit, Task task) throws Exception {
+        measure(benchmark, mode, params, unit, task, null);
+    }
+
+    /**
+     * Method that warms a task up and measures it
+     * avgt results are in time per operation, thrpt results in operations per time unit
+     * @param nanosOverride when set, reports the time it returns instead of the iteration time
+     */
+    private void measure(String benchmark, String mode, Map<String, String> params, TimeUnit unit, Task task, NanosSource nanosOverride) throws Exception {
+        if(!benchmark.contains(filter))
+            return;
+
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        double unitNanos = unit.toNanos(1);
+        double[] rawData = new double[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long operations = Math.max(1, task.run());
+            long nanos = nanosOverride != null ? nanosOverride.nanos() : System.nanoTime() - start;
+            rawData[i] = mode.equals("thrpt") ? operations / (nanos / unitNanos) : nanos / unitNanos / operations;
+        }
+
+        Result result = new Result(benchmark, mode, new LinkedHashMap<>(params), rawData, unitName(mode, unit));
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-20s %-18s %-6s %14.3f +- %10.3f %s%n", benchmark, params.isEmpty() ? "" : params.toString(), mode, result.score, result.scoreError, result.unit);
+    }
+
+    interface AllocationTask {
+        /**
+         * Method that runs one iteration
+         * @return the bytes allocated per operation
+         */
+        double run() throws Exception;
+    }
+
+    /**
+     * Method that warms a task up and reports the bytes it allocated per operation
+     */
+    private void measureAllocation(String benchmark, Map<String, String> params, AllocationTask task) throws Exception {
+        if(!benchmarkSelected(benchmark))
+            return;
+
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        double[] rawData = new double[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++) {
+            rawData[i] = task.run();
+        }
+
+        Result result = new Result(benchmark, "avgt", new LinkedHashMap<>(params), rawData, "B/op");
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-20s %-18s %-6s %14.3f +- %10.3f %s%n", benchmark, params.isEmpty() ? "" : params.toString(), "avgt", result.score, result.scoreError, result.unit);
+    }
+
+    private boolean benchmarkSelected(String benchmark) {
+        return benchmark.contains(filter);
+    }
+
+    interface NanosSource {
+        long nanos();
+    }
+
+    private static String unitName(String mode, TimeUnit unit) {
+        String name;
+        switch(unit) {
+            case SECONDS: name = "s"; break;
+            case MILLISECONDS: name = "ms"; break;
+            case MICROSECONDS: name = "us"; break;
+            default: name = "ns"; break;
+        }
+        return mode.equals("thrpt") ? "ops/" + name : name + "/op";
+    }
+
+    /**
+     * Method that writes the results in the json layout of JMH
+     */
+    private void writeJson(File output) throws IOException {
+        File directory = output.getAbsoluteFile().getParentFile();
+        if(directory != null)
+            directory.mkdirs();
+
+        try (PrintWriter out = new PrintWriter(output, StandardCharsets.UTF_8)) {
+            out.println("[");
+            for(int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                out.println("    {");
+                out.println("        \"benchmark\" : \"" + result.benchmark + "\",");
+                out.println("        \"mode\" : \"" + result.mode + "\",");
+                out.println("        \"jvm\" : \"" + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + "\",");
+                out.println("        \"warmupIterations\" : " + WARMUP_ITERATIONS + ",");
+                out.println("        \"measurementIterations\" : " + ITERATIONS + ",");
+                out.print("        \"params\" : {");
+                int p = 0;
+                for(Map.Entry<String, String> param : result.params.entrySet()) {
+                    out.print((p++ > 0 ? ", " : " ") + "\"" + param.getKey() + "\" : \"" + param.getValue() + "\"");
+                }
+                out.println(p > 0 ? " }," : "},");
+                out.println("        \"primaryMetric\" : {");
+                out.println("            \"score\" : " + number(result.score) + ",");
+                out.println("            \"scoreError\" : " + number(result.scoreError) + ",");
+                out.println("            \"scoreUnit\" : \"" + result.unit + "\",");
+                StringBuilder rawData = new StringBuilder();
+                for(double value : result.rawData) {
+                    rawData.append(rawData.length() > 0 ? ", " : "").append(number(value));
+                }
+                out.println("            \"rawData\" : [ [ " + rawData + " ] ]");
+                out.println("        }");
+                out.println(i + 1 < results.size() ? "    }," : "    }");
+            }
+            out.println("]");
+        }
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
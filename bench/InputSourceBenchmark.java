@@ -0,0 +1,118 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+
+/**
+ * Input Source Benchmark Class
+ * Plays a song the way a user does, a number of seeks and resumes that each decode a few
+ * seconds, and counts the file opens, reads and copies it takes with the old
+ * BufferedInputStream over a FileInputStream and with both modes of Mp3InputSource
+ *
+ * Run with:
+ *   javac -cp "lib/*" -d out src/*.java bench/*.java
+ *   java -cp "out:lib/*" InputSourceBenchmark
+ * @author abhinavk
+ */
+public class InputSourceBenchmark {
+    private static final int SEEKS = 50;
+    private static final int FRAMES_PER_SEEK = 200;
+
+    // counters for the old path
+    private static long legacyOpens;
+    private static long legacyReads;
+    private static long legacyCopies;
+
+    public static void main(String[] args) throws Exception {
+        // one hour long mix at 128 kbps
+        File file = Mp3Fixtures.create(new File("bench/fixtures"), "seek-60min.mp3", 137_800, false, true);
+        Song song = new Song(file.getPath(), Mp3Metadata.read(file.getPath()));
+        FrameIndex frameIndex = song.getFrameIndex();
+
+        // same seek positions for every run
+        int[] frames = new int[SEEKS];
+        Random random = new Random(42);
+        for(int i = 0; i < SEEKS; i++) {
+            frames[i] = random.nextInt(frameIndex.getFrameCount() - FRAMES_PER_SEEK);
+        }
+
+        System.out.println("mode       opens    reads   copies   time (ms)");
+        for(int round = 0; round < 2; round++) {
+            // the first round warms up
+            boolean print = round == 1;
+
+            legacyOpens = legacyReads = legacyCopies = 0;
+            long start = System.nanoTime();
+            for(int frame : frames) {
+                try (InputStream in = openLegacy(file, frameIndex.getOffset(frame))) {
+                    decode(new Bitstream(in));
+                }
+            }
+            if(print)
+                report("buffered", legacyOpens, legacyReads, legacyCopies, start);
+
+            for(Mp3InputSource.Mode mode : Mp3InputSource.Mode.values()) {
+                Mp3InputSource.resetCounters();
+                start = System.nanoTime();
+
+                // one source for all seeks of the song like the player does
+                Mp3InputSource source = Mp3InputSource.open(file.getPath(), mode);
+                for(int frame : frames) {
+                    try (InputStream in = source.openStream(frameIndex.getOffset(frame))) {
+                        decode(new Bitstream(in));
+                    }
+                }
+                source.release();
+                if(print)
+                    report(mode.name().toLowerCase(), Mp3InputSource.getFileOpens(), Mp3InputSource.getReadCalls(), Mp3InputSource.getCopyCalls(), start);
+            }
+        }
+    }
+
+    /**
+     * Method that opens the file the way playback used to, with a counting FileInputStream
+     */
+    private static InputStream openLegacy(File file, long offset) throws IOException {
+        FileInputStream in = new FileInputStream(file) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                legacyReads++;
+                return super.read(b, off, len);
+            }
+        };
+        legacyOpens++;
+        in.getChannel().position(offset);
+        return new BufferedInputStream(in) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) throws IOException {
+                // the old path copies from the file into the buffer and from the buffer to the decoder
+                legacyCopies++;
+                return super.read(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Method that decodes a few seconds from the stream
+     */
+    private static void decode(Bitstream bitstream) throws Exception {
+        Decoder decoder = new Decoder();
+        for(int i = 0; i < FRAMES_PER_SEEK; i++) {
+            Header header = bitstream.readFrame();
+            if(header == null)
+                break;
+            decoder.decodeFrame(header, bitstream);
+            bitstream.closeFrame();
+        }
+    }
+
+    private static void report(String mode, long opens, long reads, long copies, long start) {
+        System.out.printf("%-9s %6d %8d %8d %11.1f%n", mode, opens, reads, copies, (System.nanoTime() - start) / 1e6);
+    }
+}
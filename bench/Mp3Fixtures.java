@@ -0,0 +1,238 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mp3 Fixtures Class
+ * Writes synthetic mp3 files so the benchmarks can run offline. The files are made of
+ * silent MPEG-1 Layer III frames (44.1 kHz stereo) with an ID3v2 tag and optionally a
+ * LAME Info/Xing header, which is enough for the metadata reader and the decoder.
+ * @author abhinavk
+ */
+public class Mp3Fixtures {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int[] BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    // bitrate index of 128 kbps
+    private static final int CBR_BITRATE_INDEX = 9;
+
+    /**
+     * Method that writes a fixture file, existing files with the same name are reused
+     * @param directory the directory to write to
+     * @param name the file name
+     * @param frameCount the number of audio frames
+     * @param vbr true to change the bitrate from frame to frame
+     * @param xingHeader true to write a LAME Xing/Info header frame
+     * @return the file
+     * @throws IOException if the file can't be written
+     */
+    public static File create(File directory, String name, int frameCount, boolean vbr, boolean xingHeader) throws IOException {
+        return create(directory, name, frameCount, vbr, xingHeader, 0);
+    }
+
+    /**
+     * Method that writes a fixture file whose bitrate only starts to change after a number of frames
+     * @param directory the directory to write to
+     * @param name the file name
+     * @param frameCount the number of audio frames
+     * @param vbr true to change the bitrate from frame to frame
+     * @param xingHeader true to write a LAME Xing/Info header frame
+     * @param constantFrames the number of frames at the start that have the same bitrate
+     * @return the file
+     * @throws IOException if the file can't be written
+     */
+    public static File create(File directory, String name, int frameCount, boolean vbr, boolean xingHeader, int constantFrames) throws IOException {
+        directory.mkdirs();
+        File file = new File(directory, name);
+        if(file.isFile())
+            return file;
+
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        Random random = new Random(frameCount);
+        int paddingRemainder = 0;
+        for(int i = 0; i < frameCount; i++) {
+            int bitrateIndex = vbr && i >= constantFrames ? 5 + random.nextInt(9) : CBR_BITRATE_INDEX;
+
+            // add a padding byte whenever the fractional frame length adds up to one
+            paddingRemainder += 144000 * BITRATES[bitrateIndex] % SAMPLE_RATE;
+            boolean padding = paddingRemainder >= SAMPLE_RATE;
+            if(padding)
+                paddingRemainder -= SAMPLE_RATE;
+            audio.write(frame(bitrateIndex, padding));
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            writeId3v2Tag(out, name, "Fixture Artist");
+            if(xingHeader)
+                out.write(xingFrame(vbr, frameCount, audio.size()));
+            audio.writeTo(out);
+        }
+        return file;
+    }
+
+    /**
+     * Method that writes a playlist file with the same song repeated
+     * @param directory the directory to write to
+     * @param songFile the song that every entry points to
+     * @param entries the number of entries
+     * @return the playlist file
+     * @throws IOException if the file can't be written
+     */
+    public static File createPlaylist(File directory, File songFile, int entries) throws IOException {
+        directory.mkdirs();
+        File file = new File(directory, "playlist-" + entries + ".txt");
+        if(file.isFile())
+            return file;
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            byte[] line = (songFile.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8);
+            for(int i = 0; i < entries; i++) {
+                out.write(line);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Method that writes a playlist file that goes through a list of songs over and over
+     * @param directory the directory to write to
+     * @param songFiles the songs the entries point to
+     * @param entries the number of entries
+     * @return the playlist file
+     * @throws IOException if the file can't be written
+     */
+    public static File createPlaylist(File directory, File[] songFiles, int entries) throws IOException {
+        return createPlaylist(directory, songFiles, entries, "txt");
+    }
+
+    /**
+     * Method that writes a playlist file in one of the formats the player reads
+     * @param directory the directory to write to
+     * @param songFiles the songs the entries point to
+     * @param entries the number of entries
+     * @param format txt, m3u or mpl
+     * @return the playlist file
+     * @throws IOException if the file can't be written
+     */
+    public static File createPlaylist(File directory, File[] songFiles, int entries, String format) throws IOException {
+        directory.mkdirs();
+        File file = new File(directory, "library-playlist-" + songFiles.length + "-" + entries + "." + format);
+        if(file.isFile())
+            return file;
+
+        if(format.equals("mpl")) {
+            List<Song> songs = new ArrayList<>(entries);
+            for(int i = 0; i < entries; i++) {
+                String songPath = songFiles[i % songFiles.length].getAbsolutePath();
+                songs.add(new Song(songPath, Mp3Metadata.read(songPath)));
+            }
+            BinaryPlaylist.write(file, songs);
+            return file;
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            boolean m3u = format.equals("m3u");
+            if(m3u)
+                out.write("#EXTM3U\n".getBytes(StandardCharsets.UTF_8));
+            for(int i = 0; i < entries; i++) {
+                File songFile = songFiles[i % songFiles.length];
+                if(m3u)
+                    out.write(("#EXTINF:-1," + songFile.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+                out.write((songFile.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Method that creates a number of different songs, every other one is vbr
+     * @param directory the directory to write to
+     * @param count the number of songs
+     * @param frameCount the number of audio frames of every song
+     * @return the song files
+     * @throws IOException if a file can't be written
+     */
+    public static File[] createLibrary(File directory, int count, int frameCount) throws IOException {
+        File[] files = new File[count];
+        for(int i = 0; i < count; i++) {
+            files[i] = create(directory, String.format("song-%05d.mp3", i), frameCount + i, i % 2 == 1, true);
+        }
+        return files;
+    }
+
+    /**
+     * Method that creates a silent frame
+     */
+    private static byte[] frame(int bitrateIndex, boolean padding) {
+        byte[] frame = new byte[144000 * BITRATES[bitrateIndex] / SAMPLE_RATE + (padding ? 1 : 0)];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;  // MPEG-1, Layer III, no CRC
+        frame[2] = (byte) ((bitrateIndex << 4) | (padding ? 0x02 : 0));  // 44.1 kHz
+        frame[3] = (byte) 0x00;  // stereo
+        // the side info and main data are all zero which decodes to silence
+        return frame;
+    }
+
+    /**
+     * Method that creates the LAME header frame with the frame count, byte count and encoder delay
+     */
+    private static byte[] xingFrame(boolean vbr, int frameCount, int audioBytes) {
+        byte[] frame = frame(CBR_BITRATE_INDEX, false);
+        int offset = 4 + 32;
+        System.arraycopy((vbr ? "Xing" : "Info").getBytes(StandardCharsets.ISO_8859_1), 0, frame, offset, 4);
+        writeInt(frame, offset + 4, 0x0F);  // frames, bytes, toc and quality are present
+        writeInt(frame, offset + 8, frameCount);
+        writeInt(frame, offset + 12, audioBytes + frame.length);
+        for(int i = 0; i < 100; i++) {
+            frame[offset + 16 + i] = (byte) (i * 256 / 100);
+        }
+        writeInt(frame, offset + 116, 78);
+
+        // LAME extension with the usual 576 sample encoder delay and some padding
+        System.arraycopy("LAME3.100".getBytes(StandardCharsets.ISO_8859_1), 0, frame, offset + 120, 9);
+        int delay = 576;
+        int padding = 1152 - 576;
+        frame[offset + 141] = (byte) (delay >> 4);
+        frame[offset + 142] = (byte) (((delay & 0x0F) << 4) | (padding >> 8));
+        frame[offset + 143] = (byte) padding;
+        return frame;
+    }
+
+    /**
+     * Method that writes an ID3v2.3 tag with a title and an artist
+     */
+    private static void writeId3v2Tag(OutputStream out, String title, String artist) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeTextFrame(body, "TIT2", title);
+        writeTextFrame(body, "TPE1", artist);
+
+        int size = body.size();
+        out.write(new byte[] {'I', 'D', '3', 3, 0, 0,
+                (byte) ((size >> 21) & 0x7F), (byte) ((size >> 14) & 0x7F), (byte) ((size >> 7) & 0x7F), (byte) (size & 0x7F)});
+        body.writeTo(out);
+    }
+
+    private static void writeTextFrame(ByteArrayOutputStream body, String id, String text) throws IOException {
+        byte[] data = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] header = new byte[10];
+        System.arraycopy(id.getBytes(StandardCharsets.ISO_8859_1), 0, header, 0, 4);
+        writeInt(header, 4, data.length + 1);
+        body.write(header);
+        body.write(0);  // ISO-8859-1
+        body.write(data);
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >> 24);
+        bytes[offset + 1] = (byte) (value >> 16);
+        bytes[offset + 2] = (byte) (value >> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+
+/**
+ * Seek Benchmark Class
+ * Compares the time it takes to get the first decoded frame after a seek when frames
+ * are skipped from the start of the file (what AdvancedPlayer.play(start, end) does)
+ * and when the stream is positioned with the frame index
+ *
+ * Run with:
+ *   javac -cp "lib/*" -d out src/*.java bench/*.java
+ *   java -cp "out:lib/*" SeekBenchmark
+ * @author abhinavk
+ */
+public class SeekBenchmark {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int ITERATIONS = 15;
+
+    public static void main(String[] args) throws Exception {
+        // one hour long mix at 128 kbps
+        File file = Mp3Fixtures.create(new File("bench/fixtures"), "seek-60min.mp3", 137_800, false, true);
+        Song song = new Song(file.getPath(), Mp3Metadata.read(file.getPath()));
+
+        long indexStart = System.nanoTime();
+        FrameIndex frameIndex = song.getFrameIndex();
+        System.out.printf("frame index: %d frames built in %.2f ms%n", frameIndex.getFrameCount(), (System.nanoTime() - indexStart) / 1e6);
+
+        System.out.println("position  skip (ms)  index (ms)");
+        for(double position : new double[] {0.0, 0.25, 0.5, 0.75, 0.99}) {
+            int frame = (int) (song.getFrameCount() * position);
+            double skip = median(() -> seekBySkipping(song, frame));
+            double index = median(() -> seekWithIndex(song, frameIndex, frame));
+            System.out.printf("%7.0f%%  %9.3f  %10.3f%n", position * 100, skip, index);
+        }
+    }
+
+    /**
+     * Method that skips frame by frame from the start and decodes the target frame
+     */
+    static void seekBySkipping(Song song, int frame) throws Exception {
+        try (FileInputStream in = new FileInputStream(song.getFilePath())) {
+            Bitstream bitstream = new Bitstream(new BufferedInputStream(in));
+            for(int i = 0; i < frame; i++) {
+                if(bitstream.readFrame() == null)
+                    break;
+                bitstream.closeFrame();
+            }
+            decodeOneFrame(bitstream);
+        }
+    }
+
+    /**
+     * Method that positions the stream at the target frame and decodes it
+     */
+    static void seekWithIndex(Song song, FrameIndex frameIndex, int frame) throws Exception {
+        try (FileInputStream in = new FileInputStream(song.getFilePath())) {
+            in.getChannel().position(frameIndex.getOffset(frame));
+            decodeOneFrame(new Bitstream(new BufferedInputStream(in)));
+        }
+    }
+
+    private static void decodeOneFrame(Bitstream bitstream) throws Exception {
+        Header header = bitstream.readFrame();
+        if(header != null) {
+            new Decoder().decodeFrame(header, bitstream);
+            bitstream.closeFrame();
+        }
+    }
+
+    interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Method that runs a task a few times and returns the median time in milliseconds
+     */
+    static double median(Task task) throws Exception {
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+        double[] times = new double[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        return times[ITERATIONS / 2];
+    }
+}
@@ -0,0 +1,286 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.images.Artwork;
+
+/**
+ * Album Art Class
+ * Reads the cover art embedded in songs and keeps small thumbnails of it. The art is read,
+ * decoded and scaled down on a background pool and the embedded image is dropped right
+ * after, only the thumbnails are kept: the most recently used ones in memory and all of
+ * them as small jpegs on disk, so showing the art of a song again doesn't read the song.
+ * Songs without art are remembered too, so they aren't read again either.
+ *
+ * The memory budget is set with -Dmusicplayer.albumArt.cacheMb (default 16), the thumbnails
+ * are stored in the thumbnails folder of the library cache.
+ * @author abhinavk
+ */
+public class AlbumArt {
+    private static final int DEFAULT_CACHE_MB = 16;
+
+    // stands in for songs that have no art, a thumbnail is never this exact object
+    private static final BufferedImage NO_ART = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    // jaudiotagger logs every odd tag it finds, kept so the level setting isn't garbage collected
+    private static final Logger TAGGER_LOGGER = Logger.getLogger("org.jaudiotagger");
+
+    private static AlbumArt instance;
+
+    private final File thumbnailDir;
+    private final long maxBytes;
+    private final ExecutorService pool = Executors.newFixedThreadPool(2, PlaylistLoader.daemonThreadFactory("album-art"));
+    private final ConcurrentHashMap<String, CompletableFuture<BufferedImage>> pending = new ConcurrentHashMap<>();
+
+    // access order so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, BufferedImage> thumbnails = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes;
+
+    /**
+     * Constructor
+     * @param thumbnailDir the folder the thumbnails are stored in
+     * @param maxBytes the most memory the thumbnails kept in memory may use
+     */
+    public AlbumArt(File thumbnailDir, long maxBytes) {
+        this.thumbnailDir = thumbnailDir;
+        this.maxBytes = maxBytes;
+        TAGGER_LOGGER.setLevel(Level.OFF);
+    }
+
+    /**
+     * Method that gets the album art cache shared by the app
+     * @return the album art cache
+     */
+    public static synchronized AlbumArt getInstance() {
+        if(instance == null) {
+            long maxBytes = Long.getLong("musicplayer.albumArt.cacheMb", DEFAULT_CACHE_MB) * 1024 * 1024;
+            instance = new AlbumArt(new File(LibraryCache.getCacheDir(), "thumbnails"), maxBytes);
+        }
+        return instance;
+    }
+
+    /**
+     * Method that looks up a thumbnail in memory without reading anything
+     * @param filePath the path of the song
+     * @param size the width and height the thumbnail fits in
+     * @return the thumbnail, one that fails hasArt() for songs without art, null if it isn't in memory
+     */
+    public synchronized BufferedImage getCached(String filePath, int size) {
+        return thumbnails.get(key(filePath, size));
+    }
+
+    /**
+     * Method that checks if a thumbnail that was looked up is real art
+     * @param thumbnail the thumbnail
+     * @return false if it is null or stands for a song without art
+     */
+    public static boolean hasArt(BufferedImage thumbnail) {
+        return thumbnail != null && thumbnail != NO_ART;
+    }
+
+    /**
+     * Method that gets the thumbnail of a song's art in the background
+     * @param filePath the path of the song
+     * @param size the width and height the thumbnail fits in
+     * @return completes with the thumbnail or null if the song has no art
+     */
+    public CompletableFuture<BufferedImage> load(String filePath, int size) {
+        return load(filePath, size, () -> true);
+    }
+
+    /**
+     * Method that gets the thumbnail of a song's art in the background unless it is no longer wanted
+     * @param filePath the path of the song
+     * @param size the width and height the thumbnail fits in
+     * @param wanted checked when the pool gets to the song, a row that was scrolled away isn't read
+     * @return completes with the thumbnail or null if the song has no art, cancelled if it wasn't wanted anymore
+     */
+    public CompletableFuture<BufferedImage> load(String filePath, int size, BooleanSupplier wanted) {
+        String key = key(filePath, size);
+        BufferedImage cached = getCached(filePath, size);
+        if(cached != null)
+            return CompletableFuture.completedFuture(hasArt(cached) ? cached : null);
+
+        // a song that is already being read is only read once
+        CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> existing = pending.putIfAbsent(key, future);
+        if(existing != null)
+            return existing;
+
+        pool.execute(() -> {
+            try {
+                if(!wanted.getAsBoolean()) {
+                    future.completeExceptionally(new CancellationException());
+                    return;
+                }
+                BufferedImage thumbnail = readThumbnail(filePath, size);
+                put(key, thumbnail);
+                future.complete(hasArt(thumbnail) ? thumbnail : null);
+            } catch (Exception e) {
+                // a song that can't be read is shown without art until the app is started again
+                put(key, NO_ART);
+                future.complete(null);
+            } finally {
+                pending.remove(key);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Method that gets a thumbnail from disk or makes it from the art in the song
+     */
+    private BufferedImage readThumbnail(String filePath, int size) throws IOException {
+        File song = new File(filePath);
+        BasicFileAttributes attributes = Files.readAttributes(song.toPath(), BasicFileAttributes.class);
+        File thumbnailFile = new File(thumbnailDir, LibraryCache.fileKey(song.getAbsolutePath(), attributes) + "-" + size + ".jpg");
+
+        // an empty file means the song has no art
+        if(thumbnailFile.isFile()) {
+            if(thumbnailFile.length() == 0)
+                return NO_ART;
+            BufferedImage thumbnail = ImageIO.read(thumbnailFile);
+            if(thumbnail != null)
+                return thumbnail;
+        }
+
+        byte[] art = readEmbeddedArt(song);
+        BufferedImage thumbnail = art != null ? scale(art, size) : null;
+        writeThumbnail(thumbnailFile, thumbnail);
+        return thumbnail != null ? thumbnail : NO_ART;
+    }
+
+    /**
+     * Method that reads the embedded art of a song, the front cover if there are several
+     * @return the encoded image or null if the song has none
+     */
+    private static byte[] readEmbeddedArt(File song) {
+        try {
+            AudioFile audioFile = AudioFileIO.read(song);
+            Tag tag = audioFile.getTag();
+            if(tag == null)
+                return null;
+
+            List<Artwork> artworks = tag.getArtworkList();
+            Artwork art = null;
+            for(Artwork artwork : artworks) {
+                // picture type 3 is the front cover
+                if(art == null || artwork.getPictureType() == 3)
+                    art = artwork;
+                if(artwork.getPictureType() == 3)
+                    break;
+            }
+            return art != null && !art.isLinked() ? art.getBinaryData() : null;
+        } catch (Exception e) {
+            // a song the tagger can't read is shown without art
+            System.err.println("Couldn't read the art of " + song + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Method that decodes art straight into a size close to the thumbnail and scales it the rest of the way
+     * @return the thumbnail or null if the image can't be decoded
+     */
+    private static BufferedImage scale(byte[] art, int size) throws IOException {
+        BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(art))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if(!readers.hasNext())
+                return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+
+                // a 3000 pixel cover is only decoded at twice the thumbnail size, not at full size
+                int subsampling = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / (size * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        double scale = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return thumbnail;
+    }
+
+    /**
+     * Method that stores a thumbnail on disk, an empty file for songs without art
+     */
+    private void writeThumbnail(File thumbnailFile, BufferedImage thumbnail) {
+        try {
+            Files.createDirectories(thumbnailDir.toPath());
+            File tempFile = File.createTempFile(thumbnailFile.getName(), ".tmp", thumbnailDir);
+            if(thumbnail != null)
+                ImageIO.write(thumbnail, "jpg", tempFile);
+            Files.move(tempFile.toPath(), thumbnailFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the thumbnail is made again next time
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method that keeps a thumbnail in memory and drops the least recently used ones over the budget
+     */
+    private synchronized void put(String key, BufferedImage thumbnail) {
+        BufferedImage old = thumbnails.put(key, thumbnail);
+        if(old != null)
+            usedBytes -= bytesOf(old);
+        usedBytes += bytesOf(thumbnail);
+
+        Iterator<Map.Entry<String, BufferedImage>> eldest = thumbnails.entrySet().iterator();
+        while(usedBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, BufferedImage> entry = eldest.next();
+            if(entry.getValue() == thumbnail)
+                break;
+            usedBytes -= bytesOf(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long bytesOf(BufferedImage thumbnail) {
+        // an entry costs a little even without art
+        return thumbnail == NO_ART ? 64 : 4L * thumbnail.getWidth() * thumbnail.getHeight();
+    }
+
+    private static String key(String filePath, int size) {
+        return size + ":" + filePath;
+    }
+}
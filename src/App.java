@@ -2,10 +2,13 @@ import javax.swing.*;
 
 public class App {
     public static void main(String[] args) {
+        StartupTimer.start();
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run(){
+                // the window shows right away, images, file choosers and the playback engine come later
                 new MusicPlayerGUI().setVisible(true);
+                StartupTimer.mark("window shown");
             }
         });
     }
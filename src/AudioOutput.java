@@ -0,0 +1,28 @@
+import javazoom.jl.player.AudioDevice;
+
+/**
+ * Audio Output Interface
+ * An audio device the playback engine can keep open between songs, seeks and pauses: the
+ * audio that wasn't played yet can be dropped without closing it. It also tells how much
+ * audio it buffers and how often it ran out of audio.
+ * @author abhinavk
+ */
+public interface AudioOutput extends AudioDevice {
+    /**
+     * Method that drops the audio that wasn't played yet, the position starts from 0 again
+     * and the device stays open for the next audio in the same format
+     */
+    void drop();
+
+    /**
+     * Latency getter
+     * @return how much audio the device buffers in milliseconds, 0 before the first write
+     */
+    int getLatencyMillis();
+
+    /**
+     * Underruns getter
+     * @return how often the device played everything it had while it was playing
+     */
+    long getUnderruns();
+}
@@ -0,0 +1,185 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary Playlist Class
+ * Playlist file that stores the metadata of every song next to its path, so loading it
+ * doesn't have to look at the songs at all. The header is followed by a table with the
+ * byte offset of every entry, so reading can start at any entry without going through
+ * the ones before it.
+ *
+ * Layout: magic, version, entry count, one long offset per entry, then per entry the
+ * path, a flag and the metadata as written by Mp3Metadata.writeTo() if the flag is set.
+ * The metadata is used as it was when the playlist was saved, saving the playlist again
+ * picks up changed songs. Songs that couldn't be read are kept without metadata and are
+ * read again when the playlist is loaded. Version 1 files had no flag and are still read.
+ * @author abhinavk
+ */
+public class BinaryPlaylist {
+    public static final String EXTENSION = ".mpl";
+
+    // "MPPL" in ascii, used to recognize the file
+    private static final int MAGIC = 0x4D50504C;
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 12;
+
+    private BinaryPlaylist() {
+    }
+
+    /**
+     * Method that writes a playlist
+     * The file is written to a temp file first and then renamed so a crash can't corrupt it
+     * @param playlistFile the file to write
+     * @param songs the songs in playlist order
+     * @throws IOException if the file can't be written
+     */
+    public static void write(File playlistFile, List<Song> songs) throws IOException {
+        List<String> songPaths = new ArrayList<>(songs.size());
+        List<Mp3Metadata> metadata = new ArrayList<>(songs.size());
+        for(Song song : songs) {
+            songPaths.add(song.getFilePath());
+            metadata.add(song.getMetadata());
+        }
+        write(playlistFile, songPaths, metadata);
+    }
+
+    /**
+     * Method that writes a playlist from paths and their metadata
+     * @param playlistFile the file to write
+     * @param songPaths the paths in playlist order
+     * @param metadata the metadata of every path, null for songs that couldn't be read
+     * @throws IOException if the file can't be written
+     */
+    static void write(File playlistFile, List<String> songPaths, List<Mp3Metadata> metadata) throws IOException {
+        File tempFile = new File(playlistFile.getPath() + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            long tableLength = 8L * songPaths.size();
+
+            // the entries go after the table, their offsets are filled in when they are written
+            channel.position(HEADER_LENGTH + tableLength);
+            ByteBuffer table = ByteBuffer.allocate((int) tableLength);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            long position = HEADER_LENGTH + tableLength;
+            for(int i = 0; i < songPaths.size(); i++) {
+                table.putLong(position);
+                int before = out.size();
+                out.writeUTF(songPaths.get(i));
+                out.writeBoolean(metadata.get(i) != null);
+                if(metadata.get(i) != null)
+                    metadata.get(i).writeTo(out);
+                position += out.size() - before;
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putInt(VERSION).putInt(songPaths.size()).flip();
+            table.flip();
+            channel.write(header, 0);
+            channel.write(table, HEADER_LENGTH);
+
+            // on disk before the rename, so the rename never points at a half written file
+            channel.force(false);
+        }
+        Files.move(tempFile.toPath(), playlistFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Method that opens a playlist for reading from one of its entries
+     * @param playlistFile the playlist
+     * @param startIndex the first entry to read
+     * @return the reader
+     * @throws IOException if the file isn't a binary playlist or can't be read
+     */
+    static PlaylistReader reader(File playlistFile, int startIndex) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(playlistFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            readFully(channel, header, 0);
+            int magic = header.getInt();
+            int version = header.getInt();
+            if(magic != MAGIC || version < 1 || version > VERSION)
+                throw new IOException("Not a playlist: " + playlistFile);
+            int count = header.getInt();
+
+            // look the start up in the table and go straight there
+            int start = Math.max(0, Math.min(startIndex, count));
+            if(start < count) {
+                ByteBuffer offset = ByteBuffer.allocate(8);
+                readFully(channel, offset, HEADER_LENGTH + 8L * start);
+                channel.position(offset.getLong());
+            }
+            return new Reader(file, count - start, version > 1);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Playlist is cut off");
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Reader that goes through the entries one after the other from the current position
+     */
+    private static class Reader extends PlaylistReader {
+        private final RandomAccessFile file;
+        private final DataInputStream in;
+        private int remaining;
+        private final int size;
+        private final boolean flagged;
+        private Mp3Metadata metadata;
+
+        Reader(RandomAccessFile file, int remaining, boolean flagged) {
+            this.file = file;
+            this.remaining = remaining;
+            this.size = remaining;
+            this.flagged = flagged;
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel()), 64 * 1024));
+        }
+
+        @Override
+        public String next() throws IOException {
+            if(remaining == 0)
+                return null;
+            remaining--;
+            String filePath = in.readUTF();
+            metadata = !flagged || in.readBoolean() ? Mp3Metadata.readFrom(in) : null;
+            return filePath;
+        }
+
+        @Override
+        public Mp3Metadata getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
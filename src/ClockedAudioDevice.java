@@ -0,0 +1,86 @@
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+
+/**
+ * Clocked Audio Device Class
+ * Wraps an audio output and drives a playback clock with the position of
+ * the audio the device has played every time the decoder writes a frame
+ * @author abhinavk
+ */
+public class ClockedAudioDevice implements AudioOutput {
+    private final AudioOutput device;
+    private final PlaybackClock playbackClock;
+    private boolean audioHeard;
+
+    /**
+     * Constructor that plays through Java Sound
+     * @param playbackClock the clock to drive
+     */
+    public ClockedAudioDevice(PlaybackClock playbackClock) {
+        this(playbackClock, new JavaSoundOutput());
+    }
+
+    /**
+     * Constructor that wraps a given audio output
+     * @param playbackClock the clock to drive
+     * @param device the device the audio is written to
+     */
+    public ClockedAudioDevice(PlaybackClock playbackClock, AudioOutput device) {
+        this.device = device;
+        this.playbackClock = playbackClock;
+    }
+
+    @Override
+    public void open(Decoder decoder) throws JavaLayerException {
+        device.open(decoder);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return device.isOpen();
+    }
+
+    @Override
+    public void write(short[] samples, int offs, int len) throws JavaLayerException {
+        device.write(samples, offs, len);
+        int position = device.getPosition();
+        playbackClock.update(position);
+
+        // the first time the device reports played audio, not just audio written to its buffer
+        if(!audioHeard && position > 0) {
+            audioHeard = true;
+            StartupTimer.mark("first audio");
+        }
+    }
+
+    @Override
+    public void close() {
+        device.close();
+    }
+
+    @Override
+    public void flush() {
+        device.flush();
+        playbackClock.update(device.getPosition());
+    }
+
+    @Override
+    public int getPosition() {
+        return device.getPosition();
+    }
+
+    @Override
+    public void drop() {
+        device.drop();
+    }
+
+    @Override
+    public int getLatencyMillis() {
+        return device.getLatencyMillis();
+    }
+
+    @Override
+    public long getUnderruns() {
+        return device.getUnderruns();
+    }
+}
@@ -0,0 +1,175 @@
+import javazoom.jl.decoder.JavaLayerException;
+
+/**
+ * Crossfade Mixer Class
+ * Mixes the start of the next song into the end of the playing one with equal-power curves:
+ * the playing song fades out along a cosine and the next one fades in along a sine, so the
+ * two together stay about as loud as one song through the overlap. The frames of the two
+ * songs don't line up, so the next song's samples wait in a fifo until the playing song's
+ * frames use them. If the playing song ends before the fade does, the rest of the fade is
+ * applied to the next song alone. The curve is a table and the fifo is made once, so mixing
+ * never allocates. Only used by the audio thread.
+ * @author abhinavk
+ */
+public class CrossfadeMixer {
+    /**
+     * The longest crossfade in seconds
+     */
+    public static final int MAX_SECONDS = 12;
+
+    // steps of the fade curve, about 12 ms apart in a 12 second fade
+    private static final int CURVE_STEPS = 1024;
+
+    // the most samples a frame decodes to, the fifo holds the part of a frame that wasn't mixed yet and the next one
+    private static final int FRAME_SAMPLES = 1152 * 2;
+
+    private static final int DEFAULT_SECONDS = Math.max(0, Math.min(MAX_SECONDS, Integer.getInteger("musicplayer.crossfade", 0)));
+
+    private final float[] fadeIn = new float[CURVE_STEPS + 1];
+    private final short[] fifo = new short[FRAME_SAMPLES * 3];
+    private int fifoStart;
+    private int fifoEnd;
+    private boolean nextEnded;
+    private int channels;
+
+    // in samples per channel
+    private long length;
+    private long position;
+
+    /**
+     * Constructor
+     */
+    public CrossfadeMixer() {
+        // the fade out is the fade in backwards, cos(x) = sin(pi/2 - x)
+        for(int i = 0; i <= CURVE_STEPS; i++) {
+            fadeIn[i] = (float) Math.sin(Math.PI / 2 * i / CURVE_STEPS);
+        }
+    }
+
+    /**
+     * Default length getter, set with -Dmusicplayer.crossfade=seconds
+     * @return the crossfade playback starts with in seconds, 0 for none
+     */
+    public static int getDefaultSeconds() {
+        return DEFAULT_SECONDS;
+    }
+
+    /**
+     * Method that starts a fade
+     * @param length how long the fade is in samples per channel
+     * @param channels the number of channels of both songs
+     */
+    public void start(long length, int channels) {
+        this.length = Math.max(1, length);
+        this.channels = channels;
+        position = 0;
+        fifoStart = 0;
+        fifoEnd = 0;
+        nextEnded = false;
+    }
+
+    /**
+     * Method that ends the fade at once, the playing song goes back to full volume
+     */
+    public void stop() {
+        length = 0;
+        position = 0;
+        fifoStart = 0;
+        fifoEnd = 0;
+    }
+
+    /**
+     * Method that checks if the fade has some way to go
+     * @return true until the next song plays at full volume
+     */
+    public boolean isFading() {
+        return position < length;
+    }
+
+    /**
+     * Method that mixes the next song into a frame of the playing song, in place
+     * @param samples the interleaved samples of the playing song, its gain already applied
+     * @param count the number of samples
+     * @param next the decoder of the next song, its frames are read as needed
+     * @param nextGain the gain stage of the next song
+     * @throws JavaLayerException if the next song can't be decoded
+     */
+    public void mix(short[] samples, int count, TrackDecoder next, GainStage nextGain) throws JavaLayerException {
+        fill(count, next, nextGain);
+        int available = fifoEnd - fifoStart;
+        for(int i = 0; i < count; i += channels) {
+            int step = step();
+            float in = fadeIn[step];
+            float out = fadeIn[CURVE_STEPS - step];
+            for(int c = i; c < i + channels; c++) {
+                int nextSample = c < available ? fifo[fifoStart + c] : 0;
+                samples[c] = clip(samples[c] * out + nextSample * in);
+            }
+            position++;
+        }
+        fifoStart += Math.min(count, available);
+    }
+
+    /**
+     * Method that hands out what is left in the fifo after the playing song ended, faded in
+     * @param destination the array to copy to
+     * @param max the most samples to copy
+     * @return the number of samples copied, 0 when the fifo is empty
+     */
+    public int drain(short[] destination, int max) {
+        int count = Math.min(max, fifoEnd - fifoStart);
+        System.arraycopy(fifo, fifoStart, destination, 0, count);
+        fifoStart += count;
+        fadeIn(destination, count);
+        return count;
+    }
+
+    /**
+     * Method that fades the next song in on its own, once the playing song ended
+     * @param samples the interleaved samples of the next song
+     * @param count the number of samples
+     */
+    public void fadeIn(short[] samples, int count) {
+        for(int i = 0; i < count && isFading(); i += channels) {
+            float in = fadeIn[step()];
+            for(int c = i; c < i + channels; c++) {
+                samples[c] = clip(samples[c] * in);
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Method that reads frames of the next song until the fifo holds enough to mix with
+     */
+    private void fill(int count, TrackDecoder next, GainStage nextGain) throws JavaLayerException {
+        while(fifoEnd - fifoStart < count && !nextEnded) {
+            if(fifoEnd + FRAME_SAMPLES > fifo.length) {
+                System.arraycopy(fifo, fifoStart, fifo, 0, fifoEnd - fifoStart);
+                fifoEnd -= fifoStart;
+                fifoStart = 0;
+            }
+            if(!next.readFrame()) {
+                nextEnded = true;
+                break;
+            }
+            nextGain.process(next.getSamples(), next.getSampleCount(), next.getChannels(), next.getSampleRate());
+            System.arraycopy(next.getSamples(), 0, fifo, fifoEnd, next.getSampleCount());
+            fifoEnd += next.getSampleCount();
+        }
+    }
+
+    /**
+     * Method that gets the step of the curve at the current position
+     */
+    private int step() {
+        return position >= length ? CURVE_STEPS : (int) (position * CURVE_STEPS / length);
+    }
+
+    /**
+     * Method that rounds a mixed sample and keeps it in the 16 bit range
+     */
+    private static short clip(float sample) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(sample)));
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Frame Index Class
+ * Holds the byte offset of every audio frame of a song so playback can jump straight
+ * to a frame instead of skipping through every frame before it
+ * @author abhinavk
+ */
+public class FrameIndex {
+    private static final int BUFFER_LENGTH = 64 * 1024;
+
+    private final int[] offsets;
+    private final int frameCount;
+
+    /**
+     * Constructor used by the builder
+     */
+    private FrameIndex(int[] offsets, int frameCount) {
+        this.offsets = offsets;
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * Method that builds the index by walking the frame headers of the file
+     * Only the 4 byte headers are looked at, nothing is decoded
+     * @param filePath the path of the mp3 file
+     * @param metadata the metadata of the file
+     * @return the frame index
+     * @throws IOException if the file can't be read
+     */
+    public static FrameIndex build(String filePath, Mp3Metadata metadata) throws IOException {
+        int audioStart = metadata.getAudioStartOffset();
+        int audioEnd = metadata.getAudioEndOffset();
+
+        // room for a few more frames than the metadata says in case it was estimated
+        int[] offsets = new int[Math.max(16, metadata.getFrameCount() + metadata.getFrameCount() / 64 + 16)];
+        int frameCount = 0;
+
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            byte[] buffer = new byte[BUFFER_LENGTH];
+            int bufferStart = audioStart;
+            int bufferLength = 0;
+            int offset = 0;
+            while(true) {
+                // refill the buffer when the next header isn't fully in it
+                if(offset + 4 > bufferLength) {
+                    bufferStart += offset;
+                    if(bufferStart + 4 > audioEnd)
+                        break;
+                    file.seek(bufferStart);
+                    bufferLength = file.read(buffer, 0, Math.min(buffer.length, audioEnd - bufferStart));
+                    offset = 0;
+                    if(bufferLength < 4)
+                        break;
+                }
+
+                Mp3Metadata.FrameHeader header = Mp3Metadata.FrameHeader.parse(buffer, offset);
+                if(header == null) {
+                    // lost sync, look for the next header
+                    offset++;
+                    continue;
+                }
+                if(bufferStart + offset + header.frameLength > audioEnd)
+                    break;
+
+                if(frameCount == offsets.length)
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                offsets[frameCount++] = bufferStart + offset;
+                offset += header.frameLength;
+            }
+        }
+        return new FrameIndex(offsets, frameCount);
+    }
+
+    /**
+     * Frame count getter
+     * @return the number of frames in the index
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Method that gets the byte offset of a frame
+     * @param frame the frame, frames past the end map to the last frame
+     * @return the byte offset of the frame in the file
+     */
+    public int getOffset(int frame) {
+        if(frameCount == 0)
+            return 0;
+        return offsets[Math.max(0, Math.min(frame, frameCount - 1))];
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Gain Stage Class
+ * Applies the ReplayGain of the playing song to its samples in place, right before they go
+ * to the audio device. A peak limiter keeps boosted samples from clipping: a sample that would
+ * go over the ceiling turns the gain down at once, and the gain comes back up over about
+ * 200 ms. Nothing is allocated per frame, and with a gain of 1 the samples aren't touched.
+ * Only used by the audio thread.
+ * @author abhinavk
+ */
+public class GainStage {
+    /**
+     * Which gain is applied
+     */
+    public enum Mode {
+        OFF, TRACK, ALBUM
+    }
+
+    // the limiter keeps samples under this, a little below full scale
+    private static final float CEILING = 0.98f * Short.MAX_VALUE;
+
+    private static final double RELEASE_SECONDS = 0.2;
+
+    private static final Mode DEFAULT_MODE = parseMode(System.getProperty("musicplayer.replayGain", "track"));
+
+    private float gain = 1;
+    private float limiterGain = 1;
+    private float release;
+    private int releaseSampleRate;
+
+    /**
+     * Default mode getter, set with -Dmusicplayer.replayGain=off|track|album
+     * @return the mode playback starts with
+     */
+    public static Mode getDefaultMode() {
+        return DEFAULT_MODE;
+    }
+
+    /**
+     * Method that reads a mode from its name, track if it isn't one
+     */
+    private static Mode parseMode(String mode) {
+        try {
+            return Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown replay gain mode " + mode + ", using track");
+            return Mode.TRACK;
+        }
+    }
+
+    /**
+     * Method that works the gain out for a song
+     * @param mode which gain to apply
+     * @param loudness the loudness measured for the song, null if it wasn't measured
+     * @return the gain as a factor, 1 for songs that weren't measured
+     */
+    public static float gainOf(Mode mode, Loudness loudness) {
+        if(mode == Mode.OFF || loudness == null)
+            return 1;
+        double gainDb = mode == Mode.ALBUM ? loudness.getAlbumGainDb() : loudness.getTrackGainDb();
+        return (float) Math.pow(10, gainDb / 20);
+    }
+
+    /**
+     * Gain setter
+     * @param gain the factor the samples are multiplied by
+     */
+    public void setGain(float gain) {
+        this.gain = gain;
+        limiterGain = 1;
+    }
+
+    /**
+     * Gain getter
+     * @return the factor the samples are multiplied by
+     */
+    public float getGain() {
+        return gain;
+    }
+
+    /**
+     * Method that applies the gain to interleaved samples in place
+     * @param samples the samples
+     * @param count the number of samples
+     * @param channels the number of channels
+     * @param sampleRate the sample rate, the limiter's release depends on it
+     */
+    public void process(short[] samples, int count, int channels, int sampleRate) {
+        if(gain == 1 && limiterGain == 1)
+            return;
+        if(sampleRate != releaseSampleRate) {
+            releaseSampleRate = sampleRate;
+            release = (float) (1 - Math.exp(-1 / (RELEASE_SECONDS * sampleRate)));
+        }
+
+        for(int i = 0; i + channels <= count; i += channels) {
+            // the channels share the limiter so the stereo image doesn't move
+            int peak = 0;
+            for(int channel = 0; channel < channels; channel++) {
+                peak = Math.max(peak, Math.abs(samples[i + channel]));
+            }
+            if(peak * gain * limiterGain > CEILING)
+                limiterGain = CEILING / (peak * gain);
+
+            float sampleGain = gain * limiterGain;
+            for(int channel = 0; channel < channels; channel++) {
+                samples[i + channel] = (short) (samples[i + channel] * sampleGain);
+            }
+            limiterGain += (1 - limiterGain) * release;
+        }
+
+        // close enough to stop limiting
+        if(limiterGain > 0.9999f)
+            limiterGain = 1;
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless App Class
+ * Plays a song, a playlist or every song in a music folder from the command line without a gui. AWT and Swing are never
+ * loaded, so it runs on machines without a display and starts faster with less memory.
+ * With --null-output the audio is thrown away as fast as it is decoded, which is used
+ * to benchmark the player without a sound card, with --wav out.wav it is written to a wav
+ * file, a device opened again for a song in another format writes out-2.wav and so on. --crossfade N overlaps consecutive
+ * songs by N seconds. With --analyze the loudness of the songs
+ * is measured for the replay gain instead of playing them. --shuffle seed plays the songs in the random order of
+ * the seed, --repeat one|all plays them again. --queue file plays the queue saved in the file instead of a
+ * path if there is one, and saves the queue there once playback ended.
+ *
+ * Usage: java -cp "out:lib/*" HeadlessApp [--null-output | --wav out.wav] [--gapless] [--crossfade seconds] [--shuffle seed]
+ *        [--repeat off|all|one] [--queue file] [--analyze] [--start N] song.mp3|playlist|folder
+ * A playlist can be a .mpl, .txt, .m3u, .m3u8 or .pls file, --start N plays it from entry N.
+ * @author abhinavk
+ */
+public class HeadlessApp implements MusicPlayerListener {
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // set before the event thread starts using them
+    private MusicPlayer musicPlayer;
+    private Long shuffleSeed;
+    private PlayQueue.Repeat repeat;
+
+    // only touched on the event thread
+    private boolean loadingFinished;
+    private boolean stoppedAtEnd;
+    private boolean restoreFailed;
+    private int songsLoaded;
+    private int songsStarted;
+
+    public static void main(String[] args) throws Exception {
+        StartupTimer.start();
+        boolean nullOutput = false;
+        boolean gapless = false;
+        boolean analyze = false;
+        File wavFile = null;
+        int crossfade = -1;
+        Long shuffleSeed = null;
+        PlayQueue.Repeat repeat = null;
+        File queueFile = null;
+        int startIndex = 0;
+        String path = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("--null-output")) {
+                nullOutput = true;
+            }else if(args[i].equals("--gapless")) {
+                gapless = true;
+            }else if(args[i].equals("--analyze")) {
+                analyze = true;
+            }else if(args[i].equals("--wav") && i + 1 < args.length) {
+                wavFile = new File(args[++i]);
+            }else if(args[i].equals("--crossfade") && i + 1 < args.length) {
+                crossfade = Integer.parseInt(args[++i]);
+            }else if(args[i].equals("--shuffle") && i + 1 < args.length) {
+                shuffleSeed = Long.parseLong(args[++i]);
+            }else if(args[i].equals("--repeat") && i + 1 < args.length) {
+                repeat = PlayQueue.Repeat.valueOf(args[++i].toUpperCase());
+            }else if(args[i].equals("--queue") && i + 1 < args.length) {
+                queueFile = new File(args[++i]);
+            }else if(args[i].equals("--start") && i + 1 < args.length) {
+                startIndex = Integer.parseInt(args[++i]);
+            }else {
+                path = args[i];
+            }
+        }
+        boolean restore = queueFile != null && queueFile.isFile();
+        if(path == null && !restore) {
+            System.err.println("Usage: HeadlessApp [--null-output | --wav out.wav] [--gapless] [--crossfade seconds] [--shuffle seed] "
+                    + "[--repeat off|all|one] [--queue file] [--analyze] [--start N] song.mp3|playlist|folder");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        HeadlessApp app = new HeadlessApp();
+
+        // the event thread plays the part of the EDT
+        ExecutorService events = Executors.newSingleThreadExecutor(PlaylistLoader.daemonThreadFactory("player-events"));
+        PlaybackEngine.AudioDeviceFactory audioDeviceFactory = null;
+        if(wavFile != null) {
+            audioDeviceFactory = WavFileOutput.factory(wavFile);
+        }else if(nullOutput) {
+            audioDeviceFactory = NullAudioDevice::new;
+        }
+        MusicPlayer musicPlayer = new MusicPlayer(app, events, audioDeviceFactory);
+        musicPlayer.setGapless(gapless);
+        if(crossfade >= 0)
+            musicPlayer.setCrossfade(crossfade);
+
+        app.musicPlayer = musicPlayer;
+        app.shuffleSeed = shuffleSeed;
+        app.repeat = repeat;
+        if(restore) {
+            // the restored queue brings its own shuffle and repeat, the options are applied on top once it is read
+            File savedQueue = queueFile;
+            events.execute(() -> musicPlayer.restoreQueue(savedQueue));
+        }else {
+            app.applyOrder();
+        }
+
+        File file = restore ? null : new File(path);
+        if(analyze && file != null) {
+            List<String> filePaths = songPaths(file, startIndex);
+            events.execute(() -> musicPlayer.analyzeLoudness(filePaths));
+            app.done.await();
+            return;
+        }
+
+        // a restored queue starts playing once it was read
+        if(file != null) {
+            int playlistStart = startIndex;
+            events.execute(() -> {
+                if(file.isDirectory()) {
+                    musicPlayer.loadLibrary(List.of(file));
+                }else if(!file.getName().toLowerCase().endsWith(".mp3")) {
+                    musicPlayer.loadPlaylist(file, playlistStart);
+                }else {
+                    app.loadingFinished = true;
+                    app.songsLoaded = 1;
+                    musicPlayer.loadSong(new Song(file.getPath()));
+                }
+            });
+        }
+        app.done.await();
+        // a queue that couldn't be read was moved aside, nothing is saved in its place
+        if(app.restoreFailed)
+            System.exit(1);
+        if(queueFile != null)
+            musicPlayer.saveQueue(queueFile).join();
+
+        // the audio that reached the device, songs overlapped by a crossfade count once
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double audioSeconds = musicPlayer.getPlaybackEngine().getWrittenMillis() / 1000.0;
+        System.out.printf("Played %d songs, %.1f s of audio in %.1f s (%.1fx realtime)%n",
+                app.songsStarted, audioSeconds, seconds, audioSeconds / seconds);
+        System.out.printf("Command latency: avg %.2f ms, max %.2f ms%n",
+                musicPlayer.getPlaybackEngine().getAverageCommandLatencyMillis(), musicPlayer.getPlaybackEngine().getMaxCommandLatencyMillis());
+        System.out.println(PcmCache.getInstance().getStats());
+        System.out.println(LibraryCache.getInstance().getStats());
+        System.out.println(PlaybackMetrics.getInstance().getStats());
+    }
+
+    /**
+     * Method that lists the songs of a song, a playlist or a folder and its sub folders
+     */
+    private static List<String> songPaths(File file, int startIndex) throws IOException {
+        if(file.isDirectory()) {
+            try (Stream<Path> files = Files.walk(file.toPath())) {
+                return files.filter(songFile -> songFile.getFileName().toString().toLowerCase().endsWith(".mp3"))
+                        .map(Path::toString).sorted().collect(Collectors.toList());
+            }
+        }
+        if(file.getName().toLowerCase().endsWith(".mp3"))
+            return List.of(file.getPath());
+
+        List<String> filePaths = new ArrayList<>();
+        try (PlaylistReader reader = PlaylistReader.open(file, startIndex)) {
+            for(String filePath; (filePath = reader.next()) != null; ) {
+                filePaths.add(filePath);
+            }
+        }
+        return filePaths;
+    }
+
+    @Override
+    public void songChanged(Song song, int playlistIndex) {
+        songsStarted++;
+        System.out.println("Now playing: " + song.getSongTitle() + " - " + song.getSongArtist() + " (" + song.getSongLength() + ")");
+    }
+
+    @Override
+    public void playlistChanged(List<Song> songs, boolean appended) {
+    }
+
+    @Override
+    public void songsInserted(List<Song> songs, int playlistIndex) {
+    }
+
+    @Override
+    public void playlistRestored(List<String> filePaths, boolean shuffle, PlayQueue.Repeat repeat) {
+        System.out.println("Restored " + filePaths.size() + " songs" + (shuffle ? ", shuffled" : "") + ", repeat " + repeat.name().toLowerCase());
+        applyOrder();
+
+        // it goes on where it stopped, so it is done once playback reaches the end
+        loadingFinished = true;
+        if(filePaths.isEmpty()) {
+            done.countDown();
+        }else {
+            musicPlayer.playCurrentSong();
+        }
+    }
+
+    @Override
+    public void playlistRestoreFailed(String message, boolean unreadable) {
+        restoreFailed = true;
+        done.countDown();
+    }
+
+    @Override
+    public void playbackStateChanged(boolean playing, boolean finished) {
+        // the playlist may still be loading when the songs loaded so far ran out
+        stoppedAtEnd = finished;
+        if(finished && loadingFinished && songsStarted >= songsLoaded)
+            done.countDown();
+    }
+
+    @Override
+    public void positionChanged(int frame, long timeInMilli) {
+    }
+
+    @Override
+    public void playlistLoadProgress(int processed, int total) {
+    }
+
+    @Override
+    public void playlistLoadFinished(int loaded, int failed) {
+        System.out.println("Loaded " + loaded + " songs" + (failed > 0 ? ", skipped " + failed : ""));
+        songsReady(loaded);
+    }
+
+    @Override
+    public void libraryScanUpdated(LibraryScanner.Progress progress, boolean finished) {
+        System.out.println((finished ? "Scanned " : "Scanning: ") + progress);
+        if(finished)
+            songsReady(progress.getSongs());
+    }
+
+    @Override
+    public void loudnessAnalysisUpdated(LoudnessAnalyzer.Progress progress, boolean finished) {
+        System.out.println((finished ? "Analyzed " : "Analyzing: ") + progress);
+        if(finished)
+            done.countDown();
+    }
+
+    /**
+     * Method that applies the shuffle and repeat options
+     */
+    private void applyOrder() {
+        if(shuffleSeed != null)
+            musicPlayer.setShuffle(true, shuffleSeed);
+        if(repeat != null)
+            musicPlayer.setRepeat(repeat);
+    }
+
+    /**
+     * Method called when every song of the playlist or folder was loaded
+     */
+    private void songsReady(int loaded) {
+        loadingFinished = true;
+        songsLoaded = loaded;
+        if(loaded == 0 || (stoppedAtEnd && songsStarted >= loaded))
+            done.countDown();
+    }
+}
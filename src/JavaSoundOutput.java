@@ -0,0 +1,151 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.AudioDeviceBase;
+
+/**
+ * Java Sound Output Class
+ * Plays audio through a Java Sound line whose buffer is sized for a latency target, so a
+ * pause, seek or skip is heard after at most that much audio. Dropping stops and flushes
+ * the line but keeps it open, opening a line takes longer than the buffer plays.
+ * The position is the audio written minus what is still in the line's buffer.
+ *
+ * The latency target is set with -Dmusicplayer.audio.bufferMillis (default 100), the sound
+ * system may give the line a somewhat different buffer, getLatencyMillis() tells the actual one.
+ * @author abhinavk
+ */
+public class JavaSoundOutput extends AudioDeviceBase implements AudioOutput {
+    private static final int DEFAULT_BUFFER_MILLIS = 100;
+
+    private final int bufferMillis;
+    private byte[] bytes = new byte[1152 * 2 * 2];
+    private boolean starved;
+
+    // written by the thread that writes the audio, read by the one that asks for the position
+    private volatile SourceDataLine line;
+    private volatile float frameRate;
+    private volatile int frameSize;
+    private volatile long framesWritten;
+    private volatile long underruns;
+
+    /**
+     * Constructor that uses the latency target of the musicplayer.audio.bufferMillis property
+     */
+    public JavaSoundOutput() {
+        this(Integer.getInteger("musicplayer.audio.bufferMillis", DEFAULT_BUFFER_MILLIS));
+    }
+
+    /**
+     * Constructor
+     * @param bufferMillis how much audio the line should buffer
+     */
+    public JavaSoundOutput(int bufferMillis) {
+        this.bufferMillis = bufferMillis;
+    }
+
+    /**
+     * Method that opens the line in the format of the decoder, once the first frame was decoded
+     */
+    private void openLine() throws JavaLayerException {
+        Decoder decoder = getDecoder();
+        AudioFormat format = new AudioFormat(decoder.getOutputFrequency(), 16, decoder.getOutputChannels(), true, false);
+        SourceDataLine line;
+        try {
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format, format.getFrameSize() * Math.max(1, (int) (format.getFrameRate() * bufferMillis / 1000)));
+        } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+            throw new JavaLayerException("Couldn't open an audio line for " + format, e);
+        }
+        frameRate = format.getFrameRate();
+        frameSize = format.getFrameSize();
+        framesWritten = 0;
+        this.line = line;
+        System.out.println("Audio output: " + format + ", " + getLatencyMillis() + " ms buffer (" + bufferMillis + " ms asked for)");
+    }
+
+    @Override
+    protected void writeImpl(short[] samples, int offs, int len) throws JavaLayerException {
+        if(line == null)
+            openLine();
+        SourceDataLine line = this.line;
+
+        // 16 bit little endian
+        int byteCount = len * 2;
+        if(bytes.length < byteCount)
+            bytes = new byte[byteCount];
+        for(int i = 0; i < len; i++) {
+            short sample = samples[offs + i];
+            bytes[2 * i] = (byte) sample;
+            bytes[2 * i + 1] = (byte) (sample >> 8);
+        }
+
+        // an empty buffer on a running line means the speakers went quiet, counted once until it fills again
+        if(line.isRunning() && line.available() >= line.getBufferSize()) {
+            if(!starved)
+                underruns++;
+            starved = true;
+        }else {
+            starved = false;
+        }
+
+        // blocks until the line has room
+        int written = 0;
+        while(written < byteCount) {
+            written += line.write(bytes, written, byteCount - written);
+        }
+        framesWritten += byteCount / frameSize;
+        if(!line.isRunning())
+            line.start();
+    }
+
+    @Override
+    public void drop() {
+        if(line != null) {
+            line.stop();
+            line.flush();
+        }
+        framesWritten = 0;
+        starved = false;
+    }
+
+    @Override
+    protected void flushImpl() {
+        // plays out what is buffered
+        if(line != null)
+            line.drain();
+    }
+
+    @Override
+    protected void closeImpl() {
+        if(line != null) {
+            line.stop();
+            line.flush();
+            line.close();
+            line = null;
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        SourceDataLine line = this.line;
+        if(line == null)
+            return 0;
+        long bufferedFrames = (line.getBufferSize() - line.available()) / frameSize;
+        return (int) (Math.max(0, framesWritten - bufferedFrames) * 1000 / frameRate);
+    }
+
+    @Override
+    public int getLatencyMillis() {
+        SourceDataLine line = this.line;
+        return line == null ? 0 : (int) (line.getBufferSize() / frameSize * 1000 / frameRate);
+    }
+
+    @Override
+    public long getUnderruns() {
+        return underruns;
+    }
+}
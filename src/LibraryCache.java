@@ -0,0 +1,413 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Library Cache Class
+ * Keeps the metadata of every song that was read in a binary file on disk so unchanged
+ * files don't have to be parsed again on the next run. Entries are keyed by the absolute
+ * path and only used when the file size and last modified time still match. The loudness
+ * measured for a song is kept in its entry too. Version 2 files had no loudness and are still read,
+ * the metadata in version 2 and 3 files came from an older reader so it is read again on the next
+ * lookup while the loudness is kept.
+ * @author abhinavk
+ */
+public class LibraryCache {
+    // "MPLC" in ascii, used to recognize the cache file
+    private static final int MAGIC = 0x4D504C43;
+    private static final int VERSION = 4;
+
+    private static final int DEFAULT_MAX_ENTRIES = 250_000;
+
+    private static LibraryCache instance;
+
+    private final File cacheFile;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private boolean dirty;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // songs dropped to make room, the listeners are told once the lock is released
+    private final List<String> evicted = new ArrayList<>();
+
+    /**
+     * Interface used to follow the songs in the cache
+     */
+    public interface Listener {
+        /**
+         * Called when a song was read and added to the cache or updated
+         * @param filePath the absolute path of the song
+         * @param metadata the metadata of the song
+         */
+        void songAdded(String filePath, Mp3Metadata metadata);
+
+        /**
+         * Called when a song was removed or dropped because the cache was full
+         * @param filePath the absolute path of the song
+         */
+        void songRemoved(String filePath);
+    }
+
+    /**
+     * Class that holds one cached song
+     */
+    private static class Entry {
+        final long fileSize;
+        final long lastModified;
+        final Mp3Metadata metadata;
+        final Loudness loudness;
+        // the metadata was read by an older version and has to be read again
+        final boolean stale;
+
+        Entry(long fileSize, long lastModified, Mp3Metadata metadata, Loudness loudness, boolean stale) {
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+            this.loudness = loudness;
+            this.stale = stale;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return fileSize == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * Constructor that loads the cache from a file
+     * @param cacheFile the file the cache is stored in
+     * @param maxEntries the most songs kept, the least recently used ones are dropped first
+     */
+    public LibraryCache(File cacheFile, int maxEntries) {
+        this.cacheFile = cacheFile;
+        this.maxEntries = maxEntries;
+
+        // access order so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if(size() <= LibraryCache.this.maxEntries)
+                    return false;
+                if(!listeners.isEmpty())
+                    evicted.add(eldest.getKey());
+                return true;
+            }
+        };
+        load();
+    }
+
+    /**
+     * Method that gets the cache shared by the app, it is saved when the app exits
+     * The location can be changed with -Dmusicplayer.cache.dir and the size with -Dmusicplayer.cache.maxEntries
+     * @return the library cache
+     */
+    public static synchronized LibraryCache getInstance() {
+        if(instance == null) {
+            int maxEntries = Integer.getInteger("musicplayer.cache.maxEntries", DEFAULT_MAX_ENTRIES);
+            instance = new LibraryCache(new File(getCacheDir(), "library.cache"), maxEntries);
+
+            LibraryCache cache = instance;
+            Runtime.getRuntime().addShutdownHook(new Thread(cache::save, "library-cache-save"));
+        }
+        return instance;
+    }
+
+    /**
+     * Method that gets the folder the caches of the app are kept in, set with -Dmusicplayer.cache.dir
+     * @return the cache folder
+     */
+    static File getCacheDir() {
+        return new File(System.getProperty("musicplayer.cache.dir",
+                System.getProperty("user.home") + File.separator + ".musicplayer"));
+    }
+
+    /**
+     * Method that names a cache file after a version of a song, a changed song gets a new name
+     * @param absolutePath the absolute path of the song
+     * @param attributes the attributes of the song's file
+     * @return a name made of hex digits
+     */
+    static String fileKey(String absolutePath, BasicFileAttributes attributes) {
+        String id = absolutePath + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime().toMillis();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(id.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(24);
+            for(int i = 0; i < 12; i++) {
+                key.append(String.format("%02x", hash[i]));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method that gets the metadata of a song from the cache and reads the file on a miss
+     * @param filePath the path of the song
+     * @return the metadata
+     * @throws IOException if the file can't be read
+     */
+    public Mp3Metadata read(String filePath) throws IOException {
+        return read(filePath, Files.readAttributes(new File(filePath).toPath(), BasicFileAttributes.class));
+    }
+
+    /**
+     * Method that gets the metadata of a song from the cache and reads the file on a miss
+     * @param filePath the path of the song
+     * @param attributes the attributes of the file, when the caller already has them
+     * @return the metadata
+     * @throws IOException if the file can't be read
+     */
+    public Mp3Metadata read(String filePath, BasicFileAttributes attributes) throws IOException {
+        Mp3Metadata metadata = lookup(filePath, attributes);
+        if(metadata != null)
+            return metadata;
+
+        // parse outside of the lock so songs can be read in parallel
+        misses.incrementAndGet();
+        metadata = Mp3Metadata.read(filePath);
+        String key = new File(filePath).getAbsolutePath();
+        synchronized(this) {
+            // the loudness of a stale entry still belongs to the same file
+            Entry entry = entries.get(key);
+            Loudness loudness = entry != null && entry.matches(attributes) ? entry.loudness : null;
+            entries.put(key, new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), metadata, loudness, false));
+            dirty = true;
+        }
+        for(Listener listener : listeners) {
+            listener.songAdded(key, metadata);
+        }
+        notifyEvicted();
+        return metadata;
+    }
+
+    /**
+     * Method that tells the listeners about the songs that were dropped to make room
+     */
+    private void notifyEvicted() {
+        List<String> removed;
+        synchronized(this) {
+            if(evicted.isEmpty())
+                return;
+            removed = new ArrayList<>(evicted);
+            evicted.clear();
+        }
+        for(String key : removed) {
+            for(Listener listener : listeners) {
+                listener.songRemoved(key);
+            }
+        }
+    }
+
+    /**
+     * Method that gets the metadata of a song only if the file didn't change since it was cached
+     * @param filePath the path of the song
+     * @param attributes the attributes of the file
+     * @return the metadata or null if the file has to be read
+     */
+    public Mp3Metadata lookup(String filePath, BasicFileAttributes attributes) {
+        String key = new File(filePath).getAbsolutePath();
+        synchronized(this) {
+            Entry entry = entries.get(key);
+            if(entry != null && !entry.stale && entry.matches(attributes)) {
+                hits.incrementAndGet();
+                return entry.metadata;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method that gets the loudness measured for a song if the file didn't change since
+     * @param filePath the path of the song
+     * @param attributes the attributes of the file
+     * @return the loudness or null if the song has to be measured
+     */
+    public Loudness getLoudness(String filePath, BasicFileAttributes attributes) {
+        String key = new File(filePath).getAbsolutePath();
+        synchronized(this) {
+            Entry entry = entries.get(key);
+            return entry != null && entry.matches(attributes) ? entry.loudness : null;
+        }
+    }
+
+    /**
+     * Method that keeps the loudness measured for a song, the song has to be in the cache already
+     * @param filePath the path of the song
+     * @param attributes the attributes of the file that was measured
+     * @param loudness the loudness
+     */
+    public void putLoudness(String filePath, BasicFileAttributes attributes, Loudness loudness) {
+        String key = new File(filePath).getAbsolutePath();
+        synchronized(this) {
+            // a file that changed while it was measured is measured again next time
+            Entry entry = entries.get(key);
+            if(entry == null || !entry.matches(attributes))
+                return;
+            entries.put(key, new Entry(entry.fileSize, entry.lastModified, entry.metadata, loudness, entry.stale));
+            dirty = true;
+        }
+    }
+
+    /**
+     * Method that removes a song from the cache
+     * @param filePath the path of the song
+     */
+    public void remove(String filePath) {
+        String key = new File(filePath).getAbsolutePath();
+        synchronized(this) {
+            if(entries.remove(key) == null)
+                return;
+            dirty = true;
+        }
+        for(Listener listener : listeners) {
+            listener.songRemoved(key);
+        }
+    }
+
+    /**
+     * Method that adds a listener that is told about songs added to and removed from the cache
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Method that goes over every song in the cache
+     * The songs are copied first so the cache isn't blocked while the action runs
+     * @param action called with the absolute path and the metadata of every song
+     */
+    public void forEach(BiConsumer<String, Mp3Metadata> action) {
+        List<Map.Entry<String, Mp3Metadata>> songs;
+        synchronized(this) {
+            songs = new ArrayList<>(entries.size());
+            for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+                songs.add(Map.entry(entry.getKey(), entry.getValue().metadata));
+            }
+        }
+        for(Map.Entry<String, Mp3Metadata> song : songs) {
+            action.accept(song.getKey(), song.getValue());
+        }
+    }
+
+    /**
+     * Hits getter
+     * @return the number of lookups that were answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Misses getter
+     * @return the number of lookups that had to read the file
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Method that describes the state of the cache in one line
+     * @return the description
+     */
+    public synchronized String getStats() {
+        return String.format("Library cache: %d songs, %d hits, %d misses", entries.size(), hits.get(), misses.get());
+    }
+
+    /**
+     * Size getter
+     * @return the number of songs in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Method that loads the cache file, a missing or broken file leaves the cache empty
+     */
+    private void load() {
+        if(!cacheFile.isFile())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 64 * 1024))) {
+            if(in.readInt() != MAGIC)
+                return;
+            int version = in.readInt();
+            if(version < 2 || version > VERSION)
+                return;
+
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long fileSize = in.readLong();
+                long lastModified = in.readLong();
+                Mp3Metadata metadata = Mp3Metadata.readFrom(in);
+                Loudness loudness = version >= 3 && in.readBoolean() ? Loudness.readFrom(in) : null;
+                boolean stale = version < VERSION || in.readBoolean();
+                entries.put(key, new Entry(fileSize, lastModified, metadata, loudness, stale));
+            }
+        } catch (IOException e) {
+            // start over instead of using a half read cache
+            entries.clear();
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method that writes the cache to disk if anything changed
+     * The file is written to a temp file first and then renamed so a crash can't corrupt it
+     */
+    public synchronized void save() {
+        if(!dirty)
+            return;
+
+        try {
+            File parent = cacheFile.getAbsoluteFile().getParentFile();
+            if(parent != null)
+                parent.mkdirs();
+
+            File tempFile = new File(cacheFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for(Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    out.writeUTF(mapEntry.getKey());
+                    out.writeLong(entry.fileSize);
+                    out.writeLong(entry.lastModified);
+                    entry.metadata.writeTo(out);
+                    out.writeBoolean(entry.loudness != null);
+                    if(entry.loudness != null)
+                        entry.loudness.writeTo(out);
+                    out.writeBoolean(entry.stale);
+                }
+            }
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
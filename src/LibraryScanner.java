@@ -0,0 +1,308 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Library Scanner Class
+ * Walks one or more folders recursively and reads every mp3 file it finds. Folders are
+ * listed and files are read on many threads at once so the waits on the disk overlap.
+ * Files that didn't change since they were last read come straight from the library cache,
+ * so scanning the same folders again only costs one file system lookup per file.
+ * Nothing is kept about the files after they were passed to the listener, so the size of
+ * the library doesn't matter for the memory the scanner uses.
+ *
+ * The number of threads is set with the musicplayer.scanner.threads property.
+ * @author abhinavk
+ */
+public class LibraryScanner {
+    private static final int THREADS = Integer.getInteger("musicplayer.scanner.threads", Runtime.getRuntime().availableProcessors() * 4);
+
+    // files of a folder are read in batches so big folders are spread over the threads
+    private static final int BATCH_SIZE = 64;
+
+    private static final long PROGRESS_INTERVAL_NANOS = 250_000_000L;
+
+    private final List<File> roots;
+    private final Listener listener;
+    private final LibraryCache libraryCache = LibraryCache.getInstance();
+
+    private ExecutorService executor;
+    private volatile boolean cancelled;
+    private long startNanos;
+
+    // folders and batches that were submitted but didn't finish yet
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    private final AtomicInteger directories = new AtomicInteger();
+    private final AtomicInteger songs = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong lastProgressNanos = new AtomicLong();
+
+    /**
+     * Interface used to receive the songs that were found
+     */
+    public interface Listener {
+        /**
+         * Called for every mp3 file that was read, from several threads at once
+         * @param song the song
+         */
+        void songFound(Song song);
+
+        /**
+         * Called for every mp3 file that couldn't be read, from several threads at once
+         * @param songPath the path of the file
+         * @param e the reason
+         */
+        void songFailed(String songPath, Exception e);
+
+        /**
+         * Called a few times per second while scanning
+         * @param progress how far the scan is
+         */
+        void progressUpdated(Progress progress);
+
+        /**
+         * Called once when every folder was scanned, not called when the scan was cancelled
+         * @param progress the totals of the scan
+         */
+        void scanFinished(Progress progress);
+    }
+
+    /**
+     * How far a scan is
+     */
+    public static class Progress {
+        private final int directories;
+        private final int songs;
+        private final int unchanged;
+        private final int failed;
+        private final long elapsedMillis;
+
+        Progress(int directories, int songs, int unchanged, int failed, long elapsedMillis) {
+            this.directories = directories;
+            this.songs = songs;
+            this.unchanged = unchanged;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Directories getter
+         * @return the number of folders listed so far
+         */
+        public int getDirectories() {
+            return directories;
+        }
+
+        /**
+         * Songs getter
+         * @return the number of mp3 files read so far
+         */
+        public int getSongs() {
+            return songs;
+        }
+
+        /**
+         * Unchanged getter
+         * @return how many of the songs came from the library cache
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Failed getter
+         * @return the number of mp3 files that couldn't be read
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Elapsed time getter
+         * @return the time since the scan started in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Throughput getter
+         * @return the files handled per second since the scan started
+         */
+        public double getFilesPerSecond() {
+            return elapsedMillis == 0 ? 0 : (songs + failed) * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d songs (%d unchanged, %d failed) in %d folders, %.0f files/s",
+                    songs, unchanged, failed, directories, getFilesPerSecond());
+        }
+    }
+
+    /**
+     * Constructor
+     * @param roots the folders to scan
+     * @param listener the listener of the scan
+     */
+    public LibraryScanner(List<File> roots, Listener listener) {
+        this.roots = new ArrayList<>(roots);
+        this.listener = listener;
+    }
+
+    /**
+     * Method that starts the scan in the background
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        executor = Executors.newFixedThreadPool(THREADS, PlaylistLoader.daemonThreadFactory("library-scanner"));
+
+        // counts as a task until every root was submitted so the scan can't finish early
+        pendingTasks.incrementAndGet();
+        for(File root : roots) {
+            submit(() -> scanDirectory(root.toPath()));
+        }
+        taskDone();
+    }
+
+    /**
+     * Method that stops the scan, songs already being read may still be reported
+     */
+    public void cancel() {
+        cancelled = true;
+        if(executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Method that checks if the scan was cancelled
+     * @return true if cancel() was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Method that runs a task on the scanner threads and keeps count of it
+     */
+    private void submit(Runnable task) {
+        pendingTasks.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    if(!cancelled)
+                        task.run();
+                } finally {
+                    taskDone();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the scan was cancelled
+            taskDone();
+        }
+    }
+
+    /**
+     * Method called when a task finished, the last one ends the scan
+     */
+    private void taskDone() {
+        if(pendingTasks.decrementAndGet() == 0 && finished.compareAndSet(false, true)) {
+            executor.shutdown();
+            if(!cancelled) {
+                // keep what was read for the next scan
+                libraryCache.save();
+                listener.scanFinished(progress());
+            }
+        }
+    }
+
+    /**
+     * Method that lists a folder, sub folders become tasks of their own
+     */
+    private void scanDirectory(Path directory) {
+        List<Path> files = new ArrayList<>(BATCH_SIZE);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for(Path path : stream) {
+                if(cancelled)
+                    return;
+
+                if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    submit(() -> scanDirectory(path));
+                }else if(path.getFileName().toString().toLowerCase().endsWith(".mp3")) {
+                    files.add(path);
+                    if(files.size() == BATCH_SIZE) {
+                        List<Path> batch = files;
+                        submit(() -> readSongs(batch));
+                        files = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't scan " + directory + ": " + e.getMessage());
+        }
+        directories.incrementAndGet();
+
+        // the last batch is read on this thread
+        readSongs(files);
+    }
+
+    /**
+     * Method that reads the metadata of a batch of files
+     */
+    private void readSongs(List<Path> files) {
+        for(Path path : files) {
+            if(cancelled)
+                return;
+
+            String filePath = path.toString();
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                Mp3Metadata metadata = libraryCache.lookup(filePath, attributes);
+                if(metadata != null) {
+                    unchanged.incrementAndGet();
+                }else {
+                    metadata = libraryCache.read(filePath, attributes);
+                }
+                songs.incrementAndGet();
+                listener.songFound(new Song(filePath, metadata));
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                listener.songFailed(filePath, e);
+            }
+            reportProgress();
+        }
+    }
+
+    /**
+     * Method that tells the listener how far the scan is, at most a few times per second
+     */
+    private void reportProgress() {
+        long now = System.nanoTime();
+        long last = lastProgressNanos.get();
+        if(now - last >= PROGRESS_INTERVAL_NANOS && lastProgressNanos.compareAndSet(last, now))
+            listener.progressUpdated(progress());
+    }
+
+    /**
+     * Method that takes a snapshot of the counters
+     */
+    private Progress progress() {
+        return new Progress(directories.get(), songs.get(), unchanged.get(), failed.get(),
+                (System.nanoTime() - startNanos) / 1_000_000);
+    }
+}
@@ -0,0 +1,151 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Loudness Class
+ * How loud a song is, measured the EBU R128 way in LUFS, and the gain ReplayGain 2.0 gives
+ * it to play at the -18 LUFS reference. The album values are filled in once every song of
+ * the album was measured, the songs of a folder count as an album.
+ * @author abhinavk
+ */
+public class Loudness {
+    // ReplayGain 2.0 plays everything at this loudness
+    public static final double REFERENCE_LUFS = -18;
+
+    private final float trackLufs;
+    private final float trackPeak;
+    private final double gatedPower;
+    private final int gatedBlocks;
+    private final float albumLufs;
+    private final float albumPeak;
+
+    /**
+     * Constructor
+     * @param trackLufs the integrated loudness of the song
+     * @param trackPeak the highest sample of the song, 1 is full scale
+     * @param gatedPower the mean power of the blocks that passed the gates, used to measure the album
+     * @param gatedBlocks the number of blocks that passed the gates
+     * @param albumLufs the integrated loudness of the album, NaN if it isn't known
+     * @param albumPeak the highest sample of the album, NaN if it isn't known
+     */
+    public Loudness(float trackLufs, float trackPeak, double gatedPower, int gatedBlocks, float albumLufs, float albumPeak) {
+        this.trackLufs = trackLufs;
+        this.trackPeak = trackPeak;
+        this.gatedPower = gatedPower;
+        this.gatedBlocks = gatedBlocks;
+        this.albumLufs = albumLufs;
+        this.albumPeak = albumPeak;
+    }
+
+    /**
+     * Method that makes a copy with the album values filled in
+     * @param albumLufs the integrated loudness of the album
+     * @param albumPeak the highest sample of the album
+     * @return the copy
+     */
+    public Loudness withAlbum(float albumLufs, float albumPeak) {
+        return new Loudness(trackLufs, trackPeak, gatedPower, gatedBlocks, albumLufs, albumPeak);
+    }
+
+    /**
+     * Method that reads loudness written by writeTo(), used by the library cache
+     * @param in the stream to read from
+     * @return the loudness
+     * @throws IOException if the stream can't be read
+     */
+    static Loudness readFrom(DataInput in) throws IOException {
+        return new Loudness(in.readFloat(), in.readFloat(), in.readDouble(), in.readInt(), in.readFloat(), in.readFloat());
+    }
+
+    /**
+     * Method that writes the loudness in a compact binary form
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeFloat(trackLufs);
+        out.writeFloat(trackPeak);
+        out.writeDouble(gatedPower);
+        out.writeInt(gatedBlocks);
+        out.writeFloat(albumLufs);
+        out.writeFloat(albumPeak);
+    }
+
+    /**
+     * Track loudness getter
+     * @return the integrated loudness of the song in LUFS, -infinity for silence
+     */
+    public float getTrackLufs() {
+        return trackLufs;
+    }
+
+    /**
+     * Track peak getter
+     * @return the highest sample of the song, 1 is full scale
+     */
+    public float getTrackPeak() {
+        return trackPeak;
+    }
+
+    /**
+     * Gated power getter
+     * @return the mean power of the blocks that passed the gates
+     */
+    public double getGatedPower() {
+        return gatedPower;
+    }
+
+    /**
+     * Gated blocks getter
+     * @return the number of 400 ms blocks that passed the gates
+     */
+    public int getGatedBlocks() {
+        return gatedBlocks;
+    }
+
+    /**
+     * Album loudness getter
+     * @return the integrated loudness of the album in LUFS, NaN if it isn't known
+     */
+    public float getAlbumLufs() {
+        return albumLufs;
+    }
+
+    /**
+     * Album peak getter
+     * @return the highest sample of the album, NaN if it isn't known
+     */
+    public float getAlbumPeak() {
+        return albumPeak;
+    }
+
+    /**
+     * Method that checks if the album values are known
+     * @return true once every song of the album was measured
+     */
+    public boolean hasAlbum() {
+        return !Float.isNaN(albumLufs);
+    }
+
+    /**
+     * Track gain getter
+     * @return the gain that brings the song to the reference loudness in dB, 0 for silence
+     */
+    public double getTrackGainDb() {
+        return Float.isInfinite(trackLufs) ? 0 : REFERENCE_LUFS - trackLufs;
+    }
+
+    /**
+     * Album gain getter
+     * @return the gain that brings the album to the reference loudness in dB, the track gain if it isn't known
+     */
+    public double getAlbumGainDb() {
+        return hasAlbum() && !Float.isInfinite(albumLufs) ? REFERENCE_LUFS - albumLufs : getTrackGainDb();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f LUFS, peak %.3f, gain %+.1f dB", trackLufs, trackPeak, getTrackGainDb());
+    }
+}
@@ -0,0 +1,526 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Loudness Analyzer Class
+ * Measures how loud songs are, the way EBU R128 and ReplayGain 2.0 do it: the audio goes through
+ * the K-weighting filter, its power is taken over 400 ms blocks and the integrated loudness is
+ * the mean of the blocks that pass the -70 LUFS and the -10 LU gates. Songs are decoded on a
+ * fork join pool with a thread per core, each song by one thread, and idle threads steal the
+ * songs that are left. Once every song of a folder was measured, also the ones this analysis
+ * wasn't given, the folder gets an album loudness, combined from the blocks of its songs that
+ * passed their gates.
+ *
+ * The results are kept in the library cache, so a song is only measured again when its file
+ * changed. Songs that were already measured are skipped, so an analysis that was cancelled or
+ * killed goes on where it stopped when it is started again. The cache is saved every 30 seconds
+ * while the analysis runs.
+ *
+ * The number of threads is set with the musicplayer.loudness.threads property.
+ * @author abhinavk
+ */
+public class LoudnessAnalyzer {
+    private static final int THREADS = Integer.getInteger("musicplayer.loudness.threads", Runtime.getRuntime().availableProcessors());
+
+    private static final long PROGRESS_INTERVAL_NANOS = 250_000_000L;
+    private static final long SAVE_INTERVAL_NANOS = 30_000_000_000L;
+
+    // blocks quieter than this are left out before the relative gate is worked out
+    private static final double ABSOLUTE_GATE_LUFS = -70;
+    private static final double RELATIVE_GATE_LU = -10;
+
+    private final List<String> filePaths;
+    private final Listener listener;
+    private final LibraryCache libraryCache = LibraryCache.getInstance();
+
+    private ForkJoinPool pool;
+    private volatile boolean cancelled;
+    private long startNanos;
+
+    private final AtomicInteger analyzed = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong lastProgressNanos = new AtomicLong();
+    private final AtomicLong lastSaveNanos = new AtomicLong();
+
+    /**
+     * Interface used to follow an analysis, called from the analyzer threads
+     */
+    public interface Listener {
+        /**
+         * Called a few times per second while songs are measured
+         * @param progress how far the analysis is
+         */
+        void progressUpdated(Progress progress);
+
+        /**
+         * Called once when every song was measured, not called when the analysis was cancelled
+         * @param progress the totals of the analysis
+         */
+        void analysisFinished(Progress progress);
+    }
+
+    /**
+     * How far an analysis is
+     */
+    public static class Progress {
+        private final int analyzed;
+        private final int unchanged;
+        private final int failed;
+        private final int total;
+        private final long elapsedMillis;
+
+        Progress(int analyzed, int unchanged, int failed, int total, long elapsedMillis) {
+            this.analyzed = analyzed;
+            this.unchanged = unchanged;
+            this.failed = failed;
+            this.total = total;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Analyzed getter
+         * @return the number of songs measured so far
+         */
+        public int getAnalyzed() {
+            return analyzed;
+        }
+
+        /**
+         * Unchanged getter
+         * @return the number of songs skipped because they were measured before
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * Failed getter
+         * @return the number of songs that couldn't be decoded
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Total getter
+         * @return the number of songs of the analysis
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Elapsed time getter
+         * @return the time since the analysis started in milliseconds
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Throughput getter
+         * @return the songs measured per minute since the analysis started, skipped songs don't count
+         */
+        public double getTracksPerMinute() {
+            return elapsedMillis == 0 ? 0 : analyzed * 60_000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d songs (%d unchanged, %d failed), %.0f tracks/min",
+                    analyzed + unchanged + failed, total, unchanged, failed, getTracksPerMinute());
+        }
+    }
+
+    /**
+     * Constructor
+     * @param filePaths the songs to measure
+     * @param listener the listener of the analysis
+     */
+    public LoudnessAnalyzer(List<String> filePaths, Listener listener) {
+        this.filePaths = new ArrayList<>(filePaths);
+        this.listener = listener;
+    }
+
+    /**
+     * Method that starts the analysis in the background
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        lastSaveNanos.set(startNanos);
+        pool = new ForkJoinPool(THREADS, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("loudness-analyzer-" + thread.getPoolIndex());
+            // playback has to keep up, the analysis doesn't
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, false);
+
+        pool.execute(() -> {
+            if(!filePaths.isEmpty())
+                new AnalyzeSongs(0, filePaths.size()).invoke();
+            if(cancelled)
+                return;
+            measureAlbums();
+            libraryCache.save();
+            pool.shutdown();
+            listener.analysisFinished(progress());
+        });
+    }
+
+    /**
+     * Method that stops the analysis, the songs measured so far are kept
+     */
+    public void cancel() {
+        cancelled = true;
+        if(pool == null)
+            return;
+
+        // saving a large cache takes a while, so it runs on the pool and not on the caller's thread
+        try {
+            pool.execute(libraryCache::save);
+        } catch (RejectedExecutionException e) {
+            // the analysis finished and saved already
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Method that checks if the analysis was cancelled
+     * @return true if cancel() was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Task that measures a range of the songs, split in halves until one song is left
+     */
+    private class AnalyzeSongs extends RecursiveAction {
+        private final int from, to;
+
+        AnalyzeSongs(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(cancelled)
+                return;
+            if(to - from == 1) {
+                analyze(filePaths.get(from));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new AnalyzeSongs(from, middle), new AnalyzeSongs(middle, to));
+        }
+    }
+
+    /**
+     * Method that measures a song unless it was measured before
+     */
+    private void analyze(String filePath) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(new File(filePath).toPath(), BasicFileAttributes.class);
+            if(libraryCache.getLoudness(filePath, attributes) != null) {
+                unchanged.incrementAndGet();
+            }else {
+                // the loudness is kept in the song's cache entry, so the song has to be in the cache
+                Mp3Metadata metadata = libraryCache.read(filePath, attributes);
+                Loudness loudness = measure(filePath, metadata);
+                if(loudness == null)
+                    return;
+                libraryCache.putLoudness(filePath, attributes, loudness);
+                analyzed.incrementAndGet();
+            }
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.println("Couldn't analyze " + filePath + ": " + e.getMessage());
+        }
+        reportProgress();
+    }
+
+    /**
+     * Method that decodes a whole song through the loudness meter
+     * @return the loudness or null if the analysis was cancelled
+     */
+    private Loudness measure(String filePath, Mp3Metadata metadata) throws Exception {
+        Meter meter = null;
+        Mp3InputSource inputSource = Mp3InputSource.acquire(filePath);
+        Bitstream bitstream = new Bitstream(inputSource.openStream(metadata.getAudioStartOffset()));
+        try {
+            Decoder decoder = new Decoder();
+            while(!cancelled) {
+                Header header = bitstream.readFrame();
+                if(header == null)
+                    break;
+                SampleBuffer output;
+                try {
+                    output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                } catch (DecoderException | RuntimeException e) {
+                    // a broken frame is left out, the frames after it are still measured
+                    continue;
+                } finally {
+                    bitstream.closeFrame();
+                }
+                if(meter == null)
+                    meter = new Meter(output.getSampleFrequency(), output.getChannelCount());
+                meter.add(output.getBuffer(), output.getBufferLength());
+            }
+        } finally {
+            bitstream.close();
+            inputSource.release();
+        }
+        if(cancelled)
+            return null;
+        if(meter == null)
+            throw new IOException("No audio frames");
+        return meter.getLoudness();
+    }
+
+    /**
+     * Method that gives the songs of every folder whose songs were all measured their album loudness
+     */
+    private void measureAlbums() {
+        Set<File> folders = new LinkedHashSet<>();
+        for(String filePath : filePaths) {
+            folders.add(new File(filePath).getAbsoluteFile().getParentFile());
+        }
+
+        for(File folder : folders) {
+            // the album is the whole folder, a playlist with part of it can't tell how loud it is
+            File[] songFiles = folder.listFiles(file -> file.isFile() && file.getName().toLowerCase().endsWith(".mp3"));
+            if(songFiles == null || songFiles.length == 0)
+                continue;
+            List<String> album = new ArrayList<>(songFiles.length);
+            for(File songFile : songFiles) {
+                album.add(songFile.getPath());
+            }
+
+            List<BasicFileAttributes> attributes = new ArrayList<>(album.size());
+            List<Loudness> loudnesses = new ArrayList<>(album.size());
+            double power = 0;
+            long blocks = 0;
+            float peak = 0;
+            try {
+                for(String filePath : album) {
+                    BasicFileAttributes songAttributes = Files.readAttributes(new File(filePath).toPath(), BasicFileAttributes.class);
+                    Loudness loudness = libraryCache.getLoudness(filePath, songAttributes);
+                    if(loudness == null)
+                        break;
+                    attributes.add(songAttributes);
+                    loudnesses.add(loudness);
+                    power += loudness.getGatedPower() * loudness.getGatedBlocks();
+                    blocks += loudness.getGatedBlocks();
+                    peak = Math.max(peak, loudness.getTrackPeak());
+                }
+            } catch (IOException e) {
+                System.err.println("Couldn't measure the album of " + album.get(0) + ": " + e.getMessage());
+                continue;
+            }
+            // a song that failed or wasn't measured yet leaves the album without album gain
+            if(loudnesses.size() < album.size())
+                continue;
+
+            float albumLufs = (float) lufs(blocks == 0 ? 0 : power / blocks);
+            for(int i = 0; i < album.size(); i++) {
+                Loudness loudness = loudnesses.get(i);
+                if(loudness.getAlbumLufs() != albumLufs || loudness.getAlbumPeak() != peak)
+                    libraryCache.putLoudness(album.get(i), attributes.get(i), loudness.withAlbum(albumLufs, peak));
+            }
+        }
+    }
+
+    /**
+     * Method that tells the listener how far the analysis is at most a few times per second and saves now and then
+     */
+    private void reportProgress() {
+        long now = System.nanoTime();
+        long last = lastProgressNanos.get();
+        if(now - last >= PROGRESS_INTERVAL_NANOS && lastProgressNanos.compareAndSet(last, now))
+            listener.progressUpdated(progress());
+
+        // an analysis that is killed only loses the songs measured since the last save
+        long lastSave = lastSaveNanos.get();
+        if(now - lastSave >= SAVE_INTERVAL_NANOS && lastSaveNanos.compareAndSet(lastSave, now))
+            libraryCache.save();
+    }
+
+    /**
+     * Method that takes a snapshot of the counters
+     */
+    private Progress progress() {
+        return new Progress(analyzed.get(), unchanged.get(), failed.get(), filePaths.size(),
+                (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    /**
+     * Method that turns a mean power into a loudness
+     */
+    private static double lufs(double power) {
+        return power <= 0 ? Double.NEGATIVE_INFINITY : -0.691 + 10 * Math.log10(power);
+    }
+
+    /**
+     * Method that turns a loudness into a mean power
+     */
+    private static double power(double lufs) {
+        return Math.pow(10, (lufs + 0.691) / 10);
+    }
+
+    /**
+     * Class that measures the loudness of one song, fed with its samples in order
+     */
+    static class Meter {
+        private final int channels;
+
+        // 400 ms blocks that overlap by 75%, so one ends every 100 ms step
+        private final int stepSamples;
+        private final double[] stepPowers = new double[4];
+        private int steps;
+        private int stepFill;
+        private double stepSum;
+        private double[] blockPowers = new double[1024];
+        private int blocks;
+        private int peak;
+
+        // the two biquads of the K-weighting filter: a high shelf for the head, then a high pass
+        private final double shelfB0, shelfB1, shelfB2, shelfA1, shelfA2;
+        private final double passB0, passB1, passB2, passA1, passA2;
+
+        // the filter state of every channel, two values per biquad
+        private final double[] state;
+
+        /**
+         * Constructor that works the filter out for a sample rate, the way libebur128 does
+         * @param sampleRate the sample rate of the song
+         * @param channels the number of channels
+         */
+        Meter(int sampleRate, int channels) {
+            this.channels = channels;
+            stepSamples = Math.max(1, sampleRate / 10);
+            state = new double[channels * 4];
+
+            double f0 = 1681.974450955533;
+            double gainDb = 3.999843853973347;
+            double q = 0.7071752369554196;
+            double k = Math.tan(Math.PI * f0 / sampleRate);
+            double vh = Math.pow(10, gainDb / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1 + k / q + k * k;
+            shelfB0 = (vh + vb * k / q + k * k) / a0;
+            shelfB1 = 2 * (k * k - vh) / a0;
+            shelfB2 = (vh - vb * k / q + k * k) / a0;
+            shelfA1 = 2 * (k * k - 1) / a0;
+            shelfA2 = (1 - k / q + k * k) / a0;
+
+            f0 = 38.13547087602444;
+            q = 0.5003270373238773;
+            k = Math.tan(Math.PI * f0 / sampleRate);
+            a0 = 1 + k / q + k * k;
+            passB0 = 1;
+            passB1 = -2;
+            passB2 = 1;
+            passA1 = 2 * (k * k - 1) / a0;
+            passA2 = (1 - k / q + k * k) / a0;
+        }
+
+        /**
+         * Method that measures interleaved samples
+         * @param samples the samples
+         * @param length the number of samples to measure
+         */
+        void add(short[] samples, int length) {
+            for(int i = 0; i + channels <= length; i += channels) {
+                for(int channel = 0; channel < channels; channel++) {
+                    int sample = samples[i + channel];
+                    peak = Math.max(peak, Math.abs(sample));
+
+                    // transposed direct form II, both biquads one after the other
+                    int s = channel * 4;
+                    double x = sample / 32768.0;
+                    double y = shelfB0 * x + state[s];
+                    state[s] = shelfB1 * x - shelfA1 * y + state[s + 1];
+                    state[s + 1] = shelfB2 * x - shelfA2 * y;
+                    x = y;
+                    y = passB0 * x + state[s + 2];
+                    state[s + 2] = passB1 * x - passA1 * y + state[s + 3];
+                    state[s + 3] = passB2 * x - passA2 * y;
+
+                    // left and right count the same
+                    stepSum += y * y;
+                }
+                if(++stepFill == stepSamples)
+                    endStep();
+            }
+        }
+
+        /**
+         * Method that ends a 100 ms step and with it the block of the last four steps
+         */
+        private void endStep() {
+            stepPowers[steps % 4] = stepSum / stepSamples;
+            steps++;
+            stepSum = 0;
+            stepFill = 0;
+            if(steps < 4)
+                return;
+
+            if(blocks == blockPowers.length) {
+                double[] grown = new double[blocks * 2];
+                System.arraycopy(blockPowers, 0, grown, 0, blocks);
+                blockPowers = grown;
+            }
+            blockPowers[blocks++] = (stepPowers[0] + stepPowers[1] + stepPowers[2] + stepPowers[3]) / 4;
+        }
+
+        /**
+         * Method that gates the blocks measured so far
+         * @return the loudness of the song, without album values
+         */
+        Loudness getLoudness() {
+            double absoluteGate = power(ABSOLUTE_GATE_LUFS);
+            double sum = 0;
+            int count = 0;
+            for(int i = 0; i < blocks; i++) {
+                if(blockPowers[i] > absoluteGate) {
+                    sum += blockPowers[i];
+                    count++;
+                }
+            }
+
+            double gate = count == 0 ? absoluteGate : Math.max(absoluteGate, sum / count * Math.pow(10, RELATIVE_GATE_LU / 10));
+            sum = 0;
+            count = 0;
+            for(int i = 0; i < blocks; i++) {
+                if(blockPowers[i] > gate) {
+                    sum += blockPowers[i];
+                    count++;
+                }
+            }
+
+            double gatedPower = count == 0 ? 0 : sum / count;
+            return new Loudness((float) lufs(gatedPower), peak / 32768f, gatedPower, count, Float.NaN, Float.NaN);
+        }
+    }
+}
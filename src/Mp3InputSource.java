@@ -0,0 +1,433 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mp3 Input Source Class
+ * Gives the decoder access to an mp3 file without going through small heap buffers.
+ * In mapped mode the whole file is memory mapped once and every stream is a view on
+ * the mapping, in streamed mode the file is read through a FileChannel into a large
+ * direct buffer. Sources of recently played songs stay open so pause, resume and
+ * seek don't reopen the file, unless its size or modification time changed.
+ *
+ * The mode is picked with the musicplayer.input.mode property (auto, mapped or streamed),
+ * in auto mode files larger than musicplayer.input.mapLimitMB are streamed.
+ * @author abhinavk
+ */
+public class Mp3InputSource {
+    private static final String MODE = System.getProperty("musicplayer.input.mode", "auto");
+    private static final long MAP_LIMIT = Long.getLong("musicplayer.input.mapLimitMB", 512) * 1024 * 1024;
+    private static final int BUFFER_SIZE = Integer.getInteger("musicplayer.input.bufferKB", 256) * 1024;
+    private static final int MAX_OPEN_SOURCES = Integer.getInteger("musicplayer.input.openFiles", 4);
+
+    // sources that stay open after their last stream was closed, least recently used first
+    private static final LinkedHashMap<String, Mp3InputSource> OPEN_SOURCES = new LinkedHashMap<>(16, 0.75f, true);
+
+    // counters of the work done to get bytes to the decoder
+    private static final AtomicLong fileOpens = new AtomicLong();
+    private static final AtomicLong readCalls = new AtomicLong();
+    private static final AtomicLong copyCalls = new AtomicLong();
+    private static final AtomicLong bytesCopied = new AtomicLong();
+
+    /**
+     * How the file is accessed
+     */
+    public enum Mode {
+        MAPPED,
+        STREAMED
+    }
+
+    private final String filePath;
+    private final Mode mode;
+    private final long size;
+    private final long lastModified;
+    private final MappedByteBuffer mapped;
+    private final FileChannel channel;
+
+    // direct buffer kept for the next stream, allocating one is expensive
+    private ByteBuffer spareBuffer;
+
+    // one reference is held by OPEN_SOURCES while it is cached
+    private int references;
+
+    /**
+     * Constructor that opens the file
+     */
+    private Mp3InputSource(String filePath, Mode mode) throws IOException {
+        this.filePath = filePath;
+        FileChannel fileChannel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        fileOpens.incrementAndGet();
+        size = fileChannel.size();
+        lastModified = Files.getLastModifiedTime(Paths.get(filePath)).toMillis();
+
+        // a mapping can't be larger than 2 GB
+        if(mode == Mode.MAPPED && size > Integer.MAX_VALUE)
+            mode = Mode.STREAMED;
+        this.mode = mode;
+
+        if(mode == Mode.MAPPED) {
+            // the mapping stays valid after the channel is closed
+            try {
+                mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } finally {
+                fileChannel.close();
+            }
+            channel = null;
+        }else {
+            mapped = null;
+            channel = fileChannel;
+        }
+    }
+
+    /**
+     * Method that gets the open source of a file or opens it
+     * Every call has to be matched by a call to release()
+     * @param filePath the path of the mp3 file
+     * @return the source
+     * @throws IOException if the file can't be opened
+     */
+    public static Mp3InputSource acquire(String filePath) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(Paths.get(filePath), BasicFileAttributes.class);
+        synchronized(OPEN_SOURCES) {
+            Mp3InputSource source = OPEN_SOURCES.get(filePath);
+
+            // a file that was rewritten is opened again, streams still on the old source keep it
+            if(source != null && (source.size != attributes.size() || source.lastModified != attributes.lastModifiedTime().toMillis())) {
+                OPEN_SOURCES.remove(filePath);
+                source.release();
+                source = null;
+            }
+            if(source == null) {
+                source = new Mp3InputSource(filePath, modeFor(filePath));
+                source.references = 1;
+                OPEN_SOURCES.put(filePath, source);
+                closeEldestSources();
+            }
+            source.references++;
+            return source;
+        }
+    }
+
+    /**
+     * Method that opens a source in a given mode without caching it, used to compare the modes
+     * @param filePath the path of the mp3 file
+     * @param mode how the file is accessed
+     * @return the source, release() closes it
+     * @throws IOException if the file can't be opened
+     */
+    static Mp3InputSource open(String filePath, Mode mode) throws IOException {
+        Mp3InputSource source = new Mp3InputSource(filePath, mode);
+        source.references = 1;
+        return source;
+    }
+
+    /**
+     * Method that gives back a source that was acquired, it is closed once nothing uses it
+     */
+    public void release() {
+        synchronized(OPEN_SOURCES) {
+            if(--references == 0)
+                closeChannel();
+        }
+    }
+
+    /**
+     * Method that drops the least recently used sources above the limit
+     */
+    private static void closeEldestSources() {
+        Iterator<Mp3InputSource> iterator = OPEN_SOURCES.values().iterator();
+        while(OPEN_SOURCES.size() > MAX_OPEN_SOURCES && iterator.hasNext()) {
+            Mp3InputSource source = iterator.next();
+            iterator.remove();
+            source.release();
+        }
+    }
+
+    /**
+     * Method that picks the mode for a file from the musicplayer.input.mode property
+     */
+    private static Mode modeFor(String filePath) throws IOException {
+        switch(MODE) {
+            case "mapped":
+                return Mode.MAPPED;
+            case "streamed":
+                return Mode.STREAMED;
+            default:
+                return Files.size(Paths.get(filePath)) > MAP_LIMIT ? Mode.STREAMED : Mode.MAPPED;
+        }
+    }
+
+    /**
+     * Method that opens a stream over the file starting at a byte offset
+     * Several streams can be open at the same time, each has its own position
+     * @param offset the byte offset to start from
+     * @return the stream, closing it leaves the source open
+     */
+    public InputStream openStream(long offset) {
+        if(mode == Mode.MAPPED) {
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) Math.min(offset, size));
+            return new MappedStream(view);
+        }
+        return new ChannelStream(offset, takeBuffer());
+    }
+
+    /**
+     * Method that closes the channel when the last reference is gone
+     */
+    private void closeChannel() {
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Method that reuses the spare direct buffer or allocates one
+     */
+    private synchronized ByteBuffer takeBuffer() {
+        ByteBuffer buffer = spareBuffer;
+        spareBuffer = null;
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Method that keeps a direct buffer for the next stream
+     */
+    private synchronized void returnBuffer(ByteBuffer buffer) {
+        spareBuffer = buffer;
+    }
+
+    /**
+     * File path getter
+     * @return the path of the mp3 file
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Mode getter
+     * @return how the file is accessed
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Size getter
+     * @return the size of the file in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Last modified getter
+     * @return the modification time of the file in milliseconds when it was opened
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * File opens getter
+     * @return how many times a file was opened or mapped
+     */
+    public static long getFileOpens() {
+        return fileOpens.get();
+    }
+
+    /**
+     * Read calls getter
+     * @return how many reads went to the operating system
+     */
+    public static long getReadCalls() {
+        return readCalls.get();
+    }
+
+    /**
+     * Copy calls getter
+     * @return how many times bytes were copied into the decoder's buffers
+     */
+    public static long getCopyCalls() {
+        return copyCalls.get();
+    }
+
+    /**
+     * Bytes copied getter
+     * @return how many bytes were copied into the decoder's buffers
+     */
+    public static long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    /**
+     * Method that sets all counters back to zero
+     */
+    public static void resetCounters() {
+        fileOpens.set(0);
+        readCalls.set(0);
+        copyCalls.set(0);
+        bytesCopied.set(0);
+    }
+
+    /**
+     * Method that closes every cached source, streams still in use keep theirs open
+     */
+    public static void closeAll() {
+        synchronized(OPEN_SOURCES) {
+            for(Mp3InputSource source : OPEN_SOURCES.values()) {
+                source.release();
+            }
+            OPEN_SOURCES.clear();
+        }
+    }
+
+    /**
+     * Stream over a view of the mapped file, reading never calls the operating system
+     */
+    private static class MappedStream extends InputStream {
+        private final ByteBuffer view;
+
+        MappedStream(ByteBuffer view) {
+            this.view = view;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return view.hasRemaining() ? view.get() & 0xFF : -1;
+            } catch (InternalError e) {
+                throw truncated(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            if(!view.hasRemaining())
+                return -1;
+            int n = Math.min(len, view.remaining());
+            try {
+                view.get(b, off, n);
+            } catch (InternalError e) {
+                throw truncated(e);
+            }
+            copyCalls.incrementAndGet();
+            bytesCopied.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, view.remaining()));
+            view.position(view.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return view.remaining();
+        }
+
+        /**
+         * Method that turns the fault of reading a mapping past the end of a file that shrank into an IOException
+         */
+        private static IOException truncated(InternalError e) {
+            return new IOException("File was truncated while it was read", e);
+        }
+    }
+
+    /**
+     * Stream that reads the file in large blocks into a direct buffer
+     * Positional reads are used so streams on the same channel don't get in each other's way
+     */
+    private class ChannelStream extends InputStream {
+        private ByteBuffer buffer;
+        private long filePosition;
+
+        ChannelStream(long offset, ByteBuffer buffer) {
+            this.filePosition = offset;
+            this.buffer = buffer;
+            buffer.clear().limit(0);
+        }
+
+        /**
+         * Method that reads the next block, returns false at the end of the file
+         */
+        private boolean fill() throws IOException {
+            if(buffer == null)
+                throw new IOException("Stream closed");
+            buffer.clear();
+            int n = channel.read(buffer, filePosition);
+            readCalls.incrementAndGet();
+            buffer.flip();
+            if(n <= 0)
+                return false;
+            filePosition += n;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if((buffer == null || !buffer.hasRemaining()) && !fill())
+                return -1;
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            if((buffer == null || !buffer.hasRemaining()) && !fill())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            copyCalls.incrementAndGet();
+            bytesCopied.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if(buffer == null)
+                throw new IOException("Stream closed");
+            if(n <= 0)
+                return 0;
+            int inBuffer = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + inBuffer);
+            long beyond = Math.max(0, Math.min(n - inBuffer, size - filePosition));
+            filePosition += beyond;
+            return inBuffer + beyond;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if(buffer == null)
+                throw new IOException("Stream closed");
+            return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + Math.max(0, size - filePosition));
+        }
+
+        @Override
+        public void close() {
+            if(buffer != null) {
+                returnBuffer(buffer);
+                buffer = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,828 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Mp3 Metadata Class
+ * Reads the title, artist, duration and frame count of an mp3 file in a single pass.
+ * Only the ID3v2/ID3v1 tags and the Xing/Info/VBRI header are read, a full frame scan
+ * is only done for files without one of those headers that can't be shown to be CBR.
+ * The length is worked out the way mp3agic does it, from the audio bytes and the average
+ * bitrate, whichever way the file was read. With a vbr header the average bitrate comes from
+ * the byte count instead of every frame, which can put the length a millisecond off.
+ * @author abhinavk
+ */
+public class Mp3Metadata {
+    // how much audio we look through to find the first frame and the vbr header
+    private static final int HEAD_BUFFER_LENGTH = 64 * 1024;
+
+    // how many frames we sample after the first one to decide if the file is CBR
+    private static final int CBR_PROBE_FRAMES = 16;
+
+    // how many places spread over the file are checked for a frame where a CBR file would have one
+    private static final int CBR_SAMPLE_POINTS = 8;
+
+    // how much of an ID3v2 tag is read at a time, text frames are small and usually come first
+    private static final int TAG_BLOCK_LENGTH = 8 * 1024;
+
+    // size of the ID3v1 tag at the end of the file
+    private static final int ID3V1_LENGTH = 128;
+
+    // bitrates in kbps indexed by [version][layer][bitrate index]
+    private static final int[][][] BITRATES = {
+        // MPEG-1
+        {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448, 0},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384, 0},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0}
+        },
+        // MPEG-2 and MPEG-2.5
+        {
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256, 0},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0}
+        }
+    };
+
+    // sample rates indexed by [version bits][sample rate index]
+    private static final int[][] SAMPLE_RATES = {
+        {11025, 12000, 8000},   // MPEG-2.5
+        {0, 0, 0},              // reserved
+        {22050, 24000, 16000},  // MPEG-2
+        {44100, 48000, 32000}   // MPEG-1
+    };
+
+    private String songTitle;
+    private String songArtist;
+    private int frameCount;
+    private long lengthInMilliseconds;
+    private int bitrate;
+    private int sampleRate;
+    private int samplesPerFrame;
+    private int firstFrameOffset;
+    private int audioStartOffset;
+    private int audioEndOffset;
+    private boolean vbr;
+    private int encoderDelay;
+    private int encoderPadding;
+
+    /**
+     * Constructor used by the reader and the library cache
+     */
+    Mp3Metadata(String songTitle, String songArtist, int frameCount, long lengthInMilliseconds,
+            int bitrate, int sampleRate, int samplesPerFrame, int firstFrameOffset,
+            int audioStartOffset, int audioEndOffset, boolean vbr, int encoderDelay, int encoderPadding) {
+        this.songTitle = songTitle;
+        this.songArtist = songArtist;
+        this.frameCount = frameCount;
+        this.lengthInMilliseconds = lengthInMilliseconds;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+        this.samplesPerFrame = samplesPerFrame;
+        this.firstFrameOffset = firstFrameOffset;
+        this.audioStartOffset = audioStartOffset;
+        this.audioEndOffset = audioEndOffset;
+        this.vbr = vbr;
+        this.encoderDelay = encoderDelay;
+        this.encoderPadding = encoderPadding;
+    }
+
+    /**
+     * Method that reads the metadata of an mp3 file
+     * @param filePath the path of the mp3 file
+     * @return the metadata
+     * @throws IOException if the file can't be read or has no mpeg frames
+     */
+    public static Mp3Metadata read(String filePath) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(new File(filePath), "r")) {
+            return new Reader(file).read();
+        }
+    }
+
+    /**
+     * Method that reads metadata written by writeTo(), used by the library cache and binary playlists
+     * @param in the stream to read from
+     * @return the metadata
+     * @throws IOException if the stream can't be read
+     */
+    static Mp3Metadata readFrom(DataInput in) throws IOException {
+        return new Mp3Metadata(
+                in.readUTF(), in.readUTF(), in.readInt(), in.readLong(), in.readInt(),
+                in.readInt(), in.readShort(), in.readInt(), in.readInt(), in.readInt(),
+                in.readBoolean(), in.readShort(), in.readShort());
+    }
+
+    /**
+     * Method that writes the metadata in a compact binary form
+     * @param out the stream to write to
+     * @throws IOException if the stream can't be written
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(songTitle);
+        out.writeUTF(songArtist);
+        out.writeInt(frameCount);
+        out.writeLong(lengthInMilliseconds);
+        out.writeInt(bitrate);
+        out.writeInt(sampleRate);
+        out.writeShort(samplesPerFrame);
+        out.writeInt(firstFrameOffset);
+        out.writeInt(audioStartOffset);
+        out.writeInt(audioEndOffset);
+        out.writeBoolean(vbr);
+        out.writeShort(encoderDelay);
+        out.writeShort(encoderPadding);
+    }
+
+    /**
+     * Song title getter
+     * @return the song's title, "N/A" if the file has no tag
+     */
+    public String getSongTitle() {
+        return songTitle;
+    }
+
+    /**
+     * Song artist getter
+     * @return the song's artist, "N/A" if the file has no tag
+     */
+    public String getSongArtist() {
+        return songArtist;
+    }
+
+    /**
+     * Frame count getter
+     * @return the number of audio frames
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Length in milliseconds getter
+     * @return the length of the song in milliseconds
+     */
+    public long getLengthInMilliseconds() {
+        return lengthInMilliseconds;
+    }
+
+    /**
+     * Length in seconds getter
+     * @return the length of the song rounded to seconds
+     */
+    public long getLengthInSeconds() {
+        return (lengthInMilliseconds + 500) / 1000;
+    }
+
+    /**
+     * Bitrate getter
+     * @return the (average) bitrate in kbps
+     */
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    /**
+     * Sample rate getter
+     * @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Samples per frame getter
+     * @return the number of samples per channel in each frame
+     */
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    /**
+     * First frame offset getter
+     * @return the byte offset of the first mpeg frame, including a Xing/Info/VBRI frame
+     */
+    public int getFirstFrameOffset() {
+        return firstFrameOffset;
+    }
+
+    /**
+     * Audio start offset getter
+     * @return the byte offset of the first audio frame
+     */
+    public int getAudioStartOffset() {
+        return audioStartOffset;
+    }
+
+    /**
+     * Audio end offset getter
+     * @return the byte offset right after the last audio frame
+     */
+    public int getAudioEndOffset() {
+        return audioEndOffset;
+    }
+
+    /**
+     * VBR getter
+     * @return true if the file is variable bitrate
+     */
+    public boolean isVbr() {
+        return vbr;
+    }
+
+    /**
+     * Encoder delay getter
+     * @return the silent samples the encoder added at the start, -1 if the file has no LAME header
+     */
+    public int getEncoderDelay() {
+        return encoderDelay;
+    }
+
+    /**
+     * Encoder padding getter
+     * @return the silent samples the encoder added at the end, -1 if the file has no LAME header
+     */
+    public int getEncoderPadding() {
+        return encoderPadding;
+    }
+
+    /**
+     * Method that checks if the file says how much silence the encoder added
+     * @return true if the song can be trimmed for gapless playback
+     */
+    public boolean hasGaplessInfo() {
+        return encoderDelay >= 0 && encoderPadding >= 0;
+    }
+
+    /**
+     * Class that does the actual reading of a single file
+     */
+    private static class Reader {
+        private final RandomAccessFile file;
+        private final long fileLength;
+
+        private String title, artist;
+        private boolean hasId3v2Tag;
+        private int encoderDelay = -1, encoderPadding = -1;
+        private int audioEnd;
+
+        Reader(RandomAccessFile file) throws IOException {
+            this.file = file;
+            this.fileLength = file.length();
+        }
+
+        Mp3Metadata read() throws IOException {
+            int tagEnd = readId3v2Tag();
+            readId3v1Tag();
+
+            // audio ends right before the ID3v1 tag (if there is one)
+            if(audioEnd == 0)
+                audioEnd = (int) fileLength;
+
+            // read the head of the audio to find the first frame and a vbr header
+            byte[] head = new byte[Math.min(HEAD_BUFFER_LENGTH, Math.max(0, audioEnd - tagEnd))];
+            file.seek(tagEnd);
+            file.readFully(head);
+
+            int firstFrame = findFirstFrame(head);
+            if(firstFrame < 0)
+                throw new IOException("No mpeg frames found");
+            FrameHeader header = FrameHeader.parse(head, firstFrame);
+
+            Mp3Metadata metadata = readXingHeader(head, firstFrame, header, tagEnd);
+            if(metadata == null)
+                metadata = readVbriHeader(head, firstFrame, header, tagEnd);
+            if(metadata == null && !isProbablyVbr(head, firstFrame) && isCbrThroughout(header, tagEnd + firstFrame))
+                metadata = estimateCbr(header, tagEnd + firstFrame);
+            if(metadata == null)
+                metadata = scanFrames(header, tagEnd + firstFrame);
+            return metadata;
+        }
+
+        /**
+         * Method that reads the title and artist frames of the ID3v2 tag at the start of the file
+         * Only frame headers and the text frames are read, other frames like the cover art are skipped
+         * @return the offset right after the tag
+         */
+        private int readId3v2Tag() throws IOException {
+            if(fileLength < 10)
+                return 0;
+
+            byte[] header = new byte[10];
+            file.seek(0);
+            file.readFully(header);
+            if(header[0] != 'I' || header[1] != 'D' || header[2] != '3')
+                return 0;
+
+            int majorVersion = header[3];
+            int flags = header[5] & 0xFF;
+            int size = synchsafe(header, 6);
+            int tagEnd = 10 + size + ((flags & 0x10) != 0 ? 10 : 0);
+
+            // v2.4 unsynchronises per frame, earlier versions the whole tag, where frames are only found after undoing it
+            TagBody body;
+            if((flags & 0x80) != 0 && majorVersion < 4) {
+                byte[] bytes = new byte[(int) Math.min(size, fileLength - 10)];
+                file.readFully(bytes);
+                body = new TagBody(removeUnsynchronisation(bytes, 0, bytes.length));
+            }else {
+                body = new TagBody((int) Math.min(size, fileLength - 10));
+            }
+
+            hasId3v2Tag = true;
+            title = "";
+            artist = "";
+
+            int offset = 0;
+            // skip the extended header
+            if((flags & 0x40) != 0 && majorVersion >= 3 && body.length >= 4) {
+                int i = body.fill(0, 4);
+                offset = majorVersion == 4 ? synchsafe(body.block, i) : 4 + readInt(body.block, i);
+            }
+
+            int idLength = majorVersion == 2 ? 3 : 4;
+            int headerLength = majorVersion == 2 ? 6 : 10;
+            while(offset >= 0 && offset + headerLength <= body.length && (title.isEmpty() || artist.isEmpty())) {
+                int i = body.fill(offset, headerLength);
+                byte[] block = body.block;
+                if(block[i] == 0)
+                    break;
+                String id = new String(block, i, idLength, StandardCharsets.ISO_8859_1);
+                int frameSize;
+                int formatFlags = 0;
+                if(majorVersion == 2) {
+                    frameSize = ((block[i + 3] & 0xFF) << 16) | ((block[i + 4] & 0xFF) << 8) | (block[i + 5] & 0xFF);
+                }else if(majorVersion == 4) {
+                    frameSize = synchsafe(block, i + 4);
+                    formatFlags = block[i + 9] & 0xFF;
+                }else {
+                    frameSize = readInt(block, i + 4);
+                    formatFlags = block[i + 9] & 0xFF;
+                }
+                int dataStart = offset + headerLength;
+                if(frameSize <= 0 || frameSize > body.length - dataStart)
+                    break;
+
+                boolean isTitle = id.equals("TIT2") || id.equals("TT2");
+                boolean isArtist = id.equals("TPE1") || id.equals("TP1");
+
+                // compressed or encrypted frames can't be read as plain text
+                boolean readable = majorVersion == 4 ? (formatFlags & 0x0C) == 0 : (formatFlags & 0xC0) == 0;
+                if((isTitle || isArtist) && readable) {
+                    int j = body.fill(dataStart, frameSize);
+                    byte[] data = majorVersion == 4 && (formatFlags & 0x02) != 0
+                            ? removeUnsynchronisation(body.block, j, frameSize)
+                            : Arrays.copyOfRange(body.block, j, j + frameSize);
+                    // v2.4 may have a data length indicator in front of the data
+                    int dataOffset = majorVersion == 4 && (formatFlags & 0x01) != 0 ? 4 : 0;
+                    String text = decodeText(data, dataOffset);
+                    if(isTitle && title.isEmpty())
+                        title = text;
+                    else if(isArtist && artist.isEmpty())
+                        artist = text;
+                }
+                offset = dataStart + frameSize;
+            }
+            return tagEnd;
+        }
+
+        /**
+         * The body of an ID3v2 tag, read from the file a block at a time so large frames are skipped
+         */
+        private class TagBody {
+            final int length;
+            byte[] block;
+            private int blockStart;
+            private int blockLength;
+
+            /**
+             * Constructor of a body that is read from the file right after the tag header
+             */
+            TagBody(int length) {
+                this.length = length;
+            }
+
+            /**
+             * Constructor of a body that is already in memory
+             */
+            TagBody(byte[] bytes) {
+                length = bytes.length;
+                block = bytes;
+                blockLength = bytes.length;
+            }
+
+            /**
+             * Method that makes bytes of the body available in block
+             * @return where the bytes start in block
+             */
+            int fill(int offset, int count) throws IOException {
+                if(block != null && offset >= blockStart && offset + count <= blockStart + blockLength)
+                    return offset - blockStart;
+                if(block == null || block.length < count)
+                    block = new byte[Math.max(TAG_BLOCK_LENGTH, count)];
+                blockStart = offset;
+                blockLength = Math.min(block.length, length - offset);
+                file.seek(10 + offset);
+                file.readFully(block, 0, blockLength);
+                return 0;
+            }
+        }
+
+        /**
+         * Method that reads the ID3v1 tag at the end of the file
+         */
+        private void readId3v1Tag() throws IOException {
+            if(fileLength < ID3V1_LENGTH)
+                return;
+
+            byte[] tag = new byte[ID3V1_LENGTH];
+            file.seek(fileLength - ID3V1_LENGTH);
+            file.readFully(tag);
+            if(tag[0] != 'T' || tag[1] != 'A' || tag[2] != 'G')
+                return;
+
+            audioEnd = (int) fileLength - ID3V1_LENGTH;
+
+            // the ID3v2 tag takes priority when both are present
+            if(!hasId3v2Tag) {
+                title = trimLatin1(tag, 3, 30);
+                artist = trimLatin1(tag, 33, 30);
+            }
+        }
+
+        /**
+         * Method that looks for the first frame header followed by a second valid one
+         */
+        private int findFirstFrame(byte[] head) {
+            for(int offset = 0; offset + 4 <= head.length; offset++) {
+                FrameHeader header = FrameHeader.parse(head, offset);
+                if(header == null)
+                    continue;
+
+                // make sure the next frame lines up so we don't lock onto random bytes
+                int next = offset + header.frameLength;
+                if(next + 4 > head.length || FrameHeader.parse(head, next) != null)
+                    return offset;
+            }
+            return -1;
+        }
+
+        /**
+         * Method that reads a Xing or Info header from the first frame
+         * @return the metadata, null if there is no usable header
+         */
+        private Mp3Metadata readXingHeader(byte[] head, int firstFrame, FrameHeader header, int tagEnd) {
+            int offset = firstFrame + header.xingOffset();
+            if(offset + 16 > head.length)
+                return null;
+            boolean xing = matches(head, offset, "Xing");
+            if(!xing && !matches(head, offset, "Info"))
+                return null;
+
+            int flags = readInt(head, offset + 4);
+            if((flags & 0x01) == 0)
+                return null;
+            int frames = readInt(head, offset + 8);
+            int bytes = (flags & 0x02) != 0 ? readInt(head, offset + 12) : 0;
+            readLameHeader(head, offset, flags);
+
+            int audioStart = tagEnd + firstFrame + header.frameLength;
+            int end = bytes > 0 ? Math.min(tagEnd + firstFrame + bytes, audioEnd) : audioEnd;
+
+            // "Info" is written by LAME for CBR files
+            return fromFrameCount(header, frames, tagEnd + firstFrame, audioStart, end, xing);
+        }
+
+        /**
+         * Method that reads the encoder delay and padding from the LAME extension of a Xing/Info header
+         */
+        private void readLameHeader(byte[] head, int xingOffset, int flags) {
+            // the LAME extension follows whichever optional fields the flags say are present
+            int offset = xingOffset + 8;
+            if((flags & 0x01) != 0)
+                offset += 4;
+            if((flags & 0x02) != 0)
+                offset += 4;
+            if((flags & 0x04) != 0)
+                offset += 100;
+            if((flags & 0x08) != 0)
+                offset += 4;
+            if(offset + 24 > head.length)
+                return;
+
+            // ffmpeg writes the same extension as LAME
+            if(!matches(head, offset, "LAME") && !matches(head, offset, "Lavf") && !matches(head, offset, "Lavc"))
+                return;
+
+            // 12 bits of delay followed by 12 bits of padding
+            int b1 = head[offset + 21] & 0xFF;
+            int b2 = head[offset + 22] & 0xFF;
+            int b3 = head[offset + 23] & 0xFF;
+            encoderDelay = (b1 << 4) | (b2 >> 4);
+            encoderPadding = ((b2 & 0x0F) << 8) | b3;
+        }
+
+        /**
+         * Method that reads a Fraunhofer VBRI header from the first frame
+         * @return the metadata, null if there is no VBRI header
+         */
+        private Mp3Metadata readVbriHeader(byte[] head, int firstFrame, FrameHeader header, int tagEnd) {
+            int offset = firstFrame + 36;
+            if(offset + 18 > head.length || !matches(head, offset, "VBRI"))
+                return null;
+
+            int bytes = readInt(head, offset + 10);
+            int frames = readInt(head, offset + 14);
+
+            int audioStart = tagEnd + firstFrame + header.frameLength;
+            int end = bytes > 0 ? Math.min(tagEnd + firstFrame + bytes, audioEnd) : audioEnd;
+            return fromFrameCount(header, frames, tagEnd + firstFrame, audioStart, end, true);
+        }
+
+        /**
+         * Method that checks if the frames after the first one change bitrate
+         */
+        private boolean isProbablyVbr(byte[] head, int firstFrame) {
+            FrameHeader first = FrameHeader.parse(head, firstFrame);
+            int offset = firstFrame + first.frameLength;
+            for(int i = 0; i < CBR_PROBE_FRAMES; i++) {
+                FrameHeader header = FrameHeader.parse(head, offset);
+                if(header == null)
+                    break;
+                if(header.bitrate != first.bitrate)
+                    return true;
+                offset += header.frameLength;
+            }
+            return false;
+        }
+
+        /**
+         * Method that checks places spread over the file, the frames of a CBR file start where the
+         * average frame length puts them and have the bitrate of the first one
+         * @return false if a place has no such frame, the file is scanned then
+         */
+        private boolean isCbrThroughout(FrameHeader first, int audioStart) throws IOException {
+            double frameLength = first.averageFrameLength();
+            long frames = (long) ((audioEnd - audioStart) / frameLength);
+            byte[] bytes = new byte[12];
+            for(int i = 1; i <= CBR_SAMPLE_POINTS; i++) {
+                // padding can move a frame a few bytes away from its average place
+                long frame = frames * i / (CBR_SAMPLE_POINTS + 1);
+                long from = Math.max(audioStart, audioStart + Math.round(frame * frameLength) - 4);
+                if(from + bytes.length > audioEnd)
+                    continue;
+                file.seek(from);
+                file.readFully(bytes);
+                boolean found = false;
+                for(int offset = 0; offset + 4 <= bytes.length && !found; offset++) {
+                    FrameHeader header = FrameHeader.parse(bytes, offset);
+                    found = header != null && header.bitrate == first.bitrate && header.sampleRate == first.sampleRate;
+                }
+                if(!found)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Method that works out the stream info of a CBR file from its size
+         */
+        private Mp3Metadata estimateCbr(FrameHeader header, int audioStart) {
+            // average frame length, padding makes frames one byte longer every now and then
+            double frameLength = header.averageFrameLength();
+            int frames = (int) ((audioEnd - audioStart + 1) / frameLength);
+            int end = Math.min(audioStart + (int) Math.round(frames * frameLength), audioEnd);
+
+            return new Mp3Metadata(title(), artist(), frames, lengthInMillis(audioStart, end, header.bitrate), header.bitrate,
+                    header.sampleRate, header.samplesPerFrame, audioStart, audioStart, end, false, -1, -1);
+        }
+
+        /**
+         * Method that walks through every frame header of the file
+         */
+        private Mp3Metadata scanFrames(FrameHeader first, int audioStart) throws IOException {
+            byte[] buffer = new byte[HEAD_BUFFER_LENGTH];
+            long position = audioStart;
+            int frames = 0;
+            double averageBitrate = 0;
+            int end = audioStart;
+            boolean vbr = false;
+
+            file.seek(position);
+            int bufferStart = audioStart;
+            int bufferLength = 0;
+            int offset = 0;
+            while(true) {
+                // refill the buffer when the next header isn't fully in it
+                if(offset + 4 > bufferLength) {
+                    bufferStart += offset;
+                    if(bufferStart + 4 > audioEnd)
+                        break;
+                    file.seek(bufferStart);
+                    bufferLength = file.read(buffer, 0, Math.min(buffer.length, audioEnd - bufferStart));
+                    offset = 0;
+                    if(bufferLength < 4)
+                        break;
+                }
+
+                FrameHeader header = FrameHeader.parse(buffer, offset);
+                if(header == null || bufferStart + offset + header.frameLength > audioEnd)
+                    break;
+
+                frames++;
+                averageBitrate = ((averageBitrate * (frames - 1)) + header.bitrate) / frames;
+                vbr |= header.bitrate != first.bitrate;
+                offset += header.frameLength;
+                end = bufferStart + offset;
+            }
+            if(frames == 0)
+                throw new IOException("No mpeg frames found");
+
+            return new Mp3Metadata(title(), artist(), frames, lengthInMillis(audioStart, end, averageBitrate), (int) (averageBitrate + 0.5),
+                    first.sampleRate, first.samplesPerFrame, audioStart, audioStart, end, vbr, -1, -1);
+        }
+
+        /**
+         * Method that builds the metadata from a frame count given by a vbr header
+         */
+        private Mp3Metadata fromFrameCount(FrameHeader header, int frames, int firstFrame, int audioStart, int end, boolean vbr) {
+            // the average of the frame bitrates a scan would add up, a frame's length grows with its bitrate
+            double averageBitrate = frames > 0 && end > audioStart
+                    ? (end - audioStart) / (frames * header.averageFrameLength()) * header.bitrate : header.bitrate;
+            return new Mp3Metadata(title(), artist(), frames, lengthInMillis(audioStart, end, averageBitrate), (int) (averageBitrate + 0.5),
+                    header.sampleRate, header.samplesPerFrame, firstFrame, audioStart, end, vbr, encoderDelay, encoderPadding);
+        }
+
+        /**
+         * Method that works out the length the way mp3agic does, from the offsets of the first and last byte of audio
+         */
+        private long lengthInMillis(int audioStart, int end, double averageBitrate) {
+            return (long) ((8.0 * (end - 1 - audioStart) / averageBitrate) + 0.5);
+        }
+
+        private String title() {
+            return title != null ? title : "N/A";
+        }
+
+        private String artist() {
+            return artist != null ? artist : "N/A";
+        }
+    }
+
+    /**
+     * Class that holds the fields of an mpeg audio frame header
+     */
+    static class FrameHeader {
+        int version;        // 3 = MPEG-1, 2 = MPEG-2, 0 = MPEG-2.5
+        int layer;          // 1, 2 or 3
+        int bitrate;
+        int sampleRate;
+        int samplesPerFrame;
+        int frameLength;
+        boolean mono;
+
+        /**
+         * Method that parses a frame header
+         * @return the header, null if the bytes at the offset aren't a valid header
+         */
+        static FrameHeader parse(byte[] bytes, int offset) {
+            if(offset < 0 || offset + 4 > bytes.length)
+                return null;
+            int b1 = bytes[offset] & 0xFF;
+            int b2 = bytes[offset + 1] & 0xFF;
+            int b3 = bytes[offset + 2] & 0xFF;
+            int b4 = bytes[offset + 3] & 0xFF;
+            if(b1 != 0xFF || (b2 & 0xE0) != 0xE0)
+                return null;
+
+            int version = (b2 >> 3) & 0x03;
+            int layerBits = (b2 >> 1) & 0x03;
+            int bitrateIndex = (b3 >> 4) & 0x0F;
+            int sampleRateIndex = (b3 >> 2) & 0x03;
+            if(version == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3)
+                return null;
+
+            FrameHeader header = new FrameHeader();
+            header.version = version;
+            header.layer = 4 - layerBits;
+            header.bitrate = BITRATES[version == 3 ? 0 : 1][header.layer - 1][bitrateIndex];
+            header.sampleRate = SAMPLE_RATES[version][sampleRateIndex];
+            header.mono = ((b4 >> 6) & 0x03) == 3;
+            int padding = (b3 >> 1) & 0x01;
+
+            if(header.layer == 1) {
+                header.samplesPerFrame = 384;
+                header.frameLength = (12000 * header.bitrate / header.sampleRate + padding) * 4;
+            }else if(header.layer == 2 || version == 3) {
+                header.samplesPerFrame = 1152;
+                header.frameLength = 144000 * header.bitrate / header.sampleRate + padding;
+            }else {
+                header.samplesPerFrame = 576;
+                header.frameLength = 72000 * header.bitrate / header.sampleRate + padding;
+            }
+            return header;
+        }
+
+        /**
+         * Method that gets the average length of a frame with this bitrate including padding
+         */
+        double averageFrameLength() {
+            return (double) samplesPerFrame / 8 * bitrate * 1000 / sampleRate;
+        }
+
+        /**
+         * Method that gets the offset of a Xing/Info header inside the frame (after the side info)
+         */
+        int xingOffset() {
+            if(version == 3)
+                return mono ? 4 + 17 : 4 + 32;
+            return mono ? 4 + 9 : 4 + 17;
+        }
+    }
+
+    /**
+     * Method that reads a big endian int
+     */
+    static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Method that reads a synchsafe int (7 bits per byte) used by ID3v2
+     */
+    private static int synchsafe(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0x7F) << 21) | ((bytes[offset + 1] & 0x7F) << 14)
+                | ((bytes[offset + 2] & 0x7F) << 7) | (bytes[offset + 3] & 0x7F);
+    }
+
+    /**
+     * Method that checks if the bytes at the offset spell out a marker
+     */
+    private static boolean matches(byte[] bytes, int offset, String marker) {
+        for(int i = 0; i < marker.length(); i++) {
+            if(bytes[offset + i] != marker.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method that undoes ID3v2 unsynchronisation (0xFF 0x00 becomes 0xFF)
+     */
+    private static byte[] removeUnsynchronisation(byte[] bytes, int offset, int length) {
+        byte[] result = new byte[length];
+        int count = 0;
+        for(int i = offset; i < offset + length; i++) {
+            result[count++] = bytes[i];
+            if((bytes[i] & 0xFF) == 0xFF && i + 1 < offset + length && bytes[i + 1] == 0)
+                i++;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Method that decodes an ID3v2 text frame, only the first value is returned
+     */
+    private static String decodeText(byte[] data, int offset) {
+        if(offset >= data.length)
+            return "";
+
+        Charset charset;
+        boolean wide = false;
+        switch(data[offset]) {
+            case 1: charset = StandardCharsets.UTF_16; wide = true; break;
+            case 2: charset = StandardCharsets.UTF_16BE; wide = true; break;
+            case 3: charset = StandardCharsets.UTF_8; break;
+            default: charset = StandardCharsets.ISO_8859_1; break;
+        }
+        int start = offset + 1;
+
+        // text ends at the first null terminator
+        int end = start;
+        if(wide) {
+            while(end + 1 < data.length && (data[end] != 0 || data[end + 1] != 0))
+                end += 2;
+            if(end + 1 >= data.length)
+                end = data.length;
+        }else {
+            while(end < data.length && data[end] != 0)
+                end++;
+        }
+        return new String(data, start, end - start, charset).trim();
+    }
+
+    /**
+     * Method that reads a fixed width ID3v1 field
+     */
+    private static String trimLatin1(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while(end < offset + length && bytes[end] != 0)
+            end++;
+        return new String(bytes, offset, end - offset, StandardCharsets.ISO_8859_1).trim();
+    }
+}
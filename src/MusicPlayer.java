@@ -1,31 +1,44 @@
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-
-import javazoom.jl.player.advanced.AdvancedPlayer;
-import javazoom.jl.player.advanced.PlaybackEvent;
-import javazoom.jl.player.advanced.PlaybackListener;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Music Player class
+ * Turns the actions of the user into commands for the playback engine and passes the
+ * engine's events on to a listener. Nothing in here needs AWT or Swing, the gui and the
+ * headless app are both just listeners. The listener is called on the executor given
+ * to the constructor, the public methods are expected to be called on it too.
  * @author abhinavk
  */
-public class MusicPlayer extends PlaybackListener {
-    private static final Object playSignal = new Object();
-    private MusicPlayerGUI musicPlayerGUI;
+public class MusicPlayer implements PlaybackEngine.Listener {
+    // reads and writes the saved play queue
+    private static final ExecutorService QUEUE_IO = Executors.newSingleThreadExecutor(
+            PlaylistLoader.daemonThreadFactory("play-queue"));
+
+    private MusicPlayerListener listener;
+    private Executor listenerExecutor;
+    private PlaybackClock playbackClock;
+    private PlaybackEngine.AudioDeviceFactory audioDeviceFactory;
+    private PlaybackEngine playbackEngine;
+
+    // a restored queue that is handed to the engine once it is started
+    private PlayQueue pendingQueue;
     private Song currentSong;
-    private AdvancedPlayer advancedPlayer;
-    private boolean isPaused;
-    private int currentFrame;
-    private int currentTimeInMilli;
-    private ArrayList<Song> playlist;
-    private int currentPlaylistIndex;
-    private boolean songFinished;
-    private boolean pressedNext, pressedPrev;
-    
+    private PlaylistLoader playlistLoader;
+    private LibraryScanner libraryScanner;
+    private LoudnessAnalyzer loudnessAnalyzer;
+    private int playlistGeneration;
+
     /**
      * Current Song getter
      * @return the current song
@@ -33,306 +46,532 @@ public class MusicPlayer extends PlaybackListener {
     public Song getCurrentSong() {
         return currentSong;
     }
-    
+
     /**
-     * Current frame setter
-     * @param frame the frame
+     * Music Player constructor that plays through the system audio device
+     * @param listener the listener of the player, usually the gui
+     * @param listenerExecutor the executor the listener is called on, the EDT for the gui
      */
-    public void setCurrentFrame(int frame) {
-        currentFrame = frame;
+    public MusicPlayer(MusicPlayerListener listener, Executor listenerExecutor) {
+        this(listener, listenerExecutor, null);
     }
-    
+
     /**
-     * Current time in milli setter
-     * @param timeInMilli the time in milliseconds
+     * Music Player constructor
+     * @param listener the listener of the player
+     * @param listenerExecutor the executor the listener is called on
+     * @param audioDeviceFactory creates the device the audio is written to, null for the system device
      */
-    public void setCurrentTimeInMilli(int timeInMilli) {
-        currentTimeInMilli = timeInMilli;
+    public MusicPlayer(MusicPlayerListener listener, Executor listenerExecutor, PlaybackEngine.AudioDeviceFactory audioDeviceFactory) {
+        this.listener = listener;
+        // measures how long the listener's updates wait on its executor
+        this.listenerExecutor = PlaybackMetrics.getInstance().timed(listenerExecutor);
+        this.audioDeviceFactory = audioDeviceFactory;
+        playbackClock = new PlaybackClock(this.listenerExecutor);
+
+        // keep the listener in sync with the audio that is heard
+        playbackClock.addPositionListener(listener::positionChanged);
     }
-    
+
     /**
-     * Music Player constructor
-     * @param musicPlayerGUI instance of the gui
+     * Gapless setter
+     * @param gapless true to start the next song of the playlist without a gap
+     */
+    public void setGapless(boolean gapless) {
+        getPlaybackEngine().setGapless(gapless);
+    }
+
+    /**
+     * Crossfade setter
+     * @param seconds how long consecutive songs of the playlist overlap, 0 for none
+     */
+    public void setCrossfade(int seconds) {
+        getPlaybackEngine().setCrossfade(seconds);
+    }
+
+    /**
+     * Shuffle setter that picks a new order each time
+     * @param shuffle true to play the playlist in a random order
+     */
+    public void setShuffle(boolean shuffle) {
+        setShuffle(shuffle, System.nanoTime());
+    }
+
+    /**
+     * Shuffle setter
+     * @param shuffle true to play the playlist in a random order
+     * @param seed the seed of the order, the same seed on the same playlist plays the same order
+     */
+    public void setShuffle(boolean shuffle, long seed) {
+        getPlaybackEngine().setShuffle(shuffle, seed);
+    }
+
+    /**
+     * Repeat setter
+     * @param repeat whether the current song or the playlist is played again once it ended
+     */
+    public void setRepeat(PlayQueue.Repeat repeat) {
+        getPlaybackEngine().setRepeat(repeat);
+    }
+
+    /**
+     * ReplayGain setter
+     * @param mode which gain to apply to the songs that were analyzed
+     */
+    public void setReplayGain(GainStage.Mode mode) {
+        getPlaybackEngine().setReplayGain(mode);
+    }
+
+    /**
+     * Method that measures the loudness of songs in the background, an analysis that is still running is cancelled
+     * Songs that were measured before are skipped, so a cancelled analysis goes on where it stopped
+     * @param filePaths the songs to measure
+     */
+    public void analyzeLoudness(List<String> filePaths) {
+        if(loudnessAnalyzer != null)
+            loudnessAnalyzer.cancel();
+
+        loudnessAnalyzer = new LoudnessAnalyzer(filePaths, new LoudnessAnalyzer.Listener() {
+            @Override
+            public void progressUpdated(LoudnessAnalyzer.Progress progress) {
+                listenerExecutor.execute(() -> listener.loudnessAnalysisUpdated(progress, false));
+            }
+
+            @Override
+            public void analysisFinished(LoudnessAnalyzer.Progress progress) {
+                System.out.println("Loudness analysis finished: " + progress);
+                listenerExecutor.execute(() -> listener.loudnessAnalysisUpdated(progress, true));
+            }
+        });
+        loudnessAnalyzer.start();
+    }
+
+    /**
+     * Playback clock getter
+     * @return the clock that tracks the playback position
      */
-    public MusicPlayer(MusicPlayerGUI musicPlayerGUI) {
-        this.musicPlayerGUI = musicPlayerGUI;
+    public PlaybackClock getPlaybackClock() {
+        return playbackClock;
     }
-    
+
+    /**
+     * Playback engine getter
+     * @return the engine that plays the songs
+     */
+    public synchronized PlaybackEngine getPlaybackEngine() {
+        // created the first time it is needed, so the decoder classes and the audio thread don't slow startup down
+        if(playbackEngine == null) {
+            // the clocked device moves the playback clock with the audio that was actually played
+            playbackEngine = new PlaybackEngine(playbackClock, () -> audioDeviceFactory == null
+                    ? new ClockedAudioDevice(playbackClock)
+                    : new ClockedAudioDevice(playbackClock, audioDeviceFactory.createAudioDevice()), this);
+            StartupTimer.mark("playback engine started");
+            if(pendingQueue != null) {
+                playbackEngine.restore(pendingQueue);
+                pendingQueue = null;
+            }
+        }
+        return playbackEngine;
+    }
+
     /**
      * Method that loads a song
      * @param song a song
      */
     public void loadSong(Song song) {
-        currentSong = song;
-        playlist = null;
-        
-        // stop the song if needed
-        if(!songFinished)
-        stopSong();
-        
-        if(currentSong != null) {
-            // reset frame
-            currentFrame = 0;
-            
-            // reset current time in milli
-            currentTimeInMilli = 0;
-            
-            // update gui
-            musicPlayerGUI.setPlaybackSliderValue(0);
-            
-            playCurrentSong();
+        // stop a playlist that is still loading
+        cancelPlaylistLoader();
+
+        if(song != null) {
+            getPlaybackEngine().load(List.of(song), 0);
+            listener.playlistChanged(List.of(song), false);
         }
     }
-    
+
+    /**
+     * Method that puts a song after the current one so it plays next, it starts right away if nothing is loaded
+     * @param song a song
+     */
+    public void playNext(Song song) {
+        if(song != null)
+            getPlaybackEngine().playNext(List.of(song));
+    }
+
+    /**
+     * Method that saves the playlist with its order, history and modes for the next session
+     * @param queueFile the file to save to
+     * @return completes once the file was written
+     */
+    public CompletableFuture<Void> saveQueue(File queueFile) {
+        // nothing was played, the queue saved last time is kept
+        synchronized (this) {
+            if(playbackEngine == null)
+                return CompletableFuture.completedFuture(null);
+        }
+
+        // copied on the audio thread, written on another one
+        return getPlaybackEngine().snapshot().thenAcceptAsync(snapshot -> {
+            try {
+                snapshot.write(queueFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, QUEUE_IO);
+    }
+
+    /**
+     * Method that loads the queue saved in an earlier session in the background, playback stops on its current song
+     * The queue is only handed to the playback engine when something needs the engine, so the engine
+     * isn't started just to show the playlist. A playlist loaded before it was read is kept instead,
+     * a queue that can't be read is moved to a .bak file so the next save doesn't overwrite it
+     * @param queueFile the file the queue was saved to, the listener hears playlistRestoreFailed() if there is none
+     */
+    public void restoreQueue(File queueFile) {
+        // callbacks from before another playlist was loaded are ignored
+        int generation = playlistGeneration;
+
+        QUEUE_IO.execute(() -> {
+            if(!queueFile.isFile()) {
+                listenerExecutor.execute(() -> listener.playlistRestoreFailed("No saved play queue: " + queueFile, false));
+                return;
+            }
+            try {
+                PlayQueue queue = PlayQueue.read(queueFile);
+                List<String> filePaths = queue.getPaths();
+                boolean shuffle = queue.isShuffled();
+                PlayQueue.Repeat repeat = queue.getRepeat();
+
+                // read here so the song can be shown before the engine is started
+                long current = queue.getCurrent();
+                Song song = current != PlayQueue.NONE ? queue.getSong(current) : null;
+                int position = queue.getPosition();
+                StartupTimer.mark("play queue restored");
+
+                listenerExecutor.execute(() -> {
+                    if(generation != playlistGeneration)
+                        return;
+                    boolean pending;
+                    synchronized(MusicPlayer.this) {
+                        pending = playbackEngine == null;
+                        if(pending) {
+                            pendingQueue = queue;
+                        }else {
+                            playbackEngine.restore(queue);
+                        }
+                    }
+                    listener.playlistRestored(filePaths, shuffle, repeat);
+                    if(pending && song != null)
+                        songChanged(song, position);
+                });
+            } catch (IOException e) {
+                String message = "Can't restore the play queue: " + e.getMessage();
+                File backupFile = new File(queueFile.getPath() + ".bak");
+                try {
+                    Files.move(queueFile.toPath(), backupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    message += "\nIt was moved to " + backupFile;
+                } catch (IOException moveError) {
+                    moveError.printStackTrace();
+                }
+                System.err.println(message);
+                String failure = message;
+                listenerExecutor.execute(() -> listener.playlistRestoreFailed(failure, true));
+            }
+        });
+    }
+
     /**
      * Method that loads a playlist
+     * The playlist is loaded in the background and the first song starts as soon as it is ready
      * @param playlistFile the playlist
      */
     public void loadPlaylist(File playlistFile) {
-        playlist = new ArrayList<>();
-        
-        // store the paths from the text file into the playlist arraylist
-        try {
-            FileReader fileReader = new FileReader(playlistFile);
-            BufferedReader bufferedReader = new BufferedReader(fileReader);
-            
-            // reach each line from the text file and store the text into the songPath variable
-            String songPath;
-            while((songPath = bufferedReader.readLine()) != null) {
-                // create song object based on song path
-                Song song = new Song(songPath);
-                
-                // add to playlist arraylist
-                playlist.add(song);
+        loadPlaylist(playlistFile, 0);
+    }
+
+    /**
+     * Method that loads a playlist from one of its entries, the entries before it are left out
+     * @param playlistFile the playlist
+     * @param startIndex the entry to start with
+     */
+    public void loadPlaylist(File playlistFile, int startIndex) {
+        // stop a playlist that is still loading
+        cancelPlaylistLoader();
+
+        // callbacks from an older playlist are ignored
+        int generation = playlistGeneration;
+
+        playlistLoader = new PlaylistLoader(playlistFile, startIndex, new PlaylistLoader.Listener() {
+            // songs can be ready faster than the listener executor takes them, they are handed on in batches
+            private final ConcurrentLinkedQueue<Song> loadedSongs = new ConcurrentLinkedQueue<>();
+            private final AtomicBoolean drainPending = new AtomicBoolean();
+            private final AtomicBoolean progressPending = new AtomicBoolean();
+            private volatile int processed, total;
+
+            // only touched on the listener executor
+            private boolean started;
+
+            @Override
+            public void songLoaded(Song song) {
+                loadedSongs.add(song);
+                if(drainPending.compareAndSet(false, true))
+                    listenerExecutor.execute(this::drain);
+            }
+
+            /**
+             * Method that moves the songs loaded so far to the engine
+             */
+            private void drain() {
+                drainPending.set(false);
+                List<Song> songs = new ArrayList<>();
+                for(Song song; (song = loadedSongs.poll()) != null; ) {
+                    songs.add(song);
+                }
+                if(generation != playlistGeneration || songs.isEmpty())
+                    return;
+
+                if(!started) {
+                    // start the first song right away
+                    started = true;
+                    getPlaybackEngine().load(songs, 0);
+                    listener.playlistChanged(songs, false);
+                }else {
+                    getPlaybackEngine().appendAll(songs);
+                    listener.playlistChanged(songs, true);
+                }
+            }
+
+            @Override
+            public void songFailed(String songPath, Exception e) {
+                System.err.println("Skipping " + songPath + ": " + e.getMessage());
+            }
+
+            @Override
+            public void progressUpdated(int processed, int total) {
+                this.processed = processed;
+                this.total = total;
+                if(progressPending.compareAndSet(false, true)) {
+                    listenerExecutor.execute(() -> {
+                        progressPending.set(false);
+                        if(generation == playlistGeneration)
+                            listener.playlistLoadProgress(this.processed, this.total);
+                    });
+                }
+            }
+
+            @Override
+            public void loadingFinished(int loaded, int failed) {
+                // keep the newly read songs for the next time the playlist is loaded
+                LibraryCache.getInstance().save();
+
+                listenerExecutor.execute(() -> {
+                    if(generation == playlistGeneration)
+                        listener.playlistLoadFinished(loaded, failed);
+                });
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        });
+        playlistLoader.start();
+    }
+
+    /**
+     * Method that scans music folders and plays every song found in them as a playlist
+     * Playback starts with the first song found while the scan goes on
+     * @param folders the folders to scan
+     */
+    public void loadLibrary(List<File> folders) {
+        // stop a playlist that is still loading
+        cancelPlaylistLoader();
+
+        // callbacks from an older scan are ignored
+        int generation = playlistGeneration;
+
+        libraryScanner = new LibraryScanner(folders, new LibraryScanner.Listener() {
+            // songs are found on many threads, they are handed to the engine in batches
+            private final ConcurrentLinkedQueue<Song> foundSongs = new ConcurrentLinkedQueue<>();
+            private final AtomicBoolean drainPending = new AtomicBoolean();
+
+            // only touched on the listener executor
+            private boolean started;
+
+            @Override
+            public void songFound(Song song) {
+                foundSongs.add(song);
+                if(drainPending.compareAndSet(false, true))
+                    listenerExecutor.execute(this::drain);
+            }
+
+            /**
+             * Method that moves the songs found so far to the engine
+             */
+            private void drain() {
+                drainPending.set(false);
+                List<Song> songs = new ArrayList<>();
+                for(Song song; (song = foundSongs.poll()) != null; ) {
+                    songs.add(song);
+                }
+                if(generation != playlistGeneration || songs.isEmpty())
+                    return;
+
+                if(!started) {
+                    // start the first song right away
+                    started = true;
+                    getPlaybackEngine().load(songs, 0);
+                    listener.playlistChanged(songs, false);
+                }else {
+                    getPlaybackEngine().appendAll(songs);
+                    listener.playlistChanged(songs, true);
+                }
+            }
+
+            @Override
+            public void songFailed(String songPath, Exception e) {
+                System.err.println("Skipping " + songPath + ": " + e.getMessage());
+            }
+
+            @Override
+            public void progressUpdated(LibraryScanner.Progress progress) {
+                listenerExecutor.execute(() -> {
+                    if(generation == playlistGeneration)
+                        listener.libraryScanUpdated(progress, false);
+                });
+            }
+
+            @Override
+            public void scanFinished(LibraryScanner.Progress progress) {
+                System.out.println("Library scan finished: " + progress);
+                listenerExecutor.execute(() -> {
+                    if(generation == playlistGeneration)
+                        listener.libraryScanUpdated(progress, true);
+                });
+            }
+        });
+        libraryScanner.start();
+    }
+
+    /**
+     * Method that stops a playlist that is still loading or a scan that is still running
+     */
+    private void cancelPlaylistLoader() {
+        if(playlistLoader != null) {
+            playlistLoader.cancel();
+            playlistLoader = null;
+        }
+        if(libraryScanner != null) {
+            libraryScanner.cancel();
+            libraryScanner = null;
         }
-        
-        if(playlist.size() > 0) {
-            // reset playback slider
-            musicPlayerGUI.setPlaybackSliderValue(0);
-            currentTimeInMilli = 0;
-            
-            // update current song to the first song in the playlist
-            currentSong = playlist.get(0);
-            currentPlaylistIndex = 0;
-            
-            // start from the beginning frame
-            currentFrame = 0;
-            
-            // update gui
-            musicPlayerGUI.enablePauseButtonDisablePlayButton();
-            musicPlayerGUI.updateSongTitleAndArtist(currentSong);
-            musicPlayerGUI.updatePlaybackSlider(currentSong);
-            
-            // start song
-            playCurrentSong();
+        playlistGeneration++;
+
+        // a restored queue that wasn't played is replaced too
+        synchronized(this) {
+            pendingQueue = null;
         }
     }
-    
+
     /**
      * Method to pause the song
      */
     public void pauseSong() {
-        if (advancedPlayer != null) {
-            isPaused = true;
-            stopSong();
-        }
+        getPlaybackEngine().pause();
     }
-    
+
     /**
      * Method to stop the song
      */
     public void stopSong() {
-        if (advancedPlayer != null) {
-            advancedPlayer.close();
-            advancedPlayer = null;
+        // nothing was played yet, the engine isn't started only to stop it
+        PlaybackEngine engine;
+        synchronized(this) {
+            engine = playbackEngine;
         }
+        if(engine != null)
+            engine.stop();
     }
-    
+
     /**
      * Method to skip to the next song
      */
     public void nextSong() {
-        // no need to go to the next song if no playlist
-        if(playlist == null)
-        return;
-        
-        // if at the end of the playlist return
-        if(currentPlaylistIndex == playlist.size() - 1)
-        return;
-        
-        pressedNext = true;
-        
-        // stop the song if needed
-        if(!songFinished)
-        stopSong();
-        
-        // increase current playlist index
-        currentPlaylistIndex++;
-        
-        // update current song
-        currentSong = playlist.get(currentPlaylistIndex);
-        
-        // reset frame
-        currentFrame = 0;
-        
-        // reset current time in milli
-        currentTimeInMilli = 0;
-        
-        // update gui
-        musicPlayerGUI.enablePauseButtonDisablePlayButton();
-        musicPlayerGUI.updateSongTitleAndArtist(currentSong);
-        musicPlayerGUI.updatePlaybackSlider(currentSong);
-        
-        // play the song
-        playCurrentSong();
-    }
-    
+        getPlaybackEngine().next();
+    }
+
     /**
      * Method to go back to the previous song
      */
     public void prevSong() {
-        // no need to go to the next song if no playlist
-        if(playlist == null)
-        return;
-        
-        // if at the beginning of the playlist return
-        if(currentPlaylistIndex == 0)
-        return;
-        
-        pressedPrev = true;
-        
-        // stop the song if needed
-        if(!songFinished)
-        stopSong();
-        
-        // decrease current playlist index
-        currentPlaylistIndex--;
-        
-        // update current song
-        currentSong = playlist.get(currentPlaylistIndex);
-        
-        // reset frame
-        currentFrame = 0;
-        
-        // reset current time in milli
-        currentTimeInMilli = 0;
-        
-        // update gui
-        musicPlayerGUI.enablePauseButtonDisablePlayButton();
-        musicPlayerGUI.updateSongTitleAndArtist(currentSong);
-        musicPlayerGUI.updatePlaybackSlider(currentSong);
-        
-        // play the song
-        playCurrentSong();
-    }
-    
+        getPlaybackEngine().prev();
+    }
+
+    /**
+     * Method to play a song of the playlist from its start
+     * @param index the index of the song in the playlist
+     */
+    public void playIndex(int index) {
+        getPlaybackEngine().playAt(index);
+    }
+
+    /**
+     * Method to remove songs from the playlist
+     * @param indices the indices of the songs
+     */
+    public void removeSongs(int[] indices) {
+        getPlaybackEngine().remove(indices);
+    }
+
+    /**
+     * Method to move songs of the playlist to another place
+     * @param indices the indices of the songs
+     * @param to the index they are inserted before, counted before the move
+     */
+    public void moveSongs(int[] indices, int to) {
+        getPlaybackEngine().move(indices, to);
+    }
+
     /**
      * Method to play the current song loaded
      */
     public void playCurrentSong() {
-        if (currentSong == null) 
-            return;
-        
-        try {
-            FileInputStream fileInputStream = new FileInputStream(currentSong.getFilePath());
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
-            advancedPlayer = new AdvancedPlayer(bufferedInputStream);
-            advancedPlayer.setPlayBackListener(this);
-            startMusicThread();
-            startPlaybackSliderThread();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        getPlaybackEngine().play();
     }
-    
+
     /**
-     * Method that starts a music thread and synchonizes with the player
+     * Method to move to a frame of the current song and play from there
+     * @param frame the frame
      */
-    private void startMusicThread() {
-        new Thread(() -> {
-            try {
-                if (isPaused) {
-                    synchronized (playSignal) {
-                        isPaused = false;
-                        playSignal.notify();
-                    }
-                    advancedPlayer.play(currentFrame, Integer.MAX_VALUE);
-                } else {
-                    advancedPlayer.play();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }).start();
+    public void seek(int frame) {
+        getPlaybackEngine().seek(frame);
+        getPlaybackEngine().play();
     }
-    
+
     /**
-     * Method that starts the playbackslider thread to also synchronize with the player
+     * Method called when the engine moved to another state
      */
-    private void startPlaybackSliderThread() {
-        new Thread(() -> {
-            if (isPaused) {
-                try {
-                    synchronized (playSignal) {
-                        playSignal.wait();
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-            
-            while (!isPaused) {
-                try {
-                    // Only increment currentTimeInMilli when the song is playing
-                    currentTimeInMilli++;
-                    int calculatedFrame = (int) (currentTimeInMilli * currentSong.getFrameRatePerMilliseconds());
-                    musicPlayerGUI.setPlaybackSliderValue(calculatedFrame);
-                    Thread.sleep(1);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }).start();
+    @Override
+    public void stateChanged(PlaybackEngine.State state, boolean finished) {
+        System.out.println(state == PlaybackEngine.State.PLAYING ? "Playback Started" : "Playback Finished");
+
+        listenerExecutor.execute(() -> listener.playbackStateChanged(state == PlaybackEngine.State.PLAYING, finished));
     }
-    
+
     /**
-     * Method that finishes the playback when called
+     * Method called when another song became the current one
      */
     @Override
-    public void playbackFinished(PlaybackEvent evt) {
-        System.out.println("Playback Finished");
-        if (isPaused) {
-            currentFrame += evt.getFrame();
-            return;
-        }
-        // If the user pressed next or previous, we don't need to execute the rest of the code
-        if (pressedNext || pressedPrev) {
-            return;
-        }
-        
-        songFinished = true;
-        
-        if (playlist == null || currentPlaylistIndex == playlist.size() - 1) {
-            // Update GUI for single song or last song in the playlist
-            musicPlayerGUI.enablePlayButtonDisablePauseButton();
-        } else {
-            // Go to the next song in the playlist
-            nextSong();
-        }
+    public void songChanged(Song song, int playlistIndex) {
+        listenerExecutor.execute(() -> {
+            // update current song
+            currentSong = song;
+            listener.songChanged(song, playlistIndex);
+        });
+
+        // build the frame index in the background so the first seek doesn't have to
+        ForkJoinPool.commonPool().execute(song::getFrameIndex);
     }
-    
+
     /**
-     * Method that starts the playback when called
+     * Method called when songs were put into the playlist to be played next
      */
     @Override
-    public void playbackStarted(PlaybackEvent evt) {
-        System.out.println("Playback Started");
-        songFinished = false;
-        pressedNext = false;
-        pressedPrev = false;
+    public void songsInserted(List<Song> songs, int playlistIndex) {
+        listenerExecutor.execute(() -> listener.songsInserted(songs, playlistIndex));
     }
 }
-
@@ -1,9 +1,16 @@
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.Graphics;
 import java.awt.event.*;
 import java.awt.image.*;
 import java.io.File;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -13,20 +20,38 @@ import javax.swing.filechooser.FileNameExtensionFilter;
  * Music Player GUI Class
  * @author abhinavk
  */
-public class MusicPlayerGUI extends JFrame {
+public class MusicPlayerGUI extends JFrame implements MusicPlayerListener {
     
     // color config
     public static final Color FRAME_COLOR = Color.LIGHT_GRAY;
     public static final Color TEXT_COLOR = Color.BLACK;
     
+    // the player takes the left part of the window, the playlist the rest
+    private static final int PLAYER_WIDTH = 400;
+    
+    // size of the album art of the song that is playing
+    private static final int ALBUM_ART_SIZE = 200;
+    
+    // decodes the images off the EDT so the window doesn't wait for them
+    private static final ExecutorService IMAGE_LOADER = Executors.newSingleThreadExecutor(
+            PlaylistLoader.daemonThreadFactory("image-loader"));
+    
     private MusicPlayer musicPlayer;
     
-    // allow to use file explorer in our app
+    // allow to use file explorer in our app, created the first time a song is loaded
     private JFileChooser jFileChooser;
+    private boolean painted;
     
-    private JLabel songTitle, songArtist;
+    private JLabel songImage, songTitle, songArtist, statusLabel;
+    
+    // shown while a song has no art, the path is of the song whose art is shown or being read
+    private ImageIcon recordIcon;
+    private String artFilePath;
     private JPanel playbackBtns;
-    private JSlider playbackSlider;
+    private WaveformSlider playbackSlider;
+    private PlaylistView playlistView;
+    private JCheckBoxMenuItem shuffleItem;
+    private JRadioButtonMenuItem[] repeatItems;
     
     /**
      * Constructor to set up the GUI
@@ -37,7 +62,7 @@ public class MusicPlayerGUI extends JFrame {
         super("Music Player");
         
         // set the width and height
-        setSize(400, 600);
+        setSize(PLAYER_WIDTH + 300, 600);
         
         // end process when app is closed
         setDefaultCloseOperation(EXIT_ON_CLOSE);
@@ -55,16 +80,55 @@ public class MusicPlayerGUI extends JFrame {
         // change the frame color
         getContentPane().setBackground(FRAME_COLOR);
         
-        musicPlayer = new MusicPlayer(this);
-        jFileChooser = new JFileChooser();
-        
-        // set a default path for file explorer
-        jFileChooser.setCurrentDirectory(new File("src/assets/songs"));
-        
-        // filter file chooser to only see .mp3 extension
-        jFileChooser.setFileFilter(new FileNameExtensionFilter("MP3", "mp3"));
+        // cheap to create, the playback engine is only started once there is something to play
+        musicPlayer = new MusicPlayer(this, SwingUtilities::invokeLater);
         
         addGuiComponents();
+        StartupTimer.mark("window built");
+        
+        // pick up where the last session stopped, and keep the queue for the next one
+        musicPlayer.restoreQueue(PlayQueue.getDefaultFile());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                try {
+                    musicPlayer.saveQueue(PlayQueue.getDefaultFile()).get(5, TimeUnit.SECONDS);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Method that paints the window and logs when it was painted the first time
+     * @param g the graphics to paint with
+     */
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if(!painted) {
+            painted = true;
+            StartupTimer.mark("first paint");
+        }
+    }
+    
+    /**
+     * Method that gets the file chooser for songs, it is only created when it is first needed
+     * because the first file chooser takes long to create
+     * @return the file chooser
+     */
+    private JFileChooser getSongChooser() {
+        if(jFileChooser == null) {
+            jFileChooser = new JFileChooser();
+            
+            // set a default path for file explorer
+            jFileChooser.setCurrentDirectory(new File("src/assets/songs"));
+            
+            // filter file chooser to only see .mp3 extension
+            jFileChooser.setFileFilter(new FileNameExtensionFilter("MP3", "mp3"));
+        }
+        return jFileChooser;
     }
     
     /**
@@ -75,13 +139,19 @@ public class MusicPlayerGUI extends JFrame {
         addToolbar();
         
         // load the record image
-        JLabel songImage = new JLabel(loadImage("src/assets/record.png"));
-        songImage.setBounds(0, 50, getWidth() - 20, 225);
+        songImage = new JLabel();
+        songImage.setHorizontalAlignment(SwingConstants.CENTER);
+        loadImage("src/assets/record.png", icon -> {
+            recordIcon = icon;
+            if(artFilePath == null)
+                songImage.setIcon(icon);
+        });
+        songImage.setBounds(0, 50, PLAYER_WIDTH - 20, 225);
         add(songImage);
         
         // song title
         songTitle = new JLabel("Song Title");
-        songTitle.setBounds(0, 285, getWidth() - 10, 30);
+        songTitle.setBounds(0, 285, PLAYER_WIDTH - 10, 30);
         songTitle.setFont(new Font("Dialog", Font.BOLD, 24));
         songTitle.setForeground(TEXT_COLOR);
         songTitle.setHorizontalAlignment(SwingConstants.CENTER);
@@ -89,15 +159,15 @@ public class MusicPlayerGUI extends JFrame {
         
         // song artist
         songArtist = new JLabel("Artist");
-        songArtist.setBounds(0, 315, getWidth() - 10, 30);
+        songArtist.setBounds(0, 315, PLAYER_WIDTH - 10, 30);
         songArtist.setFont(new Font("Dialog", Font.PLAIN, 24));
         songArtist.setForeground(TEXT_COLOR);
         songArtist.setHorizontalAlignment(SwingConstants.CENTER);
         add(songArtist);
         
-        // playback slider
-        playbackSlider = new JSlider(JSlider.HORIZONTAL, 0, 100, 0);
-        playbackSlider.setBounds(getWidth()/2 - 300/2, 365, 300, 40);
+        // playback slider, the waveform of the song is drawn behind it
+        playbackSlider = new WaveformSlider(0, 100, 0);
+        playbackSlider.setBounds(PLAYER_WIDTH/2 - 300/2, 365, 300, 40);
         playbackSlider.setBackground(null);
         playbackSlider.addMouseListener(new MouseAdapter() {
             @Override
@@ -116,16 +186,10 @@ public class MusicPlayerGUI extends JFrame {
                 // Ensure currentSong is retrieved from the musicPlayer instance
                 Song currentSong = musicPlayer.getCurrentSong();
                 if (currentSong != null) {
-                    musicPlayer.setCurrentFrame(frame);
-                    
-                    // Use the frame rate from the current song
-                    double frameRatePerMilli = currentSong.getFrameRatePerMilliseconds();
-                    int timeInMilli = (int) ((double) frame / frameRatePerMilli); // Explicit casting to int
-                    musicPlayer.setCurrentTimeInMilli(timeInMilli);
-                    
                     playbackSlider.setValue(frame);
-                    musicPlayer.playCurrentSong();
-                    enablePauseButtonDisablePlayButton();
+                    
+                    // the player works out the time from the frame and resumes from there
+                    musicPlayer.seek(frame);
                 }
             }
         });
@@ -133,6 +197,47 @@ public class MusicPlayerGUI extends JFrame {
         
         // playback buttons (prev, play, pause, etc.)
         addPlaybackBtns();
+        
+        // status line used while a playlist is loading
+        statusLabel = new JLabel("");
+        statusLabel.setBounds(0, 520, PLAYER_WIDTH - 10, 20);
+        statusLabel.setFont(new Font("Dialog", Font.PLAIN, 12));
+        statusLabel.setForeground(TEXT_COLOR);
+        statusLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        add(statusLabel);
+        
+        // the loaded playlist, double click a song to play it
+        addPlaylistView();
+        
+        // queued after every image, so this runs once they are all shown
+        IMAGE_LOADER.execute(() -> SwingUtilities.invokeLater(() -> StartupTimer.mark("images loaded")));
+    }
+    
+    /**
+     * Method that adds the playlist next to the player
+     */
+    private void addPlaylistView() {
+        playlistView = new PlaylistView(new PlaylistModel());
+        playlistView.setBounds(PLAYER_WIDTH, 30, getWidth() - PLAYER_WIDTH - 15, 510);
+        
+        // edits of the rows are passed on so the player plays the playlist as it is shown
+        playlistView.setListener(new PlaylistView.Listener() {
+            @Override
+            public void rowActivated(int row) {
+                musicPlayer.playIndex(row);
+            }
+            
+            @Override
+            public void rowsRemoved(int[] rows) {
+                musicPlayer.removeSongs(rows);
+            }
+            
+            @Override
+            public void rowsMoved(int[] rows, int to) {
+                musicPlayer.moveSongs(rows, to);
+            }
+        });
+        add(playlistView);
     }
     
     /**
@@ -159,6 +264,7 @@ public class MusicPlayerGUI extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e) {
                 // an int is returned to us to let us know what the user did
+                JFileChooser jFileChooser = getSongChooser();
                 int result = jFileChooser.showOpenDialog(MusicPlayerGUI.this);
                 File selectedFile = jFileChooser.getSelectedFile();
                 
@@ -167,22 +273,28 @@ public class MusicPlayerGUI extends JFrame {
                     // create a song obj based on selected file
                     Song song = new Song(selectedFile.getPath());
                     
-                    // load song in music player
+                    // load song in music player, the title, artist, slider and buttons
+                    // are updated once the player starts the song
                     musicPlayer.loadSong(song);
-                    
-                    // update song title and artist
-                    updateSongTitleAndArtist(song);
-                    
-                    // update playback slider
-                    updatePlaybackSlider(song);
-                    
-                    // toggle on pause button and toggle off play button
-                    enablePauseButtonDisablePlayButton();
                 }
             }
         });
         songMenu.add(loadSong);
         
+        // put a song after the current one without replacing the playlist
+        JMenuItem playNext = new JMenuItem("Play Next");
+        playNext.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser jFileChooser = getSongChooser();
+                int result = jFileChooser.showOpenDialog(MusicPlayerGUI.this);
+                File selectedFile = jFileChooser.getSelectedFile();
+                if(result == JFileChooser.APPROVE_OPTION && selectedFile != null)
+                    musicPlayer.playNext(new Song(selectedFile.getPath()));
+            }
+        });
+        songMenu.add(playNext);
+        
         // add the playlist menu
         JMenu playlistMenu = new JMenu("Playlist");
         menuBar.add(playlistMenu);
@@ -197,13 +309,40 @@ public class MusicPlayerGUI extends JFrame {
             }
         });
         playlistMenu.add(createPlaylist);
-        
+
+        // edit a saved playlist, it is read in the background and changes are journaled as they are made
+        JMenuItem editPlaylist = new JMenuItem("Edit Playlist");
+        editPlaylist.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser jFileChooser = new JFileChooser();
+                jFileChooser.setFileFilter(new FileNameExtensionFilter("Playlist", "mpl", "txt", "m3u", "m3u8", "pls"));
+                jFileChooser.setCurrentDirectory(new File("src/assets/songs"));
+
+                int result = jFileChooser.showOpenDialog(MusicPlayerGUI.this);
+                File selectedFile = jFileChooser.getSelectedFile();
+
+                if(result == JFileChooser.APPROVE_OPTION && selectedFile != null) {
+                    PlaylistStore.open(selectedFile).whenComplete((store, error) -> SwingUtilities.invokeLater(() -> {
+                        if(error != null) {
+                            error.printStackTrace();
+                            JOptionPane.showMessageDialog(MusicPlayerGUI.this, "Couldn't open the playlist: " + error.getMessage(),
+                                    "Error", JOptionPane.ERROR_MESSAGE);
+                            return;
+                        }
+                        new MusicPlaylistDialog(MusicPlayerGUI.this, store).setVisible(true);
+                    }));
+                }
+            }
+        });
+        playlistMenu.add(editPlaylist);
+
         JMenuItem loadPlaylist = new JMenuItem("Load Playlist");
         loadPlaylist.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 JFileChooser jFileChooser = new JFileChooser();
-                jFileChooser.setFileFilter(new FileNameExtensionFilter("Playlist", "txt"));
+                jFileChooser.setFileFilter(new FileNameExtensionFilter("Playlist", "mpl", "txt", "m3u", "m3u8", "pls"));
                 jFileChooser.setCurrentDirectory(new File("src/assets/songs"));
 
                 int result = jFileChooser.showOpenDialog(MusicPlayerGUI.this);
@@ -220,6 +359,113 @@ public class MusicPlayerGUI extends JFrame {
         });
         playlistMenu.add(loadPlaylist);
         
+        // play everything in one or more music folders, sub folders included
+        JMenuItem loadMusicFolder = new JMenuItem("Load Music Folder");
+        loadMusicFolder.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser jFileChooser = new JFileChooser();
+                jFileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                jFileChooser.setMultiSelectionEnabled(true);
+                jFileChooser.setCurrentDirectory(new File("src/assets/songs"));
+
+                int result = jFileChooser.showOpenDialog(MusicPlayerGUI.this);
+                File[] selectedFolders = jFileChooser.getSelectedFiles();
+
+                if(result == JFileChooser.APPROVE_OPTION && selectedFolders.length > 0) {
+                    // stop the music
+                    musicPlayer.stopSong();
+
+                    // scan the folders, playback starts with the first song found
+                    musicPlayer.loadLibrary(Arrays.asList(selectedFolders));
+                }
+            }
+        });
+        playlistMenu.add(loadMusicFolder);
+        
+        // play the songs of a playlist back to back without a gap
+        JCheckBoxMenuItem gaplessPlayback = new JCheckBoxMenuItem("Gapless Playback", true);
+        gaplessPlayback.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                musicPlayer.setGapless(gaplessPlayback.isSelected());
+            }
+        });
+        playlistMenu.add(gaplessPlayback);
+
+        // overlap the end of a song with the start of the next one
+        JMenu crossfadeMenu = new JMenu("Crossfade");
+        ButtonGroup crossfadeGroup = new ButtonGroup();
+        for(int seconds = 0; seconds <= CrossfadeMixer.MAX_SECONDS; seconds += 2) {
+            int crossfadeSeconds = seconds;
+            JRadioButtonMenuItem crossfadeItem = new JRadioButtonMenuItem(seconds == 0 ? "Off" : seconds + " s", seconds == CrossfadeMixer.getDefaultSeconds());
+            crossfadeItem.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    musicPlayer.setCrossfade(crossfadeSeconds);
+                }
+            });
+            crossfadeGroup.add(crossfadeItem);
+            crossfadeMenu.add(crossfadeItem);
+        }
+        playlistMenu.add(crossfadeMenu);
+
+        // play the playlist in a random order, each song once per round
+        shuffleItem = new JCheckBoxMenuItem("Shuffle", false);
+        shuffleItem.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                musicPlayer.setShuffle(shuffleItem.isSelected());
+            }
+        });
+        playlistMenu.add(shuffleItem);
+
+        // play the current song or the whole playlist again once it ended
+        JMenu repeatMenu = new JMenu("Repeat");
+        ButtonGroup repeatGroup = new ButtonGroup();
+        repeatItems = new JRadioButtonMenuItem[PlayQueue.Repeat.values().length];
+        for(PlayQueue.Repeat repeat : PlayQueue.Repeat.values()) {
+            String name = repeat.name().charAt(0) + repeat.name().substring(1).toLowerCase();
+            JRadioButtonMenuItem repeatItem = new JRadioButtonMenuItem(name, repeat == PlayQueue.Repeat.OFF);
+            repeatItem.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    musicPlayer.setRepeat(repeat);
+                }
+            });
+            repeatGroup.add(repeatItem);
+            repeatMenu.add(repeatItem);
+            repeatItems[repeat.ordinal()] = repeatItem;
+        }
+        playlistMenu.add(repeatMenu);
+
+        // play every song at about the same loudness once it was analyzed
+        JMenu replayGainMenu = new JMenu("Replay Gain");
+        ButtonGroup replayGainGroup = new ButtonGroup();
+        for(GainStage.Mode mode : GainStage.Mode.values()) {
+            String name = mode.name().charAt(0) + mode.name().substring(1).toLowerCase();
+            JRadioButtonMenuItem replayGainItem = new JRadioButtonMenuItem(name, mode == GainStage.getDefaultMode());
+            replayGainItem.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    musicPlayer.setReplayGain(mode);
+                }
+            });
+            replayGainGroup.add(replayGainItem);
+            replayGainMenu.add(replayGainItem);
+        }
+        playlistMenu.add(replayGainMenu);
+
+        // measure the loudness of the songs in the playlist for the replay gain
+        JMenuItem analyzeLoudness = new JMenuItem("Analyze Loudness");
+        analyzeLoudness.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                musicPlayer.analyzeLoudness(playlistView.getModel().getPaths());
+            }
+        });
+        playlistMenu.add(analyzeLoudness);
+        
         add(toolBar);
     }
     
@@ -228,11 +474,12 @@ public class MusicPlayerGUI extends JFrame {
      */
     private void addPlaybackBtns() {
         playbackBtns = new JPanel();
-        playbackBtns.setBounds(0, 435, getWidth() - 10, 80);
+        playbackBtns.setBounds(0, 435, PLAYER_WIDTH - 10, 80);
         playbackBtns.setBackground(null);
         
         // previous button
-        JButton prevButton = new JButton(loadImage("src/assets/previous.png"));
+        JButton prevButton = new JButton();
+        loadImage("src/assets/previous.png", prevButton::setIcon);
         prevButton.setBorderPainted(false);
         prevButton.setBackground(null);
         prevButton.addActionListener(new ActionListener() {
@@ -245,7 +492,8 @@ public class MusicPlayerGUI extends JFrame {
         playbackBtns.add(prevButton);
         
         // play button
-        JButton playButton = new JButton(loadImage("src/assets/play.png"));
+        JButton playButton = new JButton();
+        loadImage("src/assets/play.png", playButton::setIcon);
         playButton.setBorderPainted(false);
         playButton.setBackground(null);
         playButton.addActionListener(new ActionListener() {
@@ -261,7 +509,8 @@ public class MusicPlayerGUI extends JFrame {
         playbackBtns.add(playButton);
         
         // pause button
-        JButton pauseButton = new JButton(loadImage("src/assets/pause.png"));
+        JButton pauseButton = new JButton();
+        loadImage("src/assets/pause.png", pauseButton::setIcon);
         pauseButton.setBorderPainted(false);
         pauseButton.setBackground(null);
         pauseButton.setVisible(false);
@@ -278,7 +527,8 @@ public class MusicPlayerGUI extends JFrame {
         playbackBtns.add(pauseButton);
         
         // next button
-        JButton nextButton = new JButton(loadImage("src/assets/next.png"));
+        JButton nextButton = new JButton();
+        loadImage("src/assets/next.png", nextButton::setIcon);
         nextButton.setBorderPainted(false);
         nextButton.setBackground(null);
         nextButton.addActionListener(new ActionListener() {
@@ -317,7 +567,7 @@ public class MusicPlayerGUI extends JFrame {
      */
     public void updatePlaybackSlider(Song song) {
         // update max count for slider
-        playbackSlider.setMaximum(song.getMp3File().getFrameCount());
+        playbackSlider.setMaximum(song.getFrameCount());
         
         // create the song length label
         Hashtable<Integer, JLabel> labelTable = new Hashtable<>();
@@ -333,12 +583,180 @@ public class MusicPlayerGUI extends JFrame {
         labelEnd.setForeground(TEXT_COLOR);
         
         labelTable.put(0, labelBeginning);
-        labelTable.put(song.getMp3File().getFrameCount(), labelEnd);
+        labelTable.put(song.getFrameCount(), labelEnd);
         
         playbackSlider.setLabelTable(labelTable);
         playbackSlider.setPaintLabels(true);
     }
     
+    /**
+     * Method called by the music player when another song became the current one
+     * @param song the song
+     * @param playlistIndex the index of the song in the playlist
+     */
+    @Override
+    public void songChanged(Song song, int playlistIndex) {
+        updateSongTitleAndArtist(song);
+        updatePlaybackSlider(song);
+        setPlaybackSliderValue(0);
+        updateWaveform(song);
+        updateAlbumArt(song);
+        
+        // highlight the song in the playlist
+        playlistView.getModel().setCurrentSong(playlistIndex, song.getFilePath());
+        playlistView.showCurrentRow();
+    }
+    
+    /**
+     * Method used to show the waveform of a song behind the slider, it fills in while it is decoded
+     * @param song the song
+     */
+    public void updateWaveform(Song song) {
+        // the waveform of the song before isn't needed anymore
+        Waveform oldWaveform = playbackSlider.getWaveform();
+        if(oldWaveform != null)
+            oldWaveform.cancel();
+
+        Waveform waveform = Waveform.load(song, updated -> SwingUtilities.invokeLater(() -> {
+            if(playbackSlider.getWaveform() == updated)
+                playbackSlider.repaint();
+        }));
+        playbackSlider.setWaveform(waveform);
+    }
+    
+    /**
+     * Method used to show the album art of a song, the art is read in the background
+     * @param song the song
+     */
+    public void updateAlbumArt(Song song) {
+        String filePath = song.getFilePath();
+        if(filePath.equals(artFilePath))
+            return;
+        artFilePath = filePath;
+        AlbumArt.getInstance().load(filePath, ALBUM_ART_SIZE).thenAccept(art -> SwingUtilities.invokeLater(() -> {
+            // another song may have started while this one was read
+            if(filePath.equals(artFilePath))
+                songImage.setIcon(art != null ? new ImageIcon(art) : recordIcon);
+        }));
+    }
+    
+    /**
+     * Method called by the music player when songs were loaded into the playlist
+     * @param songs the songs
+     * @param appended true if they were added to the end, false if they replaced the playlist
+     */
+    @Override
+    public void playlistChanged(List<Song> songs, boolean appended) {
+        if(appended) {
+            playlistView.getModel().addSongs(songs);
+        }else {
+            playlistView.getModel().setSongs(songs);
+        }
+    }
+    
+    /**
+     * Method called by the music player when songs were put into the playlist to be played next
+     * @param songs the songs
+     * @param playlistIndex the index the first one was put at
+     */
+    @Override
+    public void songsInserted(List<Song> songs, int playlistIndex) {
+        playlistView.getModel().insertSongs(playlistIndex, songs);
+    }
+    
+    /**
+     * Method called by the music player when the queue of the last session was restored
+     * @param filePaths the paths of the songs
+     * @param shuffle true if the queue is played in a random order
+     * @param repeat the repeat mode of the queue
+     */
+    @Override
+    public void playlistRestored(List<String> filePaths, boolean shuffle, PlayQueue.Repeat repeat) {
+        playlistView.getModel().setPaths(filePaths);
+        shuffleItem.setSelected(shuffle);
+        repeatItems[repeat.ordinal()].setSelected(true);
+    }
+    
+    /**
+     * Method called by the music player when the queue of the last session couldn't be restored
+     * The app starts with an empty playlist then, the user is only told when a saved queue couldn't be read
+     * @param message what went wrong
+     * @param unreadable true if there was a saved queue that couldn't be read, false if there was none
+     */
+    @Override
+    public void playlistRestoreFailed(String message, boolean unreadable) {
+        if(unreadable)
+            JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
+    }
+    
+    /**
+     * Method called by the music player when playback started or stopped
+     * @param playing true when audio is playing
+     * @param finished true when the last song played to the end
+     */
+    @Override
+    public void playbackStateChanged(boolean playing, boolean finished) {
+        if(playing) {
+            enablePauseButtonDisablePlayButton();
+        }else {
+            enablePlayButtonDisablePauseButton();
+        }
+    }
+    
+    /**
+     * Method called by the music player to keep the slider in sync with the audio that is heard
+     * @param frame the current frame of the song
+     * @param timeInMilli the current time in the song in milliseconds
+     */
+    @Override
+    public void positionChanged(int frame, long timeInMilli) {
+        setPlaybackSliderValue(frame);
+    }
+    
+    /**
+     * Method used to show how far a playlist has loaded
+     * @param processed the number of entries done so far
+     * @param total the number of entries in the playlist, -1 if the format doesn't say
+     */
+    @Override
+    public void playlistLoadProgress(int processed, int total) {
+        statusLabel.setText("Loading playlist " + processed + (total >= 0 ? "/" + total : ""));
+    }
+    
+    /**
+     * Method used to show that a playlist finished loading
+     * @param loaded the number of songs that were loaded
+     * @param failed the number of entries that were skipped
+     */
+    @Override
+    public void playlistLoadFinished(int loaded, int failed) {
+        if(failed > 0) {
+            statusLabel.setText("Loaded " + loaded + " songs, skipped " + failed + " that couldn't be read");
+        }else {
+            statusLabel.setText("Loaded " + loaded + " songs");
+        }
+    }
+    
+    /**
+     * Method used to show how far a scan of music folders is
+     * @param progress how far the scan is
+     * @param finished true when every folder was scanned
+     */
+    @Override
+    public void libraryScanUpdated(LibraryScanner.Progress progress, boolean finished) {
+        statusLabel.setText((finished ? "Scanned " : "Scanning: ") + progress);
+    }
+
+    /**
+     * Method used to show how far the loudness analysis is
+     * @param progress how far the analysis is
+     * @param finished true when every song was measured
+     */
+    @Override
+    public void loudnessAnalysisUpdated(LoudnessAnalyzer.Progress progress, boolean finished) {
+        statusLabel.setText((finished ? "Analyzed " : "Analyzing loudness: ") + progress);
+    }
+    
     /**
      * Method used to enable the pause button and disable the play button
      */
@@ -374,22 +792,24 @@ public class MusicPlayerGUI extends JFrame {
     }
     
     /**
-     * Method used to load an image
+     * Method used to load an image in the background
      * @param imagePath the path of where the image is stored
+     * @param iconSetter receives the image on the EDT once it is read
      */
-    private ImageIcon loadImage(String imagePath) {
-        try{
-            // read the image file from the given path
-            BufferedImage image = ImageIO.read(new File(imagePath));
-            
-            // returns an image icon so the component can render the image
-            return new ImageIcon(image);
-            
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-        
-        // could not find resource
-        return null;
+    private void loadImage(String imagePath, Consumer<ImageIcon> iconSetter) {
+        IMAGE_LOADER.execute(() -> {
+            try{
+                // read the image file from the given path
+                BufferedImage image = ImageIO.read(new File(imagePath));
+                
+                // an image icon so the component can render the image
+                ImageIcon icon = new ImageIcon(image);
+                SwingUtilities.invokeLater(() -> iconSetter.accept(icon));
+                
+            }catch(Exception e){
+                // could not find resource
+                e.printStackTrace();
+            }
+        });
     } 
 }
@@ -0,0 +1,87 @@
+import java.util.List;
+
+/**
+ * Music Player Listener Interface
+ * Receives what the music player is doing, the gui shows it and the headless app prints it.
+ * All methods are called on the executor the music player was created with.
+ * @author abhinavk
+ */
+public interface MusicPlayerListener {
+    /**
+     * Called when another song became the current one
+     * @param song the song
+     * @param playlistIndex the index of the song in the playlist
+     */
+    void songChanged(Song song, int playlistIndex);
+
+    /**
+     * Called when songs were loaded into the playlist
+     * @param songs the songs
+     * @param appended true if they were added to the end, false if they replaced the playlist
+     */
+    void playlistChanged(List<Song> songs, boolean appended);
+
+    /**
+     * Called when songs were put into the playlist after the current song to be played next
+     * @param songs the songs
+     * @param playlistIndex the index the first one was put at
+     */
+    void songsInserted(List<Song> songs, int playlistIndex);
+
+    /**
+     * Called when the playlist was replaced with the queue saved in an earlier session
+     * @param filePaths the paths of the songs, they weren't read yet
+     * @param shuffle true if the queue is played in a random order
+     * @param repeat the repeat mode of the queue
+     */
+    void playlistRestored(List<String> filePaths, boolean shuffle, PlayQueue.Repeat repeat);
+
+    /**
+     * Called instead of playlistRestored() when there was no saved queue or it couldn't be read
+     * @param message what went wrong
+     * @param unreadable true if there was a saved queue that couldn't be read, false if there was none
+     */
+    void playlistRestoreFailed(String message, boolean unreadable);
+
+    /**
+     * Called when playback started or stopped
+     * @param playing true when audio is playing
+     * @param finished true when the last song played to the end
+     */
+    void playbackStateChanged(boolean playing, boolean finished);
+
+    /**
+     * Called when the playback position changed, at most once per display frame
+     * @param frame the current frame of the song
+     * @param timeInMilli the current time in the song in milliseconds
+     */
+    void positionChanged(int frame, long timeInMilli);
+
+    /**
+     * Called while a playlist is loading
+     * @param processed the number of entries done so far
+     * @param total the number of entries in the playlist, -1 if the format doesn't say
+     */
+    void playlistLoadProgress(int processed, int total);
+
+    /**
+     * Called when a playlist finished loading
+     * @param loaded the number of songs that were loaded
+     * @param failed the number of entries that were skipped
+     */
+    void playlistLoadFinished(int loaded, int failed);
+
+    /**
+     * Called while music folders are scanned and once when the scan finished
+     * @param progress how far the scan is
+     * @param finished true when every folder was scanned
+     */
+    void libraryScanUpdated(LibraryScanner.Progress progress, boolean finished);
+
+    /**
+     * Called while the loudness of songs is measured and once when every song was measured
+     * @param progress how far the analysis is
+     * @param finished true when every song was measured
+     */
+    void loudnessAnalysisUpdated(LoudnessAnalyzer.Progress progress, boolean finished);
+}
@@ -1,12 +1,12 @@
-import java.awt.Color;
+import java.awt.Component;
 import java.awt.Font;
 import java.awt.event.*;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
-import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
@@ -14,47 +14,163 @@ import javax.swing.filechooser.FileNameExtensionFilter;
  * @author abhinavk
  */
 public class MusicPlaylistDialog extends JDialog {
+    // most search results shown at once
+    private static final int MAX_SEARCH_RESULTS = 100;
+    
     private MusicPlayerGUI musicPlayerGUI;
     
-    // store all of the paths to be written to a txt file (when loading a playlist)
-    private ArrayList<String> songPaths;
+    // the songs of the playlist being created or edited
+    private PlaylistModel playlistModel;
+    
+    // the playlist being edited, every change is journaled to it right away, null when creating one
+    private PlaylistStore playlistStore;
     
     /**
      * Constructor that sets up the playlist dialog
      * @param musicPlayerGUI the musicplayer gui
      */
     public MusicPlaylistDialog(MusicPlayerGUI musicPlayerGUI) {
+        this(musicPlayerGUI, null);
+    }
+    
+    /**
+     * Constructor that sets up the playlist dialog to edit a playlist
+     * @param musicPlayerGUI the musicplayer gui
+     * @param playlistStore the opened playlist, null to create a new one
+     */
+    public MusicPlaylistDialog(MusicPlayerGUI musicPlayerGUI, PlaylistStore playlistStore) {
         this.musicPlayerGUI = musicPlayerGUI;
-        songPaths = new ArrayList<>();
+        this.playlistStore = playlistStore;
+        playlistModel = new PlaylistModel();
+        if(playlistStore != null)
+            playlistModel.addPaths(playlistStore.getPaths());
         
         // configure dialog
-        setTitle("Create Playlist");
+        setTitle(playlistStore == null ? "Create Playlist" : "Edit Playlist");
         setSize(400, 400);
         setResizable(false);
         getContentPane().setBackground(MusicPlayerGUI.FRAME_COLOR);
         setLayout(null);
         setModal(true); // dialog has to be closed to give focus
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
         setLocationRelativeTo(musicPlayerGUI);
         
         addDialogComponents();
+        
+        // edits are already journaled, closing the window writes the playlist in the background
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                if(MusicPlaylistDialog.this.playlistStore != null)
+                    MusicPlaylistDialog.this.playlistStore.close();
+            }
+        });
     }
     
     /**
      * Method that adds all of the dialog components to the gui
      */
     private void addDialogComponents() {
-        // container to hold each song path
-        JPanel songContainer = new JPanel();
-        songContainer.setLayout(new BoxLayout(songContainer, BoxLayout.Y_AXIS));
-        
         // Calculate container dimensions and position
         int containerWidth = (int)(getWidth() * 0.90);
-        int containerHeight = (int)(getHeight() * 0.75);
         int containerX = (getWidth() - containerWidth) / 2; // Center horizontally
-        int containerY = 10;
-        // Set the bounds for the container
-        songContainer.setBounds(containerX, containerY, containerWidth, containerHeight);
-        add(songContainer);
+        
+        // search box, the songs of the library that match show up below it as you type
+        JTextField searchField = new JTextField();
+        searchField.setFont(new Font("Dialog", Font.PLAIN, 14));
+        searchField.setToolTipText("Search the library by title, artist or path");
+        searchField.setBounds(containerX, 10, containerWidth, 25);
+        add(searchField);
+        
+        DefaultListModel<Song> searchResultsModel = new DefaultListModel<>();
+        JList<Song> searchResults = new JList<>(searchResultsModel);
+        searchResults.setFont(new Font("Dialog", Font.PLAIN, 12));
+        searchResults.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                Song song = (Song) value;
+                return super.getListCellRendererComponent(list, song.getSongTitle() + " - " + song.getSongArtist(), index, isSelected, cellHasFocus);
+            }
+        });
+        JScrollPane searchScrollPane = new JScrollPane(searchResults);
+        searchScrollPane.setBounds(containerX, 40, containerWidth, 100);
+        add(searchScrollPane);
+        
+        SearchIndex searchIndex = SearchIndex.getInstance();
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+            
+            private void search() {
+                List<Song> songs = searchIndex.search(searchField.getText(), MAX_SEARCH_RESULTS);
+                searchResultsModel.clear();
+                searchResultsModel.addAll(songs);
+            }
+        });
+        
+        // the songs added so far, they can be moved and removed before saving
+        PlaylistView playlistView = new PlaylistView(playlistModel);
+        playlistView.setBounds(containerX, 150, containerWidth, (int)(getHeight() * 0.75) - 140);
+        add(playlistView);
+        playlistView.setListener(new PlaylistView.Listener() {
+            @Override
+            public void rowActivated(int row) {
+            }
+            
+            @Override
+            public void rowsRemoved(int[] rows) {
+                if(playlistStore != null)
+                    playlistStore.remove(rows);
+            }
+            
+            @Override
+            public void rowsMoved(int[] rows, int to) {
+                if(playlistStore != null)
+                    playlistStore.move(rows, to);
+            }
+        });
+        
+        // double click or enter adds the selected results to the playlist
+        Runnable addSelectedResults = () -> {
+            for(Song song : searchResults.getSelectedValuesList()) {
+                addSongPath(song.getFilePath());
+            }
+        };
+        searchResults.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if(e.getClickCount() == 2)
+                    addSelectedResults.run();
+            }
+        });
+        searchResults.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if(e.getKeyCode() == KeyEvent.VK_ENTER)
+                    addSelectedResults.run();
+            }
+        });
+        
+        // enter in the search box adds the first result
+        searchField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if(!searchResultsModel.isEmpty())
+                    addSongPath(searchResultsModel.get(0).getFilePath());
+            }
+        });
         
         // add song button
         JButton addSongButton = new JButton("Add");
@@ -71,18 +187,7 @@ public class MusicPlaylistDialog extends JDialog {
                 
                 File selectedFile = jFileChooser.getSelectedFile();
                 if(result == JFileChooser.APPROVE_OPTION && selectedFile != null) {
-                    JLabel filePathLabel = new JLabel(selectedFile.getPath());
-                    filePathLabel.setFont(new Font("Dialog", Font.BOLD, 12));
-                    filePathLabel.setBorder(BorderFactory.createLineBorder(Color.BLACK));
-                    
-                    // add to the list
-                    songPaths.add(filePathLabel.getText());
-                    
-                    // add to container
-                    songContainer.add(filePathLabel);
-                    
-                    // refreshes dialog to show newly added JLabel
-                    songContainer.revalidate();
+                    addSongPath(selectedFile.getPath());
                 }
             }
         });
@@ -95,46 +200,55 @@ public class MusicPlaylistDialog extends JDialog {
         savePlaylistButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                try {
+                PlaylistStore store = playlistStore;
+                if(store == null) {
                     JFileChooser jFileChooser = new JFileChooser();
                     jFileChooser.setCurrentDirectory(new File("src/assets/songs"));
                     int result = jFileChooser.showSaveDialog(MusicPlaylistDialog.this);
+                    if(result != JFileChooser.APPROVE_OPTION || jFileChooser.getSelectedFile() == null)
+                        return;
                     
-                    if(result == JFileChooser.APPROVE_OPTION) {
-                        // use getSelectedFile() to get reference to the file that we are about to save
-                        File selectedFile = jFileChooser.getSelectedFile();
-                        
-                        // convert to .txt file if not done so already
-                        // this will check if the file doesnt have a .txt file extension
-                        if(!selectedFile.getName().substring(selectedFile.getName().length() - 4).equalsIgnoreCase(".txt")) {
-                            selectedFile = new File(selectedFile.getAbsolutePath() + ".txt");
-                        }
-                        
-                        // create the new file at the destined directory
-                        selectedFile.createNewFile();
-                        
-                        // now we will write all of the song paths into this file
-                        FileWriter fileWriter = new FileWriter(selectedFile);
-                        BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
-
-                        // iterate through our song paths list and write each string into the file
-                        // each song will be written in their own row
-                        for(String songPath : songPaths) {
-                            bufferedWriter.write(songPath + "\n");
-                        }
-                        bufferedWriter.close();
-
-                        // display success dialog
-                        JOptionPane.showMessageDialog(MusicPlaylistDialog.this, "Successfully Created Playlist!");
-
-                        // close this dialog
-                        MusicPlaylistDialog.this.dispose();
+                    // use getSelectedFile() to get reference to the file that we are about to save
+                    File selectedFile = jFileChooser.getSelectedFile();
+                    
+                    // playlists are saved in the binary format unless a text format was asked for
+                    String name = selectedFile.getName().toLowerCase();
+                    if(!name.endsWith(BinaryPlaylist.EXTENSION) && !name.endsWith(".txt") && !name.endsWith(".m3u")
+                            && !name.endsWith(".m3u8") && !name.endsWith(".pls")) {
+                        selectedFile = new File(selectedFile.getAbsolutePath() + BinaryPlaylist.EXTENSION);
                     }
-                } catch (Exception p) {
-                    p.printStackTrace();
+                    store = PlaylistStore.create(selectedFile, playlistModel.getPaths());
                 }
+                
+                // the playlist is written in the background, the dialog stays responsive meanwhile
+                savePlaylistButton.setEnabled(false);
+                store.close().whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+                    if(error != null) {
+                        error.printStackTrace();
+                        JOptionPane.showMessageDialog(MusicPlaylistDialog.this, "Couldn't save the playlist: " + error.getMessage(),
+                                "Error", JOptionPane.ERROR_MESSAGE);
+                        savePlaylistButton.setEnabled(true);
+                        return;
+                    }
+                    
+                    // display success dialog
+                    JOptionPane.showMessageDialog(MusicPlaylistDialog.this, "Successfully Saved Playlist!");
+                    
+                    // close this dialog
+                    MusicPlaylistDialog.this.dispose();
+                }));
             }
         });
         add(savePlaylistButton);
     }
+    
+    /**
+     * Method that adds a song to the playlist being created or edited
+     * @param songPath the path of the song
+     */
+    private void addSongPath(String songPath) {
+        playlistModel.addPaths(List.of(songPath));
+        if(playlistStore != null)
+            playlistStore.add(List.of(songPath));
+    }
 }
@@ -0,0 +1,57 @@
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.player.AudioDeviceBase;
+
+/**
+ * Null Audio Device Class
+ * Audio device that throws the audio away as fast as it arrives, used to run the player
+ * without a sound card and to measure how fast it decodes
+ * @author abhinavk
+ */
+public class NullAudioDevice extends AudioDeviceBase implements AudioOutput {
+    private volatile long samplesWritten;
+    private volatile int samplesPerSecond;
+
+    @Override
+    protected void openImpl() {
+        samplesWritten = 0;
+        samplesPerSecond = 0;
+    }
+
+    @Override
+    protected void writeImpl(short[] samples, int offs, int len) {
+        // the output format is only known once the first frame was decoded
+        if(samplesPerSecond == 0) {
+            Decoder decoder = getDecoder();
+            samplesPerSecond = decoder.getOutputFrequency() * decoder.getOutputChannels();
+        }
+        samplesWritten += len;
+    }
+
+    /**
+     * Samples written getter
+     * @return the number of interleaved samples written since the device was opened
+     */
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    @Override
+    public int getPosition() {
+        return samplesPerSecond == 0 ? 0 : (int) (samplesWritten * 1000 / samplesPerSecond);
+    }
+
+    @Override
+    public void drop() {
+        samplesWritten = 0;
+    }
+
+    @Override
+    public int getLatencyMillis() {
+        return 0;
+    }
+
+    @Override
+    public long getUnderruns() {
+        return 0;
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Output Stage Class
+ * Owns the audio output thread. The decoder hands it frames through a pcm ring and runs ahead
+ * of the device by up to the ring's size, so a slow frame or a slow read only eats into that
+ * margin instead of being heard. Dropping, draining and closing the device are requests the
+ * output thread handles between two blocks while the decoder waits for them, so the device is
+ * only ever touched by the output thread once it was opened. A failed write is handed back to
+ * the decoder on its next frame.
+ *
+ * How far the decoder runs ahead is set with -Dmusicplayer.audio.decodeAheadMillis (default 250).
+ * @author abhinavk
+ */
+public class OutputStage {
+    private static final int DEFAULT_DECODE_AHEAD_MILLIS = 250;
+
+    // the most samples a frame decodes to and how long a frame plays at 44.1 kHz
+    private static final int BLOCK_SAMPLES = 1152 * 2;
+    private static final int FRAME_MILLIS = 26;
+
+    // requests from the decoder
+    private static final int NONE = 0;
+    private static final int DROP = 1;
+    private static final int DRAIN = 2;
+    private static final int CLOSE = 3;
+
+    private final PcmRing ring;
+    private final Thread outputThread;
+
+    private volatile AudioOutput device;
+    private volatile int request = NONE;
+    private volatile Thread requester;
+    private volatile Exception failure;
+
+    /**
+     * Constructor that runs ahead by the musicplayer.audio.decodeAheadMillis property
+     */
+    public OutputStage() {
+        this(Integer.getInteger("musicplayer.audio.decodeAheadMillis", DEFAULT_DECODE_AHEAD_MILLIS));
+    }
+
+    /**
+     * Constructor that starts the output thread
+     * @param decodeAheadMillis how much audio the decoder may be ahead of the device
+     */
+    public OutputStage(int decodeAheadMillis) {
+        ring = new PcmRing(Math.max(2, (decodeAheadMillis + FRAME_MILLIS - 1) / FRAME_MILLIS), BLOCK_SAMPLES);
+
+        outputThread = new Thread(this::run, "audio-output");
+        outputThread.setDaemon(true);
+        outputThread.setPriority(Thread.MAX_PRIORITY);
+        outputThread.start();
+    }
+
+    /**
+     * Device setter, only called while no device is set
+     * @param device the opened device the output thread writes to
+     */
+    public void setDevice(AudioOutput device) {
+        this.device = device;
+    }
+
+    /**
+     * Method called by the decoder to check if a frame can be written without waiting
+     * @return true if the ring has a free block
+     */
+    public boolean hasSpace() {
+        return ring.hasSpace();
+    }
+
+    /**
+     * Method called by the decoder to wait until a block is free, it also returns when the decoder thread is unparked
+     */
+    public void awaitSpace() {
+        ring.awaitSpace();
+    }
+
+    /**
+     * Method called by the decoder to hand a frame to the output thread, waits while the ring is full
+     * @param samples the interleaved samples
+     * @param count the number of samples
+     * @throws Exception the error the device failed with since the last write
+     */
+    public void write(short[] samples, int count) throws Exception {
+        Exception failure = this.failure;
+        if(failure != null) {
+            this.failure = null;
+            throw failure;
+        }
+        ring.offer(samples, count);
+    }
+
+    /**
+     * Method that drops the audio that wasn't played yet, waits until the device dropped it too
+     */
+    public void drop() {
+        send(DROP);
+    }
+
+    /**
+     * Method that waits until everything was written and the device played it out
+     */
+    public void drain() {
+        send(DRAIN);
+    }
+
+    /**
+     * Method that drops the audio that wasn't played yet and closes the device, waits until it is closed
+     */
+    public void close() {
+        send(CLOSE);
+        failure = null;
+    }
+
+    /**
+     * Buffered getter
+     * @return the number of frames the decoder is ahead of the device
+     */
+    public int getBufferedFrames() {
+        return ring.size();
+    }
+
+    /**
+     * Method that hands a request to the output thread and waits until it was handled
+     */
+    private void send(int request) {
+        if(device == null)
+            return;
+        requester = Thread.currentThread();
+        this.request = request;
+        LockSupport.unpark(outputThread);
+        while(this.request != NONE) {
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Method that runs the output thread
+     */
+    private void run() {
+        while(true) {
+            int request = this.request;
+
+            // draining writes everything first
+            if(request != NONE && (request != DRAIN || ring.size() == 0)) {
+                try {
+                    handle(request);
+                } catch (Exception e) {
+                    failure = e;
+                }
+                this.request = NONE;
+                LockSupport.unpark(requester);
+                continue;
+            }
+
+            short[] samples = ring.peek();
+            if(samples == null) {
+                ring.awaitData();
+                continue;
+            }
+            try {
+                if(failure == null)
+                    device.write(samples, 0, ring.peekCount());
+            } catch (Exception e) {
+                failure = e;
+            }
+            ring.release();
+        }
+    }
+
+    /**
+     * Method that applies a request to the device on the output thread
+     */
+    private void handle(int request) {
+        switch(request) {
+            case DROP:
+                ring.releaseAll();
+                device.drop();
+                break;
+            case DRAIN:
+                device.flush();
+                break;
+            case CLOSE:
+                ring.releaseAll();
+                AudioOutput device = this.device;
+                this.device = null;
+                device.close();
+                break;
+        }
+    }
+}
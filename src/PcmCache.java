@@ -0,0 +1,352 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Pcm Cache Class
+ * Keeps decoded audio of recently played parts of songs so resuming, seeking back and
+ * replaying a song don't have to decode the file again. The audio is stored in blocks of
+ * BLOCK_FRAMES frames in direct buffers outside of the java heap, so a large cache doesn't
+ * make the garbage collector work harder. The buffers and their blocks are allocated once and
+ * reused, the least recently used block is dropped when the budget is reached. Looking a block
+ * up doesn't allocate either, so replaying from the cache creates no garbage. Blocks belong to
+ * a version of a file, its size and modification time, so a file that was rewritten is decoded
+ * again and the blocks of the old version are dropped once they are the oldest.
+ *
+ * The budget is set with the musicplayer.pcmCache.mb property (default 64, 0 turns the cache off).
+ * @author abhinavk
+ */
+public class PcmCache {
+    // frames per block, about 1.5 seconds of audio
+    public static final int BLOCK_FRAMES = 64;
+
+    // the most samples an mpeg frame decodes to, 1152 per channel in stereo
+    private static final int MAX_FRAME_SAMPLES = 1152 * 2;
+    private static final int SLOT_BYTES = BLOCK_FRAMES * MAX_FRAME_SAMPLES * 2;
+
+    private static PcmCache instance;
+
+    private final int maxSlots;
+    private final LinkedHashMap<Key, Block> blocks = new LinkedHashMap<>(64, 0.75f, true);
+    private final ArrayDeque<Block> freeBlocks = new ArrayDeque<>();
+
+    // reused for lookups, never put in the map
+    private final Key probe = new Key(null, 0, 0, 0);
+    private int allocatedSlots;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor
+     * @param maxBytes the most memory the cache may use
+     */
+    public PcmCache(long maxBytes) {
+        this.maxSlots = (int) Math.min(Integer.MAX_VALUE, maxBytes / SLOT_BYTES);
+    }
+
+    /**
+     * Method that returns the cache shared by all decoders
+     * @return the cache
+     */
+    public static synchronized PcmCache getInstance() {
+        if(instance == null)
+            instance = new PcmCache(Long.getLong("musicplayer.pcmCache.mb", 64) * 1024 * 1024);
+        return instance;
+    }
+
+    /**
+     * Method that checks if the cache can hold anything
+     * @return false when the budget is smaller than one block
+     */
+    public boolean isEnabled() {
+        return maxSlots > 0;
+    }
+
+    /**
+     * Method that looks up a block, the block is pinned until unpin() is called
+     * @param source the open file of the song
+     * @param blockIndex the frame of the block start divided by BLOCK_FRAMES
+     * @return the block or null if it isn't cached
+     */
+    public synchronized Block get(Mp3InputSource source, int blockIndex) {
+        Block block = blocks.get(probe(source, blockIndex));
+        if(block == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        block.pins++;
+        return block;
+    }
+
+    /**
+     * Method that checks if a block is cached without counting a hit or miss
+     */
+    public synchronized boolean contains(Mp3InputSource source, int blockIndex) {
+        return blocks.containsKey(probe(source, blockIndex));
+    }
+
+    /**
+     * Method that releases a block returned by get()
+     * @param block the block
+     */
+    public synchronized void unpin(Block block) {
+        block.pins--;
+    }
+
+    /**
+     * Method that gets an empty block to decode into, the oldest block is dropped if needed
+     * @return the block or null if the budget is used by blocks that are being read
+     */
+    public synchronized Block allocate() {
+        Block free = freeBlocks.poll();
+        if(free == null && allocatedSlots < maxSlots) {
+            free = new Block(ByteBuffer.allocateDirect(SLOT_BYTES).order(ByteOrder.nativeOrder()));
+            allocatedSlots++;
+        }
+        if(free == null) {
+            Iterator<Block> iterator = blocks.values().iterator();
+            while(iterator.hasNext()) {
+                Block block = iterator.next();
+                if(block.pins == 0) {
+                    iterator.remove();
+                    evictions++;
+                    free = block;
+                    break;
+                }
+            }
+        }
+        if(free != null)
+            free.clear();
+        return free;
+    }
+
+    /**
+     * Method that adds a filled block to the cache
+     * @param source the open file the block was decoded from
+     * @param blockIndex the frame of the block start divided by BLOCK_FRAMES
+     * @param block the block from allocate()
+     */
+    public synchronized void put(Mp3InputSource source, int blockIndex, Block block) {
+        if(blocks.containsKey(probe(source, blockIndex))) {
+            discard(block);
+        }else {
+            blocks.put(new Key(source.getFilePath(), source.getSize(), source.getLastModified(), blockIndex), block);
+        }
+    }
+
+    /**
+     * Method that gives back a block from allocate() that won't be added
+     * @param block the block
+     */
+    public synchronized void discard(Block block) {
+        freeBlocks.add(block);
+    }
+
+    /**
+     * Hits getter
+     * @return how many lookups found their block
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Misses getter
+     * @return how many lookups didn't find their block
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Evictions getter
+     * @return how many blocks were dropped to make room
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Block count getter
+     * @return the number of cached blocks
+     */
+    public synchronized int getBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Allocated bytes getter
+     * @return the direct memory held by the cache in bytes
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) allocatedSlots * SLOT_BYTES;
+    }
+
+    /**
+     * Budget getter
+     * @return the most direct memory the cache uses in bytes
+     */
+    public long getMaxBytes() {
+        return (long) maxSlots * SLOT_BYTES;
+    }
+
+    /**
+     * Method that describes the state of the cache in one line
+     * @return the description
+     */
+    public synchronized String getStats() {
+        return String.format("Pcm cache: %d blocks, %d/%d MB, %d hits, %d misses, %d evictions",
+                blocks.size(), getAllocatedBytes() >> 20, getMaxBytes() >> 20, hits, misses, evictions);
+    }
+
+    /**
+     * Method that points the lookup key at a block
+     */
+    private Key probe(Mp3InputSource source, int blockIndex) {
+        probe.filePath = source.getFilePath();
+        probe.fileSize = source.getSize();
+        probe.lastModified = source.getLastModified();
+        probe.blockIndex = blockIndex;
+        return probe;
+    }
+
+    /**
+     * Key of a block, the size and modification time tell versions of a file apart
+     */
+    private static final class Key {
+        String filePath;
+        long fileSize;
+        long lastModified;
+        int blockIndex;
+
+        Key(String filePath, long fileSize, long lastModified, int blockIndex) {
+            this.filePath = filePath;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return blockIndex == key.blockIndex && fileSize == key.fileSize && lastModified == key.lastModified
+                    && filePath.equals(key.filePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return filePath.hashCode() * 31 + blockIndex;
+        }
+    }
+
+    /**
+     * Decoded samples of up to BLOCK_FRAMES consecutive frames
+     * Frames can hold fewer samples than a full frame where the encoder delay and padding were cut off
+     */
+    public static final class Block {
+        private final ShortBuffer samples;
+        private final int[] frameOffsets = new int[BLOCK_FRAMES + 1];
+        private int frameCount;
+        private int channels;
+        private int sampleRate;
+        private boolean endOfTrack;
+        private int pins;
+
+        private Block(ByteBuffer slot) {
+            this.samples = slot.duplicate().order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+
+        /**
+         * Method that empties the block so it can be filled again
+         */
+        private void clear() {
+            frameCount = 0;
+            endOfTrack = false;
+            pins = 0;
+        }
+
+        /**
+         * Method that appends the samples of the next frame
+         * @param source the interleaved samples
+         * @param offset where the frame's samples start in source
+         * @param count the number of samples, can be 0
+         * @param channels the number of channels
+         * @param sampleRate the sample rate
+         */
+        public void addFrame(short[] source, int offset, int count, int channels, int sampleRate) {
+            samples.put(frameOffsets[frameCount], source, offset, count);
+            frameCount++;
+            frameOffsets[frameCount] = frameOffsets[frameCount - 1] + count;
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+        }
+
+        /**
+         * Method that copies the samples of a frame out of the block
+         * @param frame the frame relative to the block start
+         * @param destination the array to copy to, must hold a full frame
+         * @return the number of samples copied
+         */
+        public int copyFrame(int frame, short[] destination) {
+            int from = frameOffsets[frame];
+            int count = frameOffsets[frame + 1] - from;
+            samples.get(from, destination, 0, count);
+            return count;
+        }
+
+        /**
+         * Method that marks the block as the last one of the song
+         */
+        public void setEndOfTrack() {
+            endOfTrack = true;
+        }
+
+        /**
+         * End of track getter
+         * @return true when the song ends after the frames of this block
+         */
+        public boolean isEndOfTrack() {
+            return endOfTrack;
+        }
+
+        /**
+         * Method that checks if all BLOCK_FRAMES frames were added
+         * @return true when the block is full
+         */
+        public boolean isFull() {
+            return frameCount == BLOCK_FRAMES;
+        }
+
+        /**
+         * Frame count getter
+         * @return the number of frames in the block
+         */
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Channels getter
+         * @return the number of channels of the samples
+         */
+        public int getChannels() {
+            return channels;
+        }
+
+        /**
+         * Sample rate getter
+         * @return the sample rate of the samples
+         */
+        public int getSampleRate() {
+            return sampleRate;
+        }
+    }
+}
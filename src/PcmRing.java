@@ -0,0 +1,140 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pcm Ring Class
+ * A ring of preallocated pcm blocks that hands audio from one producer thread to one consumer
+ * thread without locks. The producer copies a frame into the block at the head and publishes it,
+ * the consumer plays the block at the tail and hands it back. Each side only moves its own
+ * counter, so no locks are needed, and the blocks are reused so passing audio along never allocates.
+ * A side that has to wait parks and is unparked by the other one.
+ * @author abhinavk
+ */
+public class PcmRing {
+    private final short[][] blocks;
+    private final int[] counts;
+
+    // blocks published by the producer and blocks handed back by the consumer since the ring was made
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+
+    /**
+     * Constructor
+     * @param capacity the number of blocks
+     * @param blockSamples the most samples a block holds
+     */
+    public PcmRing(int capacity, int blockSamples) {
+        blocks = new short[capacity][blockSamples];
+        counts = new int[capacity];
+    }
+
+    /**
+     * Capacity getter
+     * @return the number of blocks
+     */
+    public int getCapacity() {
+        return blocks.length;
+    }
+
+    /**
+     * Size getter
+     * @return the number of blocks published and not handed back yet
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * Method called by the producer to check if a block is free
+     * @return true if offer() won't have to wait
+     */
+    public boolean hasSpace() {
+        return head.get() - tail.get() < blocks.length;
+    }
+
+    /**
+     * Method called by the producer to copy samples into the next block and publish it, waits while the ring is full
+     * @param samples the samples
+     * @param count the number of samples, at most the block size
+     */
+    public void offer(short[] samples, int count) {
+        while(!hasSpace()) {
+            awaitSpace();
+        }
+        long position = head.get();
+        int index = (int) (position % blocks.length);
+        System.arraycopy(samples, 0, blocks[index], 0, count);
+        counts[index] = count;
+
+        // a volatile write, so the consumer sees the samples and a consumer about to park sees the block
+        head.set(position + 1);
+        Thread consumer = waitingConsumer;
+        if(consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Method called by the producer to wait until a block is free, it also returns when the thread is unparked
+     */
+    public void awaitSpace() {
+        waitingProducer = Thread.currentThread();
+        if(!hasSpace())
+            LockSupport.park(this);
+        waitingProducer = null;
+    }
+
+    /**
+     * Method called by the consumer to get the oldest block
+     * @return the samples of the block, null if the ring is empty
+     */
+    public short[] peek() {
+        long position = tail.get();
+        return position < head.get() ? blocks[(int) (position % blocks.length)] : null;
+    }
+
+    /**
+     * Method called by the consumer after peek() to get the length of the block
+     * @return the number of samples in the block
+     */
+    public int peekCount() {
+        return counts[(int) (tail.get() % blocks.length)];
+    }
+
+    /**
+     * Method called by the consumer to hand the oldest block back to the producer
+     */
+    public void release() {
+        tail.set(tail.get() + 1);
+        wakeProducer();
+    }
+
+    /**
+     * Method called by the consumer to hand back every block that was published
+     */
+    public void releaseAll() {
+        tail.set(head.get());
+        wakeProducer();
+    }
+
+    /**
+     * Method called by the consumer to wait until a block is published, it also returns when the thread is unparked
+     */
+    public void awaitData() {
+        waitingConsumer = Thread.currentThread();
+        if(size() == 0)
+            LockSupport.park(this);
+        waitingConsumer = null;
+    }
+
+    /**
+     * Method that unparks the producer if it waits for a free block
+     */
+    private void wakeProducer() {
+        Thread producer = waitingProducer;
+        if(producer != null)
+            LockSupport.unpark(producer);
+    }
+}
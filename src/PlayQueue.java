@@ -0,0 +1,1064 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Play Queue Class
+ * The songs the engine plays and the order it plays them in. Entries are song ids of a song store
+ * kept in a treap ordered by position, all in int arrays, so a queue of a million songs is a few
+ * int arrays and not a million objects. Adding, removing and moving entries and finding an entry
+ * or the position of one take O(log n), a run of rows moves or goes away with two splits.
+ *
+ * Shuffle doesn't reorder the queue: the next song is drawn from the entries that weren't played
+ * in this round yet, which the treap counts per subtree, so turning shuffle on is O(1) and songs
+ * added while shuffling join the draw. The draws come from a seeded generator whose state is
+ * saved with the queue, the same seed on the same queue plays the same order. Songs played next
+ * on purpose are played before the draw, in the order they were queued, and going back through
+ * the history and forward again replays the same songs. Repeat one plays the current song again
+ * when it ends, repeat all starts over at the first entry, or a new round of the draw.
+ *
+ * Entries are handed out as handles, the node and a serial that changes when the node is freed,
+ * so the history and the engine can hold on to entries that may be removed in the meantime.
+ * Only used by the audio thread, a queue is built on another thread before it is handed over.
+ * @author abhinavk
+ */
+public class PlayQueue {
+    /**
+     * Handle of no entry
+     */
+    public static final long NONE = -1;
+
+    /**
+     * Repeat modes
+     */
+    public enum Repeat {
+        OFF, ALL, ONE
+    }
+
+    // "MPQU" in ascii, used to recognize a saved queue
+    private static final int MAGIC = 0x4D505155;
+    private static final int VERSION = 1;
+
+    // how far back previous goes
+    private static final int HISTORY_LIMIT = 1000;
+
+    // songs played next on purpose while shuffling, more than this and the oldest go back to the draw
+    private static final int UP_NEXT_LIMIT = 10_000;
+
+    private SongStore songStore;
+
+    // node 0 is the empty tree, its size and played count stay 0
+    private int[] left, right, parent, sizes, songIds, serials;
+    private int[] playedRounds, playedCounts, countRounds;
+    private int nodeCount = 1;
+    private int[] freeNodes = new int[16];
+    private int freeCount;
+    private int root;
+    private int current;
+
+    // results of split()
+    private int splitLeft, splitRight;
+
+    private boolean shuffle;
+    private long seed;
+    private long randomState;
+    private int round = 1;
+    private long nextPick = NONE;
+    private Repeat repeat = Repeat.OFF;
+    private final Handles history = new Handles(HISTORY_LIMIT);
+    private final Handles forward = new Handles(HISTORY_LIMIT);
+    private final Handles upNext = new Handles(UP_NEXT_LIMIT);
+
+    /**
+     * A ring of entry handles used as a stack, the oldest are dropped once it is full
+     */
+    private static final class Handles {
+        private final long[] ring;
+        private int start, count;
+
+        Handles(int limit) {
+            ring = new long[limit];
+        }
+
+        void push(long handle) {
+            if(count == ring.length) {
+                start = (start + 1) % ring.length;
+                count--;
+            }
+            ring[(start + count++) % ring.length] = handle;
+        }
+
+        long peek() {
+            return count == 0 ? NONE : ring[(start + count - 1) % ring.length];
+        }
+
+        long pop() {
+            return count == 0 ? NONE : ring[(start + --count) % ring.length];
+        }
+
+        long get(int index) {
+            return ring[(start + index) % ring.length];
+        }
+
+        int size() {
+            return count;
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
+
+    /**
+     * Constructor of an empty queue
+     */
+    public PlayQueue() {
+        this(new SongStore(16), 16);
+    }
+
+    /**
+     * Constructor
+     */
+    private PlayQueue(SongStore songStore, int capacity) {
+        this.songStore = songStore;
+        int length = Math.max(16, capacity + 1);
+        left = new int[length];
+        right = new int[length];
+        parent = new int[length];
+        sizes = new int[length];
+        songIds = new int[length];
+        serials = new int[length];
+        playedRounds = new int[length];
+        playedCounts = new int[length];
+        countRounds = new int[length];
+    }
+
+    /**
+     * Song store getter
+     * @return the store the song ids of this queue point into, a cleared queue gets a new one
+     */
+    public SongStore getSongStore() {
+        return songStore;
+    }
+
+    /**
+     * Size getter
+     * @return the number of entries
+     */
+    public int size() {
+        return sizes[root];
+    }
+
+    /**
+     * Current entry getter
+     * @return the handle of the entry that is playing, NONE if there is none
+     */
+    public long getCurrent() {
+        return current == 0 ? NONE : handle(current);
+    }
+
+    /**
+     * Position getter
+     * @return the position of the entry that is playing, -1 if there is none
+     */
+    public int getPosition() {
+        return current == 0 ? -1 : positionOf(current);
+    }
+
+    /**
+     * Method that gets the song of an entry
+     * @param entry the handle of the entry
+     * @return the song, read if it wasn't yet
+     */
+    public Song getSong(long entry) {
+        return songStore.get(songIds[(int) entry]);
+    }
+
+    /**
+     * Method that gets the song id of an entry
+     * @param entry the handle of the entry
+     * @return the id of the song in the song store
+     */
+    public int getSongId(long entry) {
+        return songIds[(int) entry];
+    }
+
+    /**
+     * Shuffle getter
+     * @return true if the next song is drawn at random
+     */
+    public boolean isShuffled() {
+        return shuffle;
+    }
+
+    /**
+     * Repeat getter
+     * @return the repeat mode
+     */
+    public Repeat getRepeat() {
+        return repeat;
+    }
+
+    /**
+     * Repeat setter
+     * @param repeat the repeat mode
+     */
+    public void setRepeat(Repeat repeat) {
+        this.repeat = repeat;
+    }
+
+    /**
+     * Shuffle setter, turning it on starts a new round in which only the current song was played
+     * @param shuffle true to draw the next song at random
+     * @param seed the seed of the draws, the same seed on the same queue plays the same order
+     */
+    public void setShuffle(boolean shuffle, long seed) {
+        this.shuffle = shuffle;
+        this.seed = seed;
+        randomState = seed;
+        nextPick = NONE;
+        forward.clear();
+        upNext.clear();
+        if(shuffle) {
+            round++;
+            if(current != 0)
+                setPlayed(current);
+        }
+    }
+
+    /**
+     * Seed getter
+     * @return the seed shuffle was last turned on with
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Method that removes every entry, the songs go to a new song store
+     */
+    public void clear() {
+        // handles that are still around don't match anything anymore
+        for(int node = 1; node < nodeCount; node++) {
+            serials[node]++;
+        }
+        nodeCount = 1;
+        freeCount = 0;
+        root = 0;
+        current = 0;
+        nextPick = NONE;
+        history.clear();
+        forward.clear();
+        upNext.clear();
+        songStore = new SongStore(16);
+    }
+
+    /**
+     * Method that adds songs to the end
+     * @param songs the songs
+     */
+    public void addAll(List<Song> songs) {
+        insert(size(), songIdsOf(songs));
+    }
+
+    /**
+     * Method that adds songs right after the current one, while shuffling they are played next in this order
+     * @param songs the songs
+     * @return the position of the first song
+     */
+    public int playNext(List<Song> songs) {
+        int position = current == 0 ? size() : positionOf(current) + 1;
+        int[] nodes = insert(position, songIdsOf(songs));
+        if(shuffle) {
+            for(int i = nodes.length - 1; i >= 0; i--) {
+                upNext.push(handle(nodes[i]));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Method that makes an entry the current one, the one before goes to the history
+     * @param position the position of the entry
+     * @return false if there is no entry at the position
+     */
+    public boolean jump(int position) {
+        if(position < 0 || position >= size())
+            return false;
+        if(current != 0)
+            history.push(handle(current));
+        forward.clear();
+        setCurrent(nodeAt(position));
+        return true;
+    }
+
+    /**
+     * Method that finds the entry that plays after the current one, a drawn entry is kept until it played or was removed
+     * @param ended true if the current song played to the end, repeat one plays it again then
+     * @return the handle of the entry, NONE if playback ends after the current one
+     */
+    public long peekNext(boolean ended) {
+        if(current == 0)
+            return NONE;
+        if(ended && repeat == Repeat.ONE)
+            return handle(current);
+
+        if(!shuffle) {
+            int position = positionOf(current) + 1;
+            if(position < size())
+                return handle(nodeAt(position));
+            return repeat == Repeat.ALL ? handle(nodeAt(0)) : NONE;
+        }
+
+        // songs that were gone back from, then songs played next on purpose, then the draw
+        long entry = firstLive(forward, false);
+        if(entry == NONE)
+            entry = firstLive(upNext, true);
+        if(entry == NONE && (!isLive(nextPick) || isPlayed((int) nextPick)))
+            nextPick = draw();
+        return entry != NONE ? entry : nextPick;
+    }
+
+    /**
+     * Method that moves on to the entry peekNext() returns, the current one goes to the history
+     * @param ended true if the current song played to the end
+     * @return false if playback ends after the current one
+     */
+    public boolean advance(boolean ended) {
+        long entry = peekNext(ended);
+        if(entry == NONE)
+            return false;
+        if(forward.peek() == entry)
+            forward.pop();
+        if(upNext.peek() == entry)
+            upNext.pop();
+        if((int) entry != current)
+            history.push(handle(current));
+        setCurrent((int) entry);
+        return true;
+    }
+
+    /**
+     * Method that goes back to the entry that played before, or the one before the current one if the history is empty
+     * @return false if there is nothing to go back to
+     */
+    public boolean back() {
+        if(current == 0)
+            return false;
+        for(long entry; (entry = history.pop()) != NONE; ) {
+            if(isLive(entry) && (int) entry != current) {
+                // next plays the songs that were gone back from again while shuffling
+                if(shuffle)
+                    forward.push(handle(current));
+                setCurrent((int) entry);
+                return true;
+            }
+        }
+        if(shuffle)
+            return false;
+        int position = positionOf(current) - 1;
+        if(position < 0 && repeat == Repeat.ALL)
+            position = size() - 1;
+        if(position < 0)
+            return false;
+        setCurrent(nodeAt(position));
+        return true;
+    }
+
+    /**
+     * Method that removes entries, the entry after the current one becomes current if it is removed
+     * @param positions the positions of the entries, in any order
+     * @return true if the current entry was removed
+     */
+    public boolean remove(int[] positions) {
+        int[] rows = rows(positions);
+        if(rows.length == 0)
+            return false;
+        int currentPosition = getPosition();
+        boolean currentRemoved = currentPosition >= 0 && Arrays.binarySearch(rows, currentPosition) >= 0;
+
+        for(int end = rows.length; end > 0; ) {
+            int start = runStart(rows, end);
+            freeTree(cut(rows[start], end - start));
+            end = start;
+        }
+
+        if(currentRemoved) {
+            int position = currentPosition - countBelow(rows, currentPosition);
+            current = 0;
+            if(position < size())
+                setCurrent(nodeAt(position));
+        }
+        return currentRemoved;
+    }
+
+    /**
+     * Method that moves entries next to each other at another place, they keep their order
+     * @param positions the positions of the entries, in any order
+     * @param to the position they are inserted before, counted before the move
+     */
+    public void move(int[] positions, int to) {
+        int[] rows = rows(positions);
+        if(rows.length == 0)
+            return;
+        to = Math.max(0, Math.min(to, size()));
+        int insertAt = to - countBelow(rows, to);
+
+        // cut from the back so the positions of the runs before stay the same
+        int moved = 0;
+        for(int end = rows.length; end > 0; ) {
+            int start = runStart(rows, end);
+            moved = merge(cut(rows[start], end - start), moved);
+            end = start;
+        }
+        split(root, insertAt);
+        int after = splitRight;
+        root = merge(merge(splitLeft, moved), after);
+        parent[root] = 0;
+    }
+
+    /**
+     * Method that returns the paths of all entries
+     * @return the paths in queue order
+     */
+    public List<String> getPaths() {
+        int[] nodes = nodesInOrder();
+        String[] storePaths = songStore.getPaths();
+        List<String> paths = new ArrayList<>(nodes.length);
+        for(int node : nodes) {
+            paths.add(storePaths[songIds[node]]);
+        }
+        return paths;
+    }
+
+    /**
+     * Method that copies what is needed to save the queue, one walk over the entries and a copy of the paths
+     * @return a copy that can be written on another thread
+     */
+    public Snapshot snapshot() {
+        int[] nodes = nodesInOrder();
+        int[] entries = new int[nodes.length];
+        long[] played = new long[(nodes.length + 63) / 64];
+        for(int i = 0; i < nodes.length; i++) {
+            entries[i] = songIds[nodes[i]];
+            if(isPlayed(nodes[i]))
+                played[i >> 6] |= 1L << i;
+        }
+        return new Snapshot(songStore.getPaths(), entries, getPosition(), repeat, shuffle, seed, randomState,
+                played, positionsOf(history), positionsOf(forward), positionsOf(upNext), isLive(nextPick) ? positionOf((int) nextPick) : -1);
+    }
+
+    /**
+     * Method that gets the default file the queue is saved to between sessions
+     * @return queue.mpq in the cache folder
+     */
+    public static File getDefaultFile() {
+        return new File(LibraryCache.getCacheDir(), "queue.mpq");
+    }
+
+    /**
+     * Method that reads a saved queue, the songs are only read when they play
+     * @param file the file the snapshot was written to
+     * @return the queue
+     * @throws IOException if the file can't be read or isn't a saved queue
+     */
+    public static PlayQueue read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a saved play queue: " + file);
+
+            // no count or length can be larger than what the file holds, a broken one would otherwise fill the heap
+            long maxCount = file.length() / 4;
+            int songCount = readCount(in, maxCount);
+            String[] paths = new String[songCount];
+            byte[] bytes = new byte[1024];
+            for(int i = 0; i < songCount; i++) {
+                int length = readCount(in, file.length());
+                if(length > bytes.length)
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                in.readFully(bytes, 0, length);
+                paths[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            SongStore songStore = new SongStore(paths);
+
+            int count = readCount(in, maxCount);
+            int[] entries = readInts(in, count);
+            PlayQueue queue = new PlayQueue(songStore, count);
+            int[] nodes = new int[count];
+            for(int i = 0; i < count; i++) {
+                if(entries[i] < 0 || entries[i] >= songCount)
+                    throw new IOException("Broken play queue: " + file);
+                nodes[i] = queue.newNode(entries[i]);
+            }
+
+            int position = in.readInt();
+            int repeat = in.readByte();
+            if(repeat < 0 || repeat >= Repeat.values().length)
+                throw new IOException("Broken play queue: " + file);
+            queue.repeat = Repeat.values()[repeat];
+            queue.shuffle = in.readBoolean();
+            queue.seed = in.readLong();
+            queue.randomState = in.readLong();
+            long[] played = readLongs(in, readCount(in, maxCount));
+            if(played.length < (count + 63) >> 6)
+                throw new IOException("Broken play queue: " + file);
+            for(int i = 0; i < count; i++) {
+                if((played[i >> 6] & 1L << i) != 0)
+                    queue.playedRounds[nodes[i]] = queue.round;
+            }
+            queue.root = queue.build(nodes, count);
+
+            queue.readHandles(in, nodes, queue.history, maxCount);
+            queue.readHandles(in, nodes, queue.forward, maxCount);
+            queue.readHandles(in, nodes, queue.upNext, maxCount);
+            int nextPick = in.readInt();
+            queue.nextPick = nextPick >= 0 && nextPick < count ? queue.handle(nodes[nextPick]) : NONE;
+            queue.current = position >= 0 && position < count ? nodes[position] : 0;
+            return queue;
+        } catch (EOFException e) {
+            throw new IOException("Broken play queue: " + file, e);
+        }
+    }
+
+    /**
+     * A copy of a queue made on the audio thread and written on another one
+     */
+    public static final class Snapshot {
+        // every path of the song store and the song ids in queue order
+        private final String[] paths;
+        private final int[] entries;
+        private final int position;
+        private final Repeat repeat;
+        private final boolean shuffle;
+        private final long seed;
+        private final long randomState;
+        private final long[] played;
+        private final int[] history, forward, upNext;
+        private final int nextPick;
+
+        private Snapshot(String[] paths, int[] entries, int position, Repeat repeat, boolean shuffle, long seed, long randomState,
+                long[] played, int[] history, int[] forward, int[] upNext, int nextPick) {
+            this.paths = paths;
+            this.entries = entries;
+            this.position = position;
+            this.repeat = repeat;
+            this.shuffle = shuffle;
+            this.seed = seed;
+            this.randomState = randomState;
+            this.played = played;
+            this.history = history;
+            this.forward = forward;
+            this.upNext = upNext;
+            this.nextPick = nextPick;
+        }
+
+        /**
+         * Size getter
+         * @return the number of entries
+         */
+        public int size() {
+            return entries.length;
+        }
+
+        /**
+         * Method that writes the queue through a temp file that is renamed over the file
+         * @param file the file
+         * @throws IOException if the file can't be written
+         */
+        public void write(File file) throws IOException {
+            File parentDir = file.getAbsoluteFile().getParentFile();
+            if(parentDir != null)
+                parentDir.mkdirs();
+
+            File tempFile = new File(file.getPath() + ".tmp");
+            // only the songs still in the queue are saved, under new ids
+            int[] newIds = new int[paths.length];
+            Arrays.fill(newIds, -1);
+            int[] savedEntries = new int[entries.length];
+            int songCount = 0;
+            for(int i = 0; i < entries.length; i++) {
+                if(newIds[entries[i]] < 0)
+                    newIds[entries[i]] = songCount++;
+                savedEntries[i] = newIds[entries[i]];
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(songCount);
+                String[] savedPaths = new String[songCount];
+                for(int i = 0; i < paths.length; i++) {
+                    if(newIds[i] >= 0)
+                        savedPaths[newIds[i]] = paths[i];
+                }
+                for(String path : savedPaths) {
+                    byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.writeInt(entries.length);
+                writeInts(out, savedEntries);
+                out.writeInt(position);
+                out.writeByte(repeat.ordinal());
+                out.writeBoolean(shuffle);
+                out.writeLong(seed);
+                out.writeLong(randomState);
+                out.writeInt(played.length);
+                for(long word : played) {
+                    out.writeLong(word);
+                }
+                for(int[] positions : new int[][] {history, forward, upNext}) {
+                    out.writeInt(positions.length);
+                    writeInts(out, positions);
+                }
+                out.writeInt(nextPick);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Method that adds song ids at a position
+     * @return the new nodes in order
+     */
+    private int[] insert(int position, int[] ids) {
+        int[] nodes = new int[ids.length];
+        for(int i = 0; i < ids.length; i++) {
+            nodes[i] = newNode(ids[i]);
+        }
+        split(root, position);
+        int after = splitRight;
+        root = merge(merge(splitLeft, build(nodes, nodes.length)), after);
+        parent[root] = 0;
+        return nodes;
+    }
+
+    /**
+     * Method that adds songs to the song store
+     */
+    private int[] songIdsOf(List<Song> songs) {
+        int[] ids = new int[songs.size()];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = songStore.add(songs.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Method that makes a node the current one, while shuffling it counts as played in this round
+     */
+    private void setCurrent(int node) {
+        current = node;
+        if(shuffle)
+            setPlayed(node);
+    }
+
+    /**
+     * Method that draws an entry that wasn't played in this round, repeat all starts a new round once all were
+     */
+    private long draw() {
+        int unplayed = size() - played(root);
+        if(unplayed == 0 && repeat == Repeat.ALL) {
+            // the current song was just heard, it waits for the round after
+            round++;
+            if(current != 0)
+                setPlayed(current);
+            unplayed = size() - played(root);
+            if(unplayed == 0)
+                return handle(current);
+        }
+        if(unplayed == 0)
+            return NONE;
+
+        // splitmix64, its state is one long that is saved with the queue
+        long z = randomState += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        int k = (int) Math.floorMod(z, (long) unplayed);
+
+        // walk down to the k-th unplayed entry
+        int node = root;
+        while(true) {
+            int unplayedLeft = sizes[left[node]] - played(left[node]);
+            if(k < unplayedLeft) {
+                node = left[node];
+                continue;
+            }
+            k -= unplayedLeft;
+            if(!isPlayed(node)) {
+                if(k == 0)
+                    return handle(node);
+                k--;
+            }
+            node = right[node];
+        }
+    }
+
+    /**
+     * Method that drops the handles on top of a stack that were removed, or played if asked
+     */
+    private long firstLive(Handles handles, boolean unplayedOnly) {
+        for(long entry; (entry = handles.peek()) != NONE; handles.pop()) {
+            if(isLive(entry) && !(unplayedOnly && isPlayed((int) entry)))
+                return entry;
+        }
+        return NONE;
+    }
+
+    /**
+     * Method that marks a node as played in this round and counts it in every subtree it is in
+     */
+    private void setPlayed(int node) {
+        playedRounds[node] = round;
+        for(; node != 0; node = parent[node]) {
+            update(node);
+        }
+    }
+
+    private boolean isPlayed(int node) {
+        return playedRounds[node] == round;
+    }
+
+    /**
+     * Method that gets the number of played nodes of a subtree, counts from an earlier round are 0
+     */
+    private int played(int node) {
+        return countRounds[node] == round ? playedCounts[node] : 0;
+    }
+
+    /**
+     * Method that works out the size and played count of a node from its children
+     */
+    private void update(int node) {
+        sizes[node] = 1 + sizes[left[node]] + sizes[right[node]];
+        playedCounts[node] = played(left[node]) + played(right[node]) + (isPlayed(node) ? 1 : 0);
+        countRounds[node] = round;
+    }
+
+    /**
+     * Method that gets the heap priority of a node, a hash of its index
+     */
+    private static int priority(int node) {
+        int h = node * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ (h >>> 13);
+    }
+
+    private long handle(int node) {
+        return (long) serials[node] << 32 | node;
+    }
+
+    /**
+     * Method that checks if a handle still points at an entry of the queue
+     */
+    private boolean isLive(long entry) {
+        int node = (int) entry;
+        return entry != NONE && node > 0 && node < nodeCount && serials[node] == (int) (entry >>> 32);
+    }
+
+    private int nodeAt(int position) {
+        int node = root;
+        while(true) {
+            int leftSize = sizes[left[node]];
+            if(position < leftSize) {
+                node = left[node];
+            }else if(position == leftSize) {
+                return node;
+            }else {
+                position -= leftSize + 1;
+                node = right[node];
+            }
+        }
+    }
+
+    private int positionOf(int node) {
+        int position = sizes[left[node]];
+        for(; parent[node] != 0; node = parent[node]) {
+            if(right[parent[node]] == node)
+                position += sizes[left[parent[node]]] + 1;
+        }
+        return position;
+    }
+
+    /**
+     * Method that cuts the entries of a range out of the tree
+     * @return the root of the tree of the range
+     */
+    private int cut(int position, int count) {
+        split(root, position);
+        int before = splitLeft;
+        split(splitRight, count);
+        int range = splitLeft;
+        root = merge(before, splitRight);
+        parent[root] = 0;
+        parent[range] = 0;
+        return range;
+    }
+
+    /**
+     * Method that splits a tree into its first count nodes and the rest, left in splitLeft and splitRight
+     */
+    private void split(int node, int count) {
+        if(node == 0) {
+            splitLeft = 0;
+            splitRight = 0;
+            return;
+        }
+        if(sizes[left[node]] < count) {
+            split(right[node], count - sizes[left[node]] - 1);
+            setRight(node, splitLeft);
+            update(node);
+            splitLeft = node;
+        }else {
+            split(left[node], count);
+            setLeft(node, splitRight);
+            update(node);
+            splitRight = node;
+        }
+        parent[splitLeft] = 0;
+        parent[splitRight] = 0;
+    }
+
+    /**
+     * Method that joins two trees, every node of the first one comes before the second one
+     */
+    private int merge(int a, int b) {
+        if(a == 0)
+            return b;
+        if(b == 0)
+            return a;
+        if(priority(a) > priority(b)) {
+            setRight(a, merge(right[a], b));
+            update(a);
+            return a;
+        }
+        setLeft(b, merge(a, left[b]));
+        update(b);
+        return b;
+    }
+
+    /**
+     * Method that builds a tree of nodes in order in O(n), with a stack of the right spine
+     */
+    private int build(int[] nodes, int count) {
+        if(count == 0)
+            return 0;
+        int[] spine = new int[count];
+        int top = 0;
+        for(int i = 0; i < count; i++) {
+            int node = nodes[i];
+            left[node] = 0;
+            right[node] = 0;
+            int last = 0;
+            while(top > 0 && priority(spine[top - 1]) < priority(node)) {
+                last = spine[--top];
+            }
+            setLeft(node, last);
+            if(top > 0)
+                setRight(spine[top - 1], node);
+            spine[top++] = node;
+        }
+        parent[spine[0]] = 0;
+        updateTree(spine[0]);
+        return spine[0];
+    }
+
+    private void updateTree(int node) {
+        if(node == 0)
+            return;
+        updateTree(left[node]);
+        updateTree(right[node]);
+        update(node);
+    }
+
+    private void setLeft(int node, int child) {
+        left[node] = child;
+        if(child != 0)
+            parent[child] = node;
+    }
+
+    private void setRight(int node, int child) {
+        right[node] = child;
+        if(child != 0)
+            parent[child] = node;
+    }
+
+    private int newNode(int songId) {
+        int node;
+        if(freeCount > 0) {
+            node = freeNodes[--freeCount];
+        }else {
+            if(nodeCount == left.length)
+                grow();
+            node = nodeCount++;
+        }
+        left[node] = 0;
+        right[node] = 0;
+        parent[node] = 0;
+        songIds[node] = songId;
+        playedRounds[node] = 0;
+        update(node);
+        return node;
+    }
+
+    /**
+     * Method that frees the nodes of a tree, handles to them don't match anymore
+     */
+    private void freeTree(int node) {
+        if(node == 0)
+            return;
+        freeTree(left[node]);
+        freeTree(right[node]);
+        serials[node]++;
+        if(node == current)
+            current = 0;
+        if(freeCount == freeNodes.length)
+            freeNodes = Arrays.copyOf(freeNodes, freeCount * 2);
+        freeNodes[freeCount++] = node;
+    }
+
+    private void grow() {
+        int length = left.length + (left.length >> 1);
+        left = Arrays.copyOf(left, length);
+        right = Arrays.copyOf(right, length);
+        parent = Arrays.copyOf(parent, length);
+        sizes = Arrays.copyOf(sizes, length);
+        songIds = Arrays.copyOf(songIds, length);
+        serials = Arrays.copyOf(serials, length);
+        playedRounds = Arrays.copyOf(playedRounds, length);
+        playedCounts = Arrays.copyOf(playedCounts, length);
+        countRounds = Arrays.copyOf(countRounds, length);
+    }
+
+    /**
+     * Method that lists the nodes in queue order
+     */
+    private int[] nodesInOrder() {
+        int[] nodes = new int[size()];
+        int count = 0;
+        int node = root;
+        int[] stack = new int[64];
+        int top = 0;
+        while(node != 0 || top > 0) {
+            while(node != 0) {
+                if(top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = node;
+                node = left[node];
+            }
+            node = stack[--top];
+            nodes[count++] = node;
+            node = right[node];
+        }
+        return nodes;
+    }
+
+    /**
+     * Method that gets the positions of the live handles of a stack, oldest first
+     */
+    private int[] positionsOf(Handles handles) {
+        int[] positions = new int[handles.size()];
+        int count = 0;
+        for(int i = 0; i < handles.size(); i++) {
+            if(isLive(handles.get(i)))
+                positions[count++] = positionOf((int) handles.get(i));
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    private void readHandles(DataInputStream in, int[] nodes, Handles handles, long maxCount) throws IOException {
+        for(int position : readInts(in, readCount(in, maxCount))) {
+            if(position >= 0 && position < nodes.length)
+                handles.push(handle(nodes[position]));
+        }
+    }
+
+    /**
+     * Method that sorts positions and drops the ones outside of the queue and the doubles
+     */
+    private int[] rows(int[] positions) {
+        int[] rows = positions.clone();
+        Arrays.sort(rows);
+        int count = 0;
+        for(int i = 0; i < rows.length; i++) {
+            if(rows[i] >= 0 && rows[i] < size() && (count == 0 || rows[count - 1] != rows[i]))
+                rows[count++] = rows[i];
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Method that finds where the run of consecutive rows that ends before end starts
+     */
+    private static int runStart(int[] rows, int end) {
+        int start = end - 1;
+        while(start > 0 && rows[start - 1] == rows[start] - 1) {
+            start--;
+        }
+        return start;
+    }
+
+    private static int countBelow(int[] rows, int position) {
+        int index = Arrays.binarySearch(rows, position);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Method that writes ints in blocks, much faster than one writeInt() each
+     */
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for(int i = 0; i < values.length; ) {
+            buffer.clear();
+            int count = Math.min(values.length - i, buffer.capacity() / 4);
+            buffer.asIntBuffer().put(values, i, count);
+            out.write(buffer.array(), 0, count * 4);
+            i += count;
+        }
+    }
+
+    /**
+     * Method that reads the number of values that follow, it can't be more than the file holds
+     */
+    private static int readCount(DataInputStream in, long maxCount) throws IOException {
+        int count = in.readInt();
+        if(count < 0 || count > maxCount)
+            throw new IOException("Broken play queue");
+        return count;
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        byte[] bytes = new byte[64 * 1024];
+        for(int i = 0; i < count; ) {
+            int n = Math.min(count - i, bytes.length / 4);
+            in.readFully(bytes, 0, n * 4);
+            ByteBuffer.wrap(bytes, 0, n * 4).asIntBuffer().get(values, i, n);
+            i += n;
+        }
+        return values;
+    }
+
+    private static long[] readLongs(DataInputStream in, int count) throws IOException {
+        long[] values = new long[count];
+        for(int i = 0; i < count; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Playback Clock Class
+ * Keeps track of the playback position using the audio that the device actually played.
+ * The position is pushed to the listeners on the publish executor (the EDT in the gui)
+ * at most once per display frame, updates that come in while one is still waiting to
+ * run are merged into it.
+ * @author abhinavk
+ */
+public class PlaybackClock {
+    // one update per display frame at 60 fps
+    private static final long PUBLISH_INTERVAL_NANOS = 1_000_000_000L / 60;
+
+    private final CopyOnWriteArrayList<PositionListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean updatePending = new AtomicBoolean();
+    private final Runnable publishTask = this::publish;
+    private final Executor publishExecutor;
+
+    private volatile double frameRatePerMilliseconds;
+    private volatile int startFrame;
+    private volatile long startTimeInMilli;
+    private volatile long deviceStartTimeInMilli;
+    private volatile long playedTimeInMilli;
+    private long lastPublishNanos;
+
+    /**
+     * Constructor
+     * @param publishExecutor the executor the listeners are called on
+     */
+    public PlaybackClock(Executor publishExecutor) {
+        this.publishExecutor = publishExecutor;
+    }
+
+    /**
+     * Interface used to receive position updates, called on the publish executor
+     */
+    public interface PositionListener {
+        /**
+         * Called when the playback position changed
+         * @param frame the current frame of the song
+         * @param timeInMilli the current time in the song in milliseconds
+         */
+        void positionChanged(int frame, long timeInMilli);
+    }
+
+    /**
+     * Method that adds a position listener
+     * @param listener the listener
+     */
+    public void addPositionListener(PositionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Method that removes a position listener
+     * @param listener the listener
+     */
+    public void removePositionListener(PositionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Method that resets the clock when playback starts at a position in a song
+     * @param song the song that is played
+     * @param frame the frame playback starts from
+     * @param timeInMilli the time in the song playback starts from
+     */
+    public void start(Song song, int frame, long timeInMilli) {
+        frameRatePerMilliseconds = song.getFrameRatePerMilliseconds();
+        startFrame = frame;
+        startTimeInMilli = timeInMilli;
+        deviceStartTimeInMilli = 0;
+        playedTimeInMilli = 0;
+        lastPublishNanos = 0;
+        requestPublish();
+    }
+
+    /**
+     * Method that resets the clock when the device moves on to the next song without stopping
+     * @param song the song that is now played
+     * @param deviceTimeInMilli the audio device time at which the song starts
+     */
+    public void songChanged(Song song, long deviceTimeInMilli) {
+        frameRatePerMilliseconds = song.getFrameRatePerMilliseconds();
+        startFrame = 0;
+        startTimeInMilli = 0;
+        deviceStartTimeInMilli = deviceTimeInMilli;
+        playedTimeInMilli = 0;
+        requestPublish();
+    }
+
+    /**
+     * Method called by the audio device every time it received audio
+     * @param deviceTimeInMilli how much audio the device played since it was opened
+     */
+    void update(long deviceTimeInMilli) {
+        // the end of the previous song may still be playing after a gapless song change
+        this.playedTimeInMilli = Math.max(0, deviceTimeInMilli - deviceStartTimeInMilli);
+
+        // only wake the listeners once per display frame
+        long now = System.nanoTime();
+        if(now - lastPublishNanos >= PUBLISH_INTERVAL_NANOS) {
+            lastPublishNanos = now;
+            requestPublish();
+        }
+    }
+
+    /**
+     * Current frame getter
+     * @return the frame that is currently heard
+     */
+    public int getFrame() {
+        return startFrame + (int) (playedTimeInMilli * frameRatePerMilliseconds);
+    }
+
+    /**
+     * Current time getter
+     * @return the time in the song that is currently heard in milliseconds
+     */
+    public long getTimeInMilli() {
+        return startTimeInMilli + playedTimeInMilli;
+    }
+
+    /**
+     * Method that queues a publish unless one is already waiting
+     */
+    private void requestPublish() {
+        if(updatePending.compareAndSet(false, true))
+            publishExecutor.execute(publishTask);
+    }
+
+    /**
+     * Method that sends the latest position to the listeners
+     */
+    private void publish() {
+        updatePending.set(false);
+        int frame = getFrame();
+        long timeInMilli = getTimeInMilli();
+        for(PositionListener listener : listeners) {
+            listener.positionChanged(frame, timeInMilli);
+        }
+    }
+}
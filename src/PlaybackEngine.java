@@ -0,0 +1,937 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Playback Engine Class
+ * Owns one long-lived audio thread that takes commands (load, play, pause, seek, next,
+ * prev, stop, playlist edits) from a queue and runs an explicit state machine. Commands are handled
+ * between two frames so a burst of clicks never starts another decoder or thread, and
+ * the time from a command to the first audio written after it is measured. Decode times,
+ * the device's buffer and the time until a command is heard go to the playback metrics.
+ * The ReplayGain of the playing song is applied on the way to the device. The device stays
+ * open on a pause, seek or skip, only the audio it didn't play yet is dropped.
+ * The audio thread only decodes: frames go through the output stage to its own thread that
+ * writes them to the device, and the audio thread waits for a free block or a command once it
+ * is far enough ahead. With a crossfade the next song is opened early and decoded alongside
+ * the end of the playing one, the two are mixed before they go to the output stage.
+ * What plays next comes from a play queue, which handles shuffle, repeat and the history.
+ * @author abhinavk
+ */
+public class PlaybackEngine {
+    // how much of the next song gets decoded ahead of time
+    private static final int PREFETCH_MILLIS = 300;
+
+    // the next song gets prefetched once the current one has this little left
+    private static final int PREFETCH_BEFORE_END_MILLIS = 5000;
+
+    private static final ExecutorService PREFETCH_POOL = Executors.newSingleThreadExecutor(
+            PlaylistLoader.daemonThreadFactory("gapless-prefetch"));
+
+    /**
+     * States of the engine
+     */
+    public enum State {
+        STOPPED, PLAYING, PAUSED
+    }
+
+    private enum CommandType {
+        LOAD, APPEND, PLAY_NEXT, PLAY, PAUSE, SEEK, NEXT, PREV, STOP, GAPLESS, PLAY_AT, REMOVE, MOVE, REPLAY_GAIN, CROSSFADE,
+        SHUFFLE, REPEAT, RESTORE, SNAPSHOT
+    }
+
+    /**
+     * Class that holds a command waiting for the audio thread
+     */
+    private static class Command {
+        final CommandType type;
+        final List<Song> songs;
+        final int value;
+        final int[] rows;
+        final long seed;
+        final PlayQueue queue;
+        final CompletableFuture<PlayQueue.Snapshot> snapshot;
+        final long issuedNanos = System.nanoTime();
+
+        Command(CommandType type, List<Song> songs, int value) {
+            this(type, songs, value, null);
+        }
+
+        Command(CommandType type, List<Song> songs, int value, int[] rows) {
+            this(type, songs, value, rows, 0, null, null);
+        }
+
+        Command(CommandType type, List<Song> songs, int value, int[] rows, long seed, PlayQueue queue, CompletableFuture<PlayQueue.Snapshot> snapshot) {
+            this.type = type;
+            this.songs = songs;
+            this.value = value;
+            this.rows = rows;
+            this.seed = seed;
+            this.queue = queue;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Interface used to hear about the engine, called from the audio thread
+     */
+    public interface Listener {
+        /**
+         * Called when the engine moved to another state
+         * @param state the new state
+         * @param finished true if it stopped because the playlist played to the end
+         */
+        void stateChanged(State state, boolean finished);
+
+        /**
+         * Called when another song became the current one
+         * @param song the song
+         * @param playlistIndex the index of the song in the playlist
+         */
+        void songChanged(Song song, int playlistIndex);
+
+        /**
+         * Called when songs were put into the playlist after the current one to be played next
+         * @param songs the songs
+         * @param playlistIndex the index of the first one
+         */
+        void songsInserted(List<Song> songs, int playlistIndex);
+    }
+
+    /**
+     * Interface used to create the audio device each time output starts
+     */
+    public interface AudioDeviceFactory {
+        AudioOutput createAudioDevice() throws Exception;
+    }
+
+    private final LinkedBlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+    private final PlaybackClock playbackClock;
+    private final AudioDeviceFactory audioDeviceFactory;
+    private final Listener listener;
+    private final Thread engineThread;
+    private final PlaybackMetrics metrics = PlaybackMetrics.getInstance();
+    private final OutputStage outputStage = new OutputStage();
+    private final CrossfadeMixer mixer = new CrossfadeMixer();
+
+    // only touched by the audio thread
+    private State state = State.STOPPED;
+    private PlayQueue queue = new PlayQueue();
+    private int startFrame;
+    private boolean gapless = true;
+    private GainStage.Mode replayGainMode = GainStage.getDefaultMode();
+    private int crossfadeMillis = CrossfadeMixer.getDefaultSeconds() * 1000;
+    private GainStage gainStage = new GainStage();
+    private boolean finishedAtEnd;
+    private TrackDecoder trackDecoder;
+    private AudioOutput audioDevice;
+    private CompletableFuture<TrackDecoder> nextDecoder;
+    private long nextEntry = PlayQueue.NONE;
+    private TrackDecoder fadingInDecoder;
+    private long fadingInEntry = PlayQueue.NONE;
+    private GainStage fadingInGain = new GainStage();
+    private long fadingInStartMillis;
+    private final short[] drainedSamples = new short[1152 * 2];
+    private int prefetchFrame;
+    private int sampleRate, channels;
+    private long samplesWritten;
+    private long deviceUnderruns;
+    private long pendingCommandNanos;
+    private CommandType pendingCommandType;
+    private long audibleCommandNanos;
+    private CommandType audibleCommandType;
+    private long audibleAtMillis;
+
+    // read by other threads
+    private volatile Song currentSong;
+    private volatile State publishedState = State.STOPPED;
+    private volatile long commandCount;
+    private volatile long totalCommandLatencyNanos;
+    private volatile long maxCommandLatencyNanos;
+    private volatile long writtenMicros;
+
+    /**
+     * Constructor that starts the audio thread
+     * @param playbackClock the clock that tracks the playback position
+     * @param audioDeviceFactory creates the device audio is written to
+     * @param listener the listener that hears about the engine
+     */
+    public PlaybackEngine(PlaybackClock playbackClock, AudioDeviceFactory audioDeviceFactory, Listener listener) {
+        this.playbackClock = playbackClock;
+        this.audioDeviceFactory = audioDeviceFactory;
+        this.listener = listener;
+
+        engineThread = new Thread(this::run, "playback-engine");
+        engineThread.setDaemon(true);
+        engineThread.setPriority(Thread.MAX_PRIORITY);
+        engineThread.start();
+    }
+
+    /**
+     * Method that replaces the playlist and plays one of its songs
+     * @param songs the songs of the playlist
+     * @param index the song to start with
+     */
+    public void load(List<Song> songs, int index) {
+        submit(new Command(CommandType.LOAD, new ArrayList<>(songs), index));
+    }
+
+    /**
+     * Method that adds a song to the end of the playlist
+     * @param song the song
+     */
+    public void append(Song song) {
+        submit(new Command(CommandType.APPEND, List.of(song), 0));
+    }
+
+    /**
+     * Method that adds songs to the end of the playlist
+     * @param songs the songs
+     */
+    public void appendAll(List<Song> songs) {
+        submit(new Command(CommandType.APPEND, new ArrayList<>(songs), 0));
+    }
+
+    /**
+     * Method that puts songs after the current one so they are played next, even while shuffling
+     * @param songs the songs
+     */
+    public void playNext(List<Song> songs) {
+        submit(new Command(CommandType.PLAY_NEXT, new ArrayList<>(songs), 0));
+    }
+
+    /**
+     * Method that plays a song of the playlist from its start
+     * @param index the index of the song in the playlist
+     */
+    public void playAt(int index) {
+        submit(new Command(CommandType.PLAY_AT, null, index));
+    }
+
+    /**
+     * Method that removes songs from the playlist, playback moves on to the next song if the current one is removed
+     * @param indices the indices of the songs
+     */
+    public void remove(int[] indices) {
+        submit(new Command(CommandType.REMOVE, null, 0, indices.clone()));
+    }
+
+    /**
+     * Method that moves songs of the playlist next to each other at another place
+     * @param indices the indices of the songs
+     * @param to the index they are inserted before, counted before the move
+     */
+    public void move(int[] indices, int to) {
+        submit(new Command(CommandType.MOVE, null, to, indices.clone()));
+    }
+
+    /**
+     * Method that plays or resumes the current song
+     */
+    public void play() {
+        submit(new Command(CommandType.PLAY, null, 0));
+    }
+
+    /**
+     * Method that pauses the current song
+     */
+    public void pause() {
+        submit(new Command(CommandType.PAUSE, null, 0));
+    }
+
+    /**
+     * Method that moves to a frame of the current song
+     * @param frame the frame
+     */
+    public void seek(int frame) {
+        submit(new Command(CommandType.SEEK, null, frame));
+    }
+
+    /**
+     * Method that moves to the next song of the playlist
+     */
+    public void next() {
+        submit(new Command(CommandType.NEXT, null, 0));
+    }
+
+    /**
+     * Method that goes back to the song played before, or the one before the current song in the playlist
+     */
+    public void prev() {
+        submit(new Command(CommandType.PREV, null, 0));
+    }
+
+    /**
+     * Method that stops playback
+     */
+    public void stop() {
+        submit(new Command(CommandType.STOP, null, 0));
+    }
+
+    /**
+     * Gapless setter
+     * @param gapless true to start the next song of the playlist without a gap
+     */
+    public void setGapless(boolean gapless) {
+        submit(new Command(CommandType.GAPLESS, null, gapless ? 1 : 0));
+    }
+
+    /**
+     * ReplayGain setter
+     * @param mode which gain to apply, it changes right away for the current song
+     */
+    public void setReplayGain(GainStage.Mode mode) {
+        submit(new Command(CommandType.REPLAY_GAIN, null, mode.ordinal()));
+    }
+
+    /**
+     * Crossfade setter
+     * @param seconds how long consecutive songs of the playlist overlap, 0 to MAX_SECONDS of the mixer
+     */
+    public void setCrossfade(int seconds) {
+        submit(new Command(CommandType.CROSSFADE, null, Math.max(0, Math.min(CrossfadeMixer.MAX_SECONDS, seconds)) * 1000));
+    }
+
+    /**
+     * Shuffle setter
+     * @param shuffle true to play the songs of the playlist in a random order
+     * @param seed the seed of the order, the same seed on the same playlist plays the same order
+     */
+    public void setShuffle(boolean shuffle, long seed) {
+        submit(new Command(CommandType.SHUFFLE, null, shuffle ? 1 : 0, null, seed, null, null));
+    }
+
+    /**
+     * Repeat setter
+     * @param repeat whether the current song or the playlist is played again once it ended
+     */
+    public void setRepeat(PlayQueue.Repeat repeat) {
+        submit(new Command(CommandType.REPEAT, null, repeat.ordinal()));
+    }
+
+    /**
+     * Method that replaces the playlist with a queue that was saved, playback stops on its current song
+     * @param queue the queue, not used by any other thread afterwards
+     */
+    public void restore(PlayQueue queue) {
+        submit(new Command(CommandType.RESTORE, null, 0, null, 0, queue, null));
+    }
+
+    /**
+     * Method that copies the play queue on the audio thread so it can be saved
+     * @return the copy, once the audio thread got to it
+     */
+    public CompletableFuture<PlayQueue.Snapshot> snapshot() {
+        CompletableFuture<PlayQueue.Snapshot> snapshot = new CompletableFuture<>();
+        submit(new Command(CommandType.SNAPSHOT, null, 0, null, 0, null, snapshot));
+        return snapshot;
+    }
+
+    /**
+     * Method that queues a command and wakes the audio thread if it waits for the output
+     */
+    private void submit(Command command) {
+        commands.add(command);
+        LockSupport.unpark(engineThread);
+    }
+
+    /**
+     * Current song getter
+     * @return the current song, null if nothing was loaded
+     */
+    public Song getCurrentSong() {
+        return currentSong;
+    }
+
+    /**
+     * State getter
+     * @return the current state of the engine
+     */
+    public State getState() {
+        return publishedState;
+    }
+
+    /**
+     * Average command latency getter
+     * @return the average time from a play/seek/next/prev command to the first audio written after it
+     */
+    public double getAverageCommandLatencyMillis() {
+        long count = commandCount;
+        return count == 0 ? 0 : totalCommandLatencyNanos / 1e6 / count;
+    }
+
+    /**
+     * Max command latency getter
+     * @return the longest time from a play/seek/next/prev command to the first audio written after it
+     */
+    public double getMaxCommandLatencyMillis() {
+        return maxCommandLatencyNanos / 1e6;
+    }
+
+    /**
+     * Written audio getter
+     * @return how much audio was written to the devices since the engine started in milliseconds, overlapping songs count once
+     */
+    public long getWrittenMillis() {
+        return writtenMicros / 1000;
+    }
+
+    /**
+     * Method that runs the audio thread
+     */
+    private void run() {
+        while(true) {
+            try {
+                // handle every waiting command before the next frame, block when there is nothing to play
+                Command command = state == State.PLAYING ? commands.poll() : commands.take();
+                if(command != null) {
+                    handle(command);
+                }else if(!outputStage.hasSpace()) {
+                    // far enough ahead of the device
+                    outputStage.awaitSpace();
+                }else {
+                    playFrame();
+                }
+            } catch (InterruptedException e) {
+                closeOutput();
+                return;
+            } catch (Exception e) {
+                metrics.playbackFailed(e);
+                e.printStackTrace();
+                closeOutput();
+                setState(State.STOPPED, false);
+            }
+        }
+    }
+
+    /**
+     * Method that applies a command to the state machine
+     */
+    private void handle(Command command) {
+        switch(command.type) {
+            case LOAD:
+                dropOutput();
+                queue.clear();
+                queue.addAll(command.songs);
+                queue.jump(command.value);
+                changeSong();
+                startPlaying(command);
+                break;
+            case APPEND:
+            case PLAY_NEXT:
+                boolean wasAtEnd = finishedAtEnd;
+                int position = queue.size();
+                if(command.type == CommandType.APPEND) {
+                    queue.addAll(command.songs);
+                }else if(!command.songs.isEmpty()) {
+                    position = queue.playNext(command.songs);
+                    listener.songsInserted(command.songs, position);
+                }
+                nextChanged();
+
+                // the last song already finished, continue with the songs that just arrived, a song played next after nothing starts now
+                if(wasAtEnd && queue.advance(false) || command.type == CommandType.PLAY_NEXT && currentSong == null && queue.jump(position)) {
+                    changeSong();
+                    startPlaying(command);
+                }
+                break;
+            case PLAY:
+                if(state != State.PLAYING && currentSong != null)
+                    startPlaying(command);
+                break;
+            case PAUSE:
+                if(state == State.PLAYING) {
+                    // remember where we are so playback can resume from here
+                    if(trackDecoder != null)
+                        startFrame = playbackClock.getFrame();
+                    dropOutput();
+                    setState(State.PAUSED, false);
+                }
+                break;
+            case SEEK:
+                startFrame = Math.max(0, command.value);
+                finishedAtEnd = false;
+                if(state == State.PLAYING) {
+                    // drop the buffered audio and reopen at the new frame
+                    dropOutput();
+                    pendingCommandNanos = command.issuedNanos;
+                    pendingCommandType = command.type;
+                }
+                break;
+            case NEXT:
+                if(queue.advance(false)) {
+                    dropOutput();
+                    changeSong();
+                    startPlaying(command);
+                }
+                break;
+            case PREV:
+                if(queue.back()) {
+                    dropOutput();
+                    changeSong();
+                    startPlaying(command);
+                }
+                break;
+            case STOP:
+                closeOutput();
+                startFrame = 0;
+                setState(State.STOPPED, false);
+                break;
+            case GAPLESS:
+                gapless = command.value != 0;
+                break;
+            case REPLAY_GAIN:
+                replayGainMode = GainStage.Mode.values()[command.value];
+                if(currentSong != null)
+                    updateGain();
+                if(fadingInDecoder != null)
+                    fadingInGain.setGain(gainOf(fadingInDecoder.getSong()));
+                break;
+            case CROSSFADE:
+                crossfadeMillis = command.value;
+                if(crossfadeMillis == 0)
+                    stopCrossfade();
+                // the next song may have to be opened earlier
+                dropPrefetch();
+                break;
+            case PLAY_AT:
+                if(queue.jump(command.value)) {
+                    dropOutput();
+                    changeSong();
+                    startPlaying(command);
+                }
+                break;
+            case REMOVE:
+                removeSongs(command);
+                break;
+            case MOVE:
+                queue.move(command.rows, command.value);
+                nextChanged();
+                break;
+            case SHUFFLE:
+                queue.setShuffle(command.value != 0, command.seed);
+                nextChanged();
+                break;
+            case REPEAT:
+                queue.setRepeat(PlayQueue.Repeat.values()[command.value]);
+                nextChanged();
+                break;
+            case RESTORE:
+                closeOutput();
+                queue = command.queue;
+                changeSong();
+                setState(State.STOPPED, false);
+                break;
+            case SNAPSHOT:
+                command.snapshot.complete(queue.snapshot());
+                break;
+        }
+    }
+
+    /**
+     * Method that removes songs from the playlist
+     */
+    private void removeSongs(Command command) {
+        if(!queue.remove(command.rows)) {
+            nextChanged();
+            return;
+        }
+
+        // the song after the removed one takes its place
+        boolean wasPlaying = state == State.PLAYING;
+        if(queue.getCurrent() != PlayQueue.NONE) {
+            dropOutput();
+            changeSong();
+            if(wasPlaying)
+                startPlaying(command);
+        }else {
+            closeOutput();
+            changeSong();
+            setState(State.STOPPED, false);
+        }
+    }
+
+    /**
+     * Method called after the playlist or its order changed, the prefetched or fading in song is dropped if it doesn't play next anymore
+     */
+    private void nextChanged() {
+        long next = queue.peekNext(true);
+        if(nextDecoder == null || nextEntry != next)
+            dropPrefetch();
+        if(fadingInDecoder != null && fadingInEntry != next)
+            stopCrossfade();
+    }
+
+    /**
+     * Method that drops the prefetched next song after the playlist changed, it is prefetched again when needed
+     */
+    private void dropPrefetch() {
+        if(nextDecoder != null) {
+            nextDecoder.thenAccept(decoder -> { if(decoder != null) decoder.close(); });
+            nextDecoder = null;
+        }
+        nextEntry = PlayQueue.NONE;
+        prefetchFrame = currentSong != null ? prefetchFrame(currentSong) : 0;
+    }
+
+    /**
+     * Method that makes the current song of the queue the one that plays
+     */
+    private void changeSong() {
+        startFrame = 0;
+        finishedAtEnd = false;
+        long entry = queue.getCurrent();
+        currentSong = entry != PlayQueue.NONE ? queue.getSong(entry) : null;
+        if(currentSong != null)
+            listener.songChanged(currentSong, queue.getPosition());
+    }
+
+    /**
+     * Method that moves to the playing state, the output opens on the next frame
+     */
+    private void startPlaying(Command command) {
+        if(currentSong == null)
+            return;
+        finishedAtEnd = false;
+        pendingCommandNanos = command.issuedNanos;
+        pendingCommandType = command.type;
+        setState(State.PLAYING, false);
+    }
+
+    /**
+     * Method that decodes one frame of the current song and writes it to the device
+     */
+    private void playFrame() throws Exception {
+        if(trackDecoder == null)
+            openOutput();
+
+        long decodeStart = System.nanoTime();
+        if(!trackDecoder.readFrame()) {
+            songEnded();
+            return;
+        }
+        metrics.frameDecoded(System.nanoTime() - decodeStart);
+
+        // open and pre-decode the next song while this one still plays
+        if((gapless || crossfadeMillis > 0) && nextDecoder == null && fadingInDecoder == null && trackDecoder.getFrame() >= prefetchFrame) {
+            prefetchFrame = Integer.MAX_VALUE;
+            nextEntry = queue.peekNext(true);
+            if(nextEntry != PlayQueue.NONE) {
+                // a song of a restored queue is read on the prefetch thread
+                SongStore songStore = queue.getSongStore();
+                int songId = queue.getSongId(nextEntry);
+                nextDecoder = CompletableFuture.supplyAsync(() -> openAndPrefetch(songStore.get(songId)), PREFETCH_POOL);
+            }
+        }
+
+        if(crossfadeMillis > 0 && fadingInDecoder == null && nextDecoder != null)
+            startCrossfade();
+
+        writeFrame();
+    }
+
+    /**
+     * Method that starts mixing the next song in once the playing one has the crossfade left
+     * A next song that isn't opened yet shortens the fade instead of holding the audio up
+     */
+    private void startCrossfade() {
+        long remainingMillis = (long) ((currentSong.getFrameCount() - trackDecoder.getFrame()) / currentSong.getFrameRatePerMilliseconds());
+        if(remainingMillis > crossfadeMillis || !nextDecoder.isDone())
+            return;
+
+        // songs in another format can't be mixed, they start after the playing one as before
+        TrackDecoder next = nextDecoder.getNow(null);
+        if(next == null || next.getSampleRate() != trackDecoder.getSampleRate() || next.getChannels() != trackDecoder.getChannels())
+            return;
+
+        nextDecoder = null;
+        fadingInDecoder = next;
+        fadingInEntry = nextEntry;
+        fadingInGain.setGain(gainOf(next.getSong()));
+        fadingInStartMillis = writtenMillis();
+        mixer.start(remainingMillis * trackDecoder.getSampleRate() / 1000, trackDecoder.getChannels());
+    }
+
+    /**
+     * Method that ends a crossfade at once, the playing song goes on at full volume
+     */
+    private void stopCrossfade() {
+        if(fadingInDecoder != null) {
+            fadingInDecoder.close();
+            fadingInDecoder = null;
+        }
+        fadingInEntry = PlayQueue.NONE;
+        mixer.stop();
+    }
+
+    /**
+     * Method that writes the last decoded frame to the device
+     */
+    private void writeFrame() throws Exception {
+        // the device keeps the format of the first frame written to it
+        if(sampleRate == 0) {
+            sampleRate = trackDecoder.getSampleRate();
+            channels = trackDecoder.getChannels();
+        }
+
+        // a device kept from another song has to be opened again for a song in another format
+        if(samplesWritten == 0 && (trackDecoder.getSampleRate() != sampleRate || trackDecoder.getChannels() != channels)) {
+            outputStage.close();
+            audioDevice = null;
+            openDevice();
+        }
+
+        // the device ran dry if it already played everything written to it, sinks that don't play in real time can't
+        long writtenMillis = writtenMillis();
+        if(metrics.isEnabled() && audioDevice.getLatencyMillis() > 0)
+            metrics.bufferFilled((int) (writtenMillis - audioDevice.getPosition()), currentSong);
+
+        gainStage.process(trackDecoder.getSamples(), trackDecoder.getSampleCount(), trackDecoder.getChannels(), trackDecoder.getSampleRate());
+        if(fadingInDecoder != null) {
+            long mixStart = System.nanoTime();
+            mixer.mix(trackDecoder.getSamples(), trackDecoder.getSampleCount(), fadingInDecoder, fadingInGain);
+            metrics.frameMixed(System.nanoTime() - mixStart);
+        }else if(mixer.isFading()) {
+            mixer.fadeIn(trackDecoder.getSamples(), trackDecoder.getSampleCount());
+        }
+        outputStage.write(trackDecoder.getSamples(), trackDecoder.getSampleCount());
+
+        // a line is only opened by the output thread's first write, its latency is known some time after
+        metrics.outputLatency(audioDevice.getLatencyMillis());
+        if(audioDevice.getUnderruns() != deviceUnderruns) {
+            metrics.outputUnderran(audioDevice.getUnderruns() - deviceUnderruns);
+            deviceUnderruns = audioDevice.getUnderruns();
+        }
+        wrote(trackDecoder.getSampleCount());
+
+        // the first audio after a command ends its latency measurement
+        if(pendingCommandNanos != 0) {
+            long latency = System.nanoTime() - pendingCommandNanos;
+            audibleCommandNanos = pendingCommandNanos;
+            audibleCommandType = pendingCommandType;
+            audibleAtMillis = writtenMillis;
+            pendingCommandNanos = 0;
+            commandCount++;
+            totalCommandLatencyNanos += latency;
+            maxCommandLatencyNanos = Math.max(maxCommandLatencyNanos, latency);
+        }
+
+        // and it is heard once the device played past the start of that audio
+        if(audibleCommandNanos != 0 && metrics.isEnabled() && audioDevice.getPosition() > audibleAtMillis) {
+            metrics.commandHeard(audibleCommandType.name(), System.nanoTime() - audibleCommandNanos);
+            audibleCommandNanos = 0;
+        }
+    }
+
+    /**
+     * Method that writes the samples of the song fading in that were decoded but not mixed yet
+     */
+    private void writeDrained() throws Exception {
+        int count;
+        while((count = mixer.drain(drainedSamples, drainedSamples.length)) > 0) {
+            outputStage.write(drainedSamples, count);
+            wrote(count);
+        }
+    }
+
+    /**
+     * Method that counts samples written to the device
+     */
+    private void wrote(int count) {
+        samplesWritten += count;
+        writtenMicros += count * 1_000_000L / ((long) sampleRate * channels);
+    }
+
+    /**
+     * Method that gets how much audio was written to the device since it was opened
+     */
+    private long writtenMillis() {
+        return samplesWritten * 1000 / ((long) sampleRate * channels);
+    }
+
+    /**
+     * Method that opens the current song at the start frame and the device if needed
+     */
+    private void openOutput() throws Exception {
+        trackDecoder = new TrackDecoder(currentSong, startFrame);
+        if(audioDevice == null)
+            openDevice();
+        playbackClock.start(currentSong, startFrame, (long) (startFrame / currentSong.getFrameRatePerMilliseconds()));
+        prefetchFrame = prefetchFrame(currentSong);
+        updateGain();
+    }
+
+    /**
+     * Method that creates the device and opens it for the current track decoder
+     */
+    private void openDevice() throws Exception {
+        audioDevice = audioDeviceFactory.createAudioDevice();
+        audioDevice.open(trackDecoder.getDecoder());
+        sampleRate = trackDecoder.getSampleRate();
+        channels = trackDecoder.getChannels();
+        samplesWritten = 0;
+        deviceUnderruns = 0;
+        metrics.outputOpened();
+        outputStage.setDevice(audioDevice);
+    }
+
+    /**
+     * Method that sets the gain stage to the gain of the current song
+     */
+    private void updateGain() {
+        gainStage.setGain(gainOf(currentSong));
+    }
+
+    /**
+     * Method that works out the gain of a song in the current mode
+     */
+    private float gainOf(Song song) {
+        Loudness loudness = null;
+        if(replayGainMode != GainStage.Mode.OFF) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(new File(song.getFilePath()).toPath(), BasicFileAttributes.class);
+                loudness = LibraryCache.getInstance().getLoudness(song.getFilePath(), attributes);
+            } catch (IOException e) {
+                // played without gain, opening the song will fail anyway
+            }
+        }
+        return GainStage.gainOf(replayGainMode, loudness);
+    }
+
+    /**
+     * Method that moves on when the current song ran out of frames
+     */
+    private void songEnded() throws Exception {
+        trackDecoder.close();
+        trackDecoder = null;
+
+        // the song fading in takes over, it started playing when the fade did
+        if(fadingInDecoder != null) {
+            trackDecoder = fadingInDecoder;
+            fadingInDecoder = null;
+            queue.advance(true);
+            currentSong = trackDecoder.getSong();
+            startFrame = 0;
+            playbackClock.songChanged(currentSong, fadingInStartMillis);
+            prefetchFrame = prefetchFrame(currentSong);
+
+            // its gain stage goes on with the limiter state it has
+            GainStage playedGain = gainStage;
+            gainStage = fadingInGain;
+            fadingInGain = playedGain;
+            listener.songChanged(currentSong, queue.getPosition());
+            writeDrained();
+            return;
+        }
+
+        // switch to the prefetched song on the same device if it lines up
+        TrackDecoder next = nextDecoder != null ? nextDecoder.join() : null;
+        nextDecoder = null;
+        if(next != null && next.readFrame() && next.getSampleRate() == sampleRate && next.getChannels() == channels) {
+            trackDecoder = next;
+            queue.advance(true);
+            currentSong = next.getSong();
+            startFrame = 0;
+            playbackClock.songChanged(currentSong, writtenMillis());
+            prefetchFrame = prefetchFrame(currentSong);
+            updateGain();
+            listener.songChanged(currentSong, queue.getPosition());
+            writeFrame();
+            return;
+        }
+        if(next != null)
+            next.close();
+
+        // let the device play out what it has, it is kept for the next song
+        outputStage.drain();
+
+        if(queue.advance(true)) {
+            dropOutput();
+            changeSong();
+        }else {
+            closeOutput();
+            startFrame = 0;
+            finishedAtEnd = true;
+            setState(State.STOPPED, true);
+        }
+    }
+
+    /**
+     * Method that closes the decoders and the device, buffered audio is dropped
+     */
+    private void closeOutput() {
+        closeDecoders();
+        if(audioDevice != null) {
+            outputStage.close();
+            audioDevice = null;
+        }
+    }
+
+    /**
+     * Method that closes the decoders and drops the audio the device didn't play yet, the device stays open
+     */
+    private void dropOutput() {
+        closeDecoders();
+        if(audioDevice != null) {
+            outputStage.drop();
+            samplesWritten = 0;
+            metrics.outputOpened();
+        }
+    }
+
+    /**
+     * Method that closes the decoder of the current song and the prefetched one
+     */
+    private void closeDecoders() {
+        if(trackDecoder != null) {
+            trackDecoder.close();
+            trackDecoder = null;
+        }
+        stopCrossfade();
+        dropPrefetch();
+
+        // audio that was dropped before it was played doesn't end a command's latency
+        audibleCommandNanos = 0;
+    }
+
+    /**
+     * Method that changes the state and tells the listener
+     */
+    private void setState(State state, boolean finished) {
+        if(this.state == state && !finished)
+            return;
+        this.state = state;
+        publishedState = state;
+        listener.stateChanged(state, finished);
+    }
+
+    /**
+     * Method that gets the frame after which the next song is prefetched, early enough to be ready when a crossfade starts
+     */
+    private int prefetchFrame(Song song) {
+        return Math.max(0, song.getFrameCount() - (int) ((PREFETCH_BEFORE_END_MILLIS + crossfadeMillis) * song.getFrameRatePerMilliseconds()));
+    }
+
+    /**
+     * Method that opens a song and decodes its first part
+     * @return the decoder, null if the song can't be opened
+     */
+    private static TrackDecoder openAndPrefetch(Song song) {
+        try {
+            TrackDecoder trackDecoder = new TrackDecoder(song, 0);
+            trackDecoder.prefetch(PREFETCH_MILLIS);
+            return trackDecoder;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Playback Metrics Class
+ * Measures the playback path: how long frames take to decode and to mix during a crossfade, how full the audio device's
+ * buffer is and how often it ran dry, how long it takes until a command is heard, how long
+ * gui updates wait on the event thread, and how many threads there are. The numbers are
+ * shown over JMX under musicplayer:type=PlaybackMetrics and the notable moments are sent
+ * to Java Flight Recorder as events of the Music Player category.
+ *
+ * The level is set with -Dmusicplayer.metrics=off|low|full. The default low level can stay on:
+ * the counters are a few atomic adds per frame without locks or allocation, and only slow
+ * frames, slow gui updates, underruns, heard commands and errors become flight recorder
+ * events. The full level sends an event for every frame and every gui update as well.
+ * @author abhinavk
+ */
+public class PlaybackMetrics implements PlaybackMetricsMBean {
+    /**
+     * Levels of measuring
+     */
+    public enum Level {
+        OFF, LOW, FULL
+    }
+
+    // at the low level only frames and gui updates slower than these become flight recorder events
+    private static final long SLOW_DECODE_NANOS = 10_000_000;
+    private static final long SLOW_EVENT_NANOS = 50_000_000;
+
+    // the buffer has to have held this much before running dry counts as an underrun, so starting to play doesn't
+    private static final int PRIMED_MILLIS = 50;
+
+    private static PlaybackMetrics instance;
+
+    private final Level level;
+    private final Histogram decodeTimes = new Histogram();
+    private final Histogram mixTimes = new Histogram();
+    private final Histogram commandLatencies = new Histogram();
+    private final Histogram eventLatencies = new Histogram();
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong outputUnderruns = new AtomicLong();
+    private final AtomicLong playbackErrors = new AtomicLong();
+    private volatile int bufferFillMillis;
+    private volatile int minBufferFillMillis = Integer.MAX_VALUE;
+    private volatile int outputLatencyMillis;
+
+    // only touched by the audio thread
+    private boolean bufferPrimed;
+
+    /**
+     * Constructor
+     * @param level how much is measured
+     */
+    public PlaybackMetrics(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Method that gets the metrics shared by the app, registered with JMX unless they are off
+     * @return the playback metrics
+     */
+    public static synchronized PlaybackMetrics getInstance() {
+        if(instance == null) {
+            String level = System.getProperty("musicplayer.metrics", "low");
+            try {
+                instance = new PlaybackMetrics(Level.valueOf(level.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown metrics level " + level + ", using low");
+                instance = new PlaybackMetrics(Level.LOW);
+            }
+            if(instance.isEnabled())
+                instance.register();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that registers the metrics with the platform MBean server
+     */
+    private void register() {
+        // the management classes take tens of milliseconds to load, so they are kept off the startup path
+        Thread registerThread = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("musicplayer:type=PlaybackMetrics"));
+            } catch (JMException e) {
+                System.err.println("Couldn't register the playback metrics: " + e.getMessage());
+            }
+        }, "metrics-jmx");
+        registerThread.setDaemon(true);
+        registerThread.setPriority(Thread.MIN_PRIORITY);
+        registerThread.start();
+    }
+
+    /**
+     * Method that checks if anything is measured
+     * @return false at the off level
+     */
+    public boolean isEnabled() {
+        return level != Level.OFF;
+    }
+
+    /**
+     * Method called by the audio thread after it decoded a frame
+     * @param nanos the time the frame took
+     */
+    public void frameDecoded(long nanos) {
+        if(level == Level.OFF)
+            return;
+        decodeTimes.record(nanos);
+        if(level == Level.FULL || nanos >= SLOW_DECODE_NANOS) {
+            FrameDecodeEvent event = new FrameDecodeEvent();
+            if(event.shouldCommit()) {
+                event.decodeTime = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Method called by the audio thread after it mixed the next song into a frame during a crossfade
+     * @param nanos the time it took to decode the next song's part and mix it in
+     */
+    public void frameMixed(long nanos) {
+        if(level == Level.OFF)
+            return;
+        mixTimes.record(nanos);
+    }
+
+    /**
+     * Method called by the audio thread when it opened a device or dropped its audio, its buffer starts out empty
+     */
+    public void outputOpened() {
+        bufferPrimed = false;
+    }
+
+    /**
+     * Method called by the audio thread after the first write to a device, when it knows its buffer
+     * @param latencyMillis how much audio the device buffers
+     */
+    public void outputLatency(int latencyMillis) {
+        outputLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Method called by the audio thread when the device reported new underruns
+     * @param count the number of new underruns
+     */
+    public void outputUnderran(long count) {
+        outputUnderruns.addAndGet(count);
+    }
+
+    /**
+     * Method called by the audio thread right before it writes a frame to the device
+     * @param fillMillis the audio the device still has to play
+     * @param song the song that is playing
+     */
+    public void bufferFilled(int fillMillis, Song song) {
+        if(level == Level.OFF)
+            return;
+        bufferFillMillis = fillMillis;
+        if(fillMillis >= PRIMED_MILLIS)
+            bufferPrimed = true;
+        if(!bufferPrimed)
+            return;
+
+        minBufferFillMillis = Math.min(minBufferFillMillis, fillMillis);
+        if(fillMillis <= 0) {
+            // counted once until the buffer fills up again
+            bufferPrimed = false;
+            underruns.incrementAndGet();
+            UnderrunEvent event = new UnderrunEvent();
+            if(event.shouldCommit()) {
+                event.song = song != null ? song.getFilePath() : null;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Method called by the audio thread when the device played the first audio after a command
+     * @param command the name of the command
+     * @param nanos the time from the command to the audio being played
+     */
+    public void commandHeard(String command, long nanos) {
+        if(level == Level.OFF)
+            return;
+        commandLatencies.record(nanos);
+        CommandLatencyEvent event = new CommandLatencyEvent();
+        if(event.shouldCommit()) {
+            event.command = command;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Method called when an error stopped playback
+     * @param e the error
+     */
+    public void playbackFailed(Exception e) {
+        if(level == Level.OFF)
+            return;
+        playbackErrors.incrementAndGet();
+        PlaybackErrorEvent event = new PlaybackErrorEvent();
+        if(event.shouldCommit()) {
+            event.error = e.getClass().getName();
+            event.message = e.getMessage();
+            event.commit();
+        }
+    }
+
+    /**
+     * Method that wraps an executor to measure how long its tasks wait before they run
+     * @param executor the executor, the EDT for the gui
+     * @return the measuring executor, the executor itself at the off level
+     */
+    public Executor timed(Executor executor) {
+        if(level == Level.OFF)
+            return executor;
+        return task -> {
+            long queuedNanos = System.nanoTime();
+            executor.execute(() -> {
+                eventDispatched(System.nanoTime() - queuedNanos);
+                task.run();
+            });
+        };
+    }
+
+    /**
+     * Method called on the event thread when a task starts running
+     */
+    private void eventDispatched(long nanos) {
+        eventLatencies.record(nanos);
+        if(level == Level.FULL || nanos >= SLOW_EVENT_NANOS) {
+            EventDispatchEvent event = new EventDispatchEvent();
+            if(event.shouldCommit()) {
+                event.queueTime = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Method that sums up the metrics in one line
+     * @return the summary
+     */
+    public String getStats() {
+        return String.format("Playback metrics: decode avg %.2f ms, p99 %.2f ms, max %.2f ms, crossfade mix avg %.2f ms, max %.2f ms, output latency %d ms, %d underruns (%d by the device), "
+                        + "command to audible avg %.1f ms, max %.1f ms, event latency avg %.2f ms, max %.2f ms, %d errors",
+                getDecodeMeanMillis(), getDecode99thPercentileMillis(), getDecodeMaxMillis(), getMixMeanMillis(), getMixMaxMillis(), getOutputLatencyMillis(), getUnderruns(), getOutputUnderruns(),
+                getCommandToAudibleMeanMillis(), getCommandToAudibleMaxMillis(),
+                getEventLatencyMeanMillis(), getEventLatencyMaxMillis(), getPlaybackErrors());
+    }
+
+    @Override
+    public String getLevel() {
+        return level.name();
+    }
+
+    @Override
+    public long getDecodedFrames() {
+        return decodeTimes.getCount();
+    }
+
+    @Override
+    public double getDecodeMeanMillis() {
+        return decodeTimes.getMeanMillis();
+    }
+
+    @Override
+    public double getDecode99thPercentileMillis() {
+        return decodeTimes.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getDecodeMaxMillis() {
+        return decodeTimes.getMaxMillis();
+    }
+
+    @Override
+    public long[] getDecodeHistogram() {
+        return decodeTimes.getCounts();
+    }
+
+    @Override
+    public long getMixedFrames() {
+        return mixTimes.getCount();
+    }
+
+    @Override
+    public double getMixMeanMillis() {
+        return mixTimes.getMeanMillis();
+    }
+
+    @Override
+    public double getMixMaxMillis() {
+        return mixTimes.getMaxMillis();
+    }
+
+    @Override
+    public int getOutputLatencyMillis() {
+        return outputLatencyMillis;
+    }
+
+    @Override
+    public int getBufferFillMillis() {
+        return bufferFillMillis;
+    }
+
+    @Override
+    public int getMinBufferFillMillis() {
+        int min = minBufferFillMillis;
+        return min == Integer.MAX_VALUE ? 0 : min;
+    }
+
+    @Override
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    @Override
+    public long getOutputUnderruns() {
+        return outputUnderruns.get();
+    }
+
+    @Override
+    public long getHeardCommands() {
+        return commandLatencies.getCount();
+    }
+
+    @Override
+    public double getCommandToAudibleMeanMillis() {
+        return commandLatencies.getMeanMillis();
+    }
+
+    @Override
+    public double getCommandToAudibleMaxMillis() {
+        return commandLatencies.getMaxMillis();
+    }
+
+    @Override
+    public double getEventLatencyMeanMillis() {
+        return eventLatencies.getMeanMillis();
+    }
+
+    @Override
+    public double getEventLatency99thPercentileMillis() {
+        return eventLatencies.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getEventLatencyMaxMillis() {
+        return eventLatencies.getMaxMillis();
+    }
+
+    @Override
+    public long getPlaybackErrors() {
+        return playbackErrors.get();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    @Override
+    public int getDaemonThreadCount() {
+        return ManagementFactory.getThreadMXBean().getDaemonThreadCount();
+    }
+
+    @Override
+    public int getPeakThreadCount() {
+        return ManagementFactory.getThreadMXBean().getPeakThreadCount();
+    }
+
+    @Override
+    public void reset() {
+        decodeTimes.reset();
+        mixTimes.reset();
+        commandLatencies.reset();
+        eventLatencies.reset();
+        underruns.set(0);
+        outputUnderruns.set(0);
+        playbackErrors.set(0);
+        minBufferFillMillis = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Class that counts times in buckets of powers of two microseconds, so recording one never allocates
+     */
+    static class Histogram {
+        // bucket 0 is under a microsecond, the last one is over half an hour
+        static final int BUCKETS = 32;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Method that counts a time
+         * @param nanos the time
+         */
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * Count getter
+         * @return the number of times counted
+         */
+        long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Mean getter
+         * @return the average time, 0 if none were counted
+         */
+        double getMeanMillis() {
+            long count = this.count.get();
+            return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+        }
+
+        /**
+         * Max getter
+         * @return the longest time
+         */
+        double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * Method that gets the time a share of the counted times stayed under
+         * @param share the share, 0.99 for the 99th percentile
+         * @return the upper end of the bucket the percentile falls in, at most the longest time
+         */
+        double getPercentileMillis(double share) {
+            long[] counts = getCounts();
+            long total = 0;
+            for(long bucketCount : counts) {
+                total += bucketCount;
+            }
+            long seen = 0;
+            for(int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += counts[bucket];
+                if(seen > 0 && seen >= total * share)
+                    return Math.min((1L << bucket) / 1000.0, getMaxMillis());
+            }
+            return 0;
+        }
+
+        /**
+         * Counts getter
+         * @return a copy of the counts, entry i counts the times under 2^i microseconds
+         */
+        long[] getCounts() {
+            long[] copy = new long[BUCKETS];
+            for(int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return copy;
+        }
+
+        /**
+         * Method that forgets every counted time
+         */
+        void reset() {
+            for(int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+        }
+    }
+
+    @Name("musicplayer.FrameDecode")
+    @Label("Frame Decode")
+    @Category("Music Player")
+    @Description("A frame that was slow to decode, every frame at the full level")
+    static class FrameDecodeEvent extends Event {
+        @Label("Decode Time")
+        @Timespan
+        long decodeTime;
+    }
+
+    @Name("musicplayer.BufferUnderrun")
+    @Label("Buffer Underrun")
+    @Category("Music Player")
+    @Description("The audio device played everything it had and waited for the decoder")
+    static class UnderrunEvent extends Event {
+        @Label("Song")
+        String song;
+    }
+
+    @Name("musicplayer.CommandLatency")
+    @Label("Command Latency")
+    @Category("Music Player")
+    @Description("Time from a command to the device playing the first audio after it")
+    static class CommandLatencyEvent extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Latency")
+        @Timespan
+        long latency;
+    }
+
+    @Name("musicplayer.EventDispatch")
+    @Label("Event Dispatch")
+    @Category("Music Player")
+    @Description("A gui update that waited long on the event thread, every update at the full level")
+    static class EventDispatchEvent extends Event {
+        @Label("Queue Time")
+        @Timespan
+        long queueTime;
+    }
+
+    @Name("musicplayer.PlaybackError")
+    @Label("Playback Error")
+    @Category("Music Player")
+    @Description("An error that stopped playback")
+    static class PlaybackErrorEvent extends Event {
+        @Label("Error")
+        String error;
+
+        @Label("Message")
+        String message;
+    }
+}
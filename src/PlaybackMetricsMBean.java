@@ -0,0 +1,156 @@
+/**
+ * Playback Metrics MBean Interface
+ * What the playback metrics show over JMX, under musicplayer:type=PlaybackMetrics.
+ * Times are in milliseconds.
+ * @author abhinavk
+ */
+public interface PlaybackMetricsMBean {
+    /**
+     * Level getter
+     * @return OFF, LOW or FULL
+     */
+    String getLevel();
+
+    /**
+     * Decoded frames getter
+     * @return the number of frames decoded by the audio thread
+     */
+    long getDecodedFrames();
+
+    /**
+     * Decode mean getter
+     * @return the average time to decode a frame
+     */
+    double getDecodeMeanMillis();
+
+    /**
+     * Decode percentile getter
+     * @return the time 99% of the frames were decoded in, rounded up to a power of two microseconds
+     */
+    double getDecode99thPercentileMillis();
+
+    /**
+     * Decode max getter
+     * @return the longest time to decode a frame
+     */
+    double getDecodeMaxMillis();
+
+    /**
+     * Decode histogram getter
+     * @return the number of frames per decode time, entry i counts the ones under 2^i microseconds
+     */
+    long[] getDecodeHistogram();
+
+    /**
+     * Mixed frames getter
+     * @return the number of frames a crossfade mixed the next song into
+     */
+    long getMixedFrames();
+
+    /**
+     * Mix mean getter
+     * @return the average time to decode the next song's part of a frame and mix it in
+     */
+    double getMixMeanMillis();
+
+    /**
+     * Mix max getter
+     * @return the longest time to decode the next song's part of a frame and mix it in
+     */
+    double getMixMaxMillis();
+
+    /**
+     * Output latency getter
+     * @return how much audio the audio device buffers, the time a pause or seek takes to be heard
+     */
+    int getOutputLatencyMillis();
+
+    /**
+     * Buffer fill getter
+     * @return the audio the device still had to play when the last frame was written to it
+     */
+    int getBufferFillMillis();
+
+    /**
+     * Lowest buffer fill getter
+     * @return the least audio the device had left once it was filled, 0 before it first filled up
+     */
+    int getMinBufferFillMillis();
+
+    /**
+     * Underruns getter
+     * @return how often the device played everything it had and had to wait for the decoder
+     */
+    long getUnderruns();
+
+    /**
+     * Output underruns getter
+     * @return how often the audio device itself reported running out of audio while it was playing
+     */
+    long getOutputUnderruns();
+
+    /**
+     * Heard commands getter
+     * @return the number of play/seek/next/prev commands that were heard
+     */
+    long getHeardCommands();
+
+    /**
+     * Command to audible mean getter
+     * @return the average time from a command to the device playing the first audio after it
+     */
+    double getCommandToAudibleMeanMillis();
+
+    /**
+     * Command to audible max getter
+     * @return the longest time from a command to the device playing the first audio after it
+     */
+    double getCommandToAudibleMaxMillis();
+
+    /**
+     * Event latency mean getter
+     * @return the average time a gui update waited on the event thread before it ran
+     */
+    double getEventLatencyMeanMillis();
+
+    /**
+     * Event latency percentile getter
+     * @return the time 99% of the gui updates waited, rounded up to a power of two microseconds
+     */
+    double getEventLatency99thPercentileMillis();
+
+    /**
+     * Event latency max getter
+     * @return the longest time a gui update waited on the event thread
+     */
+    double getEventLatencyMaxMillis();
+
+    /**
+     * Playback errors getter
+     * @return the number of errors that stopped playback
+     */
+    long getPlaybackErrors();
+
+    /**
+     * Thread count getter
+     * @return the number of live threads
+     */
+    int getThreadCount();
+
+    /**
+     * Daemon thread count getter
+     * @return the number of live daemon threads
+     */
+    int getDaemonThreadCount();
+
+    /**
+     * Peak thread count getter
+     * @return the most threads that were alive at once
+     */
+    int getPeakThreadCount();
+
+    /**
+     * Method that starts counting from zero again
+     */
+    void reset();
+}
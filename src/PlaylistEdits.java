@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Playlist Edits Class
+ * Removes and moves rows of a playlist in one pass over the list, so editing a selection
+ * of thousands of rows in a playlist of 100k songs doesn't shift the list once per row.
+ * The playlist view and the playback engine both use it so their playlists stay the same.
+ * @author abhinavk
+ */
+public class PlaylistEdits {
+    private PlaylistEdits() {
+    }
+
+    /**
+     * Method that removes rows
+     * @param list the playlist
+     * @param indices the rows to remove, in any order
+     * @param index a row to follow, usually the current song
+     * @return where the followed row is afterwards, the row after it if it was removed, -1 if index was -1
+     */
+    public static <T> int removeRows(List<T> list, int[] indices, int index) {
+        int size = list.size();
+        BitSet removing = rows(indices, size);
+        if(removing.isEmpty())
+            return index;
+
+        // keep the rows that stay at the front and cut off the rest
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            if(!removing.get(i))
+                list.set(kept++, list.get(i));
+        }
+        list.subList(kept, size).clear();
+
+        if(index < 0)
+            return index;
+        return index - removing.get(0, Math.min(index, size)).cardinality();
+    }
+
+    /**
+     * Method that moves rows next to each other at another place
+     * @param list the playlist
+     * @param indices the rows to move, in any order, they keep their order
+     * @param to the row they are inserted before, counted before the move, list.size() for the end
+     * @param index a row to follow, usually the current song
+     * @return where the followed row is afterwards, -1 if index was -1
+     */
+    public static <T> int moveRows(List<T> list, int[] indices, int to, int index) {
+        int size = list.size();
+        BitSet moving = rows(indices, size);
+        int count = moving.cardinality();
+        if(count == 0)
+            return index;
+
+        // where the rows go among the rows that stay
+        to = Math.max(0, Math.min(to, size));
+        int insertAt = to - moving.get(0, to).cardinality();
+
+        ArrayList<T> moved = new ArrayList<>(count);
+        ArrayList<T> rest = new ArrayList<>(size - count);
+        for(int i = 0; i < size; i++) {
+            if(moving.get(i)) {
+                moved.add(list.get(i));
+            }else {
+                rest.add(list.get(i));
+            }
+        }
+        list.clear();
+        list.addAll(rest.subList(0, insertAt));
+        list.addAll(moved);
+        list.addAll(rest.subList(insertAt, rest.size()));
+
+        if(index < 0 || index >= size)
+            return index;
+        int before = moving.get(0, index).cardinality();
+        if(moving.get(index))
+            return insertAt + before;
+        int restIndex = index - before;
+        return restIndex < insertAt ? restIndex : restIndex + count;
+    }
+
+    /**
+     * Method that turns row numbers into a set, rows outside of the list are left out
+     */
+    private static BitSet rows(int[] indices, int size) {
+        BitSet rows = new BitSet(size);
+        for(int i : indices) {
+            if(i >= 0 && i < size)
+                rows.set(i);
+        }
+        return rows;
+    }
+}
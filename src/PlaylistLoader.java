@@ -0,0 +1,194 @@
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Playlist Loader Class
+ * Loads a playlist in the background, the metadata of every song is read in parallel
+ * and the songs are handed out in playlist order as soon as they are ready.
+ * The playlist is read while the songs are parsed and only a window of entries is in
+ * flight at once, so very large playlists load with a fixed amount of memory.
+ * Binary playlists already hold the metadata and are handed out as fast as they are read.
+ * @author abhinavk
+ */
+public class PlaylistLoader {
+    // pool shared by every loader so loading many playlists doesn't create more threads
+    private static final ExecutorService PARSER_POOL = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemonThreadFactory("playlist-parser"));
+
+    // entries read ahead of the one handed out next, enough to keep every parser thread busy
+    private static final int WINDOW = 256;
+
+    private final File playlistFile;
+    private final int startIndex;
+    private final Listener listener;
+    private volatile boolean cancelled;
+
+    /**
+     * Interface used to receive the songs of a playlist while it loads,
+     * all methods are called from the loader thread
+     */
+    public interface Listener {
+        /**
+         * Called for every song that was read, in playlist order
+         * @param song the song
+         */
+        void songLoaded(Song song);
+
+        /**
+         * Called for every entry that couldn't be read, the entry is skipped
+         * @param songPath the path of the entry
+         * @param e the reason it failed
+         */
+        void songFailed(String songPath, Exception e);
+
+        /**
+         * Called after each entry is done
+         * @param processed the number of entries done so far
+         * @param total the number of entries in the playlist, -1 if the format doesn't say
+         */
+        void progressUpdated(int processed, int total);
+
+        /**
+         * Called once the whole playlist was processed
+         * @param loaded the number of songs that were loaded
+         * @param failed the number of entries that were skipped
+         */
+        void loadingFinished(int loaded, int failed);
+    }
+
+    /**
+     * Constructor that sets up the loader
+     * @param playlistFile the playlist file, any format PlaylistReader knows
+     * @param listener the listener that receives the songs
+     */
+    public PlaylistLoader(File playlistFile, Listener listener) {
+        this(playlistFile, 0, listener);
+    }
+
+    /**
+     * Constructor that sets up the loader to start at an entry of the playlist
+     * @param playlistFile the playlist file, any format PlaylistReader knows
+     * @param startIndex the first entry to load, the entries before it are left out
+     * @param listener the listener that receives the songs
+     */
+    public PlaylistLoader(File playlistFile, int startIndex, Listener listener) {
+        this.playlistFile = playlistFile;
+        this.startIndex = startIndex;
+        this.listener = listener;
+    }
+
+    /**
+     * Method that starts loading the playlist on a background thread
+     */
+    public void start() {
+        Thread loaderThread = new Thread(this::load, "playlist-loader");
+        loaderThread.setDaemon(true);
+        loaderThread.start();
+    }
+
+    /**
+     * Method that stops the loader, no more callbacks are made after this
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Cancelled getter
+     * @return true if the loader was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Method that reads the playlist and parses every entry
+     */
+    private void load() {
+        int loaded = 0;
+        int failed = 0;
+        int processed = 0;
+        ArrayDeque<String> songPaths = new ArrayDeque<>(WINDOW);
+        ArrayDeque<Future<Song>> songs = new ArrayDeque<>(WINDOW);
+        try (PlaylistReader reader = PlaylistReader.open(playlistFile, startIndex)) {
+            boolean endReached = false;
+            while(!endReached || !songs.isEmpty()) {
+                // keep the window full, the pool works through it in order
+                while(!endReached && songs.size() < WINDOW && !cancelled) {
+                    String songPath = reader.next();
+                    if(songPath == null) {
+                        endReached = true;
+                    }else {
+                        songPaths.add(songPath);
+                        songs.add(parse(songPath, reader.getMetadata()));
+                    }
+                }
+
+                if(cancelled) {
+                    songs.forEach(song -> song.cancel(false));
+                    return;
+                }
+
+                // hand out the songs in playlist order as each one finishes
+                String songPath = songPaths.poll();
+                try {
+                    Song song = songs.poll().get();
+                    if(song != null && !cancelled) {
+                        listener.songLoaded(song);
+                        loaded++;
+                    }
+                } catch (ExecutionException e) {
+                    failed++;
+                    Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if(!cancelled)
+                        listener.songFailed(songPath, cause);
+                }
+
+                if(!cancelled)
+                    listener.progressUpdated(++processed, reader.getSize());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        if(!cancelled)
+            listener.loadingFinished(loaded, failed);
+    }
+
+    /**
+     * Method that reads a song on the pool, songs from a binary playlist are ready right away
+     */
+    private Future<Song> parse(String songPath, Mp3Metadata metadata) {
+        if(metadata != null)
+            return CompletableFuture.completedFuture(new Song(songPath, metadata));
+        return PARSER_POOL.submit(() -> {
+            if(cancelled)
+                return null;
+            return new Song(songPath, LibraryCache.getInstance().read(songPath));
+        });
+    }
+
+    /**
+     * Method that creates a thread factory for daemon threads so they don't keep the app alive
+     * @param name the name of the threads
+     * @return the thread factory
+     */
+    static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,333 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * Playlist Model Class
+ * List model of a playlist that only holds the song paths. The metadata of a row is read
+ * the first time the row is shown, in the background, so a playlist of 100k songs costs
+ * a path and an empty slot per entry until it is scrolled through.
+ * All methods have to be called on the EDT.
+ * @author abhinavk
+ */
+public class PlaylistModel extends AbstractListModel<String> {
+    // reads the metadata of rows that became visible
+    private static final ExecutorService METADATA_POOL =
+            Executors.newSingleThreadExecutor(PlaylistLoader.daemonThreadFactory("playlist-metadata"));
+
+    // rows this far outside of the visible ones aren't read anymore once they scrolled away
+    private static final int READ_AHEAD_ROWS = 50;
+
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private int currentIndex = -1;
+
+    // first row of each path, built when the player's row didn't match and dropped when rows move
+    private HashMap<String, Integer> rowsByPath;
+
+    // rows the view shows, read by the metadata thread
+    private volatile int firstVisible;
+    private volatile int lastVisible = Integer.MAX_VALUE;
+
+    /**
+     * One row of the playlist
+     */
+    private static final class Entry {
+        final String filePath;
+        Song song;
+        boolean loading;
+        boolean artLoading;
+
+        Entry(String filePath, Song song) {
+            this.filePath = filePath;
+            this.song = song;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return entries.get(index).filePath;
+    }
+
+    /**
+     * Method that returns the song of a row and starts reading it if it wasn't read yet
+     * @param index the row
+     * @return the song or null while it is being read
+     */
+    public Song getSong(int index) {
+        Entry entry = entries.get(index);
+        if(entry.song == null && !entry.loading) {
+            entry.loading = true;
+            METADATA_POOL.execute(() -> {
+                // skip rows that were scrolled past before their turn came, they are asked for again when shown
+                if(index < firstVisible - READ_AHEAD_ROWS || index > lastVisible + READ_AHEAD_ROWS) {
+                    SwingUtilities.invokeLater(() -> entry.loading = false);
+                    return;
+                }
+                Song song = new Song(entry.filePath);
+                SwingUtilities.invokeLater(() -> songRead(entry, index, song));
+            });
+        }
+        return entry.song;
+    }
+
+    /**
+     * Method that returns the album art thumbnail of a row and starts reading it if it isn't in memory
+     * Only the thumbnail cache holds the art, rows just remember that it is being read
+     * @param index the row
+     * @param size the width and height the thumbnail fits in
+     * @return the thumbnail or null if the song has none or it is being read
+     */
+    public BufferedImage getThumbnail(int index, int size) {
+        Entry entry = entries.get(index);
+        AlbumArt albumArt = AlbumArt.getInstance();
+        BufferedImage thumbnail = albumArt.getCached(entry.filePath, size);
+        if(thumbnail == null && !entry.artLoading) {
+            entry.artLoading = true;
+            albumArt.load(entry.filePath, size, () -> index >= firstVisible - READ_AHEAD_ROWS && index <= lastVisible + READ_AHEAD_ROWS)
+                    .whenComplete((art, error) -> SwingUtilities.invokeLater(() -> {
+                        entry.artLoading = false;
+                        // rows that were skipped are asked for again when they are shown
+                        if(error == null)
+                            rowChanged(entry, index);
+                    }));
+        }
+        return AlbumArt.hasArt(thumbnail) ? thumbnail : null;
+    }
+
+    /**
+     * Method that tells the model which rows are on screen so rows scrolled past aren't read
+     * @param first the first visible row
+     * @param last the last visible row
+     */
+    public void setVisibleRange(int first, int last) {
+        firstVisible = first;
+        lastVisible = last;
+    }
+
+    /**
+     * Method called on the EDT when the metadata of a row was read
+     */
+    private void songRead(Entry entry, int index, Song song) {
+        entry.song = song;
+        entry.loading = false;
+        rowChanged(entry, index);
+    }
+
+    /**
+     * Method that redraws the row of an entry, the row may have moved since it was asked for
+     */
+    private void rowChanged(Entry entry, int index) {
+        if(index < entries.size() && entries.get(index) == entry) {
+            fireContentsChanged(this, index, index);
+        }else {
+            int newIndex = entries.indexOf(entry);
+            if(newIndex >= 0)
+                fireContentsChanged(this, newIndex, newIndex);
+        }
+    }
+
+    /**
+     * Method that replaces the whole playlist
+     * @param songs the songs
+     */
+    public void setSongs(List<Song> songs) {
+        int oldSize = entries.size();
+        entries.clear();
+        currentIndex = -1;
+        rowsByPath = null;
+        if(oldSize > 0)
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        addSongs(songs);
+    }
+
+    /**
+     * Method that adds songs that were already read to the end
+     * @param songs the songs
+     */
+    public void addSongs(List<Song> songs) {
+        if(songs.isEmpty())
+            return;
+        int start = entries.size();
+        entries.ensureCapacity(start + songs.size());
+        for(Song song : songs) {
+            addEntry(new Entry(song.getFilePath(), song));
+        }
+        fireIntervalAdded(this, start, entries.size() - 1);
+    }
+
+    /**
+     * Method that adds songs by path to the end, they are read when they are shown
+     * @param filePaths the paths of the songs
+     */
+    public void addPaths(List<String> filePaths) {
+        if(filePaths.isEmpty())
+            return;
+        int start = entries.size();
+        entries.ensureCapacity(start + filePaths.size());
+        for(String filePath : filePaths) {
+            addEntry(new Entry(filePath, null));
+        }
+        fireIntervalAdded(this, start, entries.size() - 1);
+    }
+
+    /**
+     * Method that adds a row to the end, appending doesn't move the rows of the path map
+     */
+    private void addEntry(Entry entry) {
+        if(rowsByPath != null)
+            rowsByPath.putIfAbsent(entry.filePath, entries.size());
+        entries.add(entry);
+    }
+
+    /**
+     * Method that replaces the whole playlist with songs by path, they are read when they are shown
+     * @param filePaths the paths of the songs
+     */
+    public void setPaths(List<String> filePaths) {
+        setSongs(List.of());
+        addPaths(filePaths);
+    }
+
+    /**
+     * Method that inserts songs that were already read
+     * @param index the row the first song goes to
+     * @param songs the songs
+     */
+    public void insertSongs(int index, List<Song> songs) {
+        if(songs.isEmpty())
+            return;
+        index = Math.max(0, Math.min(index, entries.size()));
+        List<Entry> inserted = new ArrayList<>(songs.size());
+        for(Song song : songs) {
+            inserted.add(new Entry(song.getFilePath(), song));
+        }
+        entries.addAll(index, inserted);
+        rowsByPath = null;
+        if(currentIndex >= index)
+            currentIndex += songs.size();
+        fireIntervalAdded(this, index, index + songs.size() - 1);
+    }
+
+    /**
+     * Method that removes rows
+     * @param indices the rows to remove
+     */
+    public void remove(int[] indices) {
+        int oldSize = entries.size();
+        int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        boolean currentRemoved = currentIndex >= 0 && Arrays.binarySearch(sorted, currentIndex) >= 0;
+        currentIndex = PlaylistEdits.removeRows(entries, sorted, currentIndex);
+        if(currentRemoved)
+            currentIndex = -1;
+        if(entries.size() == oldSize)
+            return;
+        rowsByPath = null;
+
+        // one event per run of rows, the last run first so the rows of the runs before it still match
+        int end = sorted.length - 1;
+        while(end >= 0 && sorted[end] >= oldSize) {
+            end--;
+        }
+        while(end >= 0 && sorted[end] >= 0) {
+            int start = end;
+            while(start > 0 && sorted[start - 1] >= 0 && sorted[start - 1] >= sorted[start] - 1) {
+                start--;
+            }
+            fireIntervalRemoved(this, sorted[start], sorted[end]);
+            end = start - 1;
+        }
+    }
+
+    /**
+     * Method that moves rows next to each other at another place
+     * @param indices the rows to move
+     * @param to the row they are inserted before, counted before the move
+     * @return the row the first moved row ended up at
+     */
+    public int move(int[] indices, int to) {
+        if(indices.length == 0)
+            return -1;
+        int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        to = Math.max(0, Math.min(to, entries.size()));
+        int movedBefore = 0;
+        while(movedBefore < sorted.length && sorted[movedBefore] < to) {
+            movedBefore++;
+        }
+        int newFirst = to - movedBefore;
+        currentIndex = PlaylistEdits.moveRows(entries, sorted, to, currentIndex);
+        rowsByPath = null;
+
+        // only the rows between the old and the new place changed
+        int from = Math.min(sorted[0], newFirst);
+        int until = Math.max(sorted[sorted.length - 1], newFirst + sorted.length - 1);
+        fireContentsChanged(this, from, until);
+        return newFirst;
+    }
+
+    /**
+     * Method that marks the row of the song that is playing
+     * @param index the row, -1 for none
+     */
+    public void setCurrentIndex(int index) {
+        int oldIndex = currentIndex;
+        currentIndex = index;
+        if(oldIndex >= 0 && oldIndex < entries.size())
+            fireContentsChanged(this, oldIndex, oldIndex);
+        if(index >= 0 && index < entries.size())
+            fireContentsChanged(this, index, index);
+    }
+
+    /**
+     * Method that marks the row of the song the player moved to
+     * The player may not have seen the latest edits yet, so the row is checked against the song
+     * and looked up by path if it doesn't match
+     * @param index the row in the player's playlist
+     * @param filePath the path of the song
+     */
+    public void setCurrentSong(int index, String filePath) {
+        if(index < 0 || index >= entries.size() || !entries.get(index).filePath.equals(filePath)) {
+            if(rowsByPath == null) {
+                rowsByPath = new HashMap<>(entries.size() * 4 / 3 + 1);
+                for(int i = 0; i < entries.size(); i++) {
+                    rowsByPath.putIfAbsent(entries.get(i).filePath, i);
+                }
+            }
+            index = rowsByPath.getOrDefault(filePath, -1);
+        }
+        setCurrentIndex(index);
+    }
+
+    /**
+     * Current index getter
+     * @return the row of the song that is playing, -1 for none
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * Method that returns the paths of all rows
+     * @return the paths in playlist order
+     */
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<>(entries.size());
+        for(Entry entry : entries) {
+            paths.add(entry.filePath);
+        }
+        return paths;
+    }
+}
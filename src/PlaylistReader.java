@@ -0,0 +1,180 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Playlist Reader Class
+ * Reads the entries of a playlist one at a time so a playlist of any size is read with the
+ * same small amount of memory. The format is picked from the file extension:
+ * .mpl binary playlists, .m3u and .m3u8 (extended or not), .pls and the plain .txt
+ * playlists with one path per line. Relative paths in m3u and pls files are resolved
+ * against the folder of the playlist.
+ * @author abhinavk
+ */
+public abstract class PlaylistReader implements Closeable {
+    /**
+     * Method that opens a playlist
+     * @param playlistFile the playlist
+     * @param startIndex the first entry to read, entries before it are skipped
+     * @return the reader
+     * @throws IOException if the playlist can't be opened
+     */
+    public static PlaylistReader open(File playlistFile, int startIndex) throws IOException {
+        String name = playlistFile.getName().toLowerCase(Locale.ROOT);
+        PlaylistReader reader;
+        if(name.endsWith(BinaryPlaylist.EXTENSION)) {
+            // binary playlists jump straight to the start through their offset table
+            return BinaryPlaylist.reader(playlistFile, startIndex);
+        }else if(name.endsWith(".m3u") || name.endsWith(".m3u8")) {
+            reader = new M3uReader(playlistFile);
+        }else if(name.endsWith(".pls")) {
+            reader = new PlsReader(playlistFile);
+        }else {
+            reader = new TextReader(playlistFile);
+        }
+
+        // text formats have no index, the entries before the start are read and dropped
+        int skipped = 0;
+        while(skipped < startIndex && reader.next() != null) {
+            skipped++;
+        }
+        return reader;
+    }
+
+    /**
+     * Method that reads the next entry
+     * @return the path of the song or null at the end of the playlist
+     * @throws IOException if the playlist can't be read
+     */
+    public abstract String next() throws IOException;
+
+    /**
+     * Metadata getter
+     * @return the metadata stored with the last entry, null if the format doesn't store any
+     */
+    public Mp3Metadata getMetadata() {
+        return null;
+    }
+
+    /**
+     * Size getter
+     * @return the number of entries left to read when next() was first called, -1 if the format doesn't say
+     */
+    public int getSize() {
+        return -1;
+    }
+
+    /**
+     * Reader of the plain playlists the playlist dialog used to write, one path per line
+     */
+    private static class TextReader extends PlaylistReader {
+        final File playlistFile;
+        final BufferedReader reader;
+
+        TextReader(File playlistFile) throws IOException {
+            this.playlistFile = playlistFile;
+            // utf-8 like the other formats, a byte order mark is skipped in nextLine()
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(playlistFile), StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        @Override
+        public String next() throws IOException {
+            String line;
+            while((line = nextLine()) != null) {
+                // skip blank lines instead of creating empty songs
+                if(!line.isEmpty())
+                    return line;
+            }
+            return null;
+        }
+
+        /**
+         * Method that reads the next line without surrounding white space
+         */
+        String nextLine() throws IOException {
+            String line = reader.readLine();
+            if(line == null)
+                return null;
+            if(line.startsWith("\uFEFF"))
+                line = line.substring(1);
+            return line.strip();
+        }
+
+        /**
+         * Method that turns an entry into a path, relative entries are relative to the playlist
+         */
+        String resolve(String entry) {
+            if(entry.regionMatches(true, 0, "file:", 0, 5)) {
+                try {
+                    return Paths.get(URI.create(entry)).toString();
+                } catch (Exception e) {
+                    // not a valid uri, use it as it is
+                    return entry;
+                }
+            }
+            File file = new File(entry);
+            if(file.isAbsolute() || entry.contains("://"))
+                return entry;
+            return new File(playlistFile.getAbsoluteFile().getParentFile(), entry).getPath();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reader of m3u and m3u8 playlists, #EXTM3U, #EXTINF and other comment lines are skipped
+     */
+    private static class M3uReader extends TextReader {
+        M3uReader(File playlistFile) throws IOException {
+            super(playlistFile);
+        }
+
+        @Override
+        public String next() throws IOException {
+            String line;
+            while((line = nextLine()) != null) {
+                if(!line.isEmpty() && !line.startsWith("#"))
+                    return resolve(line);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reader of pls playlists, the FileN= lines are read in the order they appear
+     */
+    private static class PlsReader extends TextReader {
+        PlsReader(File playlistFile) throws IOException {
+            super(playlistFile);
+        }
+
+        @Override
+        public String next() throws IOException {
+            String line;
+            while((line = nextLine()) != null) {
+                int equals = line.indexOf('=');
+                if(equals > 4 && line.regionMatches(true, 0, "File", 0, 4) && isNumber(line, 4, equals))
+                    return resolve(line.substring(equals + 1).strip());
+            }
+            return null;
+        }
+
+        private static boolean isNumber(String text, int from, int to) {
+            for(int i = from; i < to; i++) {
+                if(!Character.isDigit(text.charAt(i)))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,465 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Playlist Store Class
+ * Keeps a playlist file up to date while it is being edited. Every add, remove and move is
+ * appended to a journal next to the playlist and forced to disk, so an edit costs one small
+ * write no matter how long the playlist is. Once the journal grows past a limit, and when
+ * the store is closed, the whole playlist is written to a temp file that is renamed over
+ * the playlist and the journal is deleted.
+ *
+ * All file work happens on one background thread, the methods only queue the edits and
+ * never wait for the disk. When a playlist is opened after a crash the journal is replayed
+ * on top of the playlist, a record that was only partly written ends the replay. The journal
+ * remembers the size and time of the playlist file it belongs to, a journal left over from
+ * before the last rename doesn't match and is dropped.
+ * @author abhinavk
+ */
+public class PlaylistStore {
+    // "MPJL" in ascii, used to recognize the journal
+    private static final int MAGIC = 0x4D504A4C;
+    private static final int VERSION = 1;
+
+    // the journal is folded into the playlist once it is this big
+    private static final long COMPACT_BYTES = 1024 * 1024;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte MOVE = 3;
+
+    // one thread for every store so edits reach the disk in the order they were made
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(
+            PlaylistLoader.daemonThreadFactory("playlist-store"));
+
+    private final File playlistFile;
+    private final File journalFile;
+    private List<String> openedPaths;
+    private final ConcurrentLinkedQueue<Edit> pendingEdits = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+
+    // only touched on the writer thread
+    private final ArrayList<String> songPaths;
+    private FileChannel journal;
+    private long journalBytes;
+    private boolean dirty;
+
+    private PlaylistStore(File playlistFile, List<String> songPaths, boolean dirty) {
+        this.playlistFile = playlistFile;
+        this.journalFile = new File(playlistFile.getPath() + ".journal");
+        this.songPaths = new ArrayList<>(songPaths);
+        this.openedPaths = Collections.unmodifiableList(new ArrayList<>(songPaths));
+        this.dirty = dirty;
+    }
+
+    /**
+     * Method that opens a playlist for editing in the background, edits left in a journal are replayed
+     * @param playlistFile the playlist
+     * @return the store once the playlist was read
+     */
+    public static CompletableFuture<PlaylistStore> open(File playlistFile) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                List<String> songPaths = new ArrayList<>();
+                if(playlistFile.isFile()) {
+                    try (PlaylistReader reader = PlaylistReader.open(playlistFile, 0)) {
+                        for(String songPath; (songPath = reader.next()) != null; ) {
+                            songPaths.add(songPath);
+                        }
+                    }
+                }
+
+                PlaylistStore store = new PlaylistStore(playlistFile, songPaths, false);
+                if(store.replayJournal()) {
+                    store.compact();
+                    store.openedPaths = Collections.unmodifiableList(new ArrayList<>(store.songPaths));
+                }
+                return store;
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't open " + playlistFile, e);
+            }
+        }, WRITER);
+    }
+
+    /**
+     * Method that creates a store for a new playlist, the file is written when the store is closed
+     * @param playlistFile the playlist
+     * @param songPaths the songs of the playlist
+     * @return the store
+     */
+    public static PlaylistStore create(File playlistFile, List<String> songPaths) {
+        return new PlaylistStore(playlistFile, songPaths, true);
+    }
+
+    /**
+     * Method that gets the songs the playlist had when it was opened, with the journal replayed
+     * @return the paths of the songs
+     */
+    public List<String> getPaths() {
+        return openedPaths;
+    }
+
+    /**
+     * Method that adds songs to the end of the playlist
+     * @param songPaths the paths of the songs
+     */
+    public void add(List<String> songPaths) {
+        queue(new Edit(ADD, new ArrayList<>(songPaths), null, 0));
+    }
+
+    /**
+     * Method that removes songs from the playlist
+     * @param rows the indices of the songs
+     */
+    public void remove(int[] rows) {
+        queue(new Edit(REMOVE, null, rows.clone(), 0));
+    }
+
+    /**
+     * Method that moves songs of the playlist next to each other at another place
+     * @param rows the indices of the songs
+     * @param to the index they are inserted before, counted before the move
+     */
+    public void move(int[] rows, int to) {
+        queue(new Edit(MOVE, null, rows.clone(), to));
+    }
+
+    /**
+     * Method that writes the whole playlist now and empties the journal
+     * @return completes when the playlist is on disk
+     */
+    public CompletableFuture<Void> save() {
+        return CompletableFuture.runAsync(() -> {
+            flush();
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't save " + playlistFile, e);
+            }
+        }, WRITER);
+    }
+
+    /**
+     * Method that writes the playlist if it changed and closes the journal
+     * @return completes when the playlist is on disk
+     */
+    public CompletableFuture<Void> close() {
+        return CompletableFuture.runAsync(() -> {
+            flush();
+            try {
+                if(dirty)
+                    compact();
+            } catch (IOException e) {
+                throw new RuntimeException("Couldn't save " + playlistFile, e);
+            } finally {
+                closeJournal();
+            }
+        }, WRITER);
+    }
+
+    /**
+     * Method that hands an edit to the writer thread, edits made close together are written together
+     */
+    private void queue(Edit edit) {
+        pendingEdits.add(edit);
+        if(flushPending.compareAndSet(false, true))
+            WRITER.execute(this::flush);
+    }
+
+    /**
+     * Method that appends the queued edits to the journal and forces them to disk
+     */
+    private void flush() {
+        flushPending.set(false);
+        List<Edit> edits = new ArrayList<>();
+        for(Edit edit; (edit = pendingEdits.poll()) != null; ) {
+            edits.add(edit);
+        }
+        if(edits.isEmpty())
+            return;
+
+        // the list follows the edits even if the journal can't be written, the next save has them
+        for(Edit edit : edits) {
+            edit.apply(songPaths);
+        }
+        dirty = true;
+
+        try {
+            if(journal == null)
+                openJournal();
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            for(Edit edit : edits) {
+                writeRecord(records, edit);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+            while(buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            journal.force(false);
+            journalBytes += records.size();
+
+            if(journalBytes > COMPACT_BYTES)
+                compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method that starts a new journal for the playlist file as it is on disk now
+     */
+    private void openJournal() throws IOException {
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        long[] identity = identityOf(playlistFile);
+        out.writeLong(identity[0]);
+        out.writeLong(identity[1]);
+        journal.write(ByteBuffer.wrap(header.toByteArray()));
+        journalBytes = header.size();
+    }
+
+    private void closeJournal() {
+        if(journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Method that writes one edit with its length in front and a checksum after it
+     */
+    private static void writeRecord(ByteArrayOutputStream records, Edit edit) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(edit.type);
+        if(edit.type == ADD) {
+            out.writeInt(edit.songPaths.size());
+            for(String songPath : edit.songPaths) {
+                out.writeUTF(songPath);
+            }
+        }else {
+            out.writeInt(edit.to);
+            out.writeInt(edit.rows.length);
+            for(int row : edit.rows) {
+                out.writeInt(row);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        DataOutputStream record = new DataOutputStream(records);
+        record.writeInt(payload.size());
+        payload.writeTo(record);
+        record.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Method that applies the edits of a journal left by a crash
+     * @return true if any edit was replayed
+     */
+    private boolean replayJournal() throws IOException {
+        if(!journalFile.isFile())
+            return false;
+
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            long[] identity = identityOf(playlistFile);
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != identity[0] || in.readLong() != identity[1]) {
+                // the playlist was written after this journal, its edits are already in there
+                return deleteJournal();
+            }
+
+            while(true) {
+                Edit edit = readRecord(in);
+                if(edit == null)
+                    break;
+                edit.apply(songPaths);
+                replayed++;
+            }
+        } catch (EOFException e) {
+            // a header that was cut off, nothing to replay
+        }
+
+        if(replayed == 0)
+            return deleteJournal();
+        System.out.println("Replayed " + replayed + " playlist edits from " + journalFile);
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Method that reads one record of the journal
+     * @return the edit or null at the end of the journal or where a record is broken
+     */
+    private static Edit readRecord(DataInputStream in) throws IOException {
+        byte[] payload;
+        try {
+            int length = in.readInt();
+            if(length <= 0 || length > COMPACT_BYTES * 64)
+                return null;
+            payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if(in.readInt() != (int) crc.getValue())
+                return null;
+        } catch (EOFException e) {
+            return null;
+        }
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = record.readByte();
+        if(type == ADD) {
+            int count = record.readInt();
+            List<String> songPaths = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                songPaths.add(record.readUTF());
+            }
+            return new Edit(ADD, songPaths, null, 0);
+        }
+        int to = record.readInt();
+        int[] rows = new int[record.readInt()];
+        for(int i = 0; i < rows.length; i++) {
+            rows[i] = record.readInt();
+        }
+        return new Edit(type, null, rows, to);
+    }
+
+    private boolean deleteJournal() {
+        journalFile.delete();
+        return false;
+    }
+
+    /**
+     * Method that writes the whole playlist and deletes the journal
+     * The playlist is renamed into place first, a crash before the journal is deleted leaves
+     * a journal that no longer matches the playlist and is dropped on the next open
+     */
+    private void compact() throws IOException {
+        writePlaylist(playlistFile, songPaths);
+        closeJournal();
+        journalFile.delete();
+        journalBytes = 0;
+        dirty = false;
+    }
+
+    /**
+     * Method that writes a playlist in the format of its file extension through a temp file
+     */
+    private static void writePlaylist(File playlistFile, List<String> songPaths) throws IOException {
+        String name = playlistFile.getName().toLowerCase(Locale.ROOT);
+        if(name.endsWith(BinaryPlaylist.EXTENSION)) {
+            // binary playlists carry the metadata, songs that can't be read are kept without it
+            List<Mp3Metadata> metadata = new ArrayList<>(songPaths.size());
+            LibraryCache libraryCache = LibraryCache.getInstance();
+            for(String songPath : songPaths) {
+                Mp3Metadata songMetadata = null;
+                try {
+                    songMetadata = libraryCache.read(songPath);
+                } catch (IOException e) {
+                    System.err.println("Saving " + songPath + " without metadata: " + e.getMessage());
+                }
+                metadata.add(songMetadata);
+            }
+            BinaryPlaylist.write(playlistFile, songPaths, metadata);
+            return;
+        }
+
+        File tempFile = new File(playlistFile.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), 64 * 1024)) {
+            if(name.endsWith(".pls")) {
+                writer.write("[playlist]\n");
+                for(int i = 0; i < songPaths.size(); i++) {
+                    writer.write("File" + (i + 1) + "=" + songPaths.get(i) + "\n");
+                }
+                writer.write("NumberOfEntries=" + songPaths.size() + "\nVersion=2\n");
+            }else {
+                if(name.endsWith(".m3u") || name.endsWith(".m3u8"))
+                    writer.write("#EXTM3U\n");
+
+                // each song will be written in their own row
+                for(String songPath : songPaths) {
+                    writer.write(songPath + "\n");
+                }
+            }
+            writer.flush();
+
+            // on disk before the rename, so the rename never points at a half written file
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), playlistFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Method that gets what identifies a version of the playlist file, its size and last modified time
+     */
+    private static long[] identityOf(File playlistFile) throws IOException {
+        if(!playlistFile.isFile())
+            return new long[] {-1, -1};
+        BasicFileAttributes attributes = Files.readAttributes(playlistFile.toPath(), BasicFileAttributes.class);
+        return new long[] {attributes.size(), attributes.lastModifiedTime().toMillis()};
+    }
+
+    /**
+     * One add, remove or move
+     */
+    private static final class Edit {
+        final byte type;
+        final List<String> songPaths;
+        final int[] rows;
+        final int to;
+
+        Edit(byte type, List<String> songPaths, int[] rows, int to) {
+            this.type = type;
+            this.songPaths = songPaths;
+            this.rows = rows;
+            this.to = to;
+        }
+
+        void apply(List<String> playlist) {
+            if(type == ADD) {
+                playlist.addAll(songPaths);
+            }else if(type == REMOVE) {
+                PlaylistEdits.removeRows(playlist, rows, -1);
+            }else {
+                PlaylistEdits.moveRows(playlist, rows, to, -1);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.StringSelection;
+import java.awt.datatransfer.Transferable;
+import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.swing.*;
+
+/**
+ * Playlist View Class
+ * Scrollable list of a playlist model that stays smooth with 100k songs. Every row has the
+ * same fixed size so the list never measures its rows and only the rows on screen are drawn,
+ * which is also when their metadata and album art get read. Selected rows are removed with delete and
+ * moved with alt+up, alt+down or by dragging them.
+ * @author abhinavk
+ */
+public class PlaylistView extends JScrollPane {
+    // size of the album art in front of every row
+    private static final int THUMBNAIL_SIZE = 20;
+
+    private final PlaylistModel model;
+    private final JList<String> list;
+    private Listener listener;
+
+    // rows being dragged, null when no drag started in this list
+    private int[] draggedRows;
+
+    /**
+     * Interface used to hear about what the user did with the rows
+     */
+    public interface Listener {
+        /**
+         * Called when a row was double clicked or enter was pressed on it
+         * @param row the row
+         */
+        void rowActivated(int row);
+
+        /**
+         * Called after rows were removed from the model
+         * @param rows the rows that were removed
+         */
+        void rowsRemoved(int[] rows);
+
+        /**
+         * Called after rows were moved in the model
+         * @param rows the rows that were moved
+         * @param to the row they were inserted before, counted before the move
+         */
+        void rowsMoved(int[] rows, int to);
+    }
+
+    /**
+     * Constructor
+     * @param model the playlist to show
+     */
+    public PlaylistView(PlaylistModel model) {
+        this.model = model;
+        list = new JList<>(model);
+        list.setFont(new Font("Dialog", Font.PLAIN, 12));
+        list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+
+        // fixed sizes let the list skip measuring all of its rows, the width follows the view
+        list.setFixedCellHeight(Math.max(list.getFontMetrics(list.getFont()).getHeight(), THUMBNAIL_SIZE) + 4);
+        list.setFixedCellWidth(100);
+        list.setCellRenderer(new SongRenderer());
+        setViewportView(list);
+        setHorizontalScrollBarPolicy(HORIZONTAL_SCROLLBAR_NEVER);
+        getVerticalScrollBar().setUnitIncrement(list.getFixedCellHeight());
+
+        // rows that scrolled away before their metadata was read are skipped
+        getViewport().addChangeListener(e -> model.setVisibleRange(list.getFirstVisibleIndex(), list.getLastVisibleIndex()));
+
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = list.locationToIndex(e.getPoint());
+                if(e.getClickCount() == 2 && row >= 0 && listener != null)
+                    listener.rowActivated(row);
+            }
+        });
+        list.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int[] rows = list.getSelectedIndices();
+                if(rows.length == 0)
+                    return;
+
+                if(e.getKeyCode() == KeyEvent.VK_DELETE) {
+                    removeRows(rows);
+                    e.consume();
+                }else if(e.getKeyCode() == KeyEvent.VK_UP && e.isAltDown()) {
+                    if(rows[0] > 0)
+                        moveRows(rows, rows[0] - 1);
+                    e.consume();
+                }else if(e.getKeyCode() == KeyEvent.VK_DOWN && e.isAltDown()) {
+                    if(rows[rows.length - 1] < model.getSize() - 1)
+                        moveRows(rows, rows[rows.length - 1] + 2);
+                    e.consume();
+                }else if(e.getKeyCode() == KeyEvent.VK_ENTER && listener != null) {
+                    listener.rowActivated(list.getLeadSelectionIndex());
+                    e.consume();
+                }
+            }
+        });
+
+        // rows are dragged within the list to move them
+        list.setDragEnabled(true);
+        list.setDropMode(DropMode.INSERT);
+        list.setTransferHandler(new TransferHandler() {
+            @Override
+            public int getSourceActions(JComponent c) {
+                return MOVE;
+            }
+
+            @Override
+            protected Transferable createTransferable(JComponent c) {
+                draggedRows = list.getSelectedIndices();
+                return new StringSelection(String.join("\n", list.getSelectedValuesList()));
+            }
+
+            @Override
+            public boolean canImport(TransferSupport support) {
+                return support.isDrop() && draggedRows != null && support.isDataFlavorSupported(DataFlavor.stringFlavor);
+            }
+
+            @Override
+            public boolean importData(TransferSupport support) {
+                if(!canImport(support))
+                    return false;
+                JList.DropLocation dropLocation = (JList.DropLocation) support.getDropLocation();
+                moveRows(draggedRows, dropLocation.getIndex());
+                return true;
+            }
+
+            @Override
+            protected void exportDone(JComponent source, Transferable data, int action) {
+                draggedRows = null;
+            }
+        });
+    }
+
+    /**
+     * Listener setter
+     * @param listener the listener that hears about what the user did with the rows, can be null
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Model getter
+     * @return the playlist shown
+     */
+    public PlaylistModel getModel() {
+        return model;
+    }
+
+    /**
+     * Method that scrolls to the row of the song that is playing
+     */
+    public void showCurrentRow() {
+        int row = model.getCurrentIndex();
+        if(row >= 0)
+            list.ensureIndexIsVisible(row);
+    }
+
+    /**
+     * Method that removes rows and selects the row that took the place of the first one
+     */
+    private void removeRows(int[] rows) {
+        model.remove(rows);
+        list.clearSelection();
+        int row = Math.min(rows[0], model.getSize() - 1);
+        if(row >= 0) {
+            list.setSelectedIndex(row);
+            list.ensureIndexIsVisible(row);
+        }
+        if(listener != null)
+            listener.rowsRemoved(rows);
+    }
+
+    /**
+     * Method that moves rows and keeps them selected
+     */
+    private void moveRows(int[] rows, int to) {
+        int first = model.move(rows, to);
+        list.setSelectionInterval(first, first + rows.length - 1);
+        list.ensureIndexIsVisible(first);
+        if(listener != null)
+            listener.rowsMoved(rows, to);
+    }
+
+    /**
+     * Renderer that shows a row's number, title, artist and length, the song that is playing in bold
+     */
+    private class SongRenderer extends DefaultListCellRenderer {
+        private final ThumbnailIcon thumbnailIcon = new ThumbnailIcon();
+        private Font plainFont;
+        private Font boldFont;
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            // only rows on screen get here, so this is where their metadata is read, unreadable files show their name
+            Song song = model.getSong(index);
+            String text = song != null && song.getMetadata() != null
+                    ? (index + 1) + ". " + song.getSongTitle() + " - " + song.getSongArtist() + "  " + song.getSongLength()
+                    : (index + 1) + ". " + new File((String) value).getName();
+            super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+
+            if(plainFont != list.getFont()) {
+                plainFont = list.getFont();
+                boldFont = plainFont.deriveFont(Font.BOLD);
+            }
+            setFont(index == model.getCurrentIndex() ? boldFont : plainFont);
+
+            // rows without art keep an empty space so the text lines up
+            thumbnailIcon.image = model.getThumbnail(index, THUMBNAIL_SIZE);
+            setIcon(thumbnailIcon);
+            return this;
+        }
+    }
+
+    /**
+     * Icon that draws a thumbnail centered in a square, one instance is reused for every row
+     */
+    private static class ThumbnailIcon implements Icon {
+        BufferedImage image;
+
+        @Override
+        public void paintIcon(Component c, Graphics g, int x, int y) {
+            if(image != null)
+                g.drawImage(image, x + (THUMBNAIL_SIZE - image.getWidth()) / 2, y + (THUMBNAIL_SIZE - image.getHeight()) / 2, null);
+        }
+
+        @Override
+        public int getIconWidth() {
+            return THUMBNAIL_SIZE;
+        }
+
+        @Override
+        public int getIconHeight() {
+            return THUMBNAIL_SIZE;
+        }
+    }
+}
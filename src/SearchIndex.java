@@ -0,0 +1,336 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Search Index Class
+ * In memory index over the title, artist and path of every song in the library cache.
+ * Every song gets a number and the index keeps, for every three letter sequence and for
+ * the first one and two letters of every word, the sorted list of songs that contain it.
+ * A query only looks at the songs in the shortest of the lists its words need and checks
+ * those, so it takes well under a millisecond even for a big library.
+ *
+ * Songs are added and removed one at a time as the library cache changes, removed songs
+ * are skipped until enough of them piled up to clean the lists and number the songs again.
+ * @author abhinavk
+ */
+public class SearchIndex {
+    // separates the title, artist and path so a match can't span two of them
+    private static final char FIELD_SEPARATOR = '\n';
+
+    // keys of word prefixes are kept apart from the trigram keys with the high bits
+    private static final long PREFIX_1 = 1L << 48;
+    private static final long PREFIX_2 = 2L << 48;
+
+    private static SearchIndex instance;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<String, Integer> idsByPath = new HashMap<>();
+    private final HashMap<Long, IntList> postings = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private String[] paths = new String[1024];
+    private Mp3Metadata[] metadata = new Mp3Metadata[1024];
+    private String[] texts = new String[1024];
+    private int nextId;
+    private int removedCount;
+
+    // paths the library cache changed while the index was being filled, the fill's older copy of them is skipped
+    private HashSet<String> changedWhileFilling = new HashSet<>();
+
+    /**
+     * Method that returns the index of the library cache, it is filled in the background the first time
+     * @return the index
+     */
+    public static synchronized SearchIndex getInstance() {
+        if(instance == null) {
+            SearchIndex index = new SearchIndex();
+            LibraryCache libraryCache = LibraryCache.getInstance();
+
+            // listen first so nothing changed while filling is missed
+            libraryCache.addListener(new LibraryCache.Listener() {
+                @Override
+                public void songAdded(String filePath, Mp3Metadata metadata) {
+                    index.add(filePath, metadata);
+                }
+
+                @Override
+                public void songRemoved(String filePath) {
+                    index.remove(filePath);
+                }
+            });
+            Thread thread = PlaylistLoader.daemonThreadFactory("search-index").newThread(() -> index.fill(libraryCache));
+            thread.start();
+            instance = index;
+        }
+        return instance;
+    }
+
+    /**
+     * Method that adds a song or updates it if its path is already in the index
+     * @param filePath the path of the song
+     * @param metadata the metadata of the song
+     */
+    public void add(String filePath, Mp3Metadata metadata) {
+        add(filePath, metadata, false);
+    }
+
+    /**
+     * Method that adds every song the library cache holds, songs it changed since are left as they are
+     */
+    private void fill(LibraryCache libraryCache) {
+        libraryCache.forEach((filePath, metadata) -> add(filePath, metadata, true));
+        lock.writeLock().lock();
+        try {
+            changedWhileFilling = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(String filePath, Mp3Metadata metadata, boolean filling) {
+        String text = normalize(metadata.getSongTitle() + FIELD_SEPARATOR + metadata.getSongArtist() + FIELD_SEPARATOR + filePath);
+        long[] keys = keysOf(text);
+
+        lock.writeLock().lock();
+        try {
+            if(changedWhileFilling != null) {
+                if(filling && changedWhileFilling.contains(filePath))
+                    return;
+                if(!filling)
+                    changedWhileFilling.add(filePath);
+            }
+            removeLocked(filePath);
+
+            int id = nextId++;
+            if(id == paths.length) {
+                paths = Arrays.copyOf(paths, id * 2);
+                this.metadata = Arrays.copyOf(this.metadata, id * 2);
+                texts = Arrays.copyOf(texts, id * 2);
+            }
+            paths[id] = filePath;
+            this.metadata[id] = metadata;
+            texts[id] = text;
+            live.set(id);
+            idsByPath.put(filePath, id);
+
+            // ids only grow so the lists stay sorted
+            for(long key : keys) {
+                postings.computeIfAbsent(key, k -> new IntList()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method that removes a song
+     * @param filePath the path of the song
+     */
+    public void remove(String filePath) {
+        lock.writeLock().lock();
+        try {
+            if(changedWhileFilling != null)
+                changedWhileFilling.add(filePath);
+            removeLocked(filePath);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(String filePath) {
+        Integer id = idsByPath.remove(filePath);
+        if(id == null)
+            return;
+        live.clear(id);
+        paths[id] = null;
+        metadata[id] = null;
+        texts[id] = null;
+        removedCount++;
+
+        // clean the lists once removed songs make up a good part of them
+        if(removedCount > 1024 && removedCount > idsByPath.size())
+            compact();
+    }
+
+    /**
+     * Method that drops removed songs from every list and numbers the songs that are left from 0
+     */
+    private void compact() {
+        // songs keep their order, so the lists stay sorted
+        int[] newIds = new int[nextId];
+        int count = 0;
+        for(int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+            newIds[id] = count;
+            paths[count] = paths[id];
+            metadata[count] = metadata[id];
+            texts[count] = texts[id];
+            idsByPath.put(paths[count], count);
+            count++;
+        }
+        Arrays.fill(paths, count, nextId, null);
+        Arrays.fill(metadata, count, nextId, null);
+        Arrays.fill(texts, count, nextId, null);
+        int capacity = Math.max(1024, count * 2);
+        if(capacity < paths.length) {
+            paths = Arrays.copyOf(paths, capacity);
+            metadata = Arrays.copyOf(metadata, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+
+        postings.values().removeIf(list -> list.retain(live, newIds) == 0);
+        live.clear();
+        live.set(0, count);
+        nextId = count;
+        removedCount = 0;
+    }
+
+    /**
+     * Method that finds the songs that contain every word of a query in their title, artist or path
+     * Words of one or two letters match the start of a word, longer words match anywhere
+     * @param query the words to look for
+     * @param limit the most songs returned
+     * @return the songs in the order they were added
+     */
+    public List<Song> search(String query, int limit) {
+        String[] terms = normalize(query).trim().split("\\s+");
+        List<Song> results = new ArrayList<>();
+        if(terms[0].isEmpty())
+            return results;
+
+        lock.readLock().lock();
+        try {
+            // the shortest list any term needs holds every possible match
+            IntList candidates = null;
+            for(String term : terms) {
+                for(long key : queryKeysOf(term)) {
+                    IntList list = postings.get(key);
+                    if(list == null)
+                        return results;
+                    if(candidates == null || list.size < candidates.size)
+                        candidates = list;
+                }
+            }
+
+            for(int i = 0; i < candidates.size && results.size() < limit; i++) {
+                int id = candidates.values[i];
+                if(live.get(id) && matches(texts[id], terms))
+                    results.add(new Song(paths[id], metadata[id]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Size getter
+     * @return the number of songs in the index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idsByPath.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method that checks a song's text against every term of a query
+     */
+    private static boolean matches(String text, String[] terms) {
+        for(String term : terms) {
+            if(term.length() >= 3 ? !text.contains(term) : !containsWordStartingWith(text, term))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean containsWordStartingWith(String text, String prefix) {
+        for(int i = text.indexOf(prefix); i >= 0; i = text.indexOf(prefix, i + 1)) {
+            if(i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method that lists the keys a song's text is stored under
+     */
+    private static long[] keysOf(String text) {
+        HashSet<Long> keys = new HashSet<>();
+        for(int i = 0; i + 3 <= text.length(); i++) {
+            keys.add(trigram(text, i));
+        }
+        for(int i = 0; i < text.length(); i++) {
+            boolean wordStart = Character.isLetterOrDigit(text.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)));
+            if(wordStart) {
+                keys.add(PREFIX_1 | text.charAt(i));
+                if(i + 1 < text.length())
+                    keys.add(PREFIX_2 | (long) text.charAt(i) << 16 | text.charAt(i + 1));
+            }
+        }
+        long[] result = new long[keys.size()];
+        int i = 0;
+        for(long key : keys) {
+            result[i++] = key;
+        }
+        return result;
+    }
+
+    /**
+     * Method that lists the keys a query term needs
+     */
+    private static long[] queryKeysOf(String term) {
+        if(term.length() == 1)
+            return new long[] {PREFIX_1 | term.charAt(0)};
+        if(term.length() == 2)
+            return new long[] {PREFIX_2 | (long) term.charAt(0) << 16 | term.charAt(1)};
+        long[] keys = new long[term.length() - 2];
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = trigram(term, i);
+        }
+        return keys;
+    }
+
+    private static long trigram(String text, int i) {
+        return (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Growable sorted list of song ids
+     */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if(size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        /**
+         * Method that keeps only the ids that are still in the index and gives them their new number
+         * @return the new size
+         */
+        int retain(BitSet live, int[] newIds) {
+            int kept = 0;
+            for(int i = 0; i < size; i++) {
+                if(live.get(values[i]))
+                    values[kept++] = newIds[values[i]];
+            }
+            size = kept;
+            return size;
+        }
+    }
+}
@@ -1,7 +1,7 @@
-import java.io.File;
-import org.jaudiotagger.audio.*;
-import org.jaudiotagger.tag.FieldKey;
-import org.jaudiotagger.tag.Tag;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import com.mpatric.mp3agic.Mp3File;
 
@@ -10,11 +10,18 @@ import com.mpatric.mp3agic.Mp3File;
  * @author abhinavk
  */
 public class Song {
+    private static final int MAX_INDEXED_SONGS = Integer.getInteger("musicplayer.frameIndex.songs", 4);
+
+    // songs that hold a frame index, least recently used first
+    private static final LinkedHashMap<Song, Boolean> INDEXED_SONGS = new LinkedHashMap<>(16, 0.75f, true);
+
     private String songTitle;
     private String songArtist;
     private String songLength;
     private String filePath;
+    private Mp3Metadata metadata;
     private Mp3File mp3File;
+    private FrameIndex frameIndex;
     private double framRatePerMilliseconds;
 
     /**
@@ -24,35 +31,41 @@ public class Song {
     public Song(String filePath) {
         this.filePath = filePath;
         try {
-            mp3File = new Mp3File(filePath);
-            framRatePerMilliseconds = (double) mp3File.getFrameCount() / mp3File.getLengthInMilliseconds();
-            songLength = convertToSongLengthFormat();
-
-            // use jaudiotagger lib to create audiofile obj to reap mp3 file's info
-            AudioFile audioFile = AudioFileIO.read(new File(filePath));
-
-            // read through meta data of audio file
-            Tag tag = audioFile.getTag();
-            if(tag != null) {
-                songTitle = tag.getFirst(FieldKey.TITLE);
-                songArtist = tag.getFirst(FieldKey.ARTIST);
-            }else {
-                // case if mp3 file's meta data can't be read
-                songTitle = "N/A";
-                songArtist = "N/A";
-            }
+            // use the library cache and only read the file if it isn't cached
+            setMetadata(LibraryCache.getInstance().read(filePath));
         }catch(Exception e){
             e.printStackTrace();
         }
     }
 
+    /**
+     * Constructor that initializes a song from metadata that was already read
+     * @param filePath of the song
+     * @param metadata the metadata of the song
+     */
+    public Song(String filePath, Mp3Metadata metadata) {
+        this.filePath = filePath;
+        setMetadata(metadata);
+    }
+
+    /**
+     * Method that fills in the song's info from its metadata
+     * @param metadata the metadata of the song
+     */
+    private void setMetadata(Mp3Metadata metadata) {
+        this.metadata = metadata;
+        framRatePerMilliseconds = (double) metadata.getFrameCount() / metadata.getLengthInMilliseconds();
+        songTitle = metadata.getSongTitle();
+        songArtist = metadata.getSongArtist();
+    }
+
     /**
      * Method to convert a song's length into a formatted time
      * @return the formatted time
      */
     private String convertToSongLengthFormat() {
-        long minutes = mp3File.getLengthInSeconds() / 60;
-        long seconds = mp3File.getLengthInSeconds() % 60;
+        long minutes = metadata.getLengthInSeconds() / 60;
+        long seconds = metadata.getLengthInSeconds() % 60;
         String formattedTime = String.format("%02d:%02d", minutes, seconds);
         
         return formattedTime;
@@ -79,6 +92,9 @@ public class Song {
      * @return the song's length
      */
     public String getSongLength() {
+        // formatted on first use, songs made for search results or playlists often never show it
+        if(songLength == null && metadata != null)
+            songLength = convertToSongLengthFormat();
         return songLength;
     }
 
@@ -92,12 +108,83 @@ public class Song {
     
     /**
      * MP3 file getter
+     * The mp3agic file scans every frame so it is only created when it is asked for
      * @return the mp3 file
      */
     public Mp3File getMp3File() {
+        if(mp3File == null) {
+            try {
+                mp3File = new Mp3File(filePath);
+            }catch(Exception e){
+                e.printStackTrace();
+            }
+        }
         return mp3File;
     }
 
+    /**
+     * Metadata getter
+     * @return the metadata read from the file, null if it couldn't be read
+     */
+    public Mp3Metadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Frame index getter
+     * The index is built the first time it is asked for, only the songs that used
+     * their index last keep it and the others build it again when they need it
+     * @return the byte offsets of the song's frames, null if the file couldn't be read
+     */
+    public FrameIndex getFrameIndex() {
+        FrameIndex index;
+        synchronized(this) {
+            if(frameIndex == null && metadata != null) {
+                try {
+                    frameIndex = FrameIndex.build(filePath, metadata);
+                }catch(Exception e){
+                    e.printStackTrace();
+                }
+            }
+            index = frameIndex;
+        }
+        if(index == null)
+            return null;
+
+        // the evicted songs are released outside of both locks, another song could be waiting for them
+        List<Song> evicted = new ArrayList<>();
+        synchronized(INDEXED_SONGS) {
+            INDEXED_SONGS.put(this, Boolean.TRUE);
+            Iterator<Song> iterator = INDEXED_SONGS.keySet().iterator();
+            while(INDEXED_SONGS.size() > Math.max(1, MAX_INDEXED_SONGS) && iterator.hasNext()) {
+                Song song = iterator.next();
+                if(song != this) {
+                    iterator.remove();
+                    evicted.add(song);
+                }
+            }
+        }
+        for(Song song : evicted) {
+            song.releaseFrameIndex();
+        }
+        return index;
+    }
+
+    /**
+     * Method that drops the frame index, a decoder still using it keeps its own reference
+     */
+    private synchronized void releaseFrameIndex() {
+        frameIndex = null;
+    }
+
+    /**
+     * Frame count getter
+     * @return the number of frames in the song
+     */
+    public int getFrameCount() {
+        return metadata != null ? metadata.getFrameCount() : 0;
+    }
+
     /**
      * Frame rate per milliseconds getter
      * @return the frame rate per milli
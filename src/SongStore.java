@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+/**
+ * Song Store Class
+ * Gives every song of the play queue a small int id, so the queue only holds ints. The store
+ * keeps the path of each id and the song once it was read, a song restored from a saved queue is
+ * only read when it is about to play. Ids are never reused, songs removed from the queue keep
+ * theirs until the queue is cleared and gets a new store. Safe to read from any thread.
+ * @author abhinavk
+ */
+public class SongStore {
+    private String[] paths;
+    private Song[] songs;
+    private int size;
+
+    /**
+     * Constructor
+     * @param capacity the number of songs to make room for
+     */
+    public SongStore(int capacity) {
+        paths = new String[Math.max(16, capacity)];
+        songs = new Song[paths.length];
+    }
+
+    /**
+     * Constructor of a store of songs by path, they are read the first time they are asked for
+     * @param filePaths the paths, the id of a song is its index
+     */
+    public SongStore(String[] filePaths) {
+        this(filePaths.length);
+        System.arraycopy(filePaths, 0, paths, 0, filePaths.length);
+        size = filePaths.length;
+    }
+
+    /**
+     * Method that adds a song that was already read
+     * @param song the song
+     * @return the id of the song
+     */
+    public synchronized int add(Song song) {
+        int id = add(song.getFilePath());
+        songs[id] = song;
+        return id;
+    }
+
+    /**
+     * Method that adds a song by path, it is read the first time it is asked for
+     * @param filePath the path of the song
+     * @return the id of the song
+     */
+    public synchronized int add(String filePath) {
+        if(size == paths.length) {
+            paths = Arrays.copyOf(paths, size + (size >> 1));
+            songs = Arrays.copyOf(songs, paths.length);
+        }
+        paths[size] = filePath;
+        return size++;
+    }
+
+    /**
+     * Method that returns a song and reads it if it wasn't read yet, the store isn't locked while it is read
+     * @param id the id of the song
+     * @return the song
+     */
+    public Song get(int id) {
+        String filePath;
+        synchronized (this) {
+            if(songs[id] != null)
+                return songs[id];
+            filePath = paths[id];
+        }
+        Song song = new Song(filePath);
+        synchronized (this) {
+            if(songs[id] == null)
+                songs[id] = song;
+            return songs[id];
+        }
+    }
+
+    /**
+     * Path getter
+     * @param id the id of the song
+     * @return the path of the song
+     */
+    public synchronized String getPath(int id) {
+        return paths[id];
+    }
+
+    /**
+     * Method that copies the paths of all ids
+     * @return the paths, the path of a song is at its id
+     */
+    public synchronized String[] getPaths() {
+        return Arrays.copyOf(paths, size);
+    }
+
+    /**
+     * Size getter
+     * @return the number of ids given out
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
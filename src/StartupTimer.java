@@ -0,0 +1,63 @@
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Startup Timer Class
+ * Logs how long the app took to reach each phase of starting up, counted from the start
+ * of main. Every phase is logged once, the first time it is reached, together with the time
+ * since the phase before it. The time the JVM needed to get to main is logged as well, that
+ * is the part a class data sharing archive makes shorter.
+ * Turned off with -Dmusicplayer.startupTiming=false.
+ * @author abhinavk
+ */
+public class StartupTimer {
+    private static final boolean ENABLED = !"false".equals(System.getProperty("musicplayer.startupTiming"));
+
+    // set when start() loads the class at the top of main
+    private static final long MAIN_NANOS = System.nanoTime();
+
+    private static final Set<String> REACHED_PHASES = ConcurrentHashMap.newKeySet();
+    private static long lastNanos = MAIN_NANOS;
+
+    static {
+        if(ENABLED) {
+            // the management classes take tens of milliseconds to load, so they are kept off the startup path
+            Thread jvmTimer = new Thread(() -> {
+                long sinceMain = (System.nanoTime() - MAIN_NANOS) / 1_000_000;
+                long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+                System.out.println("Startup: jvm took " + Math.max(0, uptime - sinceMain) + " ms to reach main");
+            }, "startup-timer");
+            jvmTimer.setDaemon(true);
+            jvmTimer.setPriority(Thread.MIN_PRIORITY);
+            jvmTimer.start();
+        }
+    }
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Method that starts the timer, called first thing in main
+     */
+    public static void start() {
+        // loading the class already did everything
+    }
+
+    /**
+     * Method that logs a phase of startup the first time it is reached
+     * @param phase the name of the phase
+     */
+    public static void mark(String phase) {
+        if(!ENABLED || !REACHED_PHASES.add(phase))
+            return;
+
+        long now = System.nanoTime();
+        long sinceLast;
+        synchronized(StartupTimer.class) {
+            sinceLast = now - lastNanos;
+            lastNanos = now;
+        }
+        System.out.println("Startup: " + phase + " after " + (now - MAIN_NANOS) / 1_000_000 + " ms (+" + sinceLast / 1_000_000 + " ms)");
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Track Decoder Class
+ * Decodes the frames of a song into 16 bit pcm. When the file has a LAME header the
+ * encoder delay and padding are cut off so consecutive tracks join without a gap.
+ * The first part of a track can be decoded ahead of time with prefetch().
+ * Decoded blocks are kept in the pcm cache and frames found there are not decoded again.
+ * @author abhinavk
+ */
+public class TrackDecoder implements AutoCloseable {
+    // frames decoded and thrown away before the first one that is played from the middle of a song,
+    // a layer III frame can use up to 511 bytes of the frames before it
+    public static final int WARMUP_FRAMES = 8;
+
+    // samples of delay the mp3 decoder itself adds to the output
+    private static final int DECODER_DELAY = 529;
+
+    // the most samples a frame decodes to
+    private static final int MAX_FRAME_SAMPLES = 1152 * 2;
+
+    // results of reading one frame
+    private static final int SAMPLES = 0;
+    private static final int EMPTY = 1;
+    private static final int END = 2;
+    private static final int MISS = 3;
+
+    private final Song song;
+    private final Mp3InputSource inputSource;
+    private final Decoder firstDecoder;
+    private final ArrayDeque<short[]> prefetched = new ArrayDeque<>();
+    private final PcmCache pcmCache = PcmCache.getInstance();
+    private final int samplesPerFrame;
+
+    private Bitstream bitstream;
+    private Decoder decoder;
+    private short[] samples;
+    private short[] cachedSamples;
+    private int sampleCount;
+    private int frame;
+    private int channels;
+    private int sampleRate;
+
+    // position in samples per channel from the start of the first audio frame
+    private long samplePosition;
+    private long validStart;
+    private long validEnd;
+
+    // the audio device is set up from the first decoder, so it has to decode before the cache is used
+    private boolean firstFrameDecoded;
+
+    // false after frames came from the cache, the bitstream has to be moved before decoding
+    private boolean bitstreamInSync = true;
+
+    // frames still to be decoded only to fill the decoder's bit reservoir
+    private int warmUpFrames;
+
+    // the cached block frames are read from and the block being filled while decoding
+    private PcmCache.Block cachedBlock;
+    private int cachedBlockIndex = -1;
+    private int lookedUpBlockIndex = -1;
+    private PcmCache.Block recordingBlock;
+    private int recordingBlockIndex;
+
+    /**
+     * Constructor that opens a song at a frame
+     * @param song the song to decode
+     * @param startFrame the frame to start decoding from
+     * @throws IOException if the file can't be opened
+     */
+    public TrackDecoder(Song song, int startFrame) throws IOException {
+        this.song = song;
+        Mp3Metadata metadata = song.getMetadata();
+        if(metadata == null)
+            throw new IOException("Song couldn't be read: " + song.getFilePath());
+
+        // the source stays open between pause, resume and seek of the same song
+        inputSource = Mp3InputSource.acquire(song.getFilePath());
+
+        // start a few frames early at the frame's byte offset, the Xing/Info frame is skipped this way too
+        int openFrame = Math.max(0, startFrame - WARMUP_FRAMES);
+        try {
+            bitstream = openBitstream(openFrame);
+        } catch (JavaLayerException e) {
+            inputSource.release();
+            throw new IOException("Couldn't open " + song.getFilePath() + " at frame " + startFrame, e);
+        }
+        decoder = new Decoder();
+        firstDecoder = decoder;
+
+        frame = startFrame;
+        warmUpFrames = startFrame - openFrame;
+        samplesPerFrame = metadata.getSamplesPerFrame();
+        samplePosition = (long) startFrame * samplesPerFrame;
+
+        // the part of the output that holds the actual audio of the track
+        long totalSamples = (long) metadata.getFrameCount() * samplesPerFrame;
+        if(metadata.hasGaplessInfo()) {
+            validStart = metadata.getEncoderDelay() + DECODER_DELAY;
+            validEnd = Math.min(totalSamples, totalSamples - metadata.getEncoderPadding() + DECODER_DELAY);
+        }else {
+            validStart = 0;
+            validEnd = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Method that decodes the first part of the track ahead of time
+     * @param millis how much audio to decode
+     * @throws JavaLayerException if the file can't be decoded
+     */
+    public void prefetch(int millis) throws JavaLayerException {
+        int samplesWanted = song.getMetadata().getSampleRate() / 1000 * millis;
+        int samplesDecoded = 0;
+        while(samplesDecoded < samplesWanted && nextFrame()) {
+            short[] copy = new short[sampleCount];
+            System.arraycopy(samples, 0, copy, 0, sampleCount);
+            prefetched.add(copy);
+            samplesDecoded += sampleCount / channels;
+        }
+    }
+
+    /**
+     * Method that decodes the next frame, the result is in getSamples()
+     * @return false when the end of the track was reached
+     * @throws JavaLayerException if the file can't be decoded
+     */
+    public boolean readFrame() throws JavaLayerException {
+        if(!prefetched.isEmpty()) {
+            samples = prefetched.poll();
+            sampleCount = samples.length;
+            return true;
+        }
+        return nextFrame();
+    }
+
+    /**
+     * Method that reads frames from the cache or the file until one has samples left after trimming
+     */
+    private boolean nextFrame() throws JavaLayerException {
+        while(true) {
+            int result = firstFrameDecoded ? readCachedFrame() : MISS;
+            if(result == MISS)
+                result = decodeFrame();
+            if(result == END)
+                return false;
+            if(result == SAMPLES)
+                return true;
+        }
+    }
+
+    /**
+     * Method that copies the next frame out of the pcm cache
+     * @return SAMPLES, EMPTY when everything was trimmed off, END or MISS when the frame isn't cached
+     */
+    private int readCachedFrame() {
+        if(!pcmCache.isEnabled())
+            return MISS;
+
+        int blockIndex = frame / PcmCache.BLOCK_FRAMES;
+        if(blockIndex != cachedBlockIndex) {
+            releaseCachedBlock();
+
+            // only look every block up once, the frames of a missing block are decoded
+            if(blockIndex == lookedUpBlockIndex)
+                return MISS;
+            lookedUpBlockIndex = blockIndex;
+            cachedBlock = pcmCache.get(inputSource, blockIndex);
+            if(cachedBlock == null)
+                return MISS;
+            cachedBlockIndex = blockIndex;
+        }
+
+        int blockFrame = frame - blockIndex * PcmCache.BLOCK_FRAMES;
+        if(blockFrame >= cachedBlock.getFrameCount())
+            return cachedBlock.isEndOfTrack() ? END : MISS;
+
+        // the decoder's output buffer can't be written to, cached frames get their own
+        if(cachedSamples == null)
+            cachedSamples = new short[MAX_FRAME_SAMPLES];
+        samples = cachedSamples;
+        sampleCount = cachedBlock.copyFrame(blockFrame, samples);
+        channels = cachedBlock.getChannels();
+        sampleRate = cachedBlock.getSampleRate();
+        frame++;
+        samplePosition += samplesPerFrame;
+        bitstreamInSync = false;
+
+        // a block can only be filled from frames that were decoded one after the other
+        discardRecording();
+        return sampleCount == 0 ? EMPTY : SAMPLES;
+    }
+
+    /**
+     * Method that decodes the next frame from the file
+     * @return SAMPLES, EMPTY when everything was trimmed off or END
+     */
+    private int decodeFrame() throws JavaLayerException {
+        if(!bitstreamInSync)
+            moveBitstream();
+
+        Header header = bitstream.readFrame();
+        if(header == null) {
+            finishRecording(true);
+            return END;
+        }
+
+        SampleBuffer output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+        bitstream.closeFrame();
+        if(warmUpFrames > 0) {
+            warmUpFrames--;
+            return EMPTY;
+        }
+        firstFrameDecoded = true;
+        int decodedFrame = frame++;
+
+        channels = output.getChannelCount();
+        sampleRate = output.getSampleFrequency();
+        int frameSamples = output.getBufferLength() / channels;
+        long frameStart = samplePosition;
+        samplePosition += frameSamples;
+
+        // cut the encoder delay and padding off
+        long from = Math.max(frameStart, validStart);
+        long to = Math.min(samplePosition, validEnd);
+        if(from >= validEnd) {
+            finishRecording(true);
+            return END;
+        }
+        if(from >= to) {
+            record(decodedFrame, output.getBuffer(), 0);
+            return EMPTY;
+        }
+
+        int offset = (int) (from - frameStart) * channels;
+        sampleCount = (int) (to - from) * channels;
+        if(offset == 0) {
+            samples = output.getBuffer();
+        }else {
+            if(samples == null || samples.length < sampleCount || samples == output.getBuffer())
+                samples = new short[output.getBuffer().length];
+            System.arraycopy(output.getBuffer(), offset, samples, 0, sampleCount);
+        }
+        record(decodedFrame, samples, sampleCount);
+        if(to == validEnd)
+            finishRecording(true);
+        return SAMPLES;
+    }
+
+    /**
+     * Method that reopens the bitstream at the current frame after frames came from the cache
+     * The frames before it are decoded and thrown away to fill the decoder's bit reservoir
+     */
+    private void moveBitstream() throws JavaLayerException {
+        int openFrame = Math.max(0, frame - WARMUP_FRAMES);
+        try {
+            bitstream.close();
+            bitstream = openBitstream(openFrame);
+        } catch (Exception e) {
+            throw new JavaLayerException("Couldn't move to frame " + frame, e);
+        }
+
+        // the layer III decoder stays tied to the bitstream it decoded first
+        decoder = new Decoder();
+        warmUpFrames = frame - openFrame;
+        bitstreamInSync = true;
+    }
+
+    /**
+     * Method that opens a bitstream at a frame, at its byte offset from the frame index
+     * or by skipping the frames before it when the index couldn't be built
+     */
+    private Bitstream openBitstream(int openFrame) throws JavaLayerException {
+        FrameIndex frameIndex = openFrame > 0 ? song.getFrameIndex() : null;
+        if(frameIndex != null)
+            return new Bitstream(inputSource.openStream(frameIndex.getOffset(openFrame)));
+
+        Bitstream stream = new Bitstream(inputSource.openStream(song.getMetadata().getAudioStartOffset()));
+        for(int i = 0; i < openFrame && stream.readFrame() != null; i++) {
+            stream.closeFrame();
+        }
+        return stream;
+    }
+
+    /**
+     * Method that adds a decoded frame to the block being filled
+     */
+    private void record(int decodedFrame, short[] source, int count) {
+        if(!pcmCache.isEnabled())
+            return;
+
+        if(recordingBlock == null) {
+            // blocks are only filled from their first frame
+            int blockIndex = decodedFrame / PcmCache.BLOCK_FRAMES;
+            if(decodedFrame % PcmCache.BLOCK_FRAMES != 0 || pcmCache.contains(inputSource, blockIndex))
+                return;
+            recordingBlock = pcmCache.allocate();
+            if(recordingBlock == null)
+                return;
+            recordingBlockIndex = blockIndex;
+        }
+
+        recordingBlock.addFrame(source, 0, count, channels, sampleRate);
+        if(recordingBlock.isFull())
+            finishRecording(false);
+    }
+
+    /**
+     * Method that adds the block being filled to the cache when it is full or the song ended
+     */
+    private void finishRecording(boolean endOfTrack) {
+        if(recordingBlock == null)
+            return;
+        if(endOfTrack)
+            recordingBlock.setEndOfTrack();
+        if(recordingBlock.isFull() || endOfTrack) {
+            pcmCache.put(inputSource, recordingBlockIndex, recordingBlock);
+            recordingBlock = null;
+        }
+    }
+
+    /**
+     * Method that drops a block that was only partly filled
+     */
+    private void discardRecording() {
+        if(recordingBlock != null) {
+            pcmCache.discard(recordingBlock);
+            recordingBlock = null;
+        }
+    }
+
+    /**
+     * Method that unpins the block frames were read from
+     */
+    private void releaseCachedBlock() {
+        if(cachedBlock != null) {
+            pcmCache.unpin(cachedBlock);
+            cachedBlock = null;
+            cachedBlockIndex = -1;
+        }
+    }
+
+    /**
+     * Samples getter
+     * @return the interleaved samples of the last frame that was read
+     */
+    public short[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * Sample count getter
+     * @return the number of samples in getSamples() that belong to the last frame
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Frame getter
+     * @return the number of frames decoded from the start of the song
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Channels getter
+     * @return the number of channels, only known after the first frame was read
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Sample rate getter
+     * @return the sample rate, only known after the first frame was read
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Decoder getter
+     * @return the jlayer decoder, used to open an audio device
+     */
+    public Decoder getDecoder() {
+        return firstDecoder;
+    }
+
+    /**
+     * Song getter
+     * @return the song being decoded
+     */
+    public Song getSong() {
+        return song;
+    }
+
+    @Override
+    public void close() {
+        releaseCachedBlock();
+        discardRecording();
+        try {
+            bitstream.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        inputSource.release();
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.AudioDeviceBase;
+
+/**
+ * Wav File Output Class
+ * Writes the audio to a 16 bit pcm wav file instead of playing it, as fast as it is decoded.
+ * Works without a sound card, so the whole playback path can be run and its output checked
+ * on any machine. The sizes in the header are filled in when the device is closed.
+ * @author abhinavk
+ */
+public class WavFileOutput extends AudioDeviceBase implements AudioOutput {
+    private static final int HEADER_LENGTH = 44;
+
+    private final File file;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(1152 * 2 * 2).order(ByteOrder.LITTLE_ENDIAN);
+    private int channels;
+    private long dataBytes;
+
+    // read by the thread that asks for the position
+    private volatile int sampleRate;
+    private volatile long positionFrames;
+
+    /**
+     * Constructor
+     * @param file the file to write, it is replaced
+     */
+    public WavFileOutput(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Method that makes a factory for the playback engine, every device it makes after the
+     * first one writes its own file with a number added to the name
+     * @param file the file the first device writes
+     * @return the factory
+     */
+    public static PlaybackEngine.AudioDeviceFactory factory(File file) {
+        AtomicInteger devices = new AtomicInteger();
+        return () -> {
+            int device = devices.incrementAndGet();
+            if(device == 1)
+                return new WavFileOutput(file);
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            String numbered = dot > 0 ? name.substring(0, dot) + "-" + device + name.substring(dot) : name + "-" + device;
+            return new WavFileOutput(new File(file.getAbsoluteFile().getParentFile(), numbered));
+        };
+    }
+
+    /**
+     * Method that creates the file in the format of the decoder, once the first frame was decoded
+     */
+    private void openFile() throws JavaLayerException {
+        Decoder decoder = getDecoder();
+        sampleRate = decoder.getOutputFrequency();
+        channels = decoder.getOutputChannels();
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_LENGTH);
+        } catch (IOException e) {
+            throw new JavaLayerException("Couldn't create " + file, e);
+        }
+        dataBytes = 0;
+    }
+
+    @Override
+    protected void writeImpl(short[] samples, int offs, int len) throws JavaLayerException {
+        if(channel == null)
+            openFile();
+
+        if(buffer.capacity() < len * 2)
+            buffer = ByteBuffer.allocate(len * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.clear();
+        buffer.asShortBuffer().put(samples, offs, len);
+        buffer.limit(len * 2);
+        try {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new JavaLayerException("Couldn't write " + file, e);
+        }
+        dataBytes += len * 2;
+        positionFrames += len / channels;
+    }
+
+    @Override
+    public void drop() {
+        // everything written is in the file already, only the position starts over
+        positionFrames = 0;
+    }
+
+    @Override
+    protected void closeImpl() {
+        if(channel == null)
+            return;
+        try {
+            channel.write(header(), 0);
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /**
+     * Method that makes the wav header for the audio written so far
+     */
+    private ByteBuffer header() {
+        int blockAlign = channels * 2;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});
+        header.putInt((int) Math.min(0xFFFFFFFFL, 36 + dataBytes));
+        header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        header.putInt(16);
+        header.putShort((short) 1);
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) 16);
+        header.put(new byte[] {'d', 'a', 't', 'a'});
+        header.putInt((int) Math.min(0xFFFFFFFFL, dataBytes));
+        header.flip();
+        return header;
+    }
+
+    @Override
+    public int getPosition() {
+        return sampleRate == 0 ? 0 : (int) (positionFrames * 1000 / sampleRate);
+    }
+
+    @Override
+    public int getLatencyMillis() {
+        return 0;
+    }
+
+    @Override
+    public long getUnderruns() {
+        return 0;
+    }
+
+    /**
+     * File getter
+     * @return the file the audio is written to
+     */
+    public File getFile() {
+        return file;
+    }
+}
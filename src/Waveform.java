@@ -0,0 +1,301 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.DecoderException;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.SampleBuffer;
+
+/**
+ * Waveform Class
+ * Overview of a song's loudness: the lowest and highest sample of every bucket of frames.
+ * The song is split into ranges of frames that are decoded in parallel, every range starts
+ * at its own byte offset from the frame index, and the buckets fill in as the ranges finish.
+ * Finished waveforms are stored as small peak files next to the library cache, so a song
+ * is only decoded for its waveform once.
+ *
+ * The threads run at low priority and leave one core free, so playback isn't slowed down.
+ * @author abhinavk
+ */
+public class Waveform {
+    // buckets of a waveform, a few per pixel of the slider
+    public static final int BUCKETS = 1000;
+
+    // "MPWF" in ascii, used to recognize the peak files
+    private static final int MAGIC = 0x4D505746;
+    private static final int VERSION = 1;
+
+    // ranges a song is split into, more than threads so the work evens out
+    private static final int RANGES = 32;
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), lowPriority(PlaylistLoader.daemonThreadFactory("waveform")));
+
+    private final byte[] minimums;
+    private final byte[] maximums;
+    private final CompletableFuture<Waveform> done = new CompletableFuture<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Interface used to hear about a waveform filling in
+     */
+    public interface Listener {
+        /**
+         * Called from a waveform thread whenever more buckets are ready
+         * @param waveform the waveform
+         */
+        void waveformUpdated(Waveform waveform);
+    }
+
+    private Waveform(int buckets) {
+        minimums = new byte[buckets];
+        maximums = new byte[buckets];
+    }
+
+    /**
+     * Method that gets the waveform of a song, from its peak file or by decoding it in the background
+     * @param song the song
+     * @param listener hears about the buckets that are ready, can be null
+     * @return the waveform, empty at first
+     */
+    public static Waveform load(Song song, Listener listener) {
+        Mp3Metadata metadata = song.getMetadata();
+        if(metadata == null || metadata.getFrameCount() == 0) {
+            Waveform empty = new Waveform(0);
+            empty.done.complete(empty);
+            return empty;
+        }
+
+        Waveform waveform = new Waveform(Math.min(BUCKETS, metadata.getFrameCount()));
+        POOL.execute(() -> {
+            File peakFile = null;
+            try {
+                File file = new File(song.getFilePath());
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                peakFile = new File(new File(LibraryCache.getCacheDir(), "waveforms"),
+                        LibraryCache.fileKey(file.getAbsolutePath(), attributes) + ".peaks");
+                if(peakFile.isFile() && waveform.read(peakFile)) {
+                    if(listener != null)
+                        listener.waveformUpdated(waveform);
+                    waveform.done.complete(waveform);
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Couldn't read the waveform of " + song.getFilePath() + ": " + e.getMessage());
+            }
+
+            File target = peakFile;
+            waveform.decode(song, POOL, listener);
+            waveform.done.thenRun(() -> {
+                if(target != null && !waveform.cancelled)
+                    waveform.write(target);
+            });
+        });
+        return waveform;
+    }
+
+    /**
+     * Method that decodes a song for its waveform without looking at or writing peak files
+     * @param song the song
+     * @param pool the threads that decode the ranges
+     * @param listener hears about the buckets that are ready, can be null
+     * @return the waveform, empty at first
+     */
+    static Waveform generate(Song song, ExecutorService pool, Listener listener) {
+        Waveform waveform = new Waveform(Math.min(BUCKETS, Math.max(0, song.getFrameCount())));
+        waveform.decode(song, pool, listener);
+        return waveform;
+    }
+
+    /**
+     * Method that splits the song into ranges of whole buckets and decodes them on the pool
+     */
+    private void decode(Song song, ExecutorService pool, Listener listener) {
+        FrameIndex frameIndex = song.getFrameIndex();
+        int buckets = minimums.length;
+        if(frameIndex == null || buckets == 0) {
+            done.complete(this);
+            return;
+        }
+
+        int ranges = Math.min(RANGES, buckets);
+        AtomicInteger rangesLeft = new AtomicInteger(ranges);
+        for(int range = 0; range < ranges; range++) {
+            int firstBucket = (int) ((long) range * buckets / ranges);
+            int endBucket = (int) ((long) (range + 1) * buckets / ranges);
+            pool.execute(() -> {
+                try {
+                    if(!cancelled)
+                        decodeRange(song, frameIndex, firstBucket, endBucket);
+                } catch (Exception e) {
+                    // the buckets of a range that can't be decoded stay flat
+                    System.err.println("Couldn't decode the waveform of " + song.getFilePath() + ": " + e.getMessage());
+                }
+                if(listener != null && !cancelled)
+                    listener.waveformUpdated(this);
+                if(rangesLeft.decrementAndGet() == 0)
+                    done.complete(this);
+            });
+        }
+    }
+
+    /**
+     * Method that decodes the frames of a range of buckets and keeps their peaks
+     */
+    private void decodeRange(Song song, FrameIndex frameIndex, int firstBucket, int endBucket) throws Exception {
+        int frameCount = song.getFrameCount();
+        int buckets = minimums.length;
+        int firstFrame = firstFrameOf(firstBucket, frameCount, buckets);
+        int endFrame = Math.min(frameCount, firstFrameOf(endBucket, frameCount, buckets));
+        int frame = Math.max(0, firstFrame - TrackDecoder.WARMUP_FRAMES);
+
+        Mp3InputSource inputSource = Mp3InputSource.acquire(song.getFilePath());
+        Bitstream bitstream = new Bitstream(inputSource.openStream(frame == 0
+                ? song.getMetadata().getAudioStartOffset() : frameIndex.getOffset(frame)));
+        try {
+            Decoder decoder = new Decoder();
+            for(; frame < endFrame && !cancelled; frame++) {
+                Header header = bitstream.readFrame();
+                if(header == null)
+                    break;
+                SampleBuffer output;
+                try {
+                    output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+                } catch (DecoderException | RuntimeException e) {
+                    // a broken frame only leaves a gap, the frames after it are still drawn
+                    continue;
+                } finally {
+                    bitstream.closeFrame();
+                }
+                if(frame < firstFrame)
+                    continue;
+
+                // bucket of this frame, the inverse of firstFrameOf()
+                int bucket = (int) ((long) frame * buckets / frameCount);
+                short[] samples = output.getBuffer();
+                int min = 0, max = 0;
+                for(int i = 0; i < output.getBufferLength(); i++) {
+                    if(samples[i] < min)
+                        min = samples[i];
+                    if(samples[i] > max)
+                        max = samples[i];
+                }
+                // 8 bits are plenty to draw it
+                minimums[bucket] = (byte) Math.min(minimums[bucket], min >> 8);
+                maximums[bucket] = (byte) Math.max(maximums[bucket], max >> 8);
+            }
+        } finally {
+            bitstream.close();
+            inputSource.release();
+        }
+    }
+
+    /**
+     * Method that gets the first frame that belongs to a bucket
+     */
+    private static int firstFrameOf(int bucket, int frameCount, int buckets) {
+        return (int) (((long) bucket * frameCount + buckets - 1) / buckets);
+    }
+
+    /**
+     * Method that stops decoding, for a waveform that isn't shown anymore
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Buckets getter
+     * @return the number of buckets, 0 if the song couldn't be read
+     */
+    public int getBuckets() {
+        return minimums.length;
+    }
+
+    /**
+     * Minimum getter
+     * @param bucket the bucket
+     * @return the lowest sample of the bucket, -128 to 0, 0 while it isn't decoded yet
+     */
+    public int getMinimum(int bucket) {
+        return minimums[bucket];
+    }
+
+    /**
+     * Maximum getter
+     * @param bucket the bucket
+     * @return the highest sample of the bucket, 0 to 127, 0 while it isn't decoded yet
+     */
+    public int getMaximum(int bucket) {
+        return maximums[bucket];
+    }
+
+    /**
+     * Method that tells when every bucket is ready
+     * @return completes when the waveform was read or decoded
+     */
+    public CompletableFuture<Waveform> whenDone() {
+        return done;
+    }
+
+    /**
+     * Method that fills the buckets from a peak file
+     * @return false if the file is of another version or has another number of buckets
+     */
+    private boolean read(File peakFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(peakFile)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != minimums.length)
+                return false;
+            in.readFully(minimums);
+            in.readFully(maximums);
+            return true;
+        }
+    }
+
+    /**
+     * Method that stores the buckets in a peak file, written to a temp file first so it is never half written
+     */
+    private void write(File peakFile) {
+        try {
+            Files.createDirectories(peakFile.getParentFile().toPath());
+            File tempFile = File.createTempFile(peakFile.getName(), ".tmp", peakFile.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(minimums.length);
+                out.write(minimums);
+                out.write(maximums);
+            }
+            Files.move(tempFile.toPath(), peakFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // decoded again next time
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method that makes the threads of a factory run at the lowest priority
+     */
+    private static ThreadFactory lowPriority(ThreadFactory threadFactory) {
+        return runnable -> {
+            Thread thread = threadFactory.newThread(runnable);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        };
+    }
+}
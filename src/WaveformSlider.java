@@ -0,0 +1,104 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Insets;
+
+import javax.swing.JSlider;
+
+/**
+ * Waveform Slider Class
+ * Playback slider that draws the waveform of the song behind its track, the part that
+ * was already played darker than the rest. Buckets that aren't decoded yet are left out,
+ * so the waveform fills in while it is being made.
+ * @author abhinavk
+ */
+public class WaveformSlider extends JSlider {
+    private static final Color PLAYED_COLOR = new Color(0, 0, 0, 110);
+    private static final Color UNPLAYED_COLOR = new Color(0, 0, 0, 45);
+
+    // the track ends about half a thumb in from the sides
+    private static final int TRACK_MARGIN = 8;
+
+    // height of the part above the labels the waveform is drawn in
+    private static final int WAVEFORM_HEIGHT = 20;
+
+    private Waveform waveform;
+
+    /**
+     * Constructor
+     * @param min the lowest value
+     * @param max the highest value
+     * @param value the value to start with
+     */
+    public WaveformSlider(int min, int max, int value) {
+        super(HORIZONTAL, min, max, value);
+    }
+
+    /**
+     * Waveform setter
+     * @param waveform the waveform to draw, null for none
+     */
+    public void setWaveform(Waveform waveform) {
+        this.waveform = waveform;
+        repaint();
+    }
+
+    /**
+     * Waveform getter
+     * @return the waveform that is drawn, null for none
+     */
+    public Waveform getWaveform() {
+        return waveform;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        // the background, then the waveform, then the track and thumb on top of it
+        if(isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        paintWaveform(g);
+        if(ui != null) {
+            Graphics sliderGraphics = g.create();
+            try {
+                ui.paint(sliderGraphics, this);
+            } finally {
+                sliderGraphics.dispose();
+            }
+        }
+    }
+
+    /**
+     * Method that draws one line per pixel from the lowest to the highest sample of its buckets
+     */
+    private void paintWaveform(Graphics g) {
+        Waveform waveform = this.waveform;
+        if(waveform == null || waveform.getBuckets() == 0)
+            return;
+
+        Insets insets = getInsets();
+        int left = insets.left + TRACK_MARGIN;
+        int width = getWidth() - insets.right - TRACK_MARGIN - left;
+        if(width <= 0)
+            return;
+        int center = insets.top + WAVEFORM_HEIGHT / 2;
+        int buckets = waveform.getBuckets();
+        int range = getMaximum() - getMinimum();
+        int playedWidth = range > 0 ? (int) ((long) (getValue() - getMinimum()) * width / range) : 0;
+
+        for(int x = 0; x < width; x++) {
+            int firstBucket = (int) ((long) x * buckets / width);
+            int endBucket = Math.max(firstBucket + 1, (int) ((long) (x + 1) * buckets / width));
+            int min = 0, max = 0;
+            for(int bucket = firstBucket; bucket < endBucket && bucket < buckets; bucket++) {
+                min = Math.min(min, waveform.getMinimum(bucket));
+                max = Math.max(max, waveform.getMaximum(bucket));
+            }
+            if(min == 0 && max == 0)
+                continue;
+
+            g.setColor(x < playedWidth ? PLAYED_COLOR : UNPLAYED_COLOR);
+            g.drawLine(left + x, center - max * WAVEFORM_HEIGHT / 256, left + x, center - min * WAVEFORM_HEIGHT / 256);
+        }
+    }
+}